@@ -26,9 +26,9 @@ def verify_input(input_args):
     if check_bandwidth(input_args.bandwidth) is None:
         response += "Error: {0} does not match format {1}\n".format("Bandwidth", "e.g. 2")
     if check_time(input_args.startTime) is None:
-        response += "Error: {0} does not match format {1}\n".format("Start Time", "e.g. 11:20")
+        response += "Error: {0} does not match format {1}\n".format("Start Time", "e.g. 11:20 or 2016-05-01T11:20:00Z")
     if check_time(input_args.endTime) is None:
-        response += "Error: {0} does not match format {1}\n".format("End Time", "e.g. 13:27")
+        response += "Error: {0} does not match format {1}\n".format("End Time", "e.g. 13:27 or 2016-05-01T13:27:00Z")
 
     return response
 
@@ -44,7 +44,7 @@ def check_mac(mac_string):
 
 
 def check_time(time_string):
-    pattern = re.compile("^\d{2}:\d{2}$")
+    pattern = re.compile("^(\d{4}-\d{2}-\d{2}T\d{2}:\d{2}(:\d{2}(\.\d{3})?)?(Z|[+-]\d{2}:\d{2})?|\d{2}:\d{2})$")
     return pattern.match(time_string)
 
 
@@ -60,8 +60,8 @@ def build_parser():
     arg_parser.add_argument("dstIP", help="IP address of destination host (e.g. 10.0.0.2)")
     arg_parser.add_argument("dstMAC", help="MAC address of destination host (e.g. 00:00:00:00:00:02)")
     arg_parser.add_argument("bandwidth", help="Requested bandwidth in Gbps (e.g. 2 Gbps)")
-    arg_parser.add_argument("startTime", help="Start time in HH:mm format (e.g. 11:20 for 11:20 AM)")
-    arg_parser.add_argument("endTime", help="Ending time in HH:mm format (e.g. 13:27 for 1:27 PM)")
+    arg_parser.add_argument("startTime", help="Start time in ISO-8601 or HH:mm format (e.g. 2016-05-01T11:20:00Z, or 11:20 for 11:20 AM today)")
+    arg_parser.add_argument("endTime", help="Ending time in ISO-8601 or HH:mm format (e.g. 2016-05-01T13:27:00Z, or 13:27 for the next 1:27 PM after the start)")
     return arg_parser
 
 
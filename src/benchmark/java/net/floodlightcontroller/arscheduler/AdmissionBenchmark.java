@@ -0,0 +1,171 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.slf4j.helpers.NOPLogger;
+
+/**
+ * Throughput of the admission pipeline, ShortestPathEngine and link bookings included, on synthetic topologies
+ * already holding a number of reservations. Each operation admits, or releases, one reservation between two
+ * random hosts at a random time within a day.
+ * Run with "-prof gc" for the allocation rate, and "-rf json" to keep the results.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AdmissionBenchmark
+{
+	static final long HORIZON_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+	/**
+	 * Shape of the topology, see SyntheticTopology.build
+	 */
+	@Param({"fatTree", "leafSpine", "ring", "mesh"})
+	public String topology;
+	/**
+	 * Reservations admitted before measuring
+	 */
+	@Param({"0", "1000", "10000"})
+	public int reservations;
+	/**
+	 * Slot length of the links' bookings in seconds, 0 to book exact times
+	 */
+	@Param({"0"})
+	public long slotSeconds;
+	/**
+	 * Whether link availability is checked as the path search relaxes each edge, rather than before it
+	 */
+	@Param({"true"})
+	public boolean lazyLinkEvaluation;
+
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+	private ArrayList<Node> hosts;
+	private Random random;
+
+	/**
+	 * The reservation admitted by the last invocation of schedule, released before the next one so the schedule
+	 * keeps its size
+	 */
+	@State(Scope.Thread)
+	public static class Admitted
+	{
+		FlowRouteTuple tuple;
+
+		@Setup(Level.Invocation)
+		public void releaseLast(AdmissionBenchmark benchmark)
+		{
+			if(tuple != null)
+				benchmark.scheduler.releaseExpiredFlow(tuple);
+			tuple = null;
+		}
+	}
+
+	/**
+	 * A reservation admitted for the next invocation of release to take back
+	 */
+	@State(Scope.Thread)
+	public static class ToRelease
+	{
+		FlowRouteTuple tuple;
+
+		@Setup(Level.Invocation)
+		public void admitOne(AdmissionBenchmark benchmark)
+		{
+			Flow flow = null;
+			while(flow == null)
+			{
+				flow = benchmark.scheduler.scheduleNewFlow(benchmark.randomFlow());
+			}
+			tuple = benchmark.rm.getFlowFromRM(flow);
+		}
+	}
+
+	@Setup(Level.Trial)
+	public void buildTopology()
+	{
+		SyntheticTopology synthetic = SyntheticTopology.build(topology, TimeUnit.SECONDS.toMillis(slotSeconds), 2 * HORIZON_MILLIS);
+		hosts = synthetic.getHosts();
+		rm = new ResourceManager(NOPLogger.NOP_LOGGER);
+		rm.intializeState(synthetic.getTopology());
+		scheduler = new FlowScheduler(rm, NOPLogger.NOP_LOGGER);
+		scheduler.setLazyLinkEvaluation(lazyLinkEvaluation);
+		random = new Random(42);
+
+		for(int i = 0; i < reservations; i++)
+		{
+			scheduler.scheduleNewFlow(randomFlow());
+		}
+	}
+
+	/**
+	 * Admit a reservation and release it again, leaving the schedule as it was
+	 * @return the admitted Flow, null if it did not fit
+	 */
+	@Benchmark
+	public Flow scheduleAndRelease()
+	{
+		Flow flow = scheduler.scheduleNewFlow(randomFlow());
+		if(flow != null)
+			scheduler.releaseExpiredFlow(rm.getFlowFromRM(flow));
+		return flow;
+	}
+
+	/**
+	 * Admit a reservation. The invocation setup releases it again, outside the measurement.
+	 * @param admitted
+	 * @return the admitted Flow, null if it did not fit
+	 */
+	@Benchmark
+	public Flow schedule(Admitted admitted)
+	{
+		Flow flow = scheduler.scheduleNewFlow(randomFlow());
+		if(flow != null)
+			admitted.tuple = rm.getFlowFromRM(flow);
+		return flow;
+	}
+
+	/**
+	 * Release a reservation admitted by the invocation setup
+	 * @param toRelease
+	 * @return whether it was released
+	 */
+	@Benchmark
+	public boolean release(ToRelease toRelease)
+	{
+		return scheduler.releaseExpiredFlow(toRelease.tuple);
+	}
+
+	/**
+	 * A 1 Gbps Flow between two distinct random hosts, lasting one to sixty minutes within the next day
+	 */
+	private Flow randomFlow()
+	{
+		Node src = hosts.get(random.nextInt(hosts.size()));
+		Node dst = src;
+		while(dst == src)
+		{
+			dst = hosts.get(random.nextInt(hosts.size()));
+		}
+		long duration = TimeUnit.MINUTES.toMillis(1 + random.nextInt(60));
+		long start = (long) (random.nextDouble() * (HORIZON_MILLIS - duration));
+		return new Flow(src, dst, FlowScheduler.BANDWIDTH_UNIT, start, start + duration, "10.0.0.1", "10.0.0.2");
+	}
+}
@@ -0,0 +1,255 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Random;
+
+/**
+ * Builds synthetic topologies of the usual data centre and WAN shapes for the benchmarks, without a controller.
+ * Every switch-switch and host-switch connection is a pair of FlowLinks, one in each direction, as the
+ * TopologyBuilder makes them from Floodlight's view of the network.
+ */
+public class SyntheticTopology
+{
+	/**
+	 * Capacity of a host's link to its switch, in bits per second
+	 */
+	static final long HOST_LINK_CAPACITY = 10 * FlowScheduler.BANDWIDTH_UNIT;
+	/**
+	 * Capacity of a link between two switches, in bits per second
+	 */
+	static final long FABRIC_LINK_CAPACITY = 40 * FlowScheduler.BANDWIDTH_UNIT;
+
+	private ArrayList<Node> nodes = new ArrayList<Node>();
+	private ArrayList<Node> hosts = new ArrayList<Node>();
+	private ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+	private HashMap<Node, Integer> usedPorts = new HashMap<Node, Integer>();
+	private HashSet<String> connected = new HashSet<String>();
+	/**
+	 * Slot length of the links' bookings in milliseconds, 0 to book exact times
+	 */
+	private long slotMillis;
+	private long horizonMillis;
+
+	/**
+	 * Start an empty topology
+	 * @param slotMillis - slot length of the links' bookings, 0 to book exact times
+	 * @param horizonMillis - how far ahead slotted links can be booked
+	 */
+	private SyntheticTopology(long slotMillis, long horizonMillis)
+	{
+		this.slotMillis = slotMillis;
+		this.horizonMillis = horizonMillis;
+	}
+
+	/**
+	 * Build a topology by the name of its shape, sized for benchmarking
+	 * @param shape - "fatTree", "leafSpine", "ring" or "mesh"
+	 * @param slotMillis - slot length of the links' bookings, 0 to book exact times
+	 * @param horizonMillis - how far ahead slotted links can be booked
+	 * @return the builder, holding the topology and its hosts
+	 */
+	public static SyntheticTopology build(String shape, long slotMillis, long horizonMillis)
+	{
+		SyntheticTopology topology = new SyntheticTopology(slotMillis, horizonMillis);
+		switch(shape)
+		{
+		case "fatTree":
+			topology.fatTree(8);
+			break;
+		case "leafSpine":
+			topology.leafSpine(4, 16, 8);
+			break;
+		case "ring":
+			topology.ring(32, 2);
+			break;
+		case "mesh":
+			topology.randomMesh(64, 4, 1);
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown topology shape: " + shape);
+		}
+		return topology;
+	}
+
+	/**
+	 * A k-ary fat-tree: k pods of k/2 edge and k/2 aggregation switches, (k/2)^2 core switches, and k/2 hosts
+	 * on every edge switch
+	 * @param k - an even number of ports per switch
+	 */
+	void fatTree(int k)
+	{
+		int half = k / 2;
+		Node[] core = new Node[half * half];
+		for(int c = 0; c < core.length; c++)
+		{
+			core[c] = addSwitch(k);
+		}
+		for(int pod = 0; pod < k; pod++)
+		{
+			Node[] aggregation = new Node[half];
+			for(int a = 0; a < half; a++)
+			{
+				aggregation[a] = addSwitch(k);
+				for(int c = 0; c < half; c++)
+				{
+					connect(aggregation[a], core[a * half + c], FABRIC_LINK_CAPACITY);
+				}
+			}
+			for(int e = 0; e < half; e++)
+			{
+				Node edge = addSwitch(k);
+				for(Node up : aggregation)
+				{
+					connect(edge, up, FABRIC_LINK_CAPACITY);
+				}
+				addHosts(edge, half);
+			}
+		}
+	}
+
+	/**
+	 * A leaf-spine fabric with every leaf connected to every spine
+	 * @param spines
+	 * @param leaves
+	 * @param hostsPerLeaf
+	 */
+	void leafSpine(int spines, int leaves, int hostsPerLeaf)
+	{
+		Node[] spine = new Node[spines];
+		for(int s = 0; s < spines; s++)
+		{
+			spine[s] = addSwitch(leaves);
+		}
+		for(int l = 0; l < leaves; l++)
+		{
+			Node leaf = addSwitch(spines + hostsPerLeaf);
+			for(Node up : spine)
+			{
+				connect(leaf, up, FABRIC_LINK_CAPACITY);
+			}
+			addHosts(leaf, hostsPerLeaf);
+		}
+	}
+
+	/**
+	 * A ring of switches, as in a metro WAN
+	 * @param switches
+	 * @param hostsPerSwitch
+	 */
+	void ring(int switches, int hostsPerSwitch)
+	{
+		Node[] ring = new Node[switches];
+		for(int s = 0; s < switches; s++)
+		{
+			ring[s] = addSwitch(2 + hostsPerSwitch);
+			addHosts(ring[s], hostsPerSwitch);
+		}
+		for(int s = 0; s < switches; s++)
+		{
+			connect(ring[s], ring[(s + 1) % switches], FABRIC_LINK_CAPACITY);
+		}
+	}
+
+	/**
+	 * A random mesh of switches: a ring, so the mesh is connected, plus random links until each switch has about
+	 * the given degree. The same seed always gives the same mesh.
+	 * @param switches
+	 * @param degree
+	 * @param hostsPerSwitch
+	 */
+	void randomMesh(int switches, int degree, int hostsPerSwitch)
+	{
+		Random random = new Random(switches * 31L + degree);
+		Node[] mesh = new Node[switches];
+		for(int s = 0; s < switches; s++)
+		{
+			mesh[s] = addSwitch(2 * degree + hostsPerSwitch);
+			addHosts(mesh[s], hostsPerSwitch);
+		}
+		for(int s = 0; s < switches; s++)
+		{
+			connect(mesh[s], mesh[(s + 1) % switches], FABRIC_LINK_CAPACITY);
+		}
+		int extra = switches * (degree - 2) / 2;
+		for(int tries = 0; extra > 0 && tries < 100 * switches; tries++)
+		{
+			Node a = mesh[random.nextInt(switches)];
+			Node b = mesh[random.nextInt(switches)];
+			if(a != b && connect(a, b, FABRIC_LINK_CAPACITY))
+				extra--;
+		}
+	}
+
+	private Node addSwitch(int ports)
+	{
+		// Spare ports, as a random mesh may give a switch more links than its average degree
+		Node sw = new Switch(String.format("00:00:00:00:00:00:%02x:%02x", nodes.size() >> 8, nodes.size() & 0xff), 2 * ports);
+		nodes.add(sw);
+		return sw;
+	}
+
+	private void addHosts(Node sw, int count)
+	{
+		for(int h = 0; h < count; h++)
+		{
+			Node host = new Host(String.format("00:00:00:00:%02x:%02x", hosts.size() >> 8, hosts.size() & 0xff), 1);
+			nodes.add(host);
+			hosts.add(host);
+			connect(host, sw, HOST_LINK_CAPACITY);
+		}
+	}
+
+	/**
+	 * Join two nodes with a link in each direction, on the next free port of each
+	 * @return False if the nodes were already joined or either is out of ports
+	 */
+	private boolean connect(Node a, Node b, long capacity)
+	{
+		String key = a.getID() < b.getID() ? a.getID() + "-" + b.getID() : b.getID() + "-" + a.getID();
+		if(connected.contains(key))
+			return false;
+		Port aPort = a.getPortByID(nextPort(a));
+		Port bPort = b.getPortByID(nextPort(b));
+		if(aPort == null || bPort == null)
+			return false;
+		connected.add(key);
+		links.add(new FlowLink("(" + a.getNodeName() + ", " + b.getNodeName() + ")", a, b, aPort, bPort, capacity, newBandwidthUsage()));
+		links.add(new FlowLink("(" + b.getNodeName() + ", " + a.getNodeName() + ")", b, a, bPort, aPort, capacity, newBandwidthUsage()));
+		return true;
+	}
+
+	private int nextPort(Node node)
+	{
+		Integer used = usedPorts.get(node);
+		int port = used == null ? 1 : used + 1;
+		usedPorts.put(node, port);
+		return port;
+	}
+
+	private BandwidthUsage newBandwidthUsage()
+	{
+		if(slotMillis > 0)
+			return new SlottedBandwidthTimeline(slotMillis, horizonMillis, 0);
+		return new BandwidthTimeline();
+	}
+
+	/**
+	 * Get the topology built
+	 * @return a new Topology over the nodes and links
+	 */
+	public Topology getTopology()
+	{
+		return new Topology(new ArrayList<Node>(nodes), new ArrayList<FlowLink>(links));
+	}
+
+	/**
+	 * Get the hosts of the topology, the possible ends of a Flow
+	 * @return the hosts
+	 */
+	public ArrayList<Node> getHosts()
+	{
+		return hosts;
+	}
+}
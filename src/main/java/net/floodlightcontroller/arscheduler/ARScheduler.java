@@ -1,20 +1,31 @@
 package net.floodlightcontroller.arscheduler;
 
+import java.io.File;
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.concurrent.TimeUnit;
 import org.projectfloodlight.openflow.protocol.OFFactories;
 import org.projectfloodlight.openflow.protocol.OFFactory;
+import org.projectfloodlight.openflow.protocol.OFFlowRemoved;
 import org.projectfloodlight.openflow.protocol.OFMessage;
-import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFType;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.types.DatapathId;
+import org.projectfloodlight.openflow.types.U64;
+import org.sdnplatform.sync.ISyncService;
+import org.sdnplatform.sync.error.SyncException;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import net.floodlightcontroller.core.FloodlightContext;
+import net.floodlightcontroller.core.HARole;
 import net.floodlightcontroller.core.IFloodlightProviderService;
 import net.floodlightcontroller.core.IOFMessageListener;
 import net.floodlightcontroller.core.IOFSwitch;
@@ -23,13 +34,18 @@ import net.floodlightcontroller.core.module.FloodlightModuleContext;
 import net.floodlightcontroller.core.module.FloodlightModuleException;
 import net.floodlightcontroller.core.module.IFloodlightModule;
 import net.floodlightcontroller.core.module.IFloodlightService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
 import net.floodlightcontroller.devicemanager.IDevice;
 import net.floodlightcontroller.devicemanager.IDeviceService;
 import net.floodlightcontroller.linkdiscovery.ILinkDiscoveryService;
 import net.floodlightcontroller.restserver.IRestApiService;
 import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.threadpool.IThreadPoolService;
 import net.floodlightcontroller.topology.ITopologyService;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 
 
 
@@ -58,6 +74,9 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	protected IDeviceService deviceManagerService;
 	protected IOFSwitchService switchService;
 	protected IRestApiService restApiService;
+	protected IThreadPoolService threadPoolService;
+	protected ISyncService syncService;
+	protected IDebugCounterService debugCounterService;
 	protected static Logger logger;
 	protected OFFactory of13Factory;
 	
@@ -86,6 +105,33 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	 */
 	protected FlowProvisioner flowProvisioner;
 	
+	/*
+	 * Queue Allocator - books switch queues at admission and hands them out at provisioning
+	 */
+	protected QueueAllocator queueAllocator;
+	
+	/*
+	 * Reservation Journal - keeps the schedule on disk across restarts, null if journaling is disabled
+	 */
+	protected ReservationJournal journal;
+	/*
+	 * Reservations loaded from the journal at startup, restored once the topology is first initialized
+	 */
+	protected ArrayList<ReservationRecord> reservationsToRestore;
+	/*
+	 * Whether the topology has been initialized since startup
+	 */
+	protected boolean stateInitialized;
+	
+	/*
+	 * Reservation Replicator - shares the schedule with the other controllers of an HA cluster, null if disabled
+	 */
+	protected ReservationReplicator replicator;
+	/**
+	 * Debug counters and latency histograms of admissions and activations
+	 */
+	protected ARSchedulerMetrics metrics;
+	
 	/*
 	 * Topology Builder - constructs our view of the topology (i.e. FlowLinks versus Links,
 	 * which have additional information necessary for calculating the shortest available
@@ -93,6 +139,51 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	 */
 	protected TopologyBuilder topoBuilder;
 	
+	/*
+	 * Activation Scheduler - provisions each scheduled flow at its start time
+	 */
+	protected ActivationScheduler activationScheduler;
+	
+	/*
+	 * Topology Tracker - patches the topology as switches, links and hosts come and go
+	 */
+	protected TopologyTracker topologyTracker;
+	
+	/*
+	 * Module configuration
+	 */
+	protected static final String LAZY_LINK_EVALUATION_STR = "lazyLinkEvaluation";
+	protected static final String MAX_PATHS_PER_FLOW_STR = "maxPathsPerFlow";
+	protected static final String JOURNAL_DIRECTORY_STR = "journalDirectory";
+	protected static final String JOURNAL_COMPACTION_THRESHOLD_STR = "journalCompactionThreshold";
+	protected static final int DEFAULT_JOURNAL_COMPACTION_THRESHOLD = 10000;
+	protected static final String REPLICATE_RESERVATIONS_STR = "replicateReservations";
+	protected static final String RESERVATION_HORIZON_DAYS_STR = "reservationHorizonDays";
+	protected static final String LINK_USAGE_BACKEND_STR = "linkUsageBackend";
+	protected static final String LINK_USAGE_SLOT_SECONDS_STR = "linkUsageSlotSeconds";
+	protected static final long DEFAULT_LINK_USAGE_SLOT_SECONDS = 60;
+	protected static final long DEFAULT_RESERVATION_HORIZON_DAYS = 28;
+	protected static final String REOPTIMIZATION_INTERVAL_MINUTES_STR = "reoptimizationIntervalMinutes";
+	protected static final long DEFAULT_REOPTIMIZATION_INTERVAL_MINUTES = 0;
+	
+	/*
+	 * How far ahead reservations may end, in milliseconds
+	 */
+	protected long reservationHorizonMillis = TimeUnit.DAYS.toMillis(DEFAULT_RESERVATION_HORIZON_DAYS);
+	/*
+	 * How often the link timelines are pruned of the past, in milliseconds. Reservations that ended more than
+	 * this long ago without their FLOW_REMOVED are released at the same time.
+	 */
+	protected static final long PRUNE_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+	/*
+	 * How often reservations that have not started are rerouted to free bandwidth, in milliseconds, 0 if only on demand
+	 */
+	protected long reoptimizationIntervalMillis = TimeUnit.MINUTES.toMillis(DEFAULT_REOPTIMIZATION_INTERVAL_MINUTES);
+	/*
+	 * Reservations starting sooner than this are not rerouted, so their activation is never held up
+	 */
+	protected static final long REOPTIMIZATION_MIN_LEAD_MS = TimeUnit.SECONDS.toMillis(30);
+	
 	
 	 /* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
 	 * 
@@ -104,30 +195,313 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	
 	@Override
 	/**
-	 * Handles a new flow request by calling the Flow Scheduler and spawning a SchedulingThread if the request can be
+	 * Handles a new flow request by calling the Flow Scheduler and scheduling its activation if the request can be
 	 * scheduled successfully.
 	 */
 	public String handleNewFlow(Flow flow)
 	{
 		long flowID = flow.getID();
+		if(isStandby())
+		{
+			logger.warn("Rejecting Flow {}, admissions are made by the active controller", flowID);
+			metrics.reject(ARSchedulerMetrics.Rejection.STANDBY);
+			return "Flow " + flowID + " reservation FAILED";
+		}
+		if(!isWithinHorizon(flow))
+		{
+			metrics.reject(ARSchedulerMetrics.Rejection.OUTSIDE_HORIZON);
+			return "Flow " + flowID + " reservation FAILED";
+		}
 		flow = scheduler.scheduleNewFlow(flow);
 		
 		if(flow == null)
 			return "Flow " + flowID + " reservation FAILED";
 		else
 		{
-			int startHour = (int)(flow.getStartTime() / 60 / 60);
-			int startMinute = (int)(flow.getStartTime() / 60 % 60);
-			int startSecond = 0;	
-			
-			// Create and start Thread to delay scheduling in the flowProvisioner. The call commented out below is now done in ScheduleThread class.
-			SchedulingThread schedulingThread = new SchedulingThread(this, flow, startHour, startMinute, startSecond, logger);
-			/*this.flowProvisioner.provisionFlowPath(this.theRM.getFlowFromRM(flow), this.switchMap, this.switchQueueMap); */
+			metrics.accept();
+			FlowRouteTuple tuple = theRM.getFlowFromRM(flow);
+			if(journal != null)
+				journal.recordAdmit(tuple);
+			if(replicator != null)
+				replicator.publishAdmits(Collections.singletonList(tuple));
+			activationScheduler.scheduleActivation(flow, getMillisUntilStart(flow));
 			
 			return "Flow " + flow.getID() + " reservation SUCCESS";
 		}
 	}
 	
+	/**
+	 * Handles a batch of flow requests, admitting them together through the Flow Scheduler and scheduling
+	 * the activation of every flow that is accepted.
+	 */
+	@Override
+	public ArrayList<String> handleNewFlowBatch(ArrayList<Flow> flows, boolean transactional)
+	{
+		ArrayList<String> statuses = new ArrayList<String>(flows.size());
+		if(isStandby())
+		{
+			logger.warn("Rejecting a batch of {} Flows, admissions are made by the active controller", flows.size());
+			for(Flow flow : flows)
+			{
+				metrics.reject(ARSchedulerMetrics.Rejection.STANDBY);
+				statuses.add("Flow " + flow.getID() + " reservation FAILED");
+			}
+			return statuses;
+		}
+		// Flows outside the horizon are never submitted; in a transactional batch they fail the whole batch
+		ArrayList<Flow> submitted = new ArrayList<Flow>(flows.size());
+		for(Flow flow : flows)
+		{
+			if(isWithinHorizon(flow))
+				submitted.add(flow);
+			else
+				metrics.reject(ARSchedulerMetrics.Rejection.OUTSIDE_HORIZON);
+		}
+		ArrayList<Flow> submittedResults;
+		if(transactional && submitted.size() < flows.size())
+		{
+			// Nothing is admitted; the valid flows come back unscheduled and are reported as rolled back
+			submittedResults = new ArrayList<Flow>(submitted);
+		}
+		else
+			submittedResults = scheduler.scheduleNewFlows(submitted, transactional);
+		ArrayList<Flow> results = new ArrayList<Flow>(flows.size());
+		int next = 0;
+		for(Flow flow : flows)
+		{
+			if(next < submitted.size() && submitted.get(next) == flow)
+				results.add(submittedResults.get(next++));
+			else
+				results.add(null);
+		}
+		ArrayList<FlowRouteTuple> admitted = new ArrayList<FlowRouteTuple>();
+		
+		for(int i = 0; i < flows.size(); i++)
+		{
+			Flow flow = results.get(i);
+			if(flow == null)
+				statuses.add("Flow " + flows.get(i).getID() + " reservation FAILED");
+			else if(!flow.getSuccess())
+			{
+				metrics.reject(ARSchedulerMetrics.Rejection.ROLLED_BACK);
+				statuses.add("Flow " + flow.getID() + " reservation ROLLED BACK");
+			}
+			else
+			{
+				metrics.accept();
+				admitted.add(theRM.getFlowFromRM(flow));
+				activationScheduler.scheduleActivation(flow, getMillisUntilStart(flow));
+				statuses.add("Flow " + flow.getID() + " reservation SUCCESS");
+			}
+		}
+		if(journal != null)
+			journal.recordAdmits(admitted);
+		if(replicator != null)
+			replicator.publishAdmits(admitted);
+		return statuses;
+	}
+	
+	/**
+	 * Check that a flow has not ended and ends within the reservation horizon
+	 * @param flow
+	 * @return True if the flow may be admitted
+	 */
+	protected boolean isWithinHorizon(Flow flow)
+	{
+		long untilEnd = getMillisUntil(flow.getEndTime());
+		if(untilEnd <= 0)
+		{
+			logger.warn("Rejecting Flow {}, its end time has passed", flow.getID());
+			return false;
+		}
+		if(untilEnd > reservationHorizonMillis)
+		{
+			logger.warn("Rejecting Flow {}, it ends more than {} days ahead", flow.getID(), 
+					TimeUnit.MILLISECONDS.toDays(reservationHorizonMillis));
+			return false;
+		}
+		return true;
+	}
+	
+	/**
+	 * Provision a flow's path on the switches. Called by the ActivationScheduler at the flow's start time.
+	 * Flows that end beyond the longest OpenFlow hard timeout are also given an expiry at their end time.
+	 * @param flow
+	 * @return future completing once every switch on the path has confirmed its rules
+	 */
+	protected ListenableFuture<?> activateFlow(Flow flow)
+	{
+		FlowRouteTuple flowTuple = this.theRM.getFlowFromRM(flow);
+		if(flowTuple == null)
+			return Futures.immediateFailedFuture(new IllegalStateException("Flow " + flow.getID() + " is no longer reserved"));
+		long untilEnd = getMillisUntil(flow.getEndTime());
+		if(untilEnd > TimeUnit.SECONDS.toMillis(FlowProvisioner.MAX_HARD_TIMEOUT_SECONDS))
+			activationScheduler.scheduleExpiry(flow, untilEnd);
+		return this.flowProvisioner.provisionFlowPath(flowTuple, 
+				this.getFloodlightTopology().getSwitchMap());
+	}
+	
+	/**
+	 * Remove a flow's rules from the switches at its end time. Called by the ActivationScheduler for flows whose
+	 * rules carry no hard timeout; the FLOW_REMOVED replies release the reservation.
+	 * @param flow
+	 */
+	protected void expireFlow(Flow flow)
+	{
+		FlowRouteTuple flowTuple = this.theRM.getFlowFromRM(flow);
+		if(flowTuple == null)
+			return;
+		this.flowProvisioner.removeFlowPath(flowTuple, this.getFloodlightTopology().getSwitchMap());
+	}
+	
+	/**
+	 * Release reservations that ended long ago without their FLOW_REMOVED, then drop the past from every link's
+	 * timeline, so memory stays proportional to the reservations within the horizon.
+	 */
+	protected void pruneHistory()
+	{
+		long now = System.currentTimeMillis();
+		int stale = 0;
+		for(FlowRouteTuple tuple : theRM.getFlowTable().getAllFlowRouteTuples())
+		{
+			if(tuple.getFlow().getEndTime() < now - PRUNE_INTERVAL_MS)
+			{
+				releaseExpiredFlow(tuple);
+				stale++;
+			}
+		}
+		int dropped = theRM.pruneBefore(now);
+		if(stale > 0)
+			logger.warn("Released {} reservations that ended without a FLOW_REMOVED", stale);
+		logger.debug("Pruned {} past timeline breakpoints", dropped);
+	}
+	
+	/**
+	 * Get the number of milliseconds from now until a flow's start time.
+	 * @param flow
+	 * @return milliseconds until the flow starts, negative if the start time has passed
+	 */
+	protected long getMillisUntilStart(Flow flow)
+	{
+		return getMillisUntil(flow.getStartTime());
+	}
+	
+	/**
+	 * Get the number of milliseconds from now until a time.
+	 * @param timeMillis - milliseconds since the epoch
+	 * @return milliseconds until that time, negative if it has passed
+	 */
+	protected long getMillisUntil(long timeMillis)
+	{
+		return timeMillis - System.currentTimeMillis();
+	}
+	
+	/**
+	 * Get the number of scheduled flows waiting for their start time.
+	 */
+	@Override
+	public int getPendingActivationCount()
+	{
+		return activationScheduler.getPendingActivationCount();
+	}
+	
+	/**
+	 * Get counts and install latencies of the flows activated so far.
+	 */
+	@Override
+	public Map<String, Long> getActivationStatistics()
+	{
+		return activationScheduler.getActivationStatistics();
+	}
+	
+	/**
+	 * Get the debug counters and latency histograms of the admission pipeline
+	 */
+	@Override
+	public ARSchedulerMetrics getMetrics()
+	{
+		return metrics;
+	}
+	
+	/**
+	 * Reroute reservations that have not started onto paths that leave more bandwidth free, most constrained first,
+	 * using the links' current timelines. Each Flow's pending activation is held while it moves and then scheduled
+	 * again, so it provisions whichever path the Flow holds when it starts. Only one pass runs at a time.
+	 */
+	@Override
+	public synchronized Map<String, Long> reoptimizeReservations()
+	{
+		long started = System.currentTimeMillis();
+		Map<String, Long> result = new LinkedHashMap<String, Long>();
+		if(isStandby() || theRM.getTopology() == null)
+		{
+			result.put("candidates", 0L);
+			result.put("rerouted", 0L);
+			return result;
+		}
+		
+		final HashMap<FlowRouteTuple, Long> headrooms = new HashMap<FlowRouteTuple, Long>();
+		for(FlowRouteTuple tuple : theRM.getFlowTable().getAllFlowRouteTuples())
+		{
+			if(!tuple.isMultipath() && getMillisUntilStart(tuple.getFlow()) > REOPTIMIZATION_MIN_LEAD_MS)
+				headrooms.put(tuple, scheduler.getHeadroom(tuple));
+		}
+		ArrayList<FlowRouteTuple> candidates = new ArrayList<FlowRouteTuple>(headrooms.keySet());
+		Collections.sort(candidates, new Comparator<FlowRouteTuple>() {
+			@Override
+			public int compare(FlowRouteTuple a, FlowRouteTuple b)
+			{
+				return Long.compare(headrooms.get(a), headrooms.get(b));
+			}
+		});
+		
+		long rerouted = 0;
+		for(FlowRouteTuple tuple : candidates)
+		{
+			Flow flow = tuple.getFlow();
+			// Without a pending activation the Flow is being provisioned right now, or was cancelled
+			if(!activationScheduler.cancelActivation(flow.getID()))
+				continue;
+			FlowRouteTuple movedTuple = scheduler.rerouteReservation(tuple);
+			if(movedTuple != null)
+			{
+				rerouted++;
+				if(journal != null)
+					journal.recordAdmit(movedTuple);
+				if(replicator != null)
+					replicator.publishModify(movedTuple);
+			}
+			if(theRM.getFlowTable().matchFlow(flow.getID()) != null)
+				activationScheduler.scheduleActivation(flow, getMillisUntilStart(flow));
+		}
+		
+		result.put("candidates", (long) candidates.size());
+		result.put("rerouted", rerouted);
+		result.put("durationMillis", System.currentTimeMillis() - started);
+		logger.info("Rerouted {} of {} reservations waiting to start", rerouted, candidates.size());
+		return result;
+	}
+	
+	/**
+	 * Get a snapshot of link availability from the Resource Manager, for dry runs
+	 */
+	@Override
+	public AvailabilitySnapshot getAvailabilitySnapshot()
+	{
+		return theRM.getAvailabilitySnapshot();
+	}
+	
+	/**
+	 * Find the earliest start time at which a reservation could be scheduled through the Flow Scheduler
+	 */
+	@Override
+	public long findEarliestStart(Node source, Node dest, long bandwidth, long duration, long earliestStart, long latestEnd)
+	{
+		long now = System.currentTimeMillis();
+		return scheduler.findEarliestStart(source, dest, bandwidth, duration, Math.max(earliestStart, now), 
+				Math.min(latestEnd, now + reservationHorizonMillis));
+	}
+	
 	/**
 	 * Releases a flow, and the associated network resources, through use of the
 	 * Flow Scheduler.
@@ -138,6 +512,10 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	public String releaseExpiredFlow(FlowRouteTuple flowTuple)
 	{
 		boolean success = scheduler.releaseExpiredFlow(flowTuple);
+		if(success && journal != null)
+			journal.recordRelease(flowTuple.getFlow().getID());
+		if(success && replicator != null)
+			replicator.publishEnd(flowTuple.getFlow().getID(), ReplicatedReservation.State.RELEASED);
 				
 		if(success == false)
 			return "Flow " + flowTuple.getFlow().getID() + " release FAILED";
@@ -145,20 +523,329 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 			return "Flow " + flowTuple.getFlow().getID() + " release SUCCESS";
 	}
 	
+	/**
+	 * Cancels a reservation by Flow ID. A Flow waiting to start loses its activation; a Flow that may already be
+	 * active has its rules deleted by cookie, and the FLOW_REMOVED replies free its switch queues. The bandwidth is
+	 * given back on the links of its paths only.
+	 */
+	@Override
+	public String cancelFlow(long flowID)
+	{
+		if(isStandby())
+		{
+			logger.warn("Rejecting the cancellation of Flow {}, reservations are changed by the active controller", flowID);
+			return "Flow " + flowID + " cancel FAILED";
+		}
+		FlowRouteTuple flowTuple = theRM.getFlowTable().matchFlow(flowID);
+		if(flowTuple == null)
+			return "Flow " + flowID + " cancel FAILED";
+		
+		// Give the reservation back before the rules, so a FLOW_REMOVED from their removal finds it already released
+		if(!scheduler.cancelReservation(flowTuple))
+			return "Flow " + flowID + " cancel FAILED";
+		activationScheduler.cancelExpiry(flowID);
+		// Without a pending activation the Flow has started, or is being provisioned right now
+		if(!activationScheduler.cancelActivation(flowID))
+			flowProvisioner.removeFlowPath(flowTuple, getFloodlightTopology().getSwitchMap());
+		
+		if(journal != null)
+			journal.recordCancel(flowID);
+		if(replicator != null)
+			replicator.publishEnd(flowID, ReplicatedReservation.State.CANCELLED);
+		logger.info("Flow {} cancelled", flowID);
+		return "Flow " + flowID + " cancel SUCCESS";
+	}
+	
+	/**
+	 * Changes the end time or bandwidth of a reservation by Flow ID, on the paths it already holds. A Flow waiting
+	 * to start has its activation moved to the new Flow; an active Flow that is extended is provisioned again so its
+	 * rules get the later hard timeout, and one that is shortened is given an expiry at its new end time.
+	 */
+	@Override
+	public String modifyFlow(long flowID, long bandwidth, long endTime)
+	{
+		if(isStandby())
+		{
+			logger.warn("Rejecting the change to Flow {}, reservations are changed by the active controller", flowID);
+			return "Flow " + flowID + " modify FAILED";
+		}
+		FlowRouteTuple flowTuple = theRM.getFlowTable().matchFlow(flowID);
+		if(flowTuple == null)
+			return "Flow " + flowID + " modify FAILED";
+		
+		Flow flow = flowTuple.getFlow();
+		if(bandwidth < 0)
+			bandwidth = flow.getBandwidth();
+		if(endTime < 0)
+			endTime = flow.getEndTime();
+		boolean started = getMillisUntilStart(flow) <= 0;
+		if(bandwidth != flow.getBandwidth() && (started || flowTuple.getPathAllocations().size() > 1))
+		{
+			logger.warn("Rejecting the change to Flow {}, only a single-path Flow that has not started can change bandwidth", flowID);
+			return "Flow " + flowID + " modify FAILED";
+		}
+		Flow modified = new Flow(flowID, flow.getSource(), flow.getDest(), bandwidth, flow.getStartTime(), endTime, 
+				flow.getSrcIP(), flow.getDstIP());
+		if(bandwidth == 0 || endTime <= flow.getStartTime() || !isWithinHorizon(modified))
+			return "Flow " + flowID + " modify FAILED";
+		
+		FlowRouteTuple modifiedTuple = scheduler.modifyReservation(flowTuple, modified);
+		if(modifiedTuple == null)
+			return "Flow " + flowID + " modify FAILED";
+		
+		if(journal != null)
+			journal.recordAdmit(modifiedTuple);
+		if(replicator != null)
+			replicator.publishModify(modifiedTuple);
+		
+		if(activationScheduler.rescheduleActivation(modified, getMillisUntilStart(modified)))
+			return "Flow " + flowID + " modify SUCCESS";
+		activationScheduler.cancelExpiry(flowID);
+		long untilEnd = getMillisUntil(endTime);
+		if(endTime > flow.getEndTime())
+			flowProvisioner.provisionFlowPath(modifiedTuple, getFloodlightTopology().getSwitchMap());
+		if(endTime < flow.getEndTime() || untilEnd > TimeUnit.SECONDS.toMillis(FlowProvisioner.MAX_HARD_TIMEOUT_SECONDS))
+			activationScheduler.scheduleExpiry(modified, untilEnd);
+		return "Flow " + flowID + " modify SUCCESS";
+	}
+	
 
 	/**
 	 * Initializes the state of the network, polling Floodlight for the most up-to-date view of
-	 * the topology (devices, links, switches, ports, queues).
+	 * the topology (devices, links, switches, ports, queues). After the first call, the TopologyTracker
+	 * keeps the state up to date as the network changes.
+	 * The first call after startup restores the reservations kept in the journal and those replicated by other
+	 * controllers. Later calls keep every reservation: each is put back on its paths in the new topology, and only
+	 * those whose paths are gone are cancelled.
 	 */
 	@Override 
 	public ArrayList<Node> initializeState(){
 		floodlightTopology = floodlightTopoBuilder.createFloodlightTopology();
 		
 		Topology newTopology = topoBuilder.convertTopology(floodlightTopology);
-		this.theRM.intializeState(newTopology);
+		ArrayList<FlowRouteTuple> held = this.theRM.intializeState(newTopology);
+		this.queueAllocator.clear();
+		for(Map.Entry<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> entry : floodlightTopology.getSwitchQueueMap().entrySet()){
+			this.queueAllocator.setSwitchQueues(entry.getKey().getId().toString(), entry.getValue());
+		}
+		if(!stateInitialized){
+			stateInitialized = true;
+			if(reservationsToRestore != null){
+				restoreReservations(reservationsToRestore);
+				reservationsToRestore = null;
+			}
+			if(replicator != null)
+				replicator.reconcile(!isStandby());
+			if(!isStandby())
+				scheduleMissingActivations();
+		}
+		else{
+			reattachReservations(held);
+			if(replicator != null)
+				replicator.reconcile(!isStandby());
+		}
 		return this.getTopology().getNodes();
 	}
 	
+	/**
+	 * Put the reservations held before the topology was rebuilt back on their paths. A pending activation or
+	 * expiry is moved to the restored Flow; a reservation whose paths are gone is cancelled, and so are its
+	 * activation and, on the active controller, its journal and cluster entries.
+	 * @param held - the reservations dropped by the rebuild
+	 */
+	protected void reattachReservations(ArrayList<FlowRouteTuple> held)
+	{
+		ArrayList<ReservationRecord> records = new ArrayList<ReservationRecord>();
+		for(FlowRouteTuple tuple : held)
+			records.add(ReservationRecord.fromFlowRouteTuple(tuple));
+		
+		ArrayList<Flow> restored = scheduler.restoreReservations(records);
+		HashSet<Long> restoredIDs = new HashSet<Long>();
+		for(Flow flow : restored){
+			restoredIDs.add(flow.getID());
+			if(activationScheduler.cancelActivation(flow.getID()))
+				activationScheduler.scheduleActivation(flow, getMillisUntilStart(flow));
+			if(activationScheduler.cancelExpiry(flow.getID()))
+				activationScheduler.scheduleExpiry(flow, getMillisUntil(flow.getEndTime()));
+		}
+		for(ReservationRecord record : records){
+			long flowID = record.getFlowID();
+			if(restoredIDs.contains(flowID))
+				continue;
+			activationScheduler.cancelActivation(flowID);
+			activationScheduler.cancelExpiry(flowID);
+			if(isStandby())
+				continue;
+			if(journal != null)
+				journal.recordCancel(flowID);
+			if(replicator != null)
+				replicator.publishEnd(flowID, ReplicatedReservation.State.CANCELLED);
+		}
+		logger.info("Kept {} of {} reservations across the topology rebuild", restored.size(), records.size());
+	}
+	
+	/**
+	 * Put back the reservations loaded from the journal. Their activations are scheduled separately.
+	 * @param records
+	 */
+	protected void restoreReservations(ArrayList<ReservationRecord> records)
+	{
+		ArrayList<ReservationRecord> unexpired = new ArrayList<ReservationRecord>();
+		for(ReservationRecord record : records){
+			if(getMillisUntil(record.getEndTime()) > 0)
+				unexpired.add(record);
+			else
+				journal.recordRelease(record.getFlowID());
+		}
+		
+		ArrayList<Flow> restored = scheduler.restoreReservations(unexpired);
+		HashSet<Long> restoredIDs = new HashSet<Long>();
+		for(Flow flow : restored){
+			restoredIDs.add(flow.getID());
+		}
+		for(ReservationRecord record : unexpired){
+			if(!restoredIDs.contains(record.getFlowID()))
+				journal.recordCancel(record.getFlowID());
+		}
+		logger.info("Restored {} of {} journaled reservations", restored.size(), records.size());
+	}
+	
+	/**
+	 * Schedule the activation of every reserved flow that has not started and is not already waiting.
+	 * Flows that have already started are assumed to have their rules installed, and are only kept reserved
+	 * until their FLOW_REMOVED arrives; those long enough that their rules may carry no hard timeout are given
+	 * an expiry at their end time.
+	 * @return the number of activations scheduled
+	 */
+	protected int scheduleMissingActivations()
+	{
+		int scheduled = 0;
+		long maxTimeoutMillis = TimeUnit.SECONDS.toMillis(FlowProvisioner.MAX_HARD_TIMEOUT_SECONDS);
+		for(FlowRouteTuple tuple : theRM.getFlowTable().getAllFlowRouteTuples()){
+			Flow flow = tuple.getFlow();
+			long delay = getMillisUntilStart(flow);
+			if(delay > 0 && !activationScheduler.isPending(flow.getID())){
+				activationScheduler.scheduleActivation(flow, delay);
+				scheduled++;
+			}
+			else if(delay <= 0 && flow.getEndTime() - flow.getStartTime() > maxTimeoutMillis){
+				activationScheduler.scheduleExpiry(flow, getMillisUntil(flow.getEndTime()));
+			}
+		}
+		return scheduled;
+	}
+	
+	/**
+	 * Apply a ledger entry written by another controller, or read back from the sync store. An admission is
+	 * reserved on its recorded paths but not activated, as the controller that made it does that. An admission
+	 * that no longer fits means two controllers booked the same bandwidth; the active controller cancels it, so
+	 * the cluster never holds both. An entry whose end time or bandwidth differs from the reservation held here
+	 * moves that reservation in place. An ended entry releases the reservation.
+	 * @param flowID
+	 * @param entry
+	 */
+	protected void applyReplicatedReservation(long flowID, ReplicatedReservation entry)
+	{
+		if(theRM.getTopology() == null)
+			return;
+		
+		FlowRouteTuple existing = theRM.getFlowTable().matchFlow(flowID);
+		if(entry.isEnded()){
+			if(existing != null && scheduler.releaseExpiredFlow(existing)){
+				activationScheduler.cancelActivation(flowID);
+				if(journal != null)
+					journal.recordRelease(flowID);
+				logger.debug("Replicated release of Flow {}", flowID);
+			}
+			return;
+		}
+		if(getMillisUntil(entry.endTime) <= 0)
+			return;
+		
+		ReservationRecord record;
+		try{
+			record = entry.toRecord();
+		}
+		catch(IOException e){
+			logger.error("Could not decode replicated Flow {}: {}", flowID, e.toString());
+			return;
+		}
+		if(existing != null){
+			applyReplicatedModify(existing, record);
+			return;
+		}
+		ArrayList<Flow> restored = scheduler.restoreReservations(Collections.singletonList(record));
+		if(restored.isEmpty()){
+			logger.warn("Replicated Flow {} conflicts with local reservations", flowID);
+			if(!isStandby())
+				replicator.publishEnd(flowID, ReplicatedReservation.State.CANCELLED);
+			return;
+		}
+		if(journal != null)
+			journal.recordAdmit(theRM.getFlowFromRM(restored.get(0)));
+	}
+	
+	/**
+	 * Bring a reservation held here in line with a replicated change to its end time or bandwidth, or to the path
+	 * of a single-path Flow moved by the active controller's rerouting
+	 * @param existing
+	 * @param record
+	 */
+	private void applyReplicatedModify(FlowRouteTuple existing, ReservationRecord record)
+	{
+		Flow flow = existing.getFlow();
+		if(flow.getEndTime() == record.getEndTime() && flow.getBandwidth() == record.bandwidth){
+			if(existing.isMultipath() || record.paths.size() != 1 
+					|| ReservationRecord.fromFlowRouteTuple(existing).paths.get(0).linkKeys.equals(record.paths.get(0).linkKeys))
+				return;
+			FlowRouteTuple movedTuple = scheduler.moveReservation(existing, record.paths.get(0));
+			if(movedTuple == null){
+				logger.warn("Replicated rerouting of Flow {} conflicts with local reservations", flow.getID());
+				return;
+			}
+			if(journal != null)
+				journal.recordAdmit(movedTuple);
+			logger.debug("Replicated rerouting of Flow {}", flow.getID());
+			return;
+		}
+		Flow modified = new Flow(flow.getID(), flow.getSource(), flow.getDest(), record.bandwidth, flow.getStartTime(), 
+				record.getEndTime(), flow.getSrcIP(), flow.getDstIP());
+		FlowRouteTuple modifiedTuple = scheduler.modifyReservation(existing, modified);
+		if(modifiedTuple == null){
+			logger.warn("Replicated change to Flow {} conflicts with local reservations", flow.getID());
+			return;
+		}
+		if(journal != null)
+			journal.recordAdmit(modifiedTuple);
+		activationScheduler.rescheduleActivation(modified, getMillisUntilStart(modified));
+		logger.debug("Replicated change to Flow {}", flow.getID());
+	}
+	
+	/**
+	 * Take over the schedule when this controller becomes active. The replicated reservations are already held,
+	 * so only those missed while the sync store caught up are applied, and the flows that have not started
+	 * get their activation timers.
+	 */
+	protected void takeOverReservations()
+	{
+		if(theRM.getTopology() == null){
+			logger.info("Became active before the topology was initialized; reservations are restored with it");
+			return;
+		}
+		replicator.reconcile(true);
+		int scheduled = scheduleMissingActivations();
+		logger.info("Became active with {} reservations, {} waiting to start", 
+				theRM.getFlowTable().size(), scheduled);
+	}
+	
+	/**
+	 * Whether this controller is a standby of an HA cluster, and so must not admit or activate flows
+	 */
+	protected boolean isStandby()
+	{
+		return floodlightProvider.getRole() == HARole.STANDBY;
+	}
+	
 	/**
 	 * Returns the Resource Manager's view of the topology
 	 */
@@ -215,8 +902,12 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 		services.add(IFloodlightProviderService.class);
 		services.add(ITopologyService.class);
 		services.add(IDeviceService.class);
+		services.add(IOFSwitchService.class);
 		services.add(IRestApiService.class);
 		services.add(ILinkDiscoveryService.class);
+		services.add(IThreadPoolService.class);
+		services.add(ISyncService.class);
+		services.add(IDebugCounterService.class);
 		return services;
 	}
 
@@ -237,15 +928,95 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 		this.topologyService = context.getServiceImpl(ITopologyService.class);
 		this.switchService = context.getServiceImpl(IOFSwitchService.class);
 		this.restApiService = context.getServiceImpl(IRestApiService.class);
+		this.threadPoolService = context.getServiceImpl(IThreadPoolService.class);
+		this.syncService = context.getServiceImpl(ISyncService.class);
+		this.debugCounterService = context.getServiceImpl(IDebugCounterService.class);
 		logger = LoggerFactory.getLogger(ARScheduler.class);
 
 		this.of13Factory =  OFFactories.getFactory(OFVersion.OF_13);
 		
 		this.theRM = new ResourceManager(logger);
 		this.scheduler = new FlowScheduler(theRM, logger);
+		this.queueAllocator = new QueueAllocator();
+		this.scheduler.setQueueAllocator(queueAllocator);
+		this.metrics = new ARSchedulerMetrics(debugCounterService);
+		this.theRM.setMetrics(metrics);
+		this.scheduler.setMetrics(metrics);
+		
+		Map<String, String> config = context.getConfigParams(this);
+		if (config.containsKey(LAZY_LINK_EVALUATION_STR)) {
+			boolean lazy = Boolean.parseBoolean(config.get(LAZY_LINK_EVALUATION_STR).trim());
+			this.scheduler.setLazyLinkEvaluation(lazy);
+			logger.info("Lazy link evaluation {}", lazy ? "enabled" : "disabled");
+		}
+		if (config.containsKey(MAX_PATHS_PER_FLOW_STR)) {
+			try {
+				int maxPaths = Integer.parseInt(config.get(MAX_PATHS_PER_FLOW_STR).trim());
+				this.scheduler.setMaxPathsPerFlow(maxPaths);
+				logger.info("Flows may be split across up to {} paths", maxPaths);
+			} catch (NumberFormatException e) {
+				logger.error("Invalid {} '{}', flows will not be split", MAX_PATHS_PER_FLOW_STR, config.get(MAX_PATHS_PER_FLOW_STR));
+			}
+		}
+		if (config.containsKey(REOPTIMIZATION_INTERVAL_MINUTES_STR)) {
+			try {
+				long minutes = Long.parseLong(config.get(REOPTIMIZATION_INTERVAL_MINUTES_STR).trim());
+				this.reoptimizationIntervalMillis = TimeUnit.MINUTES.toMillis(Math.max(0, minutes));
+			} catch (NumberFormatException e) {
+				logger.error("Invalid {} '{}', using {}", new Object[] {REOPTIMIZATION_INTERVAL_MINUTES_STR, 
+						config.get(REOPTIMIZATION_INTERVAL_MINUTES_STR), DEFAULT_REOPTIMIZATION_INTERVAL_MINUTES});
+			}
+		}
+		String journalDirectory = config.get(JOURNAL_DIRECTORY_STR);
+		if (journalDirectory != null && !journalDirectory.trim().isEmpty()) {
+			int threshold = DEFAULT_JOURNAL_COMPACTION_THRESHOLD;
+			if (config.containsKey(JOURNAL_COMPACTION_THRESHOLD_STR)) {
+				try {
+					threshold = Integer.parseInt(config.get(JOURNAL_COMPACTION_THRESHOLD_STR).trim());
+				} catch (NumberFormatException e) {
+					logger.error("Invalid {} '{}', using {}", new Object[] {JOURNAL_COMPACTION_THRESHOLD_STR, 
+							config.get(JOURNAL_COMPACTION_THRESHOLD_STR), DEFAULT_JOURNAL_COMPACTION_THRESHOLD});
+				}
+			}
+			File directory = new File(journalDirectory.trim());
+			this.journal = new ReservationJournal(directory, threshold, logger);
+			logger.info("Reservations will be journaled in {}", directory.getAbsolutePath());
+		}
+		if (config.containsKey(RESERVATION_HORIZON_DAYS_STR)) {
+			try {
+				long days = Long.parseLong(config.get(RESERVATION_HORIZON_DAYS_STR).trim());
+				this.reservationHorizonMillis = TimeUnit.DAYS.toMillis(Math.max(1, days));
+			} catch (NumberFormatException e) {
+				logger.error("Invalid {} '{}', using {}", new Object[] {RESERVATION_HORIZON_DAYS_STR, 
+						config.get(RESERVATION_HORIZON_DAYS_STR), DEFAULT_RESERVATION_HORIZON_DAYS});
+			}
+		}
+		if (config.containsKey(REPLICATE_RESERVATIONS_STR) 
+				&& Boolean.parseBoolean(config.get(REPLICATE_RESERVATIONS_STR).trim())) {
+			this.replicator = new ReservationReplicator(this, syncService, logger);
+			logger.info("Reservations will be replicated through the sync service");
+		}
 		this.floodlightTopoBuilder = new FloodlightTopologyBuilder(this);
 		this.flowProvisioner = new FlowProvisioner(this);
 		this.topoBuilder = new TopologyBuilder();
+		String backend = config.get(LINK_USAGE_BACKEND_STR);
+		if (backend != null && backend.trim().equalsIgnoreCase("slots")) {
+			long slotSeconds = DEFAULT_LINK_USAGE_SLOT_SECONDS;
+			if (config.containsKey(LINK_USAGE_SLOT_SECONDS_STR)) {
+				try {
+					slotSeconds = Math.max(1, Long.parseLong(config.get(LINK_USAGE_SLOT_SECONDS_STR).trim()));
+				} catch (NumberFormatException e) {
+					logger.error("Invalid {} '{}', using {}", new Object[] {LINK_USAGE_SLOT_SECONDS_STR, 
+							config.get(LINK_USAGE_SLOT_SECONDS_STR), DEFAULT_LINK_USAGE_SLOT_SECONDS});
+				}
+			}
+			// The ring must still reach the horizon when the last prune was up to an interval ago
+			this.topoBuilder.setSlottedUsage(TimeUnit.SECONDS.toMillis(slotSeconds), 
+					reservationHorizonMillis + 2 * PRUNE_INTERVAL_MS);
+			logger.info("Link bandwidth usage kept in {} second slots", slotSeconds);
+		} else if (backend != null && !backend.trim().equalsIgnoreCase("timeline")) {
+			logger.error("Unknown {} '{}', using the exact timeline", LINK_USAGE_BACKEND_STR, backend);
+		}
 		
 	}
 
@@ -262,8 +1033,53 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	public void startUp(FloodlightModuleContext context) throws FloodlightModuleException {
 		logger.info("Starting {}", this.getName());
 		restApiService.addRestletRoutable(new ARSchedulerWebRoutable());
+		this.activationScheduler = new ActivationScheduler(this, floodlightProvider.getTimer(), 
+				threadPoolService.getScheduledExecutor(), logger);
+	    if (journal != null) {
+	    	try {
+	    		reservationsToRestore = journal.open();
+	    	} catch (IOException e) {
+	    		logger.error("Could not open the reservation journal, reservations will not survive a restart: {}", e.toString());
+	    		journal = null;
+	    	}
+	    }
+	    if (replicator != null) {
+	    	try {
+	    		replicator.startUp();
+	    	} catch (SyncException e) {
+	    		throw new FloodlightModuleException("Error while setting up the replicated reservation store", e);
+	    	}
+	    	floodlightProvider.addHAListener(replicator);
+	    }
+	    threadPoolService.getScheduledExecutor().scheduleAtFixedRate(new Runnable() {
+	    	@Override
+	    	public void run() {
+	    		try {
+	    			pruneHistory();
+	    		} catch (RuntimeException e) {
+	    			logger.error("Error pruning reservation history", e);
+	    		}
+	    	}
+	    }, PRUNE_INTERVAL_MS, PRUNE_INTERVAL_MS, TimeUnit.MILLISECONDS);
+	    if (reoptimizationIntervalMillis > 0) {
+	    	threadPoolService.getScheduledExecutor().scheduleAtFixedRate(new Runnable() {
+	    		@Override
+	    		public void run() {
+	    			try {
+	    				reoptimizeReservations();
+	    			} catch (RuntimeException e) {
+	    				logger.error("Error rerouting reservations", e);
+	    			}
+	    		}
+	    	}, reoptimizationIntervalMillis, reoptimizationIntervalMillis, TimeUnit.MILLISECONDS);
+	    	logger.info("Reservations waiting to start will be rerouted every {} minutes", 
+	    			TimeUnit.MILLISECONDS.toMinutes(reoptimizationIntervalMillis));
+	    }
 	    floodlightProvider.addOFMessageListener(OFType.FLOW_REMOVED, this);
-	    //switchService.addOFSwitchListener(this);
+	    this.topologyTracker = new TopologyTracker(this);
+	    topologyService.addListener(topologyTracker);
+	    deviceManagerService.addListener(topologyTracker);
+	    switchService.addOFSwitchListener(topologyTracker);
 	}
 
 	
@@ -286,21 +1102,28 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	/**
 	 * Listen for FLOW_REMOVED messages, update the RM's view of the topology
 	 * by releasing the resources associated with that flow.
+	 * Messages for flow rules that were not pushed by the ARScheduler are ignored.
 	 */
 	@Override
 	public net.floodlightcontroller.core.IListener.Command receive(
 			IOFSwitch sw, OFMessage msg, FloodlightContext cntx) {
-		logger.info(msg.toString());
-		logger.info(sw.toString());
+		if(msg.getType() != OFType.FLOW_REMOVED)
+			return Command.CONTINUE;
 		
-		OFMessageParser parser = new OFMessageParser();
-		parser.parseMessage(msg.toString());
+		U64 cookie = ((OFFlowRemoved) msg).getCookie();
+		if(!FlowCookie.isARSchedulerCookie(cookie))
+			return Command.CONTINUE;
 		
-		FlowRouteTuple flowTupleToRelease = theRM.getFlowTable().matchFlow(parser.flowID);
-		assert(flowTupleToRelease != null);
+		long flowID = FlowCookie.getFlowID(cookie);
+		logger.debug("Flow {} removed from switch {}", flowID, sw.getId());
 		
-		releaseExpiredFlow(flowTupleToRelease);
-		releaseQueuesOnSwitch(sw, flowTupleToRelease.getFlow());
+		// Each switch on the path reports its own FLOW_REMOVED. The first one releases the reservation,
+		// the rest only free their switch's queues.
+		FlowRouteTuple flowTupleToRelease = theRM.getFlowTable().matchFlow(flowID);
+		if(flowTupleToRelease != null)
+			releaseExpiredFlow(flowTupleToRelease);
+		releaseQueuesOnSwitch(sw, flowID);
+		flowProvisioner.removeFlowGroups(sw, flowID);
 		
 		return Command.CONTINUE;
 	}
@@ -308,33 +1131,10 @@ public class ARScheduler implements IFloodlightModule, IARSchedulerService, IOFM
 	/**
 	 * Marks all queues associated with a Flow on a switch as unused
 	 * @param sw - The switch that has removed a flow rule
-	 * @param flowToRelease - The Flow associated with that flow rule
+	 * @param flowID - The ID of the Flow associated with that flow rule
 	 */
-	protected void releaseQueuesOnSwitch(IOFSwitch sw, Flow flowToRelease) {
-		// TODO Auto-generated method stub
-		Collection<OFPortDesc> ports = sw.getPorts();
-		for(OFPortDesc portDesc : ports){
-			
-			int portNum = portDesc.getPortNo().getPortNumber();
-			HashMap<Integer, ArrayList<FlowQueue>> portNumQueueMap = floodlightTopology.getSwitchQueueMap().get(sw);
-			
-			for(Integer portNumInMap : portNumQueueMap.keySet()){
-				
-				if(portNumInMap.intValue() == portNum){
-					
-					ArrayList<FlowQueue> queues = portNumQueueMap.get(portNumInMap);
-					
-					for(int queueIndex = 0; queueIndex < queues.size(); queueIndex++){
-						
-						FlowQueue queue = queues.get(queueIndex);
-						if(queue.getFlowID() == flowToRelease.getID()){
-							floodlightTopology.getSwitchQueueMap().get(sw).get(portNumInMap).get(queueIndex).setUsed(false);
-							floodlightTopology.getSwitchQueueMap().get(sw).get(portNumInMap).get(queueIndex).setFlowID(-1);
-						}
-					}
-				}
-			}
-		}
+	protected void releaseQueuesOnSwitch(IOFSwitch sw, long flowID) {
+		queueAllocator.releaseSwitch(flowID, sw.getId().toString());
 	}
 	
 	public FloodlightTopology getFloodlightTopology(){
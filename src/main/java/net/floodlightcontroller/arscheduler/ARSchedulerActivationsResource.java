@@ -0,0 +1,25 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Reports the state of the ARScheduler's pending flow activations.
+ */
+public class ARSchedulerActivationsResource extends ServerResource{
+
+	/**
+	 * Get the number of scheduled flows that are waiting for their start time, and how past activations went.
+	 * @return Map containing the pending activation depth and activation statistics.
+	 */
+	@Get("json")
+	public Map<String, Object> getActivations(){
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		Map<String, Object> activations = new HashMap<String, Object>(flowSchedService.getActivationStatistics());
+		activations.put("pending", flowSchedService.getPendingActivationCount());
+		return activations;
+	}
+}
@@ -0,0 +1,138 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * Accepts a batch of scheduling requests in one call. Expects either a JSON array of requests, or an object
+ * of the form {"transactional": "true", "flows": [...]} where each request has the same fields as a single
+ * request to /schedule/json.
+ */
+public class ARSchedulerBatchResource extends ServerResource{
+
+	/**
+	 * Parse and validate every request in the batch, then have the ARScheduler admit the valid ones together.
+	 * @param fmJson
+	 * @return Map containing the per-flow results, in request order.
+	 * @throws IOException
+	 */
+	@Post
+	public Map<String, Object> scheduleFlows(String fmJson) throws IOException {
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		ARSchedulerMetrics metrics = flowSchedService.getMetrics();
+		MappingJsonFactory f = new MappingJsonFactory();
+		JsonParser jp;
+		boolean transactional = false;
+		ArrayList<HashMap<String, String>> requests = new ArrayList<HashMap<String, String>>();
+
+		long started = System.nanoTime();
+		try {
+			jp = f.createParser(fmJson);
+		} catch (JsonParseException e) {
+			throw new IOException(e);
+		}
+
+		jp.nextToken();
+		if (jp.getCurrentToken() == JsonToken.START_ARRAY) {
+			parseFlowArray(jp, requests);
+		}
+		else if (jp.getCurrentToken() == JsonToken.START_OBJECT) {
+			while (jp.nextToken() != JsonToken.END_OBJECT) {
+				if (jp.getCurrentToken() != JsonToken.FIELD_NAME) {
+					throw new IOException("Expected FIELD_NAME");
+				}
+				String n = jp.getCurrentName();
+				jp.nextToken();
+				switch(n.toLowerCase()){
+				case "transactional":
+					transactional = Boolean.parseBoolean(jp.getText().trim());
+					break;
+				case "flows":
+					parseFlowArray(jp, requests);
+					break;
+				default:
+					jp.skipChildren();
+				}
+			}
+		}
+		else {
+			throw new IOException("Expected START_ARRAY or START_OBJECT");
+		}
+
+		// Validate every request first, so only well-formed flows reach the scheduler
+		Topology topology = flowSchedService.getTopology();
+		ArrayList<Flow> flows = new ArrayList<Flow>();
+		String[] statuses = new String[requests.size()];
+		int[] flowIndex = new int[requests.size()];
+		boolean allValid = true;
+		for(int i = 0; i < requests.size(); i++){
+			try{
+				flowIndex[i] = flows.size();
+				flows.add(ARSchedulerResource.buildFlow(requests.get(i), topology));
+			}
+			catch(IllegalArgumentException e){
+				metrics.reject(ARSchedulerMetrics.Rejection.INVALID_REQUEST);
+				flowIndex[i] = -1;
+				statuses[i] = e.getMessage();
+				allValid = false;
+			}
+		}
+		metrics.record(ARSchedulerMetrics.Phase.JSON_PARSE, System.nanoTime() - started);
+
+		if(transactional && !allValid){
+			for(int i = 0; i < requests.size(); i++){
+				if(flowIndex[i] >= 0){
+					metrics.reject(ARSchedulerMetrics.Rejection.ROLLED_BACK);
+					statuses[i] = "Flow " + flows.get(flowIndex[i]).getID() + " reservation ROLLED BACK";
+				}
+			}
+		}
+		else if(!flows.isEmpty()){
+			ArrayList<String> flowStatuses = flowSchedService.handleNewFlowBatch(flows, transactional);
+			for(int i = 0; i < requests.size(); i++){
+				if(flowIndex[i] >= 0)
+					statuses[i] = flowStatuses.get(flowIndex[i]);
+			}
+		}
+
+		ArrayList<Map<String, Object>> results = new ArrayList<Map<String, Object>>();
+		for(int i = 0; i < requests.size(); i++){
+			Map<String, Object> result = new HashMap<String, Object>();
+			result.put("index", i);
+			if(flowIndex[i] >= 0)
+				result.put("flowID", flows.get(flowIndex[i]).getID());
+			result.put("status", statuses[i]);
+			results.add(result);
+		}
+
+		Map<String, Object> response = new HashMap<String, Object>();
+		response.put("transactional", transactional);
+		response.put("results", results);
+		return response;
+	}
+
+	/**
+	 * Read an array of scheduling requests. The parser must be positioned on the START_ARRAY.
+	 * @param jp
+	 * @param requests - the parsed fields of each request are appended to this list
+	 * @throws IOException
+	 */
+	private void parseFlowArray(JsonParser jp, ArrayList<HashMap<String, String>> requests) throws IOException {
+		if (jp.getCurrentToken() != JsonToken.START_ARRAY) {
+			throw new IOException("Expected START_ARRAY");
+		}
+		while (jp.nextToken() != JsonToken.END_ARRAY) {
+			requests.add(ARSchedulerResource.parseFlowFields(jp));
+		}
+	}
+}
@@ -0,0 +1,78 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * Finds the earliest time a reservation could start, without reserving anything. Expects the same fields as
+ * a request to /schedule/json, where startTime and endTime bound the search, plus the reservation's
+ * duration in minutes.
+ */
+public class ARSchedulerEarliestStartResource extends ServerResource{
+
+	/**
+	 * Parse the query and ask the ARScheduler for the earliest feasible start time.
+	 * @param fmJson
+	 * @return Map containing the status and, if a start time was found, the window that fits.
+	 * @throws IOException
+	 */
+	@Post
+	public Map<String, Object> findEarliestStart(String fmJson) throws IOException {
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		MappingJsonFactory f = new MappingJsonFactory();
+		JsonParser jp;
+
+		try {
+			jp = f.createParser(fmJson);
+		} catch (JsonParseException e) {
+			throw new IOException(e);
+		}
+		jp.nextToken();
+		HashMap<String, String> fields = ARSchedulerResource.parseFlowFields(jp);
+
+		Map<String, Object> response = new HashMap<String, Object>();
+		long durationMinutes;
+		try{
+			durationMinutes = Long.parseLong(ARSchedulerResource.getField(fields, "duration"));
+		}
+		catch(NumberFormatException e){
+			response.put("status", "ERROR: duration not specified in whole minutes");
+			return response;
+		}
+		if(durationMinutes <= 0){
+			response.put("status", "ERROR: duration must be at least one minute");
+			return response;
+		}
+		long durationMillis = durationMinutes * 60 * 1000;
+		
+		Flow horizon;
+		try{
+			// The horizon is validated like a request for the whole search window
+			horizon = ARSchedulerResource.buildFlow(fields, flowSchedService.getTopology());
+		}
+		catch(IllegalArgumentException e){
+			response.put("status", e.getMessage());
+			return response;
+		}
+
+		long start = flowSchedService.findEarliestStart(horizon.getSource(), horizon.getDest(), horizon.getBandwidth(),
+				durationMillis, horizon.getStartTime(), horizon.getEndTime());
+		if(start < 0){
+			response.put("status", "No feasible start time between " + fields.get("starttime") + " and " + fields.get("endtime"));
+			return response;
+		}
+
+		response.put("status", "SUCCESS");
+		response.put("startTime", ARSchedulerResource.formatTime(start));
+		response.put("endTime", ARSchedulerResource.formatTime(start + durationMillis));
+		return response;
+	}
+}
@@ -0,0 +1,238 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import net.floodlightcontroller.debugcounter.IDebugCounter;
+import net.floodlightcontroller.debugcounter.IDebugCounterService;
+import net.floodlightcontroller.debugcounter.IDebugCounterService.MetaData;
+
+/**
+ * Debug counters of the admission pipeline, registered through the IDebugCounterService under the "arscheduler"
+ * module: accepted and rejected requests, the rejections by reason, and a latency histogram of each phase of
+ * admission and activation. A histogram is a counter of samples, a counter of their total time, and a counter
+ * per bucket, so it costs two or three atomic increments per sample.
+ */
+public class ARSchedulerMetrics
+{
+	static final String MODULE = "arscheduler";
+
+	/**
+	 * The timed phases of admitting and activating a reservation
+	 */
+	public enum Phase
+	{
+		JSON_PARSE("json-parse", "Parsing a scheduling request"),
+		PRUNE("prune", "Pruning the links without the bandwidth free, when link evaluation is not lazy"),
+		GRAPH_BUILD("graph-build", "Building the graph of the topology after it changed"),
+		PATH_SEARCH("path-search", "Searching for a path with the bandwidth free"),
+		COMMIT("commit", "Reserving the bandwidth on every link of the path found"),
+		QUEUE_ALLOCATION("queue-allocation", "Booking the switch queues of an admitted reservation"),
+		FLOWMOD_WRITE("flowmod-write", "Building and writing the FlowMods of an activation"),
+		BARRIER_CONFIRMATION("barrier-confirmation", "Waiting for every switch to confirm an activation's FlowMods");
+
+		private final String name;
+		private final String description;
+
+		private Phase(String name, String description)
+		{
+			this.name = name;
+			this.description = description;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+	}
+
+	/**
+	 * Why a request was not admitted
+	 */
+	public enum Rejection
+	{
+		INVALID_REQUEST("invalid-request", "Requests that could not be parsed or named unknown hosts"),
+		STANDBY("standby", "Requests made to a standby controller"),
+		OUTSIDE_HORIZON("outside-horizon", "Requests that had ended or ended beyond the reservation horizon"),
+		NO_PATH("no-path", "Requests with no path that had the bandwidth free"),
+		NO_QUEUE("no-queue", "Requests with no free switch queues of the right rate"),
+		CONTENTION("contention", "Requests that gave up after concurrent admissions kept taking their path"),
+		ROLLED_BACK("rolled-back", "Requests admitted and then released when their transactional batch failed");
+
+		private final String name;
+		private final String description;
+
+		private Rejection(String name, String description)
+		{
+			this.name = name;
+			this.description = description;
+		}
+
+		public String getName()
+		{
+			return name;
+		}
+	}
+
+	/**
+	 * Upper bounds of the histogram buckets, in microseconds; the last bucket takes everything slower
+	 */
+	static final long[] BUCKET_BOUNDS_MICROS = {10, 100, 1000, 10000, 100000, 1000000};
+	static final String[] BUCKET_NAMES = {"le-10us", "le-100us", "le-1ms", "le-10ms", "le-100ms", "le-1s", "gt-1s"};
+
+	/**
+	 * Latency histogram of one phase
+	 */
+	private static class Histogram
+	{
+		IDebugCounter count;
+		IDebugCounter totalMicros;
+		IDebugCounter[] buckets = new IDebugCounter[BUCKET_NAMES.length];
+	}
+
+	private IDebugCounter accepted;
+	private IDebugCounter rejected;
+	private EnumMap<Rejection, IDebugCounter> rejections = new EnumMap<Rejection, IDebugCounter>(Rejection.class);
+	private EnumMap<Phase, Histogram> latencies = new EnumMap<Phase, Histogram>(Phase.class);
+
+	/**
+	 * Register the counters
+	 * @param debugCounterService
+	 */
+	public ARSchedulerMetrics(IDebugCounterService debugCounterService)
+	{
+		debugCounterService.registerModule(MODULE);
+		debugCounterService.registerCounter(MODULE, "admission", "Parent of the admission outcome counters");
+		accepted = debugCounterService.registerCounter(MODULE, "admission/accepted", "Requests admitted");
+		rejected = debugCounterService.registerCounter(MODULE, "admission/rejected", "Requests not admitted", MetaData.WARN);
+		for(Rejection reason : Rejection.values())
+		{
+			rejections.put(reason, debugCounterService.registerCounter(MODULE, "admission/rejected/" + reason.name, 
+					reason.description, MetaData.WARN));
+		}
+
+		debugCounterService.registerCounter(MODULE, "latency", "Parent of the per-phase latency histograms");
+		for(Phase phase : Phase.values())
+		{
+			String prefix = "latency/" + phase.name;
+			Histogram histogram = new Histogram();
+			histogram.count = debugCounterService.registerCounter(MODULE, prefix, phase.description + ": samples");
+			histogram.totalMicros = debugCounterService.registerCounter(MODULE, prefix + "/total-us", 
+					phase.description + ": total time in microseconds");
+			for(int b = 0; b < BUCKET_NAMES.length; b++)
+			{
+				histogram.buckets[b] = debugCounterService.registerCounter(MODULE, prefix + "/" + BUCKET_NAMES[b], 
+						phase.description + ": samples " + BUCKET_NAMES[b]);
+			}
+			latencies.put(phase, histogram);
+		}
+	}
+
+	/**
+	 * Record the time taken by one run of a phase
+	 * @param phase
+	 * @param nanos - from System.nanoTime
+	 */
+	public void record(Phase phase, long nanos)
+	{
+		long micros = TimeUnit.NANOSECONDS.toMicros(Math.max(0, nanos));
+		Histogram histogram = latencies.get(phase);
+		histogram.count.increment();
+		histogram.totalMicros.add(micros);
+		int b = 0;
+		while(b < BUCKET_BOUNDS_MICROS.length && micros > BUCKET_BOUNDS_MICROS[b])
+		{
+			b++;
+		}
+		histogram.buckets[b].increment();
+	}
+
+	/**
+	 * Count an admitted request
+	 */
+	public void accept()
+	{
+		accepted.increment();
+	}
+
+	/**
+	 * Count a request that was not admitted
+	 * @param reason
+	 */
+	public void reject(Rejection reason)
+	{
+		rejected.increment();
+		rejections.get(reason).increment();
+	}
+
+	/**
+	 * Read every counter, with the mean and approximate percentiles of each phase. A percentile is given as the
+	 * upper bound of the bucket it falls in, -1 if that is the last bucket.
+	 * @return statistic name to value, nested by admission outcome and phase
+	 */
+	public Map<String, Object> getStatistics()
+	{
+		LinkedHashMap<String, Object> statistics = new LinkedHashMap<String, Object>();
+		LinkedHashMap<String, Object> admission = new LinkedHashMap<String, Object>();
+		admission.put("accepted", accepted.getCounterValue());
+		admission.put("rejected", rejected.getCounterValue());
+		LinkedHashMap<String, Long> reasons = new LinkedHashMap<String, Long>();
+		for(Map.Entry<Rejection, IDebugCounter> entry : rejections.entrySet())
+		{
+			reasons.put(entry.getKey().name, entry.getValue().getCounterValue());
+		}
+		admission.put("rejectedBy", reasons);
+		statistics.put("admission", admission);
+
+		LinkedHashMap<String, Object> phases = new LinkedHashMap<String, Object>();
+		for(Map.Entry<Phase, Histogram> entry : latencies.entrySet())
+		{
+			Histogram histogram = entry.getValue();
+			long count = histogram.count.getCounterValue();
+			long[] buckets = new long[BUCKET_NAMES.length];
+			LinkedHashMap<String, Long> bucketValues = new LinkedHashMap<String, Long>();
+			for(int b = 0; b < buckets.length; b++)
+			{
+				buckets[b] = histogram.buckets[b].getCounterValue();
+				bucketValues.put(BUCKET_NAMES[b], buckets[b]);
+			}
+			LinkedHashMap<String, Object> phase = new LinkedHashMap<String, Object>();
+			phase.put("count", count);
+			phase.put("meanMicros", count == 0 ? 0 : histogram.totalMicros.getCounterValue() / count);
+			phase.put("p50MicrosAtMost", percentileBound(buckets, 0.50));
+			phase.put("p99MicrosAtMost", percentileBound(buckets, 0.99));
+			phase.put("buckets", bucketValues);
+			phases.put(entry.getKey().name, phase);
+		}
+		statistics.put("latency", phases);
+		return statistics;
+	}
+
+	/**
+	 * Upper bound of the bucket holding a percentile
+	 * @param buckets - sample count of each bucket
+	 * @param fraction
+	 * @return the bound in microseconds, 0 if there are no samples, -1 if the percentile is in the last bucket
+	 */
+	static long percentileBound(long[] buckets, double fraction)
+	{
+		long total = 0;
+		for(long count : buckets)
+		{
+			total += count;
+		}
+		if(total == 0)
+			return 0;
+		long rank = (long) Math.ceil(fraction * total);
+		long seen = 0;
+		for(int b = 0; b < BUCKET_BOUNDS_MICROS.length; b++)
+		{
+			seen += buckets[b];
+			if(seen >= rank)
+				return BUCKET_BOUNDS_MICROS[b];
+		}
+		return -1;
+	}
+}
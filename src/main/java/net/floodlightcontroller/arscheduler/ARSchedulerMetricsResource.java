@@ -0,0 +1,22 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Map;
+
+import org.restlet.resource.Get;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Reports the ARScheduler's admission counts and the latency of each phase of admission and activation.
+ */
+public class ARSchedulerMetricsResource extends ServerResource{
+
+	/**
+	 * Get the accepted and rejected admission counts, with rejections by reason, and the latency histogram of each phase.
+	 * @return Map containing the admission counts and per-phase latencies.
+	 */
+	@Get("json")
+	public Map<String, Object> getMetrics(){
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		return flowSchedService.getMetrics().getStatistics();
+	}
+}
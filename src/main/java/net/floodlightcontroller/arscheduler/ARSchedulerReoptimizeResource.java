@@ -0,0 +1,22 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Map;
+
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+
+/**
+ * Runs the ARScheduler's rerouting of reservations that have not started yet on demand.
+ */
+public class ARSchedulerReoptimizeResource extends ServerResource{
+
+	/**
+	 * Reroute reservations waiting to start onto paths that leave more bandwidth free.
+	 * @return Map containing the number of reservations considered and rerouted.
+	 */
+	@Post
+	public Map<String, Long> reoptimize(){
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		return flowSchedService.reoptimizeReservations();
+	}
+}
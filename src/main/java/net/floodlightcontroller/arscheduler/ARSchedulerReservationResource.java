@@ -0,0 +1,113 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.restlet.resource.Delete;
+import org.restlet.resource.Post;
+import org.restlet.resource.Put;
+import org.restlet.resource.ServerResource;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * Cancels or changes an admitted reservation, named by the Flow ID given when it was scheduled.
+ * A DELETE cancels the reservation. A PUT or POST changes its "endTime", its "bandwidth" in Gbps, or both,
+ * keeping the paths it already holds.
+ */
+public class ARSchedulerReservationResource extends ServerResource{
+
+	/**
+	 * Cancel the reservation.
+	 * @return Map containing the status of the cancellation.
+	 */
+	@Delete
+	public Map<String, Object> cancelFlow() {
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		String status;
+		try{
+			status = flowSchedService.cancelFlow(getFlowID());
+		}
+		catch(IllegalArgumentException e){
+			status = e.getMessage();
+		}
+		return statusResponse(status);
+	}
+
+	/**
+	 * Parse the request and change the reservation. An "endTime" in HH:mm format is its next occurrence from now.
+	 * @param fmJson
+	 * @return Map containing the status of the change.
+	 * @throws IOException
+	 */
+	@Put
+	@Post
+	public Map<String, Object> modifyFlow(String fmJson) throws IOException {
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		MappingJsonFactory f = new MappingJsonFactory();
+		JsonParser jp;
+
+		try {
+			jp = f.createParser(fmJson);
+		} catch (JsonParseException e) {
+			throw new IOException(e);
+		}
+		jp.nextToken();
+		HashMap<String, String> fields = ARSchedulerResource.parseFlowFields(jp);
+
+		String status;
+		try{
+			long flowID = getFlowID();
+			String bandwidth = ARSchedulerResource.getField(fields, "bandwidth");
+			String endTime = ARSchedulerResource.getField(fields, "endtime");
+			if(bandwidth.equals(ARSchedulerResource.notSpecified) && endTime.equals(ARSchedulerResource.notSpecified)){
+				throw new IllegalArgumentException("ERROR: neither bandwidth nor endTime specified");
+			}
+
+			//Bandwidth is given in Gbps, as when scheduling
+			long bandwidthBPS = -1;
+			if(!bandwidth.equals(ARSchedulerResource.notSpecified)){
+				bandwidthBPS = Long.parseLong(bandwidth) * 1000000000L;
+				if(bandwidthBPS <= 0){
+					throw new IllegalArgumentException("Specified bandwidth is not positive");
+				}
+			}
+			long eTimeMillis = -1;
+			if(!endTime.equals(ARSchedulerResource.notSpecified)){
+				eTimeMillis = ARSchedulerResource.getTimeMillis(endTime, System.currentTimeMillis());
+				if(eTimeMillis == -1){
+					throw new IllegalArgumentException("Specified end time not in ISO-8601 (e.g. 2016-05-01T21:15:00Z) or HH:mm format");
+				}
+			}
+			status = flowSchedService.modifyFlow(flowID, bandwidthBPS, eTimeMillis);
+		}
+		catch(IllegalArgumentException e){
+			status = e.getMessage();
+		}
+		return statusResponse(status);
+	}
+
+	private static Map<String, Object> statusResponse(String status) {
+		Map<String, Object> response = new HashMap<String, Object>();
+		response.put("status", status);
+		return response;
+	}
+
+	/**
+	 * Read the Flow ID from the request's path
+	 * @return the Flow ID
+	 * @throws IllegalArgumentException if it is not a number
+	 */
+	private long getFlowID() {
+		String flowID = (String) getRequestAttributes().get("flowID");
+		try{
+			return Long.parseLong(flowID);
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("ERROR: Flow ID " + flowID + " is not a number");
+		}
+	}
+}
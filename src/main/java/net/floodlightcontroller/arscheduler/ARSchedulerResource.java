@@ -1,7 +1,11 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.io.IOException;
+import java.text.ParsePosition;
+import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -30,6 +34,17 @@ public class ARSchedulerResource extends ServerResource{
 	 * Default string for unspecified user input fields.
 	 */
 	protected static String notSpecified = "NOT_SPECIFIED";
+	/**
+	 * ISO-8601 date-time formats accepted for start and end times, tried in order. Times without an offset are local.
+	 */
+	protected static final String[] DATE_TIME_FORMATS = {
+		"yyyy-MM-dd'T'HH:mm:ss.SSSXXX",
+		"yyyy-MM-dd'T'HH:mm:ssXXX",
+		"yyyy-MM-dd'T'HH:mmXXX",
+		"yyyy-MM-dd'T'HH:mm:ss.SSS",
+		"yyyy-MM-dd'T'HH:mm:ss",
+		"yyyy-MM-dd'T'HH:mm"
+	};
 	
 	/**
 	 * Call the ARSCheduler to initialize the network state.
@@ -44,34 +59,55 @@ public class ARSchedulerResource extends ServerResource{
 	/**
 	 * Call the ARScheduler to schedule a new flow after parsing and validating the input.
 	 * @param fmJson
-	 * @return String containing status of the request.
+	 * @return Map containing the status of the request.
 	 * @throws IOException
 	 */
 	@Post
-	public String scheduleFlow(String fmJson) throws IOException {
+	public Map<String, Object> scheduleFlow(String fmJson) throws IOException {
 
 		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		ARSchedulerMetrics metrics = flowSchedService.getMetrics();
 		MappingJsonFactory f = new MappingJsonFactory();
 		JsonParser jp;
-		
-		String srcMac = notSpecified;
-		String dstMac = notSpecified;
-		String bandwidth = notSpecified;
-		String srcIP = notSpecified;
-		String dstIP = notSpecified;
-		String startTime = notSpecified;
-		String endTime = notSpecified;
 
+		long started = System.nanoTime();
 		try {
 			jp = f.createParser(fmJson);
 		} catch (JsonParseException e) {
+			metrics.reject(ARSchedulerMetrics.Rejection.INVALID_REQUEST);
 			throw new IOException(e);
 		}
 		jp.nextToken();
+		HashMap<String, String> fields = parseFlowFields(jp);
+		
+		String status;
+		try{
+			Flow newFlow = buildFlow(fields, flowSchedService.getTopology());
+			metrics.record(ARSchedulerMetrics.Phase.JSON_PARSE, System.nanoTime() - started);
+			status = flowSchedService.handleNewFlow(newFlow);
+		}
+		catch(IllegalArgumentException e){
+			metrics.reject(ARSchedulerMetrics.Rejection.INVALID_REQUEST);
+			status = e.getMessage();
+		}
+		Map<String, Object> response = new HashMap<String, Object>();
+		response.put("status", status);
+		return response;
+	}
+	
+	/**
+	 * Read the fields of one scheduling request. The parser must be positioned on the request's START_OBJECT,
+	 * and is left on its END_OBJECT.
+	 * @param jp
+	 * @return Map from lower case field name to value
+	 * @throws IOException
+	 */
+	protected static HashMap<String, String> parseFlowFields(JsonParser jp) throws IOException {
 		if (jp.getCurrentToken() != JsonToken.START_OBJECT) {
 			throw new IOException("Expected START_OBJECT");
 		}
 
+		HashMap<String, String> fields = new HashMap<String, String>();
 		while (jp.nextToken() != JsonToken.END_OBJECT) {
 			if (jp.getCurrentToken() != JsonToken.FIELD_NAME) {
 				throw new IOException("Expected FIELD_NAME");
@@ -84,42 +120,55 @@ public class ARSchedulerResource extends ServerResource{
 
 			switch(n.toLowerCase()){
 			case "srcip":
-				srcIP = jp.getText();
-				break;
 			case "srcmac":
-				srcMac = jp.getText();
-				break;
 			case "dstip":
-				dstIP = jp.getText();
-				break;
 			case "dstmac":
-				dstMac = jp.getText();
-				break;
 			case "bandwidth":
-				bandwidth = jp.getText();
-				break;
 			case "starttime":
-				startTime = jp.getText();
-				break;
 			case "endtime":
-				endTime = jp.getText();
+			case "duration":
+				fields.put(n.toLowerCase(), jp.getText());
 				break;
 			}
 		}
+		return fields;
+	}
+	
+	/**
+	 * Validate the fields of a scheduling request and construct the Flow it asks for.
+	 * @param fields - as returned by parseFlowFields
+	 * @param topology - the ARScheduler's topology, used to find the source and destination hosts
+	 * @return The new Flow
+	 * @throws IllegalArgumentException describing why the request is invalid
+	 */
+	protected static Flow buildFlow(HashMap<String, String> fields, Topology topology) {
+		String srcMac = getField(fields, "srcmac");
+		String dstMac = getField(fields, "dstmac");
+		String bandwidth = getField(fields, "bandwidth");
+		String srcIP = getField(fields, "srcip");
+		String dstIP = getField(fields, "dstip");
+		String startTime = getField(fields, "starttime");
+		String endTime = getField(fields, "endtime");
+
 		if(srcMac.equals(notSpecified) || dstMac.equals(notSpecified) || bandwidth.equals(notSpecified) 
 				|| srcIP.equals(notSpecified) || dstIP.equals(notSpecified) || startTime.equals(notSpecified) || endTime.equals(notSpecified)){
-			return ("{\"status\" : \"" + "ERROR: srcIP, srcMac, dstIP, dstMac, bandwidth, startTime or endTime not specified" + "\"}"); 
+			throw new IllegalArgumentException("ERROR: srcIP, srcMac, dstIP, dstMac, bandwidth, startTime or endTime not specified"); 
 		}
-		String status = "";
 		
 		//Assumes that user passes in required bandwidth in terms of Gbps
 		//Convert to bits per second for using queues
 		long bitsPerGb = 1000000000;
-		long bandwidthBPS = Long.parseLong(bandwidth) * bitsPerGb;
+		long bandwidthBPS;
+		try{
+			bandwidthBPS = Long.parseLong(bandwidth) * bitsPerGb;
+		}
+		catch(NumberFormatException e){
+			throw new IllegalArgumentException("ERROR: bandwidth not specified in whole Gbps");
+		}
 		
-		//Convert start/end time to seconds since 00:00
-		long sTimeSeconds = getTimeSeconds(startTime);
-		long eTimeSeconds = getTimeSeconds(endTime);
+		//Convert start/end time to milliseconds since the epoch
+		long sTimeMillis = getTimeMillis(startTime, Long.MIN_VALUE);
+		long eTimeMillis = getTimeMillis(endTime, sTimeMillis);
 
 		
 		log.info("Source Host IP: {}", srcIP);
@@ -130,47 +179,79 @@ public class ARSchedulerResource extends ServerResource{
 		log.info("Start Date-Time: {}", startTime);
 		log.info("End Date-Time: {}", endTime);
 		
-		Topology topology = flowSchedService.getTopology();
 		Node srcHostNode = topology.getNodeByName(srcMac);
 		Node dstHostNode = topology.getNodeByName(dstMac);
 		if(srcHostNode == null || srcHostNode.nodeIsSwitch() || dstHostNode == null || dstHostNode.nodeIsSwitch()){
-			status = "Specified Source or Destination not a known host";
+			throw new IllegalArgumentException("Specified Source or Destination not a known host");
 		}
-		else if(sTimeSeconds == -1 || eTimeSeconds == -1){
-			status = "Specified start or end time not in HH:mm format (e.g. HH can be 00-23, mm can be 00-59)";
+		else if(sTimeMillis == -1 || eTimeMillis == -1){
+			throw new IllegalArgumentException("Specified start or end time not in ISO-8601 (e.g. 2016-05-01T21:15:00Z) or HH:mm format");
 		}
-		else{
-			Flow newFlow = constructFlow(srcHostNode, dstHostNode, bandwidthBPS, sTimeSeconds, eTimeSeconds, srcIP, dstIP);
-			status = flowSchedService.handleNewFlow(newFlow);
+		else if(eTimeMillis <= sTimeMillis){
+			throw new IllegalArgumentException("Specified end time is not after the start time");
 		}
-		return ("{\"status\" : \"" + status + "\"}"); 
+		return constructFlow(srcHostNode, dstHostNode, bandwidthBPS, sTimeMillis, eTimeMillis, srcIP, dstIP);
+	}
+	
+	protected static String getField(HashMap<String, String> fields, String name) {
+		String value = fields.get(name);
+		return value == null ? notSpecified : value;
 	}
 	
 	/**
-	 * Convert a string dateTime to seconds.
-	 * @param dateTime - the time in HH:mm format
-	 * @return dateTimeSeconds - the number of seconds since 00:00 as represented by HH:mm
+	 * Convert a string dateTime to milliseconds since the epoch.
+	 * An ISO-8601 date-time gives that instant. HH:mm gives that local time of day: today, or if after is given,
+	 * its first occurrence after that instant, so a window given as HH:mm can span midnight.
+	 * @param dateTime - the time in ISO-8601 (e.g. 2016-05-01T21:15:00Z) or HH:mm format
+	 * @param after - instant an HH:mm time must follow, Long.MIN_VALUE for today
+	 * @return the time in milliseconds since the epoch, -1 if it is in neither format
 	 */
-	private long getTimeSeconds(String dateTime) {
+	protected static long getTimeMillis(String dateTime, long after) {
+		for(String format : DATE_TIME_FORMATS){
+			SimpleDateFormat parser = new SimpleDateFormat(format);
+			parser.setLenient(false);
+			ParsePosition position = new ParsePosition(0);
+			Date parsed = parser.parse(dateTime, position);
+			if(parsed != null && position.getIndex() == dateTime.length()){
+				return parsed.getTime();
+			}
+		}
 		
 		String[] parts = dateTime.split(":");
 		if(parts.length != 2){
 			return -1;
 		}
-		String hour = parts[0];
-		String minute = parts[1];
-		long hourLong = new Long(hour).longValue();
-		long minuteLong =new Long(minute).longValue();
+		long hourLong;
+		long minuteLong;
+		try{
+			hourLong = Long.parseLong(parts[0]);
+			minuteLong = Long.parseLong(parts[1]);
+		}
+		catch(NumberFormatException e){
+			return -1;
+		}
 		if(hourLong < 0 || hourLong > 23 || minuteLong < 0 || minuteLong > 59){
 			return -1;
 		}
 		//Hour and Minute are valid
-		long dateTimeSeconds = 0;
-		long secondsInMinute = 60;
-		long minutesInHour = 60;
-		dateTimeSeconds += minutesInHour * secondsInMinute * hourLong;
-		dateTimeSeconds += secondsInMinute * minuteLong;
-		return dateTimeSeconds;
+		Calendar time = Calendar.getInstance();
+		time.set(Calendar.HOUR_OF_DAY, (int) hourLong);
+		time.set(Calendar.MINUTE, (int) minuteLong);
+		time.set(Calendar.SECOND, 0);
+		time.set(Calendar.MILLISECOND, 0);
+		while(after != Long.MIN_VALUE && time.getTimeInMillis() <= after){
+			time.add(Calendar.DAY_OF_MONTH, 1);
+		}
+		return time.getTimeInMillis();
+	}
+	
+	/**
+	 * Format milliseconds since the epoch as an ISO-8601 local date-time with its offset
+	 * @param timeMillis
+	 * @return the formatted time
+	 */
+	protected static String formatTime(long timeMillis) {
+		return new SimpleDateFormat(DATE_TIME_FORMATS[1]).format(new Date(timeMillis));
 	}
 
 	/**
@@ -184,7 +265,7 @@ public class ARSchedulerResource extends ServerResource{
 	 * @param dstIP
 	 * @return The Flow.
 	 */
-	public Flow constructFlow(Node srcHostNode, Node dstHostNode, long bandwidth, long startTime, long endTime, String srcIP, String dstIP){
+	public static Flow constructFlow(Node srcHostNode, Node dstHostNode, long bandwidth, long startTime, long endTime, String srcIP, String dstIP){
 		return new Flow(srcHostNode, dstHostNode, bandwidth, startTime, endTime, srcIP, dstIP);
 	}
 	
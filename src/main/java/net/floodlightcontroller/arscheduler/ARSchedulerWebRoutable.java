@@ -21,6 +21,13 @@ public class ARSchedulerWebRoutable implements RestletRoutable {
 		Router router = new Router(context);
 		router.attach("/state/json", ARSchedulerResource.class);
 		router.attach("/schedule/json", ARSchedulerResource.class);
+		router.attach("/schedule/batch/json", ARSchedulerBatchResource.class);
+		router.attach("/schedule/earliest/json", ARSchedulerEarliestStartResource.class);
+		router.attach("/schedule/whatif/json", ARSchedulerWhatIfResource.class);
+		router.attach("/reservation/{flowID}/json", ARSchedulerReservationResource.class);
+		router.attach("/activations/json", ARSchedulerActivationsResource.class);
+		router.attach("/metrics/json", ARSchedulerMetricsResource.class);
+		router.attach("/reoptimize/json", ARSchedulerReoptimizeResource.class);
 		//router.attach("/topo/json", FlowSchedulerResource.class);
 		return router;
 	}
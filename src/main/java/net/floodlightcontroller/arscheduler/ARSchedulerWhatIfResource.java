@@ -0,0 +1,78 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.restlet.resource.Post;
+import org.restlet.resource.ServerResource;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.MappingJsonFactory;
+
+/**
+ * Checks whether a reservation would be admitted, without booking anything. Expects the same fields as a request
+ * to /schedule/json, and answers from a snapshot of link availability, so it never slows real admissions down.
+ */
+public class ARSchedulerWhatIfResource extends ServerResource{
+
+	/**
+	 * Parse the request and look for a path with the bandwidth free for the whole period.
+	 * @param fmJson
+	 * @return Map containing the status, whether the snapshot was complete and, if a path was found, its nodes
+	 * and bandwidth to spare.
+	 * @throws IOException
+	 */
+	@Post
+	public Map<String, Object> evaluateFlow(String fmJson) throws IOException {
+		IARSchedulerService flowSchedService = (IARSchedulerService)getContext().getAttributes().get(IARSchedulerService.class.getCanonicalName());
+		MappingJsonFactory f = new MappingJsonFactory();
+		JsonParser jp;
+
+		try {
+			jp = f.createParser(fmJson);
+		} catch (JsonParseException e) {
+			throw new IOException(e);
+		}
+		jp.nextToken();
+		HashMap<String, String> fields = ARSchedulerResource.parseFlowFields(jp);
+
+		Map<String, Object> response = new HashMap<String, Object>();
+		Flow flow;
+		try{
+			flow = ARSchedulerResource.buildFlow(fields, flowSchedService.getTopology());
+		}
+		catch(IllegalArgumentException e){
+			response.put("status", e.getMessage());
+			return response;
+		}
+
+		AvailabilitySnapshot snapshot = flowSchedService.getAvailabilitySnapshot();
+		// A link held by an admission is left out of date; once that admission is done a new snapshot has it
+		if(!snapshot.isComplete()){
+			snapshot = flowSchedService.getAvailabilitySnapshot();
+		}
+		response.put("complete", snapshot.isComplete());
+		Topology path = snapshot.findPath(flow.getSource(), flow.getDest(), flow.getBandwidth(),
+				flow.getStartTime(), flow.getEndTime());
+		if(path.isEmpty()){
+			response.put("status", "SUCCESS");
+			response.put("feasible", false);
+			return response;
+		}
+
+		ArrayList<String> nodeNames = new ArrayList<String>();
+		for(Node node : path.getNodes()){
+			nodeNames.add(node.getNodeName());
+		}
+		long available = snapshot.getAvailableBandwidth(path.getLinks(), flow.getStartTime(), flow.getEndTime());
+		response.put("status", "SUCCESS");
+		response.put("feasible", true);
+		response.put("path", nodeNames);
+		response.put("availableBandwidth", available);
+		response.put("residualBandwidth", available - flow.getBandwidth());
+		return response;
+	}
+}
@@ -0,0 +1,326 @@
+package net.floodlightcontroller.arscheduler;
+
+import io.netty.util.Timeout;
+import io.netty.util.Timer;
+import io.netty.util.TimerTask;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Provisions successfully scheduled flows at their starting time.
+ * All pending activations share a single hashed wheel timer, so waiting flows cost no CPU. When a flow's
+ * timeout fires, the provisioning work is handed to a worker pool to keep the timer thread free.
+ * Scheduling, cancelling and rescheduling an activation are all O(1).
+ * A flow only counts as active once every switch on its path has confirmed its rules with a barrier reply;
+ * the time from the start of provisioning to the last confirmation is recorded for each path.
+ * Flows too long for an OpenFlow hard timeout also get an expiry on the same timer, which removes their rules
+ * at their end time.
+ */
+public class ActivationScheduler
+{
+	/**
+	 * The coordinating ARScheduler, which provisions the flow when it activates
+	 */
+	private ARScheduler schedulingCoordinator;
+	/**
+	 * Timer wheel shared by every pending activation
+	 */
+	private Timer timer;
+	/**
+	 * Workers that perform the provisioning once a timeout fires
+	 */
+	private Executor workers;
+	/**
+	 * Pending activations, indexed by Flow ID
+	 */
+	private ConcurrentHashMap<Long, Timeout> pendingActivations = new ConcurrentHashMap<Long, Timeout>();
+	/**
+	 * Pending expiries, indexed by Flow ID
+	 */
+	private ConcurrentHashMap<Long, Timeout> pendingExpiries = new ConcurrentHashMap<Long, Timeout>();
+	/**
+	 * The logger
+	 */
+	private Logger logger;
+	/**
+	 * How long the switches have to confirm a flow's rules before its activation counts as failed, in milliseconds
+	 */
+	static final long CONFIRMATION_TIMEOUT_MS = 10000;
+	/**
+	 * Activations confirmed by every switch on the path
+	 */
+	private AtomicLong confirmedActivations = new AtomicLong();
+	/**
+	 * Activations that could not be provisioned or were not confirmed in time
+	 */
+	private AtomicLong failedActivations = new AtomicLong();
+	/**
+	 * Sum of the install latencies of the confirmed activations, in milliseconds
+	 */
+	private AtomicLong totalInstallMillis = new AtomicLong();
+	/**
+	 * Highest install latency of a confirmed activation, in milliseconds
+	 */
+	private AtomicLong maxInstallMillis = new AtomicLong();
+	/**
+	 * Install latency of the most recently confirmed activation, in milliseconds
+	 */
+	private AtomicLong lastInstallMillis = new AtomicLong();
+
+	/**
+	 * Construct the ActivationScheduler with the coordinating ARScheduler, a timer wheel and a worker pool.
+	 * @param coordinator
+	 * @param timer
+	 * @param workers
+	 * @param log
+	 */
+	public ActivationScheduler(ARScheduler coordinator, Timer timer, Executor workers, Logger log)
+	{
+		this.schedulingCoordinator = coordinator;
+		this.timer = timer;
+		this.workers = workers;
+		this.logger = log;
+	}
+
+	/**
+	 * Schedule a flow to be provisioned after the given delay. Any activation already pending for the same
+	 * flow is replaced.
+	 * @param flow
+	 * @param delayMillis - time until the flow starts, fires immediately if not positive
+	 */
+	public void scheduleActivation(Flow flow, long delayMillis)
+	{
+		Timeout timeout = timer.newTimeout(new ActivationTask(flow), Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+		Timeout replaced = pendingActivations.put(flow.getID(), timeout);
+		if(replaced != null)
+			replaced.cancel();
+		logger.info("Flow {} will be established in {} seconds", flow.getID(), Math.max(0, delayMillis) / 1000);
+	}
+
+	/**
+	 * Cancel the pending activation of a flow.
+	 * @param flowID
+	 * @return True if an activation was pending and has been cancelled
+	 */
+	public boolean cancelActivation(long flowID)
+	{
+		Timeout timeout = pendingActivations.remove(flowID);
+		if(timeout == null)
+			return false;
+		return timeout.cancel();
+	}
+
+	/**
+	 * Move the pending activation of a flow to a new delay.
+	 * @param flow
+	 * @param delayMillis
+	 * @return True if the flow had a pending activation which was moved
+	 */
+	public boolean rescheduleActivation(Flow flow, long delayMillis)
+	{
+		if(!pendingActivations.containsKey(flow.getID()))
+			return false;
+		scheduleActivation(flow, delayMillis);
+		return true;
+	}
+
+	/**
+	 * Schedule a flow's rules to be removed after the given delay, for flows whose rules carry no hard timeout.
+	 * Any expiry already pending for the same flow is replaced.
+	 * @param flow
+	 * @param delayMillis - time until the flow ends, fires immediately if not positive
+	 */
+	public void scheduleExpiry(Flow flow, long delayMillis)
+	{
+		Timeout timeout = timer.newTimeout(new ExpiryTask(flow), Math.max(0, delayMillis), TimeUnit.MILLISECONDS);
+		Timeout replaced = pendingExpiries.put(flow.getID(), timeout);
+		if(replaced != null)
+			replaced.cancel();
+		logger.debug("Flow {} will be removed in {} seconds", flow.getID(), Math.max(0, delayMillis) / 1000);
+	}
+
+	/**
+	 * Cancel the pending expiry of a flow.
+	 * @param flowID
+	 * @return True if an expiry was pending and has been cancelled
+	 */
+	public boolean cancelExpiry(long flowID)
+	{
+		Timeout timeout = pendingExpiries.remove(flowID);
+		if(timeout == null)
+			return false;
+		return timeout.cancel();
+	}
+
+	/**
+	 * Check if a flow is waiting to be activated.
+	 * @param flowID
+	 * @return True if the flow has a pending activation
+	 */
+	public boolean isPending(long flowID)
+	{
+		return pendingActivations.containsKey(flowID);
+	}
+
+	/**
+	 * Get the number of flows waiting for their start time.
+	 * @return pending activation depth
+	 */
+	public int getPendingActivationCount()
+	{
+		return pendingActivations.size();
+	}
+
+	/**
+	 * Get the outcome of the activations so far: how many were confirmed or failed, and the install latencies of
+	 * the confirmed ones.
+	 * @return statistic name to value
+	 */
+	public Map<String, Long> getActivationStatistics()
+	{
+		long confirmed = confirmedActivations.get();
+		HashMap<String, Long> statistics = new HashMap<String, Long>();
+		statistics.put("confirmed", confirmed);
+		statistics.put("failed", failedActivations.get());
+		statistics.put("meanInstallMillis", confirmed == 0 ? 0 : totalInstallMillis.get() / confirmed);
+		statistics.put("maxInstallMillis", maxInstallMillis.get());
+		statistics.put("lastInstallMillis", lastInstallMillis.get());
+		return statistics;
+	}
+
+	/**
+	 * Record the install latency of a confirmed activation
+	 * @param millis
+	 */
+	private void recordConfirmed(long millis)
+	{
+		confirmedActivations.incrementAndGet();
+		totalInstallMillis.addAndGet(millis);
+		lastInstallMillis.set(millis);
+		long max = maxInstallMillis.get();
+		while(millis > max && !maxInstallMillis.compareAndSet(max, millis))
+		{
+			max = maxInstallMillis.get();
+		}
+	}
+
+	/**
+	 * Provision a flow and wait, without blocking, for every switch on its path to confirm it.
+	 * @param flow
+	 */
+	private void activate(final Flow flow)
+	{
+		logger.info("Scheduling Flow {}!", flow.getID());
+		final long started = System.nanoTime();
+		final ListenableFuture<?> installed;
+		try
+		{
+			installed = schedulingCoordinator.activateFlow(flow);
+		}
+		catch(RuntimeException e)
+		{
+			failedActivations.incrementAndGet();
+			logger.error("Flow {} could not be provisioned: {}", flow.getID(), e.toString());
+			return;
+		}
+		final long written = System.nanoTime();
+		final ARSchedulerMetrics metrics = schedulingCoordinator.metrics;
+		if(metrics != null)
+			metrics.record(ARSchedulerMetrics.Phase.FLOWMOD_WRITE, written - started);
+
+		final Timeout deadline = timer.newTimeout(new TimerTask() {
+			@Override
+			public void run(Timeout timeout)
+			{
+				installed.cancel(false);
+			}
+		}, CONFIRMATION_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+
+		Futures.addCallback(installed, new FutureCallback<Object>() {
+			@Override
+			public void onSuccess(Object replies)
+			{
+				deadline.cancel();
+				long now = System.nanoTime();
+				if(metrics != null)
+					metrics.record(ARSchedulerMetrics.Phase.BARRIER_CONFIRMATION, now - written);
+				long millis = TimeUnit.NANOSECONDS.toMillis(now - started);
+				recordConfirmed(millis);
+				logger.info("Flow {} Active! Path installed and confirmed in {} ms", flow.getID(), millis);
+			}
+
+			@Override
+			public void onFailure(Throwable t)
+			{
+				deadline.cancel();
+				failedActivations.incrementAndGet();
+				logger.error("Flow {} was not confirmed by every switch on its path: {}", flow.getID(), t.toString());
+			}
+		});
+	}
+
+	/**
+	 * Fires on the timer thread at a flow's end time and passes the flow to the worker pool for removal.
+	 */
+	private class ExpiryTask implements TimerTask
+	{
+		private final Flow flow;
+
+		ExpiryTask(Flow flow)
+		{
+			this.flow = flow;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception
+		{
+			if(!pendingExpiries.remove(flow.getID(), timeout))
+				return;
+			workers.execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					schedulingCoordinator.expireFlow(flow);
+				}
+			});
+		}
+	}
+
+	/**
+	 * Fires on the timer thread and passes the flow to the worker pool for provisioning.
+	 */
+	private class ActivationTask implements TimerTask
+	{
+		private final Flow flow;
+
+		ActivationTask(Flow flow)
+		{
+			this.flow = flow;
+		}
+
+		@Override
+		public void run(Timeout timeout) throws Exception
+		{
+			if(!pendingActivations.remove(flow.getID(), timeout))
+				return;
+			workers.execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					activate(flow);
+				}
+			});
+		}
+	}
+}
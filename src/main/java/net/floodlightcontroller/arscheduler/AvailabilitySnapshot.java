@@ -0,0 +1,135 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Collection;
+import java.util.HashMap;
+
+/**
+ * An immutable view of the topology's graph and of the bandwidth reserved on every link, for answering
+ * "what if" questions without booking anything. Building one takes no lock that admissions wait on, and once
+ * built it can be shared by any number of threads, so dry runs never slow real admissions down.
+ * Each link's usage is a consistent state of that link, but an admission in flight while the snapshot was
+ * taken may be seen on some links of its path and not yet on others.
+ */
+public class AvailabilitySnapshot
+{
+	/**
+	 * The graph of the topology the snapshot was taken from
+	 */
+	private CompactGraph graph;
+	/**
+	 * Bandwidth usage of the link behind each edge
+	 */
+	private BandwidthUsage[] edgeUsages;
+	/**
+	 * Bandwidth usage by link, for the links of paths found in this snapshot
+	 */
+	private HashMap<FlowLink, BandwidthUsage> linkUsages;
+	/**
+	 * The booking version of the Resource Manager when the snapshot was taken
+	 */
+	private long bookingVersion;
+	/**
+	 * Whether every link's usage was current when the snapshot was taken
+	 */
+	private boolean complete = true;
+
+	/**
+	 * Take a snapshot of every link of a graph
+	 * @param graph
+	 * @param bookingVersion - the Resource Manager's booking version, read before the links
+	 */
+	public AvailabilitySnapshot(CompactGraph graph, long bookingVersion)
+	{
+		this.graph = graph;
+		this.bookingVersion = bookingVersion;
+		this.edgeUsages = new BandwidthUsage[graph.getEdgeCount()];
+		this.linkUsages = new HashMap<FlowLink, BandwidthUsage>(edgeUsages.length * 2);
+		for(int e = 0; e < edgeUsages.length; e++)
+		{
+			FlowLink link = graph.getEdgeLink(e);
+			edgeUsages[e] = link.getUsageSnapshot();
+			linkUsages.put(link, edgeUsages[e]);
+			complete &= link.hasCurrentUsageSnapshot();
+		}
+	}
+
+	/**
+	 * Find the shortest path on which every link has the bandwidth free for the whole period
+	 * @param source
+	 * @param dest
+	 * @param bandwidth
+	 * @param startTime
+	 * @param endTime
+	 * @return the path's nodes and links in both directions, empty if there is none
+	 */
+	public Topology findPath(Node source, Node dest, final long bandwidth, final long startTime, final long endTime)
+	{
+		EdgeFilter usableEdges = new EdgeFilter() {
+			@Override
+			public boolean isUsable(int edge)
+			{
+				return getAvailableBandwidth(edge, startTime, endTime) >= bandwidth;
+			}
+		};
+		return new ShortestPathEngine(graph).calculateSP(source, dest, usableEdges);
+	}
+
+	/**
+	 * Get the bandwidth free on the link behind an edge for a whole period
+	 * @param edge
+	 * @param startTime
+	 * @param endTime
+	 * @return the bandwidth available, negative if the period cannot be booked at all
+	 */
+	public long getAvailableBandwidth(int edge, long startTime, long endTime)
+	{
+		return graph.getEdgeLink(edge).getBandwidthCapacity() - edgeUsages[edge].getPeakConsumption(startTime, endTime);
+	}
+
+	/**
+	 * Get the bandwidth free on every one of a set of links for a whole period, i.e. on the most loaded one
+	 * @param links - links of this snapshot's topology
+	 * @param startTime
+	 * @param endTime
+	 * @return the bottleneck bandwidth available, Long.MAX_VALUE if there are no links
+	 */
+	public long getAvailableBandwidth(Collection<FlowLink> links, long startTime, long endTime)
+	{
+		long available = Long.MAX_VALUE;
+		for(FlowLink link : links)
+		{
+			BandwidthUsage usage = linkUsages.get(link);
+			long free = usage == null ? 0 : link.getBandwidthCapacity() - usage.getPeakConsumption(startTime, endTime);
+			available = Math.min(available, free);
+		}
+		return available;
+	}
+
+	/**
+	 * Get the graph the snapshot was taken from
+	 * @return the CompactGraph
+	 */
+	public CompactGraph getGraph()
+	{
+		return graph;
+	}
+
+	/**
+	 * Get the Resource Manager's booking version when the snapshot was taken
+	 * @return the version
+	 */
+	public long getBookingVersion()
+	{
+		return bookingVersion;
+	}
+
+	/**
+	 * Check if every link's usage was current when the snapshot was taken, rather than missing an admission
+	 * that held the link at that moment
+	 * @return True if the snapshot is complete
+	 */
+	public boolean isComplete()
+	{
+		return complete;
+	}
+}
@@ -0,0 +1,88 @@
+package net.floodlightcontroller.arscheduler;
+
+/**
+ * Allows only the edges whose links have a required amount of bandwidth available during a time period.
+ * A link's availability is checked the first time its edge is asked about and the answer is cached for
+ * the rest of the request, so a path search only pays for the links it actually reaches.
+ */
+public class BandwidthEdgeFilter implements EdgeFilter
+{
+	private static final byte UNKNOWN = 0;
+	private static final byte USABLE = 1;
+	private static final byte UNUSABLE = 2;
+
+	/**
+	 * The graph whose edges are filtered
+	 */
+	private CompactGraph graph;
+	/**
+	 * The requested bandwidth (bps) and time period
+	 */
+	private long requiredBandwidth;
+	private long startTime;
+	private long endTime;
+	/**
+	 * Cached availability of each edge
+	 */
+	private byte[] edgeStates;
+	/**
+	 * Number of links whose availability has been checked
+	 */
+	private int linksEvaluated;
+
+	/**
+	 * Construct the filter for a request
+	 * @param graph
+	 * @param requiredBandwidth
+	 * @param startTime
+	 * @param endTime
+	 */
+	public BandwidthEdgeFilter(CompactGraph graph, long requiredBandwidth, long startTime, long endTime)
+	{
+		this.graph = graph;
+		this.requiredBandwidth = requiredBandwidth;
+		this.startTime = startTime;
+		this.endTime = endTime;
+		this.edgeStates = new byte[graph.getEdgeCount()];
+		this.linksEvaluated = 0;
+	}
+
+	/**
+	 * Check if an edge's link has enough bandwidth available, evaluating it only on first use
+	 */
+	@Override
+	public boolean isUsable(int edge)
+	{
+		if(edgeStates[edge] == UNKNOWN)
+		{
+			boolean usable = graph.getEdgeLink(edge).getBandwidthAvailableBetweenTimes(startTime, endTime) >= requiredBandwidth;
+			edgeStates[edge] = usable ? USABLE : UNUSABLE;
+			linksEvaluated++;
+		}
+		return edgeStates[edge] == USABLE;
+	}
+
+	/**
+	 * Evaluate every edge up front
+	 * @return the number of usable edges
+	 */
+	public int evaluateAll()
+	{
+		int usableEdges = 0;
+		for(int e = 0; e < edgeStates.length; e++)
+		{
+			if(isUsable(e))
+				usableEdges++;
+		}
+		return usableEdges;
+	}
+
+	/**
+	 * Get the number of links whose availability has been checked so far
+	 * @return the number of evaluated links
+	 */
+	public int getLinksEvaluated()
+	{
+		return linksEvaluated;
+	}
+}
@@ -1,49 +1,25 @@
 package net.floodlightcontroller.arscheduler;
 
-import java.util.ArrayList;
-
 /**
- * Prunes out all links in a topology which do not have an available capacity at least equal to the requested bandwidth.
+ * Prunes out all links in a graph which do not have an available capacity at least equal to the requested bandwidth.
  * @author Dylan
  *
  */
 public class BandwidthPruner 
 {
 	/**
-	 * The provided topology
-	 */
-	Topology netTopology;
-	
-	/**
-	 * Construct the pruner with the given topology.
-	 * @param topo
-	 */
-	public BandwidthPruner(Topology topo)
-	{
-		netTopology = topo;
-	}
-	
-	/**
-	 * Prune out the links in the topology which do not have enough bandwidth available between (startTime, endTime)
+	 * Find the edges of a graph whose links have enough bandwidth available between (startTime, endTime),
+	 * checking every link up front
+	 * @param graph - the graph of the topology being searched
 	 * @param requiredBandwidth
 	 * @param startTime
 	 * @param endTime
-	 * @return The topology with insufficient bandwidth links removed.
+	 * @return The filter of usable edges, fully evaluated
 	 */
-	public Topology pruneTopology(long requiredBandwidth, long startTime, long endTime)	//bps
+	public BandwidthEdgeFilter pruneEdges(CompactGraph graph, long requiredBandwidth, long startTime, long endTime)	//bps
 	{
-		Topology prunedTopo;
-		ArrayList<FlowLink> prunedLinks = new ArrayList<FlowLink>();
-				
-		for(FlowLink l : netTopology.getLinks())
-		{			
-			if(l.getBandwidthAvailableBetweenTimes(startTime, endTime) >= requiredBandwidth)
-				prunedLinks.add(l);
-		}
-				
-		prunedTopo = new Topology(netTopology.getNodes(), prunedLinks);
-		
-		return prunedTopo;
+		BandwidthEdgeFilter usableEdges = new BandwidthEdgeFilter(graph, requiredBandwidth, startTime, endTime);
+		usableEdges.evaluateAll();
+		return usableEdges;
 	}
 }
-
@@ -0,0 +1,398 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Collection;
+import java.util.Random;
+
+/**
+ * Step function of the bandwidth consumed on a link across time.
+ * Each reservation adds its bandwidth at its start time and removes it again at its end time, so the
+ * consumption at any instant is the sum of every change at or before that instant.
+ * The changes are kept in a treap ordered by time. Every subtree also records the total of its changes and
+ * the highest running total reached inside it, which lets the peak consumption over a window [start, end)
+ * be answered in O(log n) instead of comparing every pair of reservations.
+ * Snapshots share the treap's nodes. Each node records the timeline that owns it, and a timeline copies a node
+ * it does not own before changing it, so only the O(log n) nodes on the path of a change are copied.
+ */
+public class BandwidthTimeline implements BandwidthUsage
+{
+	/**
+	 * A point in time where the consumed bandwidth changes, stored as a treap node.
+	 */
+	private static class Breakpoint
+	{
+		long time;
+		long delta;
+		int priority;
+		Breakpoint left;
+		Breakpoint right;
+		/**
+		 * Sum of the changes in this subtree
+		 */
+		long sum;
+		/**
+		 * Highest running total reached while walking this subtree in time order
+		 */
+		long maxPrefix;
+		/**
+		 * The timeline allowed to change this node in place
+		 */
+		Object owner;
+
+		Breakpoint(long time, long delta, int priority, Object owner)
+		{
+			this.owner = owner;
+			this.time = time;
+			this.delta = delta;
+			this.priority = priority;
+			this.sum = delta;
+			this.maxPrefix = delta;
+		}
+	}
+
+	/**
+	 * Running aggregate used while walking a range of breakpoints
+	 */
+	private static class RangeAggregate
+	{
+		long sum = 0;
+		long maxPrefix = 0;
+
+		void append(long subtreeSum, long subtreeMaxPrefix)
+		{
+			maxPrefix = Math.max(maxPrefix, sum + subtreeMaxPrefix);
+			sum += subtreeSum;
+		}
+	}
+
+	/**
+	 * Root of the treap
+	 */
+	private Breakpoint root;
+	/**
+	 * Number of breakpoints currently stored
+	 */
+	private int size;
+	/**
+	 * Source of treap priorities
+	 */
+	private Random priorities = new Random(0x5eed);
+	/**
+	 * Marks the nodes this timeline may change in place; replaced whenever a snapshot is taken
+	 */
+	private Object owner = new Object();
+
+	/**
+	 * Record a reservation of bandwidth during [startTime, endTime).
+	 * @param bandwidth
+	 * @param startTime
+	 * @param endTime
+	 */
+	@Override
+	public void addReservation(long bandwidth, long startTime, long endTime)
+	{
+		root = insert(root, startTime, bandwidth);
+		root = insert(root, endTime, -bandwidth);
+	}
+
+	/**
+	 * Remove a reservation previously added with the same bandwidth and times.
+	 * @param bandwidth
+	 * @param startTime
+	 * @param endTime
+	 */
+	@Override
+	public void removeReservation(long bandwidth, long startTime, long endTime)
+	{
+		root = insert(root, startTime, -bandwidth);
+		root = insert(root, endTime, bandwidth);
+	}
+
+	/**
+	 * Get the bandwidth consumed at a single instant.
+	 * @param time
+	 * @return consumed bandwidth at that time
+	 */
+	@Override
+	public long getConsumptionAt(long time)
+	{
+		long consumed = 0;
+		Breakpoint n = root;
+		while(n != null)
+		{
+			if(n.time <= time)
+			{
+				consumed += sumOf(n.left) + n.delta;
+				n = n.right;
+			}
+			else
+			{
+				n = n.left;
+			}
+		}
+		return consumed;
+	}
+
+	/**
+	 * Get the highest bandwidth consumed at any instant during [startTime, endTime).
+	 * A window with endTime <= startTime is treated as the single instant startTime.
+	 * @param startTime
+	 * @param endTime
+	 * @return peak consumed bandwidth in the window
+	 */
+	@Override
+	public long getPeakConsumption(long startTime, long endTime)
+	{
+		long atStart = getConsumptionAt(startTime);
+		if(endTime <= startTime)
+			return atStart;
+
+		RangeAggregate inWindow = new RangeAggregate();
+		collect(root, startTime, endTime, Long.MIN_VALUE, Long.MAX_VALUE, inWindow);
+		return atStart + inWindow.maxPrefix;
+	}
+
+	/**
+	 * Collect the times in (after, until] at which consumption drops, i.e. where reservations end.
+	 * A window can only become feasible by starting at one of these times, so they are the only start
+	 * times worth trying after the earliest one.
+	 * @param after
+	 * @param until
+	 * @param times - the release times found are added to this collection
+	 */
+	@Override
+	public void collectReleaseTimes(long after, long until, Collection<Long> times)
+	{
+		collectReleaseTimes(root, after, until, times);
+	}
+
+	/**
+	 * Forget every breakpoint before a time, folding them into a single breakpoint at that time. Consumption from
+	 * that time on is unchanged, so a reservation that began earlier can still be removed with its original times;
+	 * consumption before it is no longer tracked. Pruning regularly keeps the timeline to the breakpoints of a
+	 * rolling horizon. Takes O(log n) plus the number of breakpoints dropped.
+	 * @param time
+	 * @return the number of breakpoints dropped
+	 */
+	@Override
+	public int pruneBefore(long time)
+	{
+		int before = size;
+		Breakpoint[] parts = split(root, time);
+		if(parts[0] == null)
+			return 0;
+		size -= count(parts[0]);
+		root = insert(parts[1], time, parts[0].sum);
+		return before - size;
+	}
+
+	/**
+	 * Number of distinct times at which consumption changes
+	 * @return the number of breakpoints
+	 */
+	public int size()
+	{
+		return size;
+	}
+
+	/**
+	 * Check if nothing is reserved at any time
+	 * @return True if there are no breakpoints
+	 */
+	public boolean isEmpty()
+	{
+		return root == null;
+	}
+
+	@Override
+	public BandwidthTimeline snapshot()
+	{
+		BandwidthTimeline copy = new BandwidthTimeline();
+		copy.root = root;
+		copy.size = size;
+		owner = new Object();
+		return copy;
+	}
+
+	/**
+	 * Fold every breakpoint with lo < time < hi into the aggregate, in time order.
+	 * minBound/maxBound are the key limits implied by the path from the root, so whole subtrees
+	 * that lie inside the range are folded in without being walked.
+	 */
+	private void collect(Breakpoint n, long lo, long hi, long minBound, long maxBound, RangeAggregate agg)
+	{
+		if(n == null)
+			return;
+		if(minBound > lo && maxBound < hi)
+		{
+			agg.append(n.sum, n.maxPrefix);
+			return;
+		}
+		if(n.time > lo)
+			collect(n.left, lo, hi, minBound, n.time - 1, agg);
+		if(n.time > lo && n.time < hi)
+			agg.append(n.delta, n.delta);
+		if(n.time < hi)
+			collect(n.right, lo, hi, n.time + 1, maxBound, agg);
+	}
+
+	private void collectReleaseTimes(Breakpoint n, long after, long until, Collection<Long> times)
+	{
+		if(n == null)
+			return;
+		if(n.time > after)
+			collectReleaseTimes(n.left, after, until, times);
+		if(n.time > after && n.time <= until && n.delta < 0)
+			times.add(n.time);
+		if(n.time <= until)
+			collectReleaseTimes(n.right, after, until, times);
+	}
+
+	/**
+	 * Add delta to the breakpoint at time, creating it if needed and dropping it once it cancels out.
+	 */
+	private Breakpoint insert(Breakpoint n, long time, long delta)
+	{
+		if(n == null)
+		{
+			if(delta == 0)
+				return null;
+			size++;
+			return new Breakpoint(time, delta, priorities.nextInt(), owner);
+		}
+
+		n = own(n);
+		if(time == n.time)
+		{
+			n.delta += delta;
+			if(n.delta == 0)
+			{
+				size--;
+				return merge(n.left, n.right);
+			}
+		}
+		else if(time < n.time)
+		{
+			n.left = insert(n.left, time, delta);
+			if(n.left != null && n.left.priority > n.priority)
+				return rotateRight(n);
+		}
+		else
+		{
+			n.right = insert(n.right, time, delta);
+			if(n.right != null && n.right.priority > n.priority)
+				return rotateLeft(n);
+		}
+
+		update(n);
+		return n;
+	}
+
+	/**
+	 * Split a treap into the breakpoints before a time and those at or after it.
+	 * @return the two treaps, earlier one first
+	 */
+	private Breakpoint[] split(Breakpoint n, long time)
+	{
+		if(n == null)
+			return new Breakpoint[2];
+		Breakpoint[] parts;
+		n = own(n);
+		if(n.time < time)
+		{
+			parts = split(n.right, time);
+			n.right = parts[0];
+			parts[0] = n;
+		}
+		else
+		{
+			parts = split(n.left, time);
+			n.left = parts[1];
+			parts[1] = n;
+		}
+		update(n);
+		return parts;
+	}
+
+	private static int count(Breakpoint n)
+	{
+		return n == null ? 0 : 1 + count(n.left) + count(n.right);
+	}
+
+	/**
+	 * Join two treaps where every time in a precedes every time in b.
+	 */
+	private Breakpoint merge(Breakpoint a, Breakpoint b)
+	{
+		if(a == null)
+			return b;
+		if(b == null)
+			return a;
+		if(a.priority > b.priority)
+		{
+			a = own(a);
+			a.right = merge(a.right, b);
+			update(a);
+			return a;
+		}
+		b = own(b);
+		b.left = merge(a, b.left);
+		update(b);
+		return b;
+	}
+
+	private Breakpoint rotateRight(Breakpoint n)
+	{
+		Breakpoint l = own(n.left);
+		n.left = l.right;
+		update(n);
+		l.right = n;
+		update(l);
+		return l;
+	}
+
+	private Breakpoint rotateLeft(Breakpoint n)
+	{
+		Breakpoint r = own(n.right);
+		n.right = r.left;
+		update(n);
+		r.left = n;
+		update(r);
+		return r;
+	}
+
+	/**
+	 * Get a node this timeline may change, copying it if it is shared with a snapshot
+	 */
+	private Breakpoint own(Breakpoint n)
+	{
+		if(n.owner == owner)
+			return n;
+		Breakpoint copy = new Breakpoint(n.time, n.delta, n.priority, owner);
+		copy.left = n.left;
+		copy.right = n.right;
+		copy.sum = n.sum;
+		copy.maxPrefix = n.maxPrefix;
+		return copy;
+	}
+
+	/**
+	 * Recompute a node's subtree sum and highest running total from its children.
+	 */
+	private void update(Breakpoint n)
+	{
+		long leftSum = sumOf(n.left);
+		long throughNode = leftSum + n.delta;
+		long best = throughNode;
+		if(n.left != null)
+			best = Math.max(best, n.left.maxPrefix);
+		if(n.right != null)
+			best = Math.max(best, throughNode + n.right.maxPrefix);
+		n.sum = throughNode + sumOf(n.right);
+		n.maxPrefix = best;
+	}
+
+	private static long sumOf(Breakpoint n)
+	{
+		return n == null ? 0 : n.sum;
+	}
+}
@@ -0,0 +1,64 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Collection;
+
+/**
+ * Bandwidth consumed on one link across time. Each FlowLink keeps its reservations in one of these; callers
+ * hold the link's lock, so implementations need not be thread safe. Snapshots are the exception: once taken,
+ * a snapshot never changes and may be read from any number of threads without a lock.
+ */
+public interface BandwidthUsage
+{
+	/**
+	 * Record a reservation of bandwidth during [startTime, endTime).
+	 * @param bandwidth
+	 * @param startTime
+	 * @param endTime
+	 */
+	public void addReservation(long bandwidth, long startTime, long endTime);
+
+	/**
+	 * Remove a reservation previously added with the same bandwidth and times.
+	 * @param bandwidth
+	 * @param startTime
+	 * @param endTime
+	 */
+	public void removeReservation(long bandwidth, long startTime, long endTime);
+
+	/**
+	 * Get the bandwidth consumed at a single instant.
+	 * @param time
+	 * @return consumed bandwidth at that time
+	 */
+	public long getConsumptionAt(long time);
+
+	/**
+	 * Get the highest bandwidth consumed at any instant during [startTime, endTime).
+	 * @param startTime
+	 * @param endTime
+	 * @return peak consumed bandwidth in the window
+	 */
+	public long getPeakConsumption(long startTime, long endTime);
+
+	/**
+	 * Collect the times in (after, until] at which reservations end
+	 * @param after
+	 * @param until
+	 * @param times - the release times found are added to this collection
+	 */
+	public void collectReleaseTimes(long after, long until, Collection<Long> times);
+
+	/**
+	 * Forget consumption before a time. Consumption from that time on is unchanged.
+	 * @param time
+	 * @return the number of entries dropped
+	 */
+	public int pruneBefore(long time);
+
+	/**
+	 * Take a copy of the current usage that later changes do not affect. Taking it is cheap; the cost of
+	 * copying falls on the next change instead.
+	 * @return the snapshot, which must not be changed
+	 */
+	public BandwidthUsage snapshot();
+}
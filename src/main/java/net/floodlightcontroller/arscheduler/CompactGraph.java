@@ -0,0 +1,214 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayList;
+
+/**
+ * Representation of a topology as a compressed adjacency list (CSR). Used for shortest path calculations.
+ * Nodes are numbered 0..size()-1 and the outgoing edges of node v are the edge indices
+ * getFirstEdge(v) (inclusive) to getEndEdge(v) (exclusive). Each edge is backed by one FlowLink.
+ * The graph only depends on the topology's structure, so it is built once per topology and shared by
+ * every request; per-request constraints such as available bandwidth are applied as edge filters.
+ */
+public class CompactGraph
+{
+	/**
+	 * The nodes, by index
+	 */
+	private Node[] nodes;
+	/**
+	 * The topology the graph was built from, whose node indexes the graph shares
+	 */
+	private Topology topology;
+	/**
+	 * Offset of each node's first outgoing edge, with one extra entry marking the end of the last node's edges
+	 */
+	private int[] edgeOffsets;
+	/**
+	 * Source node index of each edge
+	 */
+	private int[] edgeSources;
+	/**
+	 * Destination node index of each edge
+	 */
+	private int[] edgeTargets;
+	/**
+	 * Weight of each edge (every link currently counts as one hop)
+	 */
+	private int[] edgeWeights;
+	/**
+	 * The link backing each edge
+	 */
+	private FlowLink[] edgeLinks;
+
+	/**
+	 * Construct the CompactGraph using a Topology
+	 * @param topo
+	 */
+	public CompactGraph(Topology topo)
+	{
+		ArrayList<Node> topoNodes = topo.getNodes();
+		nodes = topoNodes.toArray(new Node[topoNodes.size()]);
+		topology = topo;
+
+		// Count the outgoing edges of each node, skipping links whose endpoints are not in the topology
+		ArrayList<FlowLink> topoLinks = topo.getLinks();
+		int[] linkSources = new int[topoLinks.size()];
+		int[] linkTargets = new int[topoLinks.size()];
+		edgeOffsets = new int[nodes.length + 1];
+		int numEdges = 0;
+		for(int l = 0; l < topoLinks.size(); l++)
+		{
+			FlowLink link = topoLinks.get(l);
+			linkSources[l] = indexOf(link.getSrcNode());
+			linkTargets[l] = indexOf(link.getDstNode());
+			if(linkSources[l] >= 0 && linkTargets[l] >= 0)
+			{
+				edgeOffsets[linkSources[l] + 1]++;
+				numEdges++;
+			}
+		}
+		for(int v = 0; v < nodes.length; v++)
+		{
+			edgeOffsets[v + 1] += edgeOffsets[v];
+		}
+
+		// Place each link in its source node's slice
+		edgeSources = new int[numEdges];
+		edgeTargets = new int[numEdges];
+		edgeWeights = new int[numEdges];
+		edgeLinks = new FlowLink[numEdges];
+		int[] nextSlot = new int[nodes.length];
+		System.arraycopy(edgeOffsets, 0, nextSlot, 0, nodes.length);
+		for(int l = 0; l < topoLinks.size(); l++)
+		{
+			if(linkSources[l] < 0 || linkTargets[l] < 0)
+				continue;
+			int e = nextSlot[linkSources[l]]++;
+			edgeSources[e] = linkSources[l];
+			edgeTargets[e] = linkTargets[l];
+			edgeWeights[e] = 1;
+			edgeLinks[e] = topoLinks.get(l);
+		}
+	}
+
+	/**
+	 * Return the number of nodes in the graph
+	 * @return the size
+	 */
+	public int size()
+	{
+		return nodes.length;
+	}
+
+	/**
+	 * Return the number of edges (links) in the graph
+	 * @return the edge count
+	 */
+	public int getEdgeCount()
+	{
+		return edgeLinks.length;
+	}
+
+	/**
+	 * Find the index matching the given Node
+	 * @param node
+	 * @return the index of the given node, -1 if it is not in the graph
+	 */
+	public int indexOf(Node node)
+	{
+		return topology.indexOf(node.getNodeName());
+	}
+
+	/**
+	 * Get the node at the given index
+	 * @param index
+	 * @return the located node object
+	 */
+	public Node getNode(int index)
+	{
+		return nodes[index];
+	}
+
+	/**
+	 * Get the index of a node's first outgoing edge
+	 * @param node
+	 * @return edge index
+	 */
+	public int getFirstEdge(int node)
+	{
+		return edgeOffsets[node];
+	}
+
+	/**
+	 * Get the index just past a node's last outgoing edge
+	 * @param node
+	 * @return edge index
+	 */
+	public int getEndEdge(int node)
+	{
+		return edgeOffsets[node + 1];
+	}
+
+	/**
+	 * Get the source node index of an edge
+	 * @param edge
+	 * @return node index
+	 */
+	public int getEdgeSource(int edge)
+	{
+		return edgeSources[edge];
+	}
+
+	/**
+	 * Get the destination node index of an edge
+	 * @param edge
+	 * @return node index
+	 */
+	public int getEdgeTarget(int edge)
+	{
+		return edgeTargets[edge];
+	}
+
+	/**
+	 * Get the weight of an edge
+	 * @param edge
+	 * @return the weight
+	 */
+	public int getEdgeWeight(int edge)
+	{
+		return edgeWeights[edge];
+	}
+
+	/**
+	 * Get the link backing an edge
+	 * @param edge
+	 * @return the FlowLink
+	 */
+	public FlowLink getEdgeLink(int edge)
+	{
+		return edgeLinks[edge];
+	}
+
+	/**
+	 * Output the graph as a string
+	 */
+	@Override
+	public String toString()
+	{
+		StringBuilder output = new StringBuilder("CompactGraph [");
+		for(int v = 0; v < nodes.length; v++)
+		{
+			output.append(nodes[v]).append(" -> {");
+			for(int e = edgeOffsets[v]; e < edgeOffsets[v + 1]; e++)
+			{
+				output.append(nodes[edgeTargets[e]]);
+				if(e + 1 < edgeOffsets[v + 1])
+					output.append(", ");
+			}
+			output.append("}");
+			if(v + 1 < nodes.length)
+				output.append(", ");
+		}
+		return output.append("]").toString();
+	}
+}
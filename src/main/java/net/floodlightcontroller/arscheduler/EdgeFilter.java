@@ -0,0 +1,14 @@
+package net.floodlightcontroller.arscheduler;
+
+/**
+ * Decides which edges of a CompactGraph a path search is allowed to use.
+ */
+public interface EdgeFilter
+{
+	/**
+	 * Check if an edge may be used
+	 * @param edge - the edge index in the graph
+	 * @return True if the edge may be part of a path
+	 */
+	public boolean isUsable(int edge);
+}
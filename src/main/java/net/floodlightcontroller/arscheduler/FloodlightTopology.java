@@ -13,15 +13,17 @@ import org.projectfloodlight.openflow.types.DatapathId;
 
 /**
  * Represents a collection of Floodlight objects which make up a topology.
+ * The collections are replaced rather than modified when the topology changes, so readers never see them part way
+ * through an update.
  * @author dylan
  *
  */
 public class FloodlightTopology {
-	protected ArrayList<IDevice> devices;
-	protected ArrayList<Link> links;
-	protected Map<DatapathId, IOFSwitch> switchMap;
-	protected HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap;
-	protected HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap;
+	protected volatile ArrayList<IDevice> devices;
+	protected volatile ArrayList<Link> links;
+	protected volatile Map<DatapathId, IOFSwitch> switchMap;
+	protected volatile HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap;
+	protected volatile HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap;
 	
 	public FloodlightTopology(ArrayList<IDevice> devices2,
 			ArrayList<Link> links2, Map<DatapathId, IOFSwitch> switchMap2,
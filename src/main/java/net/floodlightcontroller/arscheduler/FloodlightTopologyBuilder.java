@@ -3,6 +3,7 @@ package net.floodlightcontroller.arscheduler;
 import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ExecutionException;
@@ -18,6 +19,7 @@ import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFQueueGetConfigReply;
 import org.projectfloodlight.openflow.protocol.OFQueueGetConfigRequest;
 import org.projectfloodlight.openflow.types.DatapathId;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 /**
  * Construct a FloodlightTopology wrapper to contain information about Floodlight's view of the network.
@@ -36,6 +38,18 @@ public class FloodlightTopologyBuilder {
 	 * determined correctly through Floodlight calls
 	 */
 	static protected long bitsPerGb = 1000000000;
+	/**
+	 * How long queue discovery waits for all of its replies, in milliseconds
+	 */
+	static protected final long QUEUE_DISCOVERY_TIMEOUT_MS = 10000;
+	/**
+	 * Delay before the first background retry of unanswered queue requests, in milliseconds; grows linearly per retry
+	 */
+	static protected final long QUEUE_DISCOVERY_RETRY_DELAY_MS = 30000;
+	/**
+	 * How many times unanswered queue requests are retried in the background
+	 */
+	static protected final int QUEUE_DISCOVERY_RETRIES = 3;
 
 	/**
 	 * Construct the builder using a reference to the ARScheduler
@@ -110,23 +124,34 @@ public class FloodlightTopologyBuilder {
 		HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>();
 		for(DatapathId id : switchMap.keySet()){
 			IOFSwitch switchObject = switchMap.get(id);
-			Collection<OFPortDesc> ports = switchObject.getPorts();
-			ArrayList<OFPortDesc> usablePorts = new ArrayList<OFPortDesc>();
-			for(OFPortDesc port : ports){
-				//Integer portNum = port.getPortNo().getPortNumber();
-				//Long portBandwidth = port.getCurrSpeed();
-				if(port.getCurrSpeed() > 0){
-					//getCurrSpeed returns bandwidth in Megabits
-					usablePorts.add(port);
-				}
-			}
-			switchPortMap.put(switchObject, usablePorts);
+			switchPortMap.put(switchObject, createUsablePorts(switchObject));
 		}
 		return switchPortMap;
 	}
 	
+	/**
+	 * Get the ports of a single switch that report a speed.
+	 * @param switchObject
+	 * @return ArrayList<OFPortDesc> of the switch's usable ports
+	 */
+	public ArrayList<OFPortDesc> createUsablePorts(IOFSwitch switchObject){
+		Collection<OFPortDesc> ports = switchObject.getPorts();
+		ArrayList<OFPortDesc> usablePorts = new ArrayList<OFPortDesc>();
+		for(OFPortDesc port : ports){
+			//Integer portNum = port.getPortNo().getPortNumber();
+			//Long portBandwidth = port.getCurrSpeed();
+			if(port.getCurrSpeed() > 0){
+				//getCurrSpeed returns bandwidth in Megabits
+				usablePorts.add(port);
+			}
+		}
+		return usablePorts;
+	}
+	
 	/**
 	 * Create a map of queues to switches, with each queue grouped by port number.
+	 * Switches that do not answer before the discovery deadline are reported with the ports that did answer,
+	 * and queried again in the background.
 	 * @param queueBandwidthMap
 	 * @param switchMap
 	 * @param switchPortMap
@@ -136,41 +161,204 @@ public class FloodlightTopologyBuilder {
 			Map<DatapathId, IOFSwitch> switchMap, HashMap<IOFSwitch, 
 			ArrayList<OFPortDesc>> switchPortMap){
 		
-		HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> queueMap = new HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>>();		
-		
+		HashMap<IOFSwitch, ArrayList<OFPortDesc>> portsToQuery = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>();
 		for(IOFSwitch thisSwitch : switchMap.values()){
-			
+			ArrayList<OFPortDesc> ports = switchPortMap.get(thisSwitch);
+			portsToQuery.put(thisSwitch, ports == null ? new ArrayList<OFPortDesc>() : ports);
+		}
+		
+		HashMap<IOFSwitch, ArrayList<OFPortDesc>> unanswered = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>();
+		HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> queueMap = discoverQueues(queueBandwidthMap, portsToQuery, unanswered);
+		if(!unanswered.isEmpty())
+			retryQueueDiscovery(queueBandwidthMap, unanswered, 1);
+		return queueMap;
+	}
+	
+	/**
+	 * Query a single switch for the queues on each of its ports.
+	 * Ports that do not answer before the discovery deadline are left out, and queried again in the background.
+	 * @param queueBandwidthMap
+	 * @param thisSwitch
+	 * @param ports - the switch's usable ports
+	 * @return HashMap<Integer, ArrayList<FlowQueue>>, the queues per port number
+	 */
+	public HashMap<Integer, ArrayList<FlowQueue>> createPortQueueMap(HashMap<Long, Long> queueBandwidthMap, 
+			IOFSwitch thisSwitch, ArrayList<OFPortDesc> ports){
+		
+		HashMap<IOFSwitch, ArrayList<OFPortDesc>> portsToQuery = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>();
+		portsToQuery.put(thisSwitch, ports);
+		HashMap<IOFSwitch, ArrayList<OFPortDesc>> unanswered = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>();
+		HashMap<Integer, ArrayList<FlowQueue>> portQueueMap = discoverQueues(queueBandwidthMap, portsToQuery, unanswered).get(thisSwitch);
+		if(!unanswered.isEmpty())
+			retryQueueDiscovery(queueBandwidthMap, unanswered, 1);
+		return portQueueMap;
+	}
+	
+	/**
+	 * Query a switch for the queues on one of its ports.
+	 * @param queueBandwidthMap
+	 * @param thisSwitch
+	 * @param portDesc
+	 * @return the port's queues, null if the switch did not answer
+	 */
+	public ArrayList<FlowQueue> createPortQueues(HashMap<Long, Long> queueBandwidthMap, IOFSwitch thisSwitch, OFPortDesc portDesc){
+		ListenableFuture<OFQueueGetConfigReply> future = requestPortQueues(thisSwitch, portDesc);
+		try { 
+		    // Wait for a reply; return when received; else exception thrown 
+		    return toFlowQueues(queueBandwidthMap, portDesc, future.get(QUEUE_DISCOVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS));
+		} catch (InterruptedException | ExecutionException | TimeoutException e) { 
+		    ARScheduler.logger.warn("No queue configuration from switch {} port {}: {}", 
+		    		new Object[] {thisSwitch.getId(), portDesc.getPortNo(), e.toString()});
+		    return null;
+		}
+	}
+	
+	/**
+	 * Query the queues of many switch ports at once.
+	 * Every request is sent before any reply is awaited, and all replies share one deadline,
+	 * so a slow or unreachable switch costs at most one timeout rather than one per port.
+	 * @param queueBandwidthMap
+	 * @param portsToQuery - the ports to query on each switch
+	 * @param unanswered - filled with the ports, per switch, that gave no reply before the deadline
+	 * @return the queues per port number per switch; every queried switch has an entry, holding the ports that did answer
+	 */
+	private HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> discoverQueues(HashMap<Long, Long> queueBandwidthMap,
+			Map<IOFSwitch, ArrayList<OFPortDesc>> portsToQuery, HashMap<IOFSwitch, ArrayList<OFPortDesc>> unanswered){
+		
+		// Send every request up front
+		HashMap<IOFSwitch, LinkedHashMap<OFPortDesc, ListenableFuture<OFQueueGetConfigReply>>> requests = 
+				new HashMap<IOFSwitch, LinkedHashMap<OFPortDesc, ListenableFuture<OFQueueGetConfigReply>>>();
+		ArrayList<ListenableFuture<OFQueueGetConfigReply>> allFutures = new ArrayList<ListenableFuture<OFQueueGetConfigReply>>();
+		for(Map.Entry<IOFSwitch, ArrayList<OFPortDesc>> entry : portsToQuery.entrySet()){
+			LinkedHashMap<OFPortDesc, ListenableFuture<OFQueueGetConfigReply>> switchRequests = 
+					new LinkedHashMap<OFPortDesc, ListenableFuture<OFQueueGetConfigReply>>();
+			for(OFPortDesc portDesc : entry.getValue()){
+				ListenableFuture<OFQueueGetConfigReply> future = requestPortQueues(entry.getKey(), portDesc);
+				switchRequests.put(portDesc, future);
+				allFutures.add(future);
+			}
+			requests.put(entry.getKey(), switchRequests);
+		}
+		
+		// Wait for all of the replies, up to the global deadline
+		try {
+			Futures.successfulAsList(allFutures).get(QUEUE_DISCOVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+		} catch (TimeoutException e) {
+			// Keep whatever has arrived
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		} catch (ExecutionException e) {
+			// successfulAsList does not fail; failed requests are picked up below
+		}
+		
+		// Collect the replies that arrived
+		HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> queueMap = new HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>>();
+		int answeredPorts = 0;
+		for(Map.Entry<IOFSwitch, LinkedHashMap<OFPortDesc, ListenableFuture<OFQueueGetConfigReply>>> entry : requests.entrySet()){
 			HashMap<Integer, ArrayList<FlowQueue>> portQueueMap = new HashMap<Integer, ArrayList<FlowQueue>>();
-			for(OFPortDesc portDesc : switchPortMap.get(thisSwitch)){
-				ArrayList<FlowQueue> queuesThisPort = new ArrayList<FlowQueue>();
-				OFQueueGetConfigRequest cr = arscheduler.of13Factory.buildQueueGetConfigRequest().setPort(portDesc.getPortNo()).build(); // Get all queues on all ports 
+			ArrayList<OFPortDesc> missingPorts = new ArrayList<OFPortDesc>();
+			for(Map.Entry<OFPortDesc, ListenableFuture<OFQueueGetConfigReply>> request : entry.getValue().entrySet()){
+				OFPortDesc portDesc = request.getKey();
+				ListenableFuture<OFQueueGetConfigReply> future = request.getValue();
+				OFQueueGetConfigReply reply = null;
+				if(future.isDone()){
+					try {
+						reply = future.get();
+					} catch (InterruptedException | ExecutionException e) {
+						reply = null;
+					}
+				}
+				else{
+					future.cancel(false);
+				}
 				
-				ListenableFuture<OFQueueGetConfigReply> future = thisSwitch.writeRequest(cr); // Send request to switch 1
-				try { 
-				    // Wait up to 10s for a reply; return when received; else exception thrown 
-				    OFQueueGetConfigReply reply = future.get(10, TimeUnit.SECONDS);
-				    // Iterate over all queues 
-				    for (OFPacketQueue q : reply.getQueues()) {
-				    	///queues.add(q);
-				    	if(q.getQueueId() == 0)
-				    		continue;
-				    	FlowQueue newQueue = new FlowQueue(portDesc.getPortNo().getPortNumber(), q.getQueueId(), 
-				    			queueBandwidthMap.get(Long.valueOf(q.getQueueId())));
-				    	queuesThisPort.add(newQueue);
-				    }
-				    int portNum = portDesc.getPortNo().getPortNumber();
-				    portQueueMap.put(Integer.valueOf(portNum), queuesThisPort);
-				} catch (InterruptedException | ExecutionException | TimeoutException e) { 
-				    e.printStackTrace();
+				if(reply != null){
+					portQueueMap.put(Integer.valueOf(portDesc.getPortNo().getPortNumber()), toFlowQueues(queueBandwidthMap, portDesc, reply));
+					answeredPorts++;
+				}
+				else{
+					missingPorts.add(portDesc);
 				}
 			}
-			queueMap.put(thisSwitch, portQueueMap);	
-	    	
+			queueMap.put(entry.getKey(), portQueueMap);
+			if(!missingPorts.isEmpty())
+				unanswered.put(entry.getKey(), missingPorts);
 		}
 		
+		if(unanswered.isEmpty()){
+			ARScheduler.logger.info("Queue discovery: {} ports on {} switches answered", answeredPorts, requests.size());
+		}
+		else{
+			ArrayList<DatapathId> slowSwitches = new ArrayList<DatapathId>();
+			for(IOFSwitch thisSwitch : unanswered.keySet())
+				slowSwitches.add(thisSwitch.getId());
+			ARScheduler.logger.warn("Queue discovery: {} of {} ports answered; no reply in time from switches {}", 
+					new Object[] {answeredPorts, allFutures.size(), slowSwitches});
+		}
 		return queueMap;
 	}
 	
+	/**
+	 * Query the ports that gave no queue configuration again after a delay, and patch any replies into the
+	 * tracked topology. Gives up after QUEUE_DISCOVERY_RETRIES attempts.
+	 * @param queueBandwidthMap
+	 * @param unanswered - the ports, per switch, still to query
+	 * @param attempt - the retry number, starting from 1
+	 */
+	private void retryQueueDiscovery(final HashMap<Long, Long> queueBandwidthMap, 
+			final HashMap<IOFSwitch, ArrayList<OFPortDesc>> unanswered, final int attempt){
+		if(attempt > QUEUE_DISCOVERY_RETRIES){
+			ARScheduler.logger.error("Queue discovery: giving up on {} switches after {} retries", unanswered.size(), QUEUE_DISCOVERY_RETRIES);
+			return;
+		}
+		
+		arscheduler.threadPoolService.getScheduledExecutor().schedule(new Runnable() {
+			@Override
+			public void run(){
+				HashMap<IOFSwitch, ArrayList<OFPortDesc>> stillUnanswered = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>();
+				HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> found = discoverQueues(queueBandwidthMap, unanswered, stillUnanswered);
+				if(arscheduler.topologyTracker != null){
+					for(Map.Entry<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> entry : found.entrySet()){
+						for(Map.Entry<Integer, ArrayList<FlowQueue>> portQueues : entry.getValue().entrySet())
+							arscheduler.topologyTracker.addPortQueues(entry.getKey(), portQueues.getKey(), portQueues.getValue());
+					}
+				}
+				if(!stillUnanswered.isEmpty())
+					retryQueueDiscovery(queueBandwidthMap, stillUnanswered, attempt + 1);
+			}
+		}, QUEUE_DISCOVERY_RETRY_DELAY_MS * attempt, TimeUnit.MILLISECONDS);
+	}
+	
+	/**
+	 * Send a queue configuration request for one port of a switch
+	 * @param thisSwitch
+	 * @param portDesc
+	 * @return the pending reply
+	 */
+	private ListenableFuture<OFQueueGetConfigReply> requestPortQueues(IOFSwitch thisSwitch, OFPortDesc portDesc){
+		OFQueueGetConfigRequest cr = arscheduler.of13Factory.buildQueueGetConfigRequest().setPort(portDesc.getPortNo()).build();
+		return thisSwitch.writeRequest(cr);
+	}
+	
+	/**
+	 * Convert a queue configuration reply into FlowQueues, skipping the default queue 0
+	 * @param queueBandwidthMap
+	 * @param portDesc
+	 * @param reply
+	 * @return the port's queues
+	 */
+	private ArrayList<FlowQueue> toFlowQueues(HashMap<Long, Long> queueBandwidthMap, OFPortDesc portDesc, OFQueueGetConfigReply reply){
+		ArrayList<FlowQueue> queuesThisPort = new ArrayList<FlowQueue>();
+		for (OFPacketQueue q : reply.getQueues()) {
+			if(q.getQueueId() == 0)
+				continue;
+			FlowQueue newQueue = new FlowQueue(portDesc.getPortNo().getPortNumber(), q.getQueueId(), 
+					queueBandwidthMap.get(Long.valueOf(q.getQueueId())));
+			queuesThisPort.add(newQueue);
+		}
+		return queuesThisPort;
+	}
+	
 	/**
 	 * Creates the *hardcoded* mapping of queue number of bandwidth
 	 * Change if queue min/max rate properties become available programmatically
@@ -1,5 +1,7 @@
 package net.floodlightcontroller.arscheduler;
 
+import java.util.concurrent.atomic.AtomicLong;
+
 /**
  * A Flow request. A request is established from a source host to a destination host for a certain time period, reserving a certain amount of bandwidth.
  * @author Dylan Davis
@@ -24,22 +26,36 @@ public class Flow
 	 */
 	private String dstIP;
 	/**
-	 * The Flow's unique ID
+	 * The Flow's unique ID. The lower 32 bits are counted up on this controller; the bits above them hold the
+	 * controller's node ID, so controllers of one cluster never hand out the same ID.
 	 */
-	private static long classFlowID = 0;
+	private static AtomicLong classFlowID = new AtomicLong(0);
 	private long flowID;
+	/**
+	 * Width of the part of a Flow ID counted up locally
+	 */
+	static final int NODE_ID_SHIFT = 32;
+	static final long LOCAL_ID_MASK = (1L << NODE_ID_SHIFT) - 1;
+	/**
+	 * Width of the node ID kept above the local part; FlowCookie has room for no more
+	 */
+	static final int NODE_ID_BITS = 15;
+	/**
+	 * This controller's node ID, already shifted into place
+	 */
+	private static volatile long nodeIDBits = 0;
 	/**
 	 * The request bandwidth in bits per second
 	 */
 	private long bandwidth;  // bps
 	
-	//startTime & endTime - number of seconds since 00:00
+	//startTime & endTime - milliseconds since the epoch
 	private long startTime;
 	private long endTime;
 	/**
 	 * Indicate if the flow was successfully provisioned
 	 */
-	private boolean successfullyScheduled;
+	private volatile boolean successfullyScheduled;
 	
 	/**
 	 * Construct a flow given the passed in parameters from a user.
@@ -55,7 +71,7 @@ public class Flow
 	{
 		srcNode = srcAddr;
 		dstNode = dstAddr;
-		flowID = ++classFlowID;
+		flowID = nodeIDBits | (classFlowID.incrementAndGet() & LOCAL_ID_MASK);
 		bandwidth = bw;
 		startTime = start;
 		endTime = end;
@@ -65,6 +81,52 @@ public class Flow
 		successfullyScheduled = false;
 	}
 	
+	/**
+	 * Construct a flow that keeps an ID it was given before, such as one restored from the reservation journal.
+	 * If the ID was assigned by this controller, Flows constructed afterwards are given higher IDs.
+	 * @param id
+	 * @param srcAddr
+	 * @param dstAddr
+	 * @param bw
+	 * @param start
+	 * @param end
+	 * @param srcIP
+	 * @param dstIP
+	 */
+	public Flow(long id, Node srcAddr, Node dstAddr, long bw, long start, long end, String srcIP, String dstIP)
+	{
+		srcNode = srcAddr;
+		dstNode = dstAddr;
+		flowID = id;
+		if((id & ~LOCAL_ID_MASK) == nodeIDBits)
+		{
+			long local = id & LOCAL_ID_MASK;
+			long current = classFlowID.get();
+			while(current < local && !classFlowID.compareAndSet(current, local))
+			{
+				current = classFlowID.get();
+			}
+		}
+		bandwidth = bw;
+		startTime = start;
+		endTime = end;
+		this.srcIP = srcIP;
+		this.dstIP = dstIP;
+		
+		successfullyScheduled = false;
+	}
+	
+	/**
+	 * Set the node ID of this controller in its cluster, carried by every Flow ID assigned from now on
+	 * @param nodeID - between 0 and 2^15 - 1
+	 */
+	public static void setNodeID(short nodeID)
+	{
+		if(nodeID < 0 || nodeID >= 1 << NODE_ID_BITS)
+			throw new IllegalArgumentException("Node ID " + nodeID + " does not fit in a Flow ID");
+		nodeIDBits = (long) nodeID << NODE_ID_SHIFT;
+	}
+	
 	public void schedulingSuccess(boolean success)
 	{
 		successfullyScheduled = success;
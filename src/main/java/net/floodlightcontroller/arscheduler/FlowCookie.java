@@ -0,0 +1,62 @@
+package net.floodlightcontroller.arscheduler;
+
+import net.floodlightcontroller.core.util.AppCookie;
+
+import org.projectfloodlight.openflow.types.U64;
+
+/**
+ * Encodes Flow IDs into the cookies of the flow rules pushed by the ARScheduler, and decodes them from
+ * FLOW_REMOVED messages. Cookies follow the AppCookie layout, with the ARScheduler's application ID in the
+ * upper bits and the locally counted part of the Flow ID in the lower 32 bits, so rules installed by other
+ * modules are told apart without touching the rest of the message. The node ID part of the Flow ID goes in
+ * bits 37-51, clear of the application ID and of the bits AppCookie sets aside for field rewrites.
+ */
+public class FlowCookie
+{
+	/**
+	 * The ARScheduler's AppCookie application ID
+	 */
+	public static final int ARSCHEDULER_APP_ID = 30;
+	static {
+		AppCookie.registerApp(ARSCHEDULER_APP_ID, "ARScheduler");
+	}
+
+	/**
+	 * Position and mask of the node ID in a cookie
+	 */
+	private static final int NODE_ID_SHIFT = 37;
+	private static final long NODE_ID_MASK = (1L << Flow.NODE_ID_BITS) - 1;
+
+	/**
+	 * Build the cookie for the flow rules of a Flow
+	 * @param flowID
+	 * @return the cookie
+	 */
+	public static U64 makeCookie(long flowID)
+	{
+		long nodeID = (flowID >>> Flow.NODE_ID_SHIFT) & NODE_ID_MASK;
+		U64 cookie = AppCookie.makeCookie(ARSCHEDULER_APP_ID, (int) (flowID & Flow.LOCAL_ID_MASK));
+		return U64.of(cookie.getValue() | (nodeID << NODE_ID_SHIFT));
+	}
+
+	/**
+	 * Check if a cookie belongs to a flow rule pushed by the ARScheduler
+	 * @param cookie
+	 * @return True if the cookie carries the ARScheduler's application ID
+	 */
+	public static boolean isARSchedulerCookie(U64 cookie)
+	{
+		return AppCookie.extractApp(cookie) == ARSCHEDULER_APP_ID;
+	}
+
+	/**
+	 * Get the Flow ID carried by an ARScheduler cookie
+	 * @param cookie
+	 * @return the Flow ID
+	 */
+	public static long getFlowID(U64 cookie)
+	{
+		long nodeID = (cookie.getValue() >>> NODE_ID_SHIFT) & NODE_ID_MASK;
+		return (nodeID << Flow.NODE_ID_SHIFT) | (AppCookie.extractUser(cookie) & Flow.LOCAL_ID_MASK);
+	}
+}
@@ -1,7 +1,12 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.util.ArrayList;
-import java.util.Vector;
+import java.util.Collection;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * A Link, made up of a name, source node, destination node, source port, destination port, and bandwidth capacity.
@@ -35,9 +40,30 @@ public class FlowLink {
 	 */
 	private long bandwidthCapacity;
 	/**
-	 * A list of the time period & bandwidth consumed for each flow using this link
+	 * The time period & bandwidth consumed for each flow using this link, with a count of identical uses
 	 */
-	private ArrayList<FlowLinkAvailabilityTuple> allUses;
+	private HashMap<FlowLinkAvailabilityTuple, Integer> allUses;
+	/**
+	 * Bandwidth consumed across time, summed over every use of this link
+	 */
+	private BandwidthUsage timeline;
+	/**
+	 * Snapshot of the bandwidth usage for readers that take no lock, and whether the usage has changed since
+	 */
+	private volatile BandwidthUsage published;
+	private volatile boolean publishedStale;
+	/**
+	 * Used to generate link ID
+	 */
+	private static AtomicInteger classLinkID = new AtomicInteger(0);
+	/**
+	 * The link's ID, unique across all links. Defines the order in which links are locked.
+	 */
+	private int linkID;
+	/**
+	 * Guards the link's bandwidth usage. Admissions hold the locks of every link on a path, taken in linkID order.
+	 */
+	private ReentrantLock lock = new ReentrantLock();
 	
 	/**
 	 * Construct the FlowLink. The list of uses across time is initialized as an empty list.
@@ -49,6 +75,21 @@ public class FlowLink {
 	 * @param bw
 	 */
 	public FlowLink(String lnkName, Node src, Node dst, Port srcP, Port dstP, long bw)
+	{
+		this(lnkName, src, dst, srcP, dstP, bw, new BandwidthTimeline());
+	}
+	
+	/**
+	 * Construct the FlowLink, keeping its bandwidth usage in the given backend.
+	 * @param lnkName
+	 * @param src
+	 * @param dst
+	 * @param srcP
+	 * @param dstP
+	 * @param bw
+	 * @param usage - an empty BandwidthUsage
+	 */
+	public FlowLink(String lnkName, Node src, Node dst, Port srcP, Port dstP, long bw, BandwidthUsage usage)
 	{
 		linkName = lnkName;
 		srcNode = src;
@@ -56,7 +97,37 @@ public class FlowLink {
 		srcPort = srcP;
 		dstPort = dstP;
 		bandwidthCapacity = bw;
-		allUses = new ArrayList<FlowLinkAvailabilityTuple>();
+		allUses = new HashMap<FlowLinkAvailabilityTuple, Integer>();
+		timeline = usage;
+		published = usage.snapshot();
+		linkID = classLinkID.incrementAndGet();
+	}
+	
+	/**
+	 * Get this link's ID
+	 * @return int ID
+	 */
+	public int getID()
+	{
+		return linkID;
+	}
+	
+	/**
+	 * Get this link's name
+	 * @return String name
+	 */
+	public String getLinkName()
+	{
+		return linkName;
+	}
+	
+	/**
+	 * Get the lock guarding this link's bandwidth usage
+	 * @return the lock
+	 */
+	public ReentrantLock getLock()
+	{
+		return lock;
 	}
 	
 	/**
@@ -74,7 +145,23 @@ public class FlowLink {
 	 */
 	public ArrayList<FlowLinkAvailabilityTuple> getBandwidthConsumptions()
 	{
-		return allUses;
+		ArrayList<FlowLinkAvailabilityTuple> uses = new ArrayList<FlowLinkAvailabilityTuple>();
+		lock.lock();
+		try
+		{
+			for(Map.Entry<FlowLinkAvailabilityTuple, Integer> use : allUses.entrySet())
+			{
+				for(int i = 0; i < use.getValue(); i++)
+				{
+					uses.add(use.getKey());
+				}
+			}
+		}
+		finally
+		{
+			lock.unlock();
+		}
+		return uses;
 	}
 	
 	/**
@@ -85,7 +172,19 @@ public class FlowLink {
 	 */
 	public void decreaseBandwidthAvailable(long lessBandwidth, long startTime, long endTime)
 	{
-		allUses.add(new FlowLinkAvailabilityTuple(lessBandwidth, startTime, endTime));
+		FlowLinkAvailabilityTuple use = new FlowLinkAvailabilityTuple(lessBandwidth, startTime, endTime);
+		lock.lock();
+		try
+		{
+			Integer count = allUses.get(use);
+			allUses.put(use, count == null ? 1 : count + 1);
+			timeline.addReservation(lessBandwidth, startTime, endTime);
+			publishedStale = true;
+		}
+		finally
+		{
+			lock.unlock();
+		}
 	}
 
 	/**
@@ -97,22 +196,26 @@ public class FlowLink {
 	 */
 	public boolean increaseBandwidthAvailable(long moreBandwidth, long startTime, long endTime)
 	{
-		for(FlowLinkAvailabilityTuple oneBWAvail : allUses)
+		FlowLinkAvailabilityTuple use = new FlowLinkAvailabilityTuple(moreBandwidth, startTime, endTime);
+		lock.lock();
+		try
 		{
-			if(oneBWAvail.getConsumedBandwidth() == moreBandwidth)
-			{
-				if(oneBWAvail.getStartTime() == startTime)
-				{
-					if(oneBWAvail.getEndTime() == endTime)
-					{
-						allUses.remove(oneBWAvail);
-						return true;
-					}
-				}
-			}
+			Integer count = allUses.get(use);
+			if(count == null)
+				return false;
+			
+			if(count == 1)
+				allUses.remove(use);
+			else
+				allUses.put(use, count - 1);
+			timeline.removeReservation(moreBandwidth, startTime, endTime);
+			publishedStale = true;
+			return true;
+		}
+		finally
+		{
+			lock.unlock();
 		}
-		
-		return false;
 	}
 	
 	/**
@@ -159,142 +262,101 @@ public class FlowLink {
 	{		
 		String output = "Link " + linkName + ": (" + srcNode + ", " + dstNode + ")\n\t{";
 		
-		for(FlowLinkAvailabilityTuple t : allUses)
+		for(FlowLinkAvailabilityTuple t : getBandwidthConsumptions())
 		{
-			int startHour = (int)(t.getStartTime() / 60 / 60);
-			int startMinute = (int)(t.getStartTime() / 60 % 60);	
-			int endHour = (int)(t.getEndTime() / 60 / 60);
-			int endMinute = (int)(t.getEndTime() / 60 % 60);
-			
-			output += "BW: " + t.getConsumedBandwidth() + "Gbps , " + "(" + startHour + ":" + startMinute + " - " + endHour + ":" + endMinute + ")\n";
+			output += "BW: " + t.getConsumedBandwidth() + "Gbps , " + "(" + new Date(t.getStartTime()) + " - " + new Date(t.getEndTime()) + ")\n";
 		}
 		return output;
 	}
 	
-	// Added by Jeremy for AR Bandwidth availability check
 	/**
-	 * Get the amount of bandwidth available during a time period
-	 * @param startX
-	 * @param endX
-	 * @return long Bandwidth available
+	 * Forget the link's consumption before a time. Bandwidth reserved after it is unaffected.
+	 * @param time
+	 * @return the number of timeline entries dropped
 	 */
-	public long getBandwidthAvailableBetweenTimes(long startX, long endX)
-	{		
-		ArrayList< ArrayList<Integer> > overlaps = new ArrayList< ArrayList<Integer> >();
-		ArrayList<Integer> overlapsWithX = new ArrayList<Integer>();
-		Vector<Long> maxBandwidth = new Vector<Long>();
-		long maxBWUsed = 0;
-		boolean[] checkedIndex = new boolean[allUses.size()];
-							
-		for(int i = 0; i < allUses.size()-1; i++)
+	public int pruneBefore(long time)
+	{
+		lock.lock();
+		try
 		{
-			long startI = allUses.get(i).getStartTime();
-			long endI = allUses.get(i).getEndTime();
-			
-			ArrayList<Integer> overlapsWithI = new ArrayList<Integer>();
-		
-			for(int j = i+1; j < allUses.size(); j++)
-			{					
-				long startJ = allUses.get(j).getStartTime();
-				long endJ = allUses.get(j).getEndTime();
-				
-				// Reservations I and J overlap in time
-				if(((startI >= startJ) && (endI >= endJ) && (startI <= endJ)) || ((startI <= startJ) && (endI <= endJ) && (endI >= startJ)) || ((startI <= startJ) && (endI >= endJ)) || ((startI >= startJ) && (endI <= endJ)))
-				{
-					overlapsWithI.add(j);
-				}
-			}
-			
-			overlaps.add(overlapsWithI);
+			int dropped = timeline.pruneBefore(time);
+			publishedStale = true;
+			return dropped;
 		}
-							
-		for(int y = 0; y < allUses.size(); y++)
+		finally
 		{
-			long startY = allUses.get(y).getStartTime();
-			long endY = allUses.get(y).getEndTime();
-			
-			// Reservations X and Y overlap in time
-			if(((startX >= startY) && (endX >= endY) && (startX <= endY)) || ((startX <= startY) && (endX <= endY) && (endX >= startY)) || ((startX <= startY) && (endX >= endY)) || ((startX >= startY) && (endX <= endY)))
-			{
-				overlapsWithX.add(y);
-			}				
+			lock.unlock();
 		}
-								
-		for(Integer oneIndex : overlapsWithX)
+	}
+	
+	/**
+	 * Get a snapshot of the link's bandwidth usage without waiting on the link's lock. If the usage has changed
+	 * since the last snapshot and no admission holds the lock, a new snapshot is taken, which costs O(1); if an
+	 * admission holds it, the previous snapshot is returned, missing only the changes in flight.
+	 * @return a BandwidthUsage that never changes
+	 */
+	public BandwidthUsage getUsageSnapshot()
+	{
+		if(publishedStale && lock.tryLock())
 		{
-			if(!checkedIndex[oneIndex])
+			try
 			{
-				Vector<Long> oneBW = exploreOverlappingReservations(overlaps, allUses, oneIndex, overlapsWithX, checkedIndex);
-				
-				for(Long oneSum : oneBW)
-				{
-					maxBandwidth.addElement(new Long(oneSum));
-				}
-			}					
-		}
-		
-		for(Long mostBW : maxBandwidth)
-		{
-			if(mostBW >= maxBWUsed)
-				maxBWUsed = mostBW;
+				published = timeline.snapshot();
+				publishedStale = false;
+			}
+			finally
+			{
+				lock.unlock();
+			}
 		}
-		
-		return (bandwidthCapacity - maxBWUsed);
+		return published;
 	}
 	
-	// Added by Jeremy for AR Bandwidth availability check. This recursive function identifies compounded overlaps and correctly calculates total bandwidth consumption among a set of overlapping (and partially overlapping) reservations.
 	/**
-	 * Calculate the total bandwidth consumption among a set of bandwidth uses.
-	 * @param allOverlaps
-	 * @param allRes
-	 * @param index
-	 * @param overlapsWithX
-	 * @param checkedAlready
-	 * @return The total bandwidth consumed across the set of bandwidth reservations
+	 * Check if the last snapshot of the link's bandwidth usage includes every change
+	 * @return True if no change has been made since
 	 */
-	private Vector<Long> exploreOverlappingReservations(ArrayList< ArrayList<Integer>> allOverlaps, ArrayList<FlowLinkAvailabilityTuple> allRes, int index, ArrayList<Integer> overlapsWithX, boolean[] checkedAlready)
+	public boolean hasCurrentUsageSnapshot()
 	{
-		Vector<Long> allSums = new Vector<Long>();
-		
-		long bandwidthOverlap = allRes.get(index).getConsumedBandwidth();
-		checkedAlready[index] = true;
-		
-		if(allOverlaps.isEmpty() || index >= allOverlaps.size())
+		return !publishedStale;
+	}
+	
+	/**
+	 * Collect the times in (after, until] at which a reservation on this link ends
+	 * @param after
+	 * @param until
+	 * @param times - the release times found are added to this collection
+	 */
+	public void collectReleaseTimes(long after, long until, Collection<Long> times)
+	{
+		lock.lock();
+		try
 		{
-			allSums.add(bandwidthOverlap);
-			return allSums;
+			timeline.collectReleaseTimes(after, until, times);
 		}
-		
-		if(allOverlaps.get(index).isEmpty())
+		finally
 		{
-			allSums.add(bandwidthOverlap);
+			lock.unlock();
 		}
-		else
-		{			
-			for(int i = 0; i < allOverlaps.get(index).size(); i++)
-			{
-				if(!checkedAlready[allOverlaps.get(index).get(i)] && overlapsWithX.contains(allOverlaps.get(index).get(i)))
-				{
-					Vector<Long> subSums = exploreOverlappingReservations(allOverlaps, allRes, allOverlaps.get(index).get(i), overlapsWithX, checkedAlready);
-				
-					long bwTotal = bandwidthOverlap;
-					
-					for(Long oneVal : subSums)
-					{
-						bwTotal += oneVal;
-					}
-					
-					allSums.add(bwTotal);
-				}
-			}
+	}
+	
+	/**
+	 * Get the amount of bandwidth available during a time period
+	 * @param startX
+	 * @param endX
+	 * @return long Bandwidth available
+	 */
+	public long getBandwidthAvailableBetweenTimes(long startX, long endX)
+	{
+		lock.lock();
+		try
+		{
+			return (bandwidthCapacity - timeline.getPeakConsumption(startX, endX));
 		}
-		
-		if(allSums.isEmpty())
+		finally
 		{
-			allSums.add(bandwidthOverlap);
+			lock.unlock();
 		}
-		
-		return allSums;
 	}
 	
 }
@@ -10,15 +10,15 @@ public class FlowLinkAvailabilityTuple
 	/**
 	 * The amount of bandwidth consumed.
 	 */
-	private long consumedBandwidth;
+	private final long consumedBandwidth;
 	/**
 	 * The start time for a flow.
 	 */
-	private long startTime;
+	private final long startTime;
 	/**
 	 * The end time for a flow.
 	 */
-	private long endTime;
+	private final long endTime;
 	
 	/**
 	 * Construct a FlowLinkAvailabilityTuple using bandwidth, start time, and end time.
@@ -43,16 +43,7 @@ public class FlowLinkAvailabilityTuple
 	}
 	
 	/**
-	 * Set the amount of bandwidth consumed.
-	 * @param newBW
-	 */
-	public void setConsumedBandwidth(long newBW) 
-	{
-		consumedBandwidth = newBW;
-	}
-
-	/**
-	 * Get the start time in seconds.
+	 * Get the start time, in milliseconds since the epoch.
 	 * @return The start time long.
 	 */
 	public long getStartTime() 
@@ -61,10 +52,35 @@ public class FlowLinkAvailabilityTuple
 	}
 
 	/**
-	 * Get the end time in seconds.
+	 * Get the end time, in milliseconds since the epoch.
 	 * @return The end time long.
 	 */
 	public long getEndTime() {
 		return endTime;
 	}
+
+	/**
+	 * Two tuples are equal when they consume the same bandwidth over the same time period.
+	 */
+	@Override
+	public boolean equals(Object obj)
+	{
+		if(this == obj)
+			return true;
+		if(!(obj instanceof FlowLinkAvailabilityTuple))
+			return false;
+		FlowLinkAvailabilityTuple other = (FlowLinkAvailabilityTuple) obj;
+		return consumedBandwidth == other.consumedBandwidth && startTime == other.startTime && endTime == other.endTime;
+	}
+
+	@Override
+	public int hashCode()
+	{
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + (int) (consumedBandwidth ^ (consumedBandwidth >>> 32));
+		result = prime * result + (int) (startTime ^ (startTime >>> 32));
+		result = prime * result + (int) (endTime ^ (endTime >>> 32));
+		return result;
+	}
 }
@@ -4,13 +4,24 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import net.floodlightcontroller.core.IOFSwitch;
+import org.projectfloodlight.openflow.protocol.OFBarrierReply;
+import org.projectfloodlight.openflow.protocol.OFBarrierRequest;
+import org.projectfloodlight.openflow.protocol.OFBucket;
 import org.projectfloodlight.openflow.protocol.OFFactory;
 import org.projectfloodlight.openflow.protocol.OFFlowAdd;
+import org.projectfloodlight.openflow.protocol.OFFlowDelete;
 import org.projectfloodlight.openflow.protocol.OFFlowModFlags;
+import org.projectfloodlight.openflow.protocol.OFGroupAdd;
+import org.projectfloodlight.openflow.protocol.OFGroupDelete;
+import org.projectfloodlight.openflow.protocol.OFGroupType;
+import org.projectfloodlight.openflow.protocol.OFMessage;
 import org.projectfloodlight.openflow.protocol.OFPortDesc;
 import org.projectfloodlight.openflow.protocol.OFVersion;
 import org.projectfloodlight.openflow.protocol.action.OFAction;
@@ -26,12 +37,22 @@ import org.projectfloodlight.openflow.protocol.match.MatchField;
 import org.projectfloodlight.openflow.types.DatapathId;
 import org.projectfloodlight.openflow.types.EthType;
 import org.projectfloodlight.openflow.types.IPv4Address;
+import org.projectfloodlight.openflow.types.OFGroup;
 import org.projectfloodlight.openflow.types.OFPort;
+import org.projectfloodlight.openflow.types.TableId;
 import org.projectfloodlight.openflow.types.U64;
 import org.slf4j.Logger;
 
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
 /**
  * Given a Floodlight topology and a FlowRouteTuple, provision the matching flow rules on each switch in the path.
+ * A Flow split across several paths is installed with one rule per switch and incoming port. Where the paths
+ * leave a switch through different ports, the rule points at a SELECT group whose buckets are weighted by each
+ * path's share of the bandwidth; where they share a segment, that segment's queue carries their summed bandwidth.
+ * The messages for a Flow are gathered per switch and sent as one batch per switch, each followed by a barrier,
+ * so the caller can tell when the whole path is installed.
  * NOTE: ARP is handled by the Forwarding module.
  * @author Dylan Davis
  * @author Jeremy Plante
@@ -45,6 +66,22 @@ public class FlowProvisioner {
 	 * Logger for creating output
 	 */
 	protected Logger logger;
+	/**
+	 * Used to generate IDs for the groups of split Flows
+	 */
+	private AtomicInteger nextGroupID = new AtomicInteger(1);
+	/**
+	 * Hands out the queues each Flow is sent through
+	 */
+	private QueueAllocator queueAllocator;
+	/**
+	 * The groups installed for each split Flow, by Flow ID and switch
+	 */
+	private HashMap<Long, HashMap<IOFSwitch, ArrayList<Integer>>> flowGroups = new HashMap<Long, HashMap<IOFSwitch, ArrayList<Integer>>>();
+	/**
+	 * Longest hard timeout an OpenFlow rule can carry
+	 */
+	static final long MAX_HARD_TIMEOUT_SECONDS = 0xffff;
 	
 	/**
 	 * Construct the FlowProvisioner using the ARScheduler
@@ -53,20 +90,26 @@ public class FlowProvisioner {
 	public FlowProvisioner(ARScheduler theScheduler){
 		this.of13Factory = theScheduler.of13Factory;
 		this.logger = theScheduler.logger;
+		this.queueAllocator = theScheduler.queueAllocator;
 	}
 	
 	/**
 	 * Provision the appropriate flow rules on each switch along a path
 	 * @param flowRouteTuple
 	 * @param switchMap
-	 * @param switchQueueMap
+	 * @return future completing once every switch on the path has confirmed its rules with a barrier reply
 	 */
-	public void provisionFlowPath(FlowRouteTuple flowRouteTuple, Map<DatapathId, IOFSwitch> switchMap, 
-			HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap){
+	public ListenableFuture<List<OFBarrierReply>> provisionFlowPath(FlowRouteTuple flowRouteTuple, Map<DatapathId, IOFSwitch> switchMap){
 		//Source Node and Destination Node Information
 		Flow flow = flowRouteTuple.getFlow();
 		Node srcNode = flow.getSource();
 		Node dstNode = flow.getDest();
+		ProvisioningBatch batch = new ProvisioningBatch();
+		
+		if(flowRouteTuple.isMultipath()){
+			provisionSplitFlowRules(flow, flowRouteTuple.getPathAllocations(), switchMap, batch);
+			return sendBatch(flow, batch);
+		}
 		
 		
 		//Path Information
@@ -75,7 +118,37 @@ public class FlowProvisioner {
 		
 		HashMap<Node, ArrayList<Port>> usedPortsMap = buildUsedPortsMap(new HashMap<Node, ArrayList<Port>>(), pathLinks);
 
-		provisionFlowRules(flow, srcNode, dstNode, usedPortsMap, switchMap, switchQueueMap);
+		provisionFlowRules(flow, srcNode, dstNode, usedPortsMap, switchMap, batch);
+		return sendBatch(flow, batch);
+	}
+	
+	/**
+	 * Send each switch its share of a Flow's messages in a single write, followed by a barrier. Every switch is
+	 * written to before any barrier is awaited, so the switches install their rules in parallel.
+	 * @param flow
+	 * @param batch
+	 * @return future completing once every switch has replied to its barrier, failing if any message could
+	 * not be built or sent
+	 */
+	private ListenableFuture<List<OFBarrierReply>> sendBatch(Flow flow, ProvisioningBatch batch){
+		ArrayList<ListenableFuture<OFBarrierReply>> barriers = new ArrayList<ListenableFuture<OFBarrierReply>>();
+		for(String problem : batch.problems){
+			barriers.add(Futures.<OFBarrierReply>immediateFailedFuture(new IllegalStateException(problem)));
+		}
+		
+		for(Map.Entry<IOFSwitch, ArrayList<OFMessage>> entry : batch.messages.entrySet()){
+			IOFSwitch sw = entry.getKey();
+			Collection<OFMessage> unsent = sw.write(entry.getValue());
+			if(unsent != null && !unsent.isEmpty()){
+				String problem = "Switch " + sw.getId() + " did not accept " + unsent.size() + " of Flow " + flow.getID() + "'s messages";
+				barriers.add(Futures.<OFBarrierReply>immediateFailedFuture(new IllegalStateException(problem)));
+				continue;
+			}
+			logger.debug("Sent {} messages for Flow {} to switch {}", new Object[] {entry.getValue().size(), flow.getID(), sw.getId()});
+			OFBarrierRequest barrier = of13Factory.buildBarrierRequest().build();
+			barriers.add(sw.writeRequest(barrier));
+		}
+		return Futures.allAsList(barriers);
 	}
 	
 	/**
@@ -127,10 +200,10 @@ public class FlowProvisioner {
 	 * @param dstNode
 	 * @param usedPortsMap
 	 * @param switchMap
-	 * @param switchQueueMap
+	 * @param batch - collects the messages for each switch
 	 */
 	public void provisionFlowRules(Flow flow, Node srcNode, Node dstNode, HashMap<Node, ArrayList<Port>> usedPortsMap, 
-			Map<DatapathId, IOFSwitch> switchMap, HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap){
+			Map<DatapathId, IOFSwitch> switchMap, ProvisioningBatch batch){
 		
 		Set<Node> switches = usedPortsMap.keySet();
 		for(Node thisSwitch : switches){
@@ -138,8 +211,8 @@ public class FlowProvisioner {
 			String srcIP = flow.getSrcIP();
 			String dstIP = flow.getDstIP();
 			//Provision bidirectional flows
-			provisionFlowRule(srcIP, srcNode, dstIP, dstNode, thisSwitch, usedPorts.get(0), usedPorts.get(1), flow, switchMap, switchQueueMap);
-			provisionFlowRule(dstIP, dstNode, srcIP, srcNode, thisSwitch, usedPorts.get(1), usedPorts.get(0), flow, switchMap, switchQueueMap);
+			provisionFlowRule(srcIP, srcNode, dstIP, dstNode, thisSwitch, usedPorts.get(0), usedPorts.get(1), flow, switchMap, batch);
+			provisionFlowRule(dstIP, dstNode, srcIP, srcNode, thisSwitch, usedPorts.get(1), usedPorts.get(0), flow, switchMap, batch);
 		}
 	}
 	
@@ -154,37 +227,177 @@ public class FlowProvisioner {
 	 * @param outPort
 	 * @param flow
 	 * @param switchMap
-	 * @param switchQueueMap
+	 * @param batch - collects the messages for each switch
 	 */
 	public void provisionFlowRule(String srcIPString, Node srcNode, String dstIPString, Node dstNode, Node thisSwitch, Port inPort, 
-			Port outPort, Flow flow, Map<DatapathId, IOFSwitch> switchMap, HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap){
+			Port outPort, Flow flow, Map<DatapathId, IOFSwitch> switchMap, ProvisioningBatch batch){
 		
 
 		IOFSwitch thisIOFSwitch = switchMap.get(DatapathId.of(thisSwitch.getNodeName()));
+		if(thisIOFSwitch == null){
+			batch.addProblem("Switch " + thisSwitch.getNodeName() + " on the path of Flow " + flow.getID() + " is not connected");
+			return;
+		}
 		
-		long queueId = getMatchingQueueId(flow, switchQueueMap, thisIOFSwitch, outPort);
-		if(queueId == -1){
+		ArrayList<OFAction> actionList = buildQueuedOutputActions(flow, flow.getBandwidth(), thisIOFSwitch, outPort.getID());
+		if(actionList == null){
 			logger.warn("NO QUEUE FOUND TO MATCH FLOW");
+			batch.addProblem("No queue for Flow " + flow.getID() + " on switch " + thisSwitch.getNodeName() + " port " + outPort.getID());
 			return;
 		}
 		
-		Long timeoutSeconds = getTimeoutSeconds(flow.getStartTime(), flow.getEndTime());
+		batch.add(thisIOFSwitch, buildFlowRule(flow, inPort.getID(), srcIPString, dstIPString, actionList));
+	}
+	
+	/**
+	 * Provision the flow rules of a Flow split across several paths, in both directions.
+	 * @param flow
+	 * @param allocations - each path and the bandwidth reserved on it
+	 * @param switchMap
+	 * @param batch - collects the messages for each switch
+	 */
+	public void provisionSplitFlowRules(Flow flow, ArrayList<PathAllocation> allocations, 
+			Map<DatapathId, IOFSwitch> switchMap, ProvisioningBatch batch){
+		// Per switch DPID and incoming port, the bandwidth to send out of each outgoing port
+		HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> towardsDst = new HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>>();
+		HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> towardsSrc = new HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>>();
 		
-		//Create Address Object for Source and Destination
-		IPv4Address srcIP = IPv4Address.of(srcIPString);
-		IPv4Address dstIP = IPv4Address.of(dstIPString);
+		PathAllocation.collectPortSplits(allocations, towardsDst, towardsSrc);
 		
-		// Create a match for incoming port and src/dst MAC Addresses
-		Match ipMatch = of13Factory.buildMatch()
-				.setExact(MatchField.IN_PORT, OFPort.of(inPort.getID()))
-				.setExact(MatchField.ETH_TYPE, EthType.IPv4)
-				.setExact(MatchField.IPV4_SRC, srcIP)
-				.setExact(MatchField.IPV4_DST, dstIP)
-				.build();
-
+		provisionSplitDirection(flow, flow.getSrcIP(), flow.getDstIP(), towardsDst, switchMap, batch);
+		provisionSplitDirection(flow, flow.getDstIP(), flow.getSrcIP(), towardsSrc, switchMap, batch);
+	}
+	
+	/**
+	 * Provision one direction of a split Flow: a plain rule where traffic from an incoming port leaves by a single
+	 * port, or a rule pointing at a SELECT group where it is spread over several.
+	 * @param flow
+	 * @param srcIPString
+	 * @param dstIPString
+	 * @param splits - per switch DPID and incoming port, the bandwidth to send out of each outgoing port
+	 * @param switchMap
+	 * @param batch - collects the messages for each switch
+	 */
+	private void provisionSplitDirection(Flow flow, String srcIPString, String dstIPString, 
+			HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> splits,
+			Map<DatapathId, IOFSwitch> switchMap, ProvisioningBatch batch){
+		
+		for(Map.Entry<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> switchSplits : splits.entrySet()){
+			IOFSwitch thisIOFSwitch = switchMap.get(DatapathId.of(switchSplits.getKey()));
+			if(thisIOFSwitch == null){
+				batch.addProblem("Switch " + switchSplits.getKey() + " on the path of Flow " + flow.getID() + " is not connected");
+				continue;
+			}
+			
+			for(Map.Entry<Integer, LinkedHashMap<Integer, Long>> portSplits : switchSplits.getValue().entrySet()){
+				int inPort = portSplits.getKey();
+				LinkedHashMap<Integer, Long> outPorts = portSplits.getValue();
+				
+				if(outPorts.size() == 1){
+					Map.Entry<Integer, Long> out = outPorts.entrySet().iterator().next();
+					ArrayList<OFAction> actionList = buildQueuedOutputActions(flow, out.getValue(), thisIOFSwitch, out.getKey());
+					if(actionList == null){
+						logger.warn("NO QUEUE FOUND TO MATCH FLOW");
+						batch.addProblem("No queue for Flow " + flow.getID() + " on switch " + switchSplits.getKey() + " port " + out.getKey());
+						continue;
+					}
+					batch.add(thisIOFSwitch, buildFlowRule(flow, inPort, srcIPString, dstIPString, actionList));
+					continue;
+				}
+				
+				ArrayList<OFBucket> buckets = new ArrayList<OFBucket>();
+				for(Map.Entry<Integer, Long> out : outPorts.entrySet()){
+					ArrayList<OFAction> actionList = buildQueuedOutputActions(flow, out.getValue(), thisIOFSwitch, out.getKey());
+					if(actionList == null){
+						logger.warn("NO QUEUE FOUND TO MATCH FLOW");
+						batch.addProblem("No queue for Flow " + flow.getID() + " on switch " + switchSplits.getKey() + " port " + out.getKey());
+						continue;
+					}
+					buckets.add(of13Factory.buildBucket()
+							.setActions(actionList)
+							.setWeight((int) Math.max(1, out.getValue() / FlowScheduler.BANDWIDTH_UNIT))
+							.setWatchPort(OFPort.ANY)
+							.setWatchGroup(OFGroup.ANY)
+							.build());
+				}
+				if(buckets.isEmpty())
+					continue;
+				
+				int groupID = nextGroupID.getAndIncrement();
+				OFGroupAdd groupAdd = of13Factory.buildGroupAdd()
+						.setGroup(OFGroup.of(groupID))
+						.setGroupType(OFGroupType.SELECT)
+						.setBuckets(buckets)
+						.build();
+				logger.debug(groupAdd.toString());
+				batch.add(thisIOFSwitch, groupAdd);
+				recordGroup(flow.getID(), thisIOFSwitch, groupID);
+				
+				ArrayList<OFAction> actionList = new ArrayList<OFAction>();
+				actionList.add(of13Factory.actions().buildGroup().setGroup(OFGroup.of(groupID)).build());
+				batch.add(thisIOFSwitch, buildFlowRule(flow, inPort, srcIPString, dstIPString, actionList));
+			}
+		}
+	}
+	
+	/**
+	 * Remove the groups installed on a switch for a split Flow. Called once the Flow's rules have expired.
+	 * @param sw
+	 * @param flowID
+	 */
+	public void removeFlowGroups(IOFSwitch sw, long flowID){
+		ArrayList<Integer> groupIDs;
+		synchronized(flowGroups){
+			HashMap<IOFSwitch, ArrayList<Integer>> groupsBySwitch = flowGroups.get(flowID);
+			if(groupsBySwitch == null)
+				return;
+			groupIDs = groupsBySwitch.remove(sw);
+			if(groupsBySwitch.isEmpty())
+				flowGroups.remove(flowID);
+		}
+		if(groupIDs == null)
+			return;
+		
+		for(int groupID : groupIDs){
+			OFGroupDelete groupDelete = of13Factory.buildGroupDelete()
+					.setGroup(OFGroup.of(groupID))
+					.setGroupType(OFGroupType.SELECT)
+					.build();
+			sw.write(groupDelete);
+		}
+	}
+	
+	private void recordGroup(long flowID, IOFSwitch sw, int groupID){
+		synchronized(flowGroups){
+			HashMap<IOFSwitch, ArrayList<Integer>> groupsBySwitch = flowGroups.get(flowID);
+			if(groupsBySwitch == null){
+				groupsBySwitch = new HashMap<IOFSwitch, ArrayList<Integer>>();
+				flowGroups.put(flowID, groupsBySwitch);
+			}
+			ArrayList<Integer> groupIDs = groupsBySwitch.get(sw);
+			if(groupIDs == null){
+				groupIDs = new ArrayList<Integer>();
+				groupsBySwitch.put(sw, groupIDs);
+			}
+			groupIDs.add(groupID);
+		}
+	}
+	
+	/**
+	 * Build the actions that send a Flow's traffic out of a port through a queue of the given rate.
+	 * @param flow
+	 * @param bandwidth - the rate of the queue to use
+	 * @param thisIOFSwitch
+	 * @param outPort
+	 * @return the actions, null if no free queue of that rate is left on the port
+	 */
+	private ArrayList<OFAction> buildQueuedOutputActions(Flow flow, long bandwidth, IOFSwitch thisIOFSwitch, int outPort){
+		
+		long queueId = getMatchingQueueId(flow, bandwidth, thisIOFSwitch, outPort);
+		if(queueId == -1){
+			return null;
+		}
 		
-		// Create instructions that will be passed to switch for the above match
-		OFInstructions instructions = of13Factory.instructions();
 		ArrayList<OFAction> actionList = new ArrayList<OFAction>();
 		OFActions actions = of13Factory.actions();
 		
@@ -193,7 +406,7 @@ public class FlowProvisioner {
 		
 		if (of13Factory.getVersion().compareTo(OFVersion.OF_10) == 0) {
 		    OFActionEnqueue enqueue = actions.buildEnqueue()
-		        .setPort(OFPort.of(outPort.getID())) // Must specify port number 
+		        .setPort(OFPort.of(outPort)) // Must specify port number 
 		        .setQueueId(queueId)
 		        .build();
 		    actionList.add(enqueue);
@@ -206,10 +419,42 @@ public class FlowProvisioner {
 		
 		// Output packets on the specified outgoing port
 		OFActionOutput output = actions.buildOutput()
-				.setPort(OFPort.of(outPort.getID()))
+				.setPort(OFPort.of(outPort))
 				.setMaxLen(Integer.MAX_VALUE)
 				.build();
 		actionList.add(output);
+		return actionList;
+	}
+	
+	/**
+	 * Build a flow rule matching a Flow's IPv4 traffic from a port, which applies the given actions.
+	 * @param flow
+	 * @param inPort
+	 * @param srcIPString
+	 * @param dstIPString
+	 * @param actionList
+	 * @return the flowAdd
+	 */
+	private OFFlowAdd buildFlowRule(Flow flow, int inPort, String srcIPString, String dstIPString, 
+			ArrayList<OFAction> actionList){
+		
+		Long timeoutSeconds = getTimeoutSeconds(flow.getEndTime());
+		
+		//Create Address Object for Source and Destination
+		IPv4Address srcIP = IPv4Address.of(srcIPString);
+		IPv4Address dstIP = IPv4Address.of(dstIPString);
+		
+		// Create a match for incoming port and src/dst MAC Addresses
+		Match ipMatch = of13Factory.buildMatch()
+				.setExact(MatchField.IN_PORT, OFPort.of(inPort))
+				.setExact(MatchField.ETH_TYPE, EthType.IPv4)
+				.setExact(MatchField.IPV4_SRC, srcIP)
+				.setExact(MatchField.IPV4_DST, dstIP)
+				.build();
+
+		
+		// Create instructions that will be passed to switch for the above match
+		OFInstructions instructions = of13Factory.instructions();
 		
 		
 		// Create list of instructions for the flowAdd
@@ -231,51 +476,96 @@ public class FlowProvisioner {
 				.setPriority(1)
 				.setHardTimeout(timeoutSeconds.intValue())
 				.setFlags(flags)
-				.setCookie(U64.of(Long.valueOf(flow.getID())))
+				.setCookie(FlowCookie.makeCookie(flow.getID()))
 				.build();
 	
 
-		logger.info(flowAddIP.toString());
-		// Write the flowAdd to the switch
-		thisIOFSwitch.write(flowAddIP);
-		
+		logger.debug(flowAddIP.toString());
+		return flowAddIP;
 	}
 	
 
 	/**
-	 * Calculate the duration of the flow rule based on the provided start and end time.
-	 * @param startTime
+	 * Calculate the hard timeout of a flow rule installed now, so that it expires at the Flow's end time.
+	 * OpenFlow timeouts are 16 bit, so a rule that must outlive MAX_HARD_TIMEOUT_SECONDS gets no timeout,
+	 * and the ARScheduler removes it with removeFlowPath at the end time instead.
 	 * @param endTime
-	 * @return The number of seconds that the flow rule should last before expiring.
+	 * @return The number of seconds that the flow rule should last before expiring, 0 for no timeout.
+	 */
+	private Long getTimeoutSeconds(long endTime) {
+		long remainingSeconds = (endTime - System.currentTimeMillis() + 999) / 1000;
+		if(remainingSeconds > MAX_HARD_TIMEOUT_SECONDS)
+			return 0L;
+		return Math.max(1L, remainingSeconds);
+	}
+	
+	/**
+	 * Delete a Flow's rules from every switch on its paths. The rules were installed with SEND_FLOW_REM,
+	 * so each switch answers with a FLOW_REMOVED, which releases the reservation as an expiry would.
+	 * @param flowRouteTuple
+	 * @param switchMap
 	 */
-	private Long getTimeoutSeconds(long startTime, long endTime) {
-		// TODO Auto-generated method stub
-		return new Long(Math.abs(endTime - startTime));
+	public void removeFlowPath(FlowRouteTuple flowRouteTuple, Map<DatapathId, IOFSwitch> switchMap){
+		long flowID = flowRouteTuple.getFlow().getID();
+		OFFlowDelete flowDelete = of13Factory.buildFlowDelete()
+				.setTableId(TableId.ALL)
+				.setCookie(FlowCookie.makeCookie(flowID))
+				.setCookieMask(U64.NO_MASK)
+				.build();
+		HashSet<String> switchNames = new HashSet<String>();
+		for(PathAllocation allocation : flowRouteTuple.getPathAllocations()){
+			for(Node node : allocation.getPath().getNodes()){
+				if(node.nodeIsSwitch() && switchNames.add(node.getNodeName())){
+					IOFSwitch sw = switchMap.get(DatapathId.of(node.getNodeName()));
+					if(sw == null)
+						logger.warn("Switch {} is gone, cannot remove Flow {} from it", node.getNodeName(), flowID);
+					else
+						sw.write(flowDelete);
+				}
+			}
+		}
+		logger.debug("Removing Flow {} from {} switches", flowID, switchNames.size());
 	}
 
 	/**
-	 * Get the ID for a queue that matches the provided flow, switch, and port.
+	 * Get the ID for a free queue of the given rate on the provided switch and port, and mark it used by the flow.
 	 * @param flow
-	 * @param switchQueueMap
+	 * @param bandwidth
 	 * @param thisSwitch
 	 * @param outPort
-	 * @return The queue's ID.
+	 * @return The queue's ID, -1 if no queue is free.
 	 */
-	private long getMatchingQueueId(Flow flow,
-			HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap,
-			IOFSwitch thisSwitch, Port outPort) {
+	private long getMatchingQueueId(Flow flow, long bandwidth, IOFSwitch thisSwitch, int outPort) {
+		FlowQueue queue = queueAllocator.allocate(flow.getID(), thisSwitch.getId().toString(), outPort, bandwidth);
+		return queue == null ? -1 : queue.getQueueID();
+	}
+
+	/**
+	 * The messages provisioning a Flow, gathered per switch so that each switch can be sent its share at once,
+	 * and anything that stopped a rule from being built.
+	 */
+	static class ProvisioningBatch{
+		/**
+		 * The messages for each switch, in the order they must be applied
+		 */
+		private LinkedHashMap<IOFSwitch, ArrayList<OFMessage>> messages = new LinkedHashMap<IOFSwitch, ArrayList<OFMessage>>();
+		/**
+		 * Why some of the Flow's rules could not be built
+		 */
+		private ArrayList<String> problems = new ArrayList<String>();
 		
-		ArrayList<FlowQueue> queues = switchQueueMap.get(thisSwitch).get(outPort.getID());
-		for(int queueIndex = 0; queueIndex < queues.size(); queueIndex++){
-			FlowQueue queue = queues.get(queueIndex);
-			if(queue.getBandwidth() == flow.getBandwidth() && !queue.isUsed()){
-				long queueId = queue.getQueueID();
-				switchQueueMap.get(thisSwitch).get(outPort.getID()).get(queueIndex).setUsed(true);
-				switchQueueMap.get(thisSwitch).get(outPort.getID()).get(queueIndex).setFlowID(flow.getID());
-				return queueId;
+		void add(IOFSwitch sw, OFMessage message){
+			ArrayList<OFMessage> switchMessages = messages.get(sw);
+			if(switchMessages == null){
+				switchMessages = new ArrayList<OFMessage>();
+				messages.put(sw, switchMessages);
 			}
+			switchMessages.add(message);
+		}
+		
+		void addProblem(String problem){
+			problems.add(problem);
 		}
-		return -1;
 	}
 
 }
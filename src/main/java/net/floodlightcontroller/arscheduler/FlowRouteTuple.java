@@ -1,7 +1,12 @@
 package net.floodlightcontroller.arscheduler;
 
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+
 /**
- * Wrapper for a Flow and shortest path Topology combination
+ * Wrapper for a Flow and shortest path Topology combination.
+ * A Flow split across several paths keeps each path and its share of the bandwidth, and its shortest path
+ * Topology is the union of those paths.
  * @author Dylan Davis
  * @author Jeremy Plante
  */
@@ -14,6 +19,10 @@ public class FlowRouteTuple {
 	 * Topology representing the shortest path
 	 */
 	private Topology theShortestPathTopology;
+	/**
+	 * The paths the Flow is routed over, with the bandwidth reserved on each
+	 */
+	private ArrayList<PathAllocation> pathAllocations;
 	/**
 	 * Indicates that this flow/route combination has been released, and should no longer take up network resources.
 	 */
@@ -28,6 +37,28 @@ public class FlowRouteTuple {
 	{
 		theFlow = f;
 		theShortestPathTopology = t;
+		pathAllocations = new ArrayList<PathAllocation>();
+		pathAllocations.add(new PathAllocation(t, f.getBandwidth()));
+		setReleased(false);
+	}
+	
+	/**
+	 * Construct a FlowRouteTuple for a Flow split across several paths
+	 * @param f
+	 * @param allocations - each path and the share of the Flow's bandwidth reserved on it
+	 */
+	public FlowRouteTuple(Flow f, ArrayList<PathAllocation> allocations)
+	{
+		theFlow = f;
+		pathAllocations = new ArrayList<PathAllocation>(allocations);
+		LinkedHashSet<Node> nodes = new LinkedHashSet<Node>();
+		LinkedHashSet<FlowLink> links = new LinkedHashSet<FlowLink>();
+		for(PathAllocation allocation : allocations)
+		{
+			nodes.addAll(allocation.getPath().getNodes());
+			links.addAll(allocation.getPath().getLinks());
+		}
+		theShortestPathTopology = new Topology(new ArrayList<Node>(nodes), new ArrayList<FlowLink>(links));
 		setReleased(false);
 	}
 	
@@ -49,6 +80,24 @@ public class FlowRouteTuple {
 		return theShortestPathTopology;
 	}
 
+	/**
+	 * Get the paths the Flow is routed over
+	 * @return each path with the bandwidth reserved on it
+	 */
+	public ArrayList<PathAllocation> getPathAllocations()
+	{
+		return pathAllocations;
+	}
+	
+	/**
+	 * Check if the Flow is split across more than one path
+	 * @return True if there are several paths
+	 */
+	public boolean isMultipath()
+	{
+		return pathAllocations.size() > 1;
+	}
+
 	/**
 	 * Check if this flow/route tuple has been released.
 	 * @return
@@ -1,22 +1,69 @@
 package net.floodlightcontroller.arscheduler;
 
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
 import org.slf4j.Logger;
 
 /**
  * Negotiates between the AR Scheduler and the Resource Manager to schedule flow requests
  * when they do not conflict with other scheduled requests.
+ * Requests may be scheduled from several threads at once. Each searches for a path without holding any
+ * link locks and then asks the Resource Manager to validate and commit the path; if a concurrent admission
+ * took the bandwidth in between, the search is repeated against the updated state.
  * @author Dylan Davis and Jeremy Plante
  *
  */
 public class FlowScheduler {
 	/**
-	 * The Resource Manager, Bandwidth Pruner, and Shortest Path Engine used by the 
-	 * scheduler to determine how a request can be provisioned on the network
+	 * The Resource Manager used by the scheduler to determine how a request can be provisioned on the network
 	 */
 	ResourceManager theResourceManager;
-	BandwidthPruner bwPruner;
-	ShortestPathEngine spEngine;
 	Logger logger;
+	/**
+	 * Number of times a request searches for a path before giving up because concurrent admissions
+	 * keep taking the bandwidth on the path it found
+	 */
+	static final int MAX_ADMISSION_ATTEMPTS = 4;
+	/**
+	 * Flows split across several paths are divided in whole multiples of this bandwidth (1 Gbps), to match
+	 * the rates of the switches' queues
+	 */
+	static final long BANDWIDTH_UNIT = 1000000000L;
+	/**
+	 * Number of locks the Flows are spread over for cancels and changes
+	 */
+	static final int FLOW_LOCK_STRIPES = 64;
+	/**
+	 * The most paths a single Flow may be split across, 1 if Flows are never split
+	 */
+	int maxPathsPerFlow = 1;
+	/**
+	 * When set, link availability is checked lazily as the path search relaxes each edge
+	 * instead of pruning the whole topology before the search
+	 */
+	boolean lazyLinkEvaluation = true;
+	/**
+	 * Books the switch queues each admitted Flow will need, null if queues are not checked at admission
+	 */
+	QueueAllocator queueAllocator;
+	/**
+	 * Times each phase of admission and counts rejections by reason, null if admissions are not measured
+	 */
+	ARSchedulerMetrics metrics;
+	/**
+	 * Cancelling, releasing and changing the same Flow take the Flow's lock, so a release never finds a FlowTable
+	 * entry whose bandwidth is still being moved. Taken after the admission lock and before any link lock.
+	 */
+	private final ReentrantLock[] flowLocks = new ReentrantLock[FLOW_LOCK_STRIPES];
 	
 	/**
 	 * Construct a Flow Scheduler with a given Resource Manager
@@ -26,6 +73,10 @@ public class FlowScheduler {
 	{
 		theResourceManager = rm;
 		logger = log;
+		for(int i = 0; i < flowLocks.length; i++)
+		{
+			flowLocks[i] = new ReentrantLock();
+		}
 	}
 	
 	/**
@@ -36,39 +87,617 @@ public class FlowScheduler {
 	 */
 	public Flow scheduleNewFlow(Flow flow)
 	{
-		Topology prunedTopology;
-		Topology shortestPath;
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		admissionLock.lock();
+		try
+		{
+			return scheduleNewFlow(flow, theResourceManager.getGraph());
+		}
+		finally
+		{
+			admissionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Schedule a batch of Flows against the same view of the topology, building the graph only once.
+	 * Flows are admitted in order, so earlier flows in the batch take bandwidth before later ones.
+	 * In transactional mode the batch is all-or-nothing: if any flow cannot be scheduled, every flow
+	 * admitted so far is released again and has its success status reset.
+	 * @param flows - the Flow requests
+	 * @param transactional - True to roll back the whole batch when any flow fails
+	 * @return for each requested flow, the Flow (null if it could not be scheduled). Flows that were rolled
+	 * back or skipped because the transactional batch failed are returned with a false success status.
+	 */
+	public ArrayList<Flow> scheduleNewFlows(List<Flow> flows, boolean transactional)
+	{
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		admissionLock.lock();
+		try
+		{
+			return scheduleNewFlows(flows, transactional, theResourceManager.getGraph());
+		}
+		finally
+		{
+			admissionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Schedule a batch of Flows using an already built graph of the topology.
+	 * @param flows
+	 * @param transactional
+	 * @param graph
+	 * @return for each requested flow, the Flow (null if it could not be scheduled)
+	 */
+	private ArrayList<Flow> scheduleNewFlows(List<Flow> flows, boolean transactional, CompactGraph graph)
+	{
+		ArrayList<Flow> results = new ArrayList<Flow>(flows.size());
+		boolean batchFailed = false;
 		
-		bwPruner = new BandwidthPruner(theResourceManager.getTopology());
-		prunedTopology = bwPruner.pruneTopology(flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+		for(Flow flow : flows)
+		{
+			if(transactional && batchFailed)
+			{
+				// Not attempted, the batch is already going to be rolled back
+				results.add(flow);
+				continue;
+			}
+			Flow scheduled = scheduleNewFlow(flow, graph);
+			if(scheduled == null)
+				batchFailed = true;
+			results.add(scheduled);
+		}
+		
+		if(transactional && batchFailed)
+		{
+			for(Flow admitted : results)
+			{
+				if(admitted == null || !admitted.getSuccess())
+					continue;
+				releaseExpiredFlow(theResourceManager.getFlowFromRM(admitted));
+				admitted.schedulingSuccess(false);
+			}
+			logger.warn("Batch of {} flows rolled back", flows.size());
+		}
+		return results;
+	}
+	
+	/**
+	 * Schedule a Flow using an already built graph of the topology.
+	 * @param flow
+	 * @param graph
+	 * @return the Flow request with an updated success status, null if it could not be scheduled.
+	 */
+	private Flow scheduleNewFlow(Flow flow, CompactGraph graph)
+	{
+		ShortestPathEngine spEngine = new ShortestPathEngine(graph);
 		
-		if(prunedTopology.isEmpty())
+		for(int attempt = 1; attempt <= MAX_ADMISSION_ATTEMPTS; attempt++)
+		{
+			BandwidthEdgeFilter usableEdges;
+			Topology shortestPath;
+			
+			long started = System.nanoTime();
+			if(lazyLinkEvaluation)
+			{
+				usableEdges = new BandwidthEdgeFilter(graph, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+			}
+			else
+			{
+				BandwidthPruner bwPruner = new BandwidthPruner();
+				usableEdges = bwPruner.pruneEdges(graph, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+				started = record(ARSchedulerMetrics.Phase.PRUNE, started);
+			}
+			
+			shortestPath = spEngine.calculateSP(flow, usableEdges);
+			started = record(ARSchedulerMetrics.Phase.PATH_SEARCH, started);
+			
+			//shortestPath.dumpTopology();
+			
+			if(shortestPath.isEmpty())
+			{
+				if(maxPathsPerFlow > 1)
+					return scheduleMultipathFlow(flow, graph, spEngine);
+				logger.warn("No Feasible Path for Flow {}", flow.getID());
+				reject(ARSchedulerMetrics.Rejection.NO_PATH);
+				return null;
+			}
+			
+			boolean reserved = theResourceManager.reservePath(shortestPath.getLinks(), flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+			started = record(ARSchedulerMetrics.Phase.COMMIT, started);
+			if(!reserved)
+			{
+				logger.debug("Path for Flow {} taken by a concurrent admission, attempt {}", flow.getID(), attempt);
+				continue;
+			}
+			
+			ArrayList<PathAllocation> allocations = new ArrayList<PathAllocation>();
+			allocations.add(new PathAllocation(shortestPath, flow.getBandwidth()));
+			if(!reserveQueues(flow, allocations))
+			{
+				theResourceManager.releasePath(shortestPath.getLinks(), flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+				reject(ARSchedulerMetrics.Rejection.NO_QUEUE);
+				return null;
+			}
+			
+			theResourceManager.addFlowToRM(flow, shortestPath);
+			
+			flow.schedulingSuccess(true);
+			return flow;
+		}
+		
+		logger.warn("Gave up on Flow {} after {} attempts", flow.getID(), MAX_ADMISSION_ATTEMPTS);
+		reject(ARSchedulerMetrics.Rejection.CONTENTION);
+		return null;
+	}
+	
+	/**
+	 * Schedule a Flow that does not fit on any single path by splitting it across up to maxPathsPerFlow paths,
+	 * using successive shortest paths over the links' residual capacity during the Flow's time period.
+	 * Each round takes the shortest path on which every link has at least one bandwidth unit free, and reserves
+	 * the most that path can carry, in whole units, up to what is still needed. Paths may share links, but a
+	 * later path never crosses a hop in the opposite direction to an earlier one, so the split cannot loop.
+	 * If the paths found cannot carry all of the Flow's bandwidth, whatever was reserved is released again.
+	 * @param flow
+	 * @param graph
+	 * @param spEngine
+	 * @return the Flow request with an updated success status, null if it could not be scheduled.
+	 */
+	private Flow scheduleMultipathFlow(Flow flow, final CompactGraph graph, ShortestPathEngine spEngine)
+	{
+		long start = flow.getStartTime();
+		long end = flow.getEndTime();
+		long remaining = flow.getBandwidth();
+		ArrayList<PathAllocation> allocations = new ArrayList<PathAllocation>();
+		final HashSet<Long> forwardHops = new HashSet<Long>();
+		int failedAttempts = 0;
+		
+		while(remaining > 0 && allocations.size() < maxPathsPerFlow && failedAttempts < MAX_ADMISSION_ATTEMPTS)
+		{
+			final BandwidthEdgeFilter withCapacity = new BandwidthEdgeFilter(graph, Math.min(remaining, BANDWIDTH_UNIT), start, end);
+			EdgeFilter usableEdges = new EdgeFilter() {
+				@Override
+				public boolean isUsable(int edge)
+				{
+					return withCapacity.isUsable(edge)
+							&& !forwardHops.contains(hopKey(graph, graph.getEdgeTarget(edge), graph.getEdgeSource(edge)));
+				}
+			};
+			
+			long started = System.nanoTime();
+			Topology path = spEngine.calculateSP(flow, usableEdges);
+			record(ARSchedulerMetrics.Phase.PATH_SEARCH, started);
+			if(path.isEmpty())
+				break;
+			
+			long share = remaining;
+			for(FlowLink l : path.getLinks())
+			{
+				share = Math.min(share, l.getBandwidthAvailableBetweenTimes(start, end));
+			}
+			if(share < remaining)
+				share -= share % BANDWIDTH_UNIT;
+			
+			if(share <= 0 || !theResourceManager.reservePath(path.getLinks(), share, start, end))
+			{
+				// Taken by a concurrent admission since the search
+				failedAttempts++;
+				continue;
+			}
+			
+			allocations.add(new PathAllocation(path, share));
+			remaining -= share;
+			ArrayList<Node> pathNodes = path.getNodes();
+			for(int i = 1; i < pathNodes.size(); i++)
+			{
+				forwardHops.add(hopKey(graph, graph.indexOf(pathNodes.get(i - 1)), graph.indexOf(pathNodes.get(i))));
+			}
+		}
+		
+		if(remaining > 0 || !reserveQueues(flow, allocations))
+		{
+			for(PathAllocation allocation : allocations)
+			{
+				theResourceManager.releasePath(allocation.getPath().getLinks(), allocation.getBandwidth(), start, end);
+			}
+			if(remaining > 0)
+			{
+				logger.warn("No Feasible Path for Flow {}, even split across {} paths", flow.getID(), maxPathsPerFlow);
+				reject(failedAttempts < MAX_ADMISSION_ATTEMPTS ? ARSchedulerMetrics.Rejection.NO_PATH : ARSchedulerMetrics.Rejection.CONTENTION);
+			}
+			else
+			{
+				reject(ARSchedulerMetrics.Rejection.NO_QUEUE);
+			}
 			return null;
-						
-		spEngine = new ShortestPathEngine(prunedTopology);
-		shortestPath = spEngine.calculateSP(flow);
+		}
 		
-		//shortestPath.dumpTopology();
-				
-		if(shortestPath.isEmpty())
+		logger.info("Flow {} split across {} paths", flow.getID(), allocations.size());
+		theResourceManager.addFlowToRM(flow, allocations);
+		flow.schedulingSuccess(true);
+		return flow;
+	}
+	
+	/**
+	 * Book the switch queues a Flow routed over the given paths will use when it is provisioned.
+	 * @param flow
+	 * @param allocations - each path and the bandwidth reserved on it
+	 * @return True if the queues were booked, or queues are not checked at admission
+	 */
+	private boolean reserveQueues(Flow flow, ArrayList<PathAllocation> allocations)
+	{
+		if(queueAllocator == null)
+			return true;
+		long started = System.nanoTime();
+		boolean reserved = queueAllocator.reserve(flow.getID(), QueueAllocator.getQueueDemands(allocations), flow.getStartTime(), flow.getEndTime());
+		record(ARSchedulerMetrics.Phase.QUEUE_ALLOCATION, started);
+		if(reserved)
+			return true;
+		logger.warn("No free queues of the right rate for Flow {}", flow.getID());
+		return false;
+	}
+	
+	/**
+	 * Record the time taken by a phase of admission, if admissions are measured
+	 * @param phase
+	 * @param started - System.nanoTime when the phase started
+	 * @return System.nanoTime now, when the next phase starts
+	 */
+	private long record(ARSchedulerMetrics.Phase phase, long started)
+	{
+		long now = System.nanoTime();
+		if(metrics != null)
+			metrics.record(phase, now - started);
+		return now;
+	}
+	
+	private void reject(ARSchedulerMetrics.Rejection reason)
+	{
+		if(metrics != null)
+			metrics.reject(reason);
+	}
+	
+	private static long hopKey(CompactGraph graph, int from, int to)
+	{
+		return (long) from * graph.size() + to;
+	}
+	
+	/**
+	 * Find the earliest time a flow of the given duration and bandwidth could start between two nodes.
+	 * Rather than probing every instant, only the earliest start and the times at which some reservation
+	 * ends are tried, in ascending order: a window that does not fit can only start fitting once bandwidth
+	 * is released on a link that blocked the search, or a queue is released on the path found. Only those
+	 * links' and queues' release times are collected, as the searches come across them.
+	 * Each time is checked the way admission would check it: a single shortest path, split across several
+	 * paths when Flows may be split, and the queues of the path or paths. Nothing is reserved.
+	 * @param source
+	 * @param dest
+	 * @param bandwidth
+	 * @param duration - length of the reservation
+	 * @param earliestStart - the reservation may not start before this time
+	 * @param latestEnd - the reservation must end by this time
+	 * @return the earliest feasible start time, or -1 if the reservation fits nowhere in the horizon
+	 */
+	public long findEarliestStart(Node source, Node dest, long bandwidth, long duration, long earliestStart, long latestEnd)
+	{
+		long latestStart = latestEnd - duration;
+		if(duration <= 0 || latestStart < earliestStart)
+			return -1;
+		
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		admissionLock.lock();
+		try
+		{
+			CompactGraph graph = theResourceManager.getGraph();
+			ShortestPathEngine spEngine = new ShortestPathEngine(graph);
+			boolean[] releasesCollected = new boolean[graph.getEdgeCount()];
+			
+			TreeSet<Long> candidates = new TreeSet<Long>();
+			candidates.add(earliestStart);
+			while(!candidates.isEmpty())
+			{
+				long start = candidates.pollFirst();
+				long end = start + duration;
+				ArrayList<Integer> blockedEdges = new ArrayList<Integer>();
+				ArrayList<PathAllocation> allocations = probePaths(source, dest, bandwidth, start, end, graph, spEngine, blockedEdges);
+				if(allocations != null)
+				{
+					if(queueAllocator == null)
+						return start;
+					List<QueueAllocator.QueueDemand> demands = QueueAllocator.getQueueDemands(allocations);
+					if(queueAllocator.canReserve(demands, start, end))
+						return start;
+					queueAllocator.collectReleaseTimes(demands, start, latestStart, candidates);
+				}
+				for(int edge : blockedEdges)
+				{
+					if(releasesCollected[edge])
+						continue;
+					releasesCollected[edge] = true;
+					graph.getEdgeLink(edge).collectReleaseTimes(start, latestStart, candidates);
+				}
+			}
+			return -1;
+		}
+		finally
+		{
+			admissionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Find, without reserving anything, the paths admission would take for a Flow during a time period
+	 * @param source
+	 * @param dest
+	 * @param bandwidth
+	 * @param start
+	 * @param end
+	 * @param graph
+	 * @param spEngine
+	 * @param blockedEdges - the edges the searches found without the bandwidth are added to this list
+	 * @return each path and the bandwidth it would carry, null if the Flow does not fit
+	 */
+	private ArrayList<PathAllocation> probePaths(Node source, Node dest, long bandwidth, long start, long end,
+			CompactGraph graph, ShortestPathEngine spEngine, ArrayList<Integer> blockedEdges)
+	{
+		EdgeFilter withBandwidth = new RecordingEdgeFilter(new BandwidthEdgeFilter(graph, bandwidth, start, end), blockedEdges);
+		Topology path = spEngine.calculateSP(source, dest, withBandwidth);
+		if(!path.isEmpty())
+		{
+			ArrayList<PathAllocation> allocations = new ArrayList<PathAllocation>();
+			allocations.add(new PathAllocation(path, bandwidth));
+			return allocations;
+		}
+		if(maxPathsPerFlow > 1)
+			return probeSplit(source, dest, bandwidth, start, end, graph, spEngine, blockedEdges);
+		return null;
+	}
+	
+	/**
+	 * Split a Flow across paths the way scheduleMultipathFlow does, counting the bandwidth of earlier paths against
+	 * the links instead of reserving it
+	 * @param source
+	 * @param dest
+	 * @param bandwidth
+	 * @param start
+	 * @param end
+	 * @param graph
+	 * @param spEngine
+	 * @param blockedEdges - the edges the searches found without a bandwidth unit free are added to this list
+	 * @return each path and the bandwidth it would carry, null if the paths found cannot carry the whole Flow
+	 */
+	private ArrayList<PathAllocation> probeSplit(Node source, Node dest, long bandwidth, final long start, final long end,
+			final CompactGraph graph, ShortestPathEngine spEngine, ArrayList<Integer> blockedEdges)
+	{
+		final HashMap<FlowLink, Long> taken = new HashMap<FlowLink, Long>();
+		final HashSet<Long> forwardHops = new HashSet<Long>();
+		ArrayList<PathAllocation> allocations = new ArrayList<PathAllocation>();
+		long remaining = bandwidth;
+		
+		while(remaining > 0 && allocations.size() < maxPathsPerFlow)
 		{
-			logger.warn("No Feasible Path for Flow {}", flow.getID());
+			final long wanted = Math.min(remaining, BANDWIDTH_UNIT);
+			final EdgeFilter withCapacity = new RecordingEdgeFilter(new EdgeFilter() {
+				@Override
+				public boolean isUsable(int edge)
+				{
+					return residual(graph.getEdgeLink(edge), taken, start, end) >= wanted;
+				}
+			}, blockedEdges);
+			EdgeFilter usableEdges = new EdgeFilter() {
+				@Override
+				public boolean isUsable(int edge)
+				{
+					return !forwardHops.contains(hopKey(graph, graph.getEdgeTarget(edge), graph.getEdgeSource(edge)))
+							&& withCapacity.isUsable(edge);
+				}
+			};
+			
+			Topology path = spEngine.calculateSP(source, dest, usableEdges);
+			if(path.isEmpty())
+				break;
+			
+			long share = remaining;
+			for(FlowLink l : path.getLinks())
+			{
+				share = Math.min(share, residual(l, taken, start, end));
+			}
+			if(share < remaining)
+				share -= share % BANDWIDTH_UNIT;
+			if(share <= 0)
+				break;
+			
+			allocations.add(new PathAllocation(path, share));
+			remaining -= share;
+			for(FlowLink l : path.getLinks())
+			{
+				Long used = taken.get(l);
+				taken.put(l, used == null ? share : used + share);
+			}
+			ArrayList<Node> pathNodes = path.getNodes();
+			for(int i = 1; i < pathNodes.size(); i++)
+			{
+				forwardHops.add(hopKey(graph, graph.indexOf(pathNodes.get(i - 1)), graph.indexOf(pathNodes.get(i))));
+			}
+		}
+		return remaining > 0 ? null : allocations;
+	}
+	
+	private static long residual(FlowLink link, HashMap<FlowLink, Long> taken, long start, long end)
+	{
+		Long used = taken.get(link);
+		return link.getBandwidthAvailableBetweenTimes(start, end) - (used == null ? 0 : used);
+	}
+	
+	/**
+	 * Passes every question on to another filter, noting the edges it turns down
+	 */
+	private static class RecordingEdgeFilter implements EdgeFilter
+	{
+		private EdgeFilter filter;
+		private ArrayList<Integer> rejected;
+		
+		RecordingEdgeFilter(EdgeFilter filter, ArrayList<Integer> rejected)
+		{
+			this.filter = filter;
+			this.rejected = rejected;
+		}
+		
+		@Override
+		public boolean isUsable(int edge)
+		{
+			if(filter.isUsable(edge))
+				return true;
+			rejected.add(edge);
+			return false;
+		}
+	}
+	
+	/**
+	 * Put back reservations loaded from the reservation journal or replicated by another controller, each on the
+	 * exact paths it held before, keeping its Flow ID. A reservation whose paths no longer exist in the topology, or
+	 * no longer have the bandwidth or queues free, is dropped rather than rerouted, as its rules may already be
+	 * installed on the switches. Reservations already held are skipped.
+	 * Takes time proportional to the total length of the restored paths, once the topology has indexed its links.
+	 * @param records
+	 * @return the Flows restored, in record order
+	 */
+	public ArrayList<Flow> restoreReservations(Collection<ReservationRecord> records)
+	{
+		ArrayList<Flow> restored = new ArrayList<Flow>();
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		admissionLock.lock();
+		try
+		{
+			Topology topology = theResourceManager.getTopology();
+			
+			for(ReservationRecord record : records)
+			{
+				if(theResourceManager.getFlowTable().matchFlow(record.getFlowID()) != null)
+					continue;
+				Flow flow = restoreReservation(record, topology);
+				if(flow == null)
+					logger.warn("Reservation of Flow {} no longer fits the topology and was dropped", record.getFlowID());
+				else
+					restored.add(flow);
+			}
+		}
+		finally
+		{
+			admissionLock.unlock();
+		}
+		return restored;
+	}
+	
+	/**
+	 * Put back one reservation on its recorded paths
+	 * @param record
+	 * @param topology
+	 * @return the restored Flow, null if the reservation could not be restored
+	 */
+	private Flow restoreReservation(ReservationRecord record, Topology topology)
+	{
+		Node source = topology.getNodeByName(record.srcNodeName);
+		Node dest = topology.getNodeByName(record.dstNodeName);
+		if(source == null || dest == null)
 			return null;
+		
+		ArrayList<PathAllocation> allocations = new ArrayList<PathAllocation>();
+		for(ReservationRecord.PathRecord pathRecord : record.paths)
+		{
+			Topology path = resolvePath(pathRecord, topology);
+			if(path == null || !theResourceManager.reservePath(path.getLinks(), pathRecord.bandwidth, record.startTime, record.endTime))
+			{
+				releaseAllocations(allocations, record.startTime, record.endTime);
+				return null;
+			}
+			allocations.add(new PathAllocation(path, pathRecord.bandwidth));
 		}
 		
-				
-		for(FlowLink l : shortestPath.getLinks())
+		Flow flow = new Flow(record.flowID, source, dest, record.bandwidth, record.startTime, record.endTime, record.srcIP, record.dstIP);
+		if(allocations.isEmpty() || !reserveQueues(flow, allocations))
 		{
-			theResourceManager.decreaseAvailableLinkBandwidth(l, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+			releaseAllocations(allocations, record.startTime, record.endTime);
+			return null;
 		}
-				
 		
-		theResourceManager.addFlowToRM(flow, shortestPath);
-				
+		if(allocations.size() == 1)
+			theResourceManager.addFlowToRM(flow, allocations.get(0).getPath());
+		else
+			theResourceManager.addFlowToRM(flow, allocations);
 		flow.schedulingSuccess(true);
 		return flow;
 	}
 	
+	/**
+	 * Look up the nodes and links of a recorded path in the topology
+	 * @param pathRecord
+	 * @param topology
+	 * @return the path, null if some node or link of it is no longer in the topology
+	 */
+	private static Topology resolvePath(ReservationRecord.PathRecord pathRecord, Topology topology)
+	{
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		for(String name : pathRecord.nodeNames)
+		{
+			nodes.add(topology.getNodeByName(name));
+		}
+		for(String key : pathRecord.linkKeys)
+		{
+			links.add(topology.getLinkByKey(key));
+		}
+		if(nodes.contains(null) || links.contains(null))
+			return null;
+		return new Topology(nodes, links);
+	}
+	
+	private void releaseAllocations(ArrayList<PathAllocation> allocations, long start, long end)
+	{
+		for(PathAllocation allocation : allocations)
+		{
+			theResourceManager.releasePath(allocation.getPath().getLinks(), allocation.getBandwidth(), start, end);
+		}
+	}
+	
+	/**
+	 * Set the most paths a single Flow may be split across when it does not fit on one path.
+	 * @param maxPaths - 1 to disable splitting
+	 */
+	public void setMaxPathsPerFlow(int maxPaths)
+	{
+		maxPathsPerFlow = Math.max(1, maxPaths);
+	}
+	
+	/**
+	 * Choose between checking link availability lazily during the path search, or pruning every link first.
+	 * @param lazy
+	 */
+	public void setLazyLinkEvaluation(boolean lazy)
+	{
+		lazyLinkEvaluation = lazy;
+	}
+	
+	/**
+	 * Book switch queues through the given allocator whenever a Flow is admitted, rejecting Flows that would find
+	 * no queue of the right rate when they are provisioned.
+	 * @param allocator - null to stop checking queues at admission
+	 */
+	public void setQueueAllocator(QueueAllocator allocator)
+	{
+		queueAllocator = allocator;
+	}
+	
+	/**
+	 * Time each phase of admission and count rejections by reason through the given metrics.
+	 * @param metrics - null to stop measuring admissions
+	 */
+	public void setMetrics(ARSchedulerMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
 	/**
 	 * Release an expired Flow by updating the Resource Manager.
 	 * @param flowTuple - A combination of a Flow and its associated Route
@@ -81,16 +710,313 @@ public class FlowScheduler {
 			return false;
 		
 		assert(flowTuple.getFlow().getSuccess() == true);
-		if(!flowTuple.isReleased()){
-			theResourceManager.releaseFlowFromRM(flowTuple);
-			Topology flowRoute = flowTuple.getShortestPathtopology();
-			Flow flow = flowTuple.getFlow();
-			for(FlowLink l : flowRoute.getLinks())
+		cancelReservation(flowTuple);
+		
+		return true;
+	}
+	
+	/**
+	 * Give back everything a Flow holds: the bandwidth on each link of its paths and its switch queues.
+	 * Takes time proportional to the length of the Flow's paths.
+	 * @param flowTuple
+	 * @return True if this call released the Flow, False if it had already been released
+	 */
+	public boolean cancelReservation(FlowRouteTuple flowTuple)
+	{
+		Flow flow = flowTuple.getFlow();
+		Lock flowLock = getFlowLock(flow.getID());
+		flowLock.lock();
+		try
+		{
+			// Only the thread that removes the tuple from the RM returns its bandwidth
+			if(!theResourceManager.releaseFlowFromRM(flowTuple))
+				return false;
+			
+			for(PathAllocation allocation : flowTuple.getPathAllocations())
 			{
-				theResourceManager.increaseAvailableLinkBandwidth(l, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
-			}			
+				theResourceManager.releasePath(allocation.getPath().getLinks(), allocation.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+			}
+			if(queueAllocator != null)
+				queueAllocator.cancelReservation(flow.getID());
+			return true;
 		}
+		finally
+		{
+			flowLock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the lock serializing cancels and changes of a Flow
+	 * @param flowID
+	 * @return the lock of the Flow's stripe
+	 */
+	Lock getFlowLock(long flowID)
+	{
+		return flowLocks[(int) ((flowID ^ (flowID >>> 32)) & (FLOW_LOCK_STRIPES - 1))];
+	}
+	
+	/**
+	 * Change the end time, and for a Flow on a single path the bandwidth, of an admitted Flow while keeping its
+	 * paths. Only the links of those paths and the Flow's queue booking are touched, so this takes time proportional
+	 * to the length of the paths. Each link first gives back the old reservation, so a Flow can grow into the room
+	 * it already holds. If the new reservation does not fit, the old one is left exactly as it was.
+	 * @param flowTuple - the Flow's current entry in the FlowTable
+	 * @param modified - the same Flow with its new bandwidth and end time
+	 * @return the Flow's new entry in the FlowTable, null if the reservation could not be changed
+	 */
+	public FlowRouteTuple modifyReservation(FlowRouteTuple flowTuple, Flow modified)
+	{
+		Flow flow = flowTuple.getFlow();
+		ArrayList<PathAllocation> oldAllocations = flowTuple.getPathAllocations();
+		if(oldAllocations.size() > 1 && modified.getBandwidth() != flow.getBandwidth())
+			return null;
 		
-		return true;
+		ArrayList<PathAllocation> newAllocations = new ArrayList<PathAllocation>(oldAllocations.size());
+		for(PathAllocation allocation : oldAllocations)
+		{
+			long bandwidth = oldAllocations.size() == 1 ? modified.getBandwidth() : allocation.getBandwidth();
+			newAllocations.add(new PathAllocation(allocation.getPath(), bandwidth));
+		}
+		FlowRouteTuple modifiedTuple = new FlowRouteTuple(modified, newAllocations);
+		
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		Lock flowLock = getFlowLock(flow.getID());
+		admissionLock.lock();
+		flowLock.lock();
+		try
+		{
+			// A release of either tuple waits on the Flow's lock until the bandwidth has been moved or put back
+			if(flowTuple.isReleased() || !theResourceManager.getFlowTable().replaceFlowRouteTuple(flowTuple, modifiedTuple))
+				return null;
+			
+			int moved = 0;
+			while(moved < oldAllocations.size() && movePath(oldAllocations.get(moved), flow, newAllocations.get(moved), modified))
+			{
+				moved++;
+			}
+			boolean queuesBooked = moved == oldAllocations.size() && (queueAllocator == null
+					|| queueAllocator.modifyReservation(flow.getID(), QueueAllocator.getQueueDemands(newAllocations),
+							modified.getStartTime(), modified.getEndTime()));
+			if(queuesBooked)
+			{
+				modified.schedulingSuccess(true);
+				return modifiedTuple;
+			}
+			
+			for(int i = 0; i < moved; i++)
+			{
+				movePath(newAllocations.get(i), modified, oldAllocations.get(i), flow);
+			}
+			theResourceManager.getFlowTable().replaceFlowRouteTuple(modifiedTuple, flowTuple);
+			logger.info("Flow {} could not be changed to {}", flow.getID(), modified);
+			return null;
+		}
+		finally
+		{
+			flowLock.unlock();
+			admissionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Get the least bandwidth left free on any link of a Flow's paths during the Flow, so the most constrained
+	 * reservations can be rerouted first.
+	 * @param flowTuple
+	 * @return the bottleneck's free bandwidth
+	 */
+	public long getHeadroom(FlowRouteTuple flowTuple)
+	{
+		Flow flow = flowTuple.getFlow();
+		long headroom = Long.MAX_VALUE;
+		for(FlowLink link : flowTuple.getShortestPathtopology().getLinks())
+		{
+			headroom = Math.min(headroom, link.getBandwidthAvailableBetweenTimes(flow.getStartTime(), flow.getEndTime()));
+		}
+		return headroom;
+	}
+	
+	/**
+	 * Move a single-path Flow to another path if that leaves strictly more bandwidth free. The links of the current
+	 * path are tried from the most loaded up: for each, the shortest path avoiding that hop is searched, on which
+	 * every link the Flow does not hold yet would keep more bandwidth free than the avoided link. The move is taken
+	 * only if the links it adds keep more bandwidth free than the most loaded link it gives up, so the least free
+	 * bandwidth on any link it touches rises, and only if the new path is no longer, so no capacity is spent on
+	 * detours. Searches use the links' current timelines. The links, queues and FlowTable entry are changed in place
+	 * but the Flow's rules are not, so this is only meant for Flows that have not started. Multipath Flows are left
+	 * alone.
+	 * @param flowTuple - the Flow's current entry in the FlowTable
+	 * @return the Flow's new entry in the FlowTable, null if no better path was found or it could not be taken
+	 */
+	public FlowRouteTuple rerouteReservation(FlowRouteTuple flowTuple)
+	{
+		if(flowTuple.isMultipath())
+			return null;
+		final Flow flow = flowTuple.getFlow();
+		Topology oldPath = flowTuple.getShortestPathtopology();
+		final HashSet<FlowLink> oldLinks = new HashSet<FlowLink>(oldPath.getLinks());
+		int oldHops = oldPath.getNodes().size() - 1;
+		
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		admissionLock.lock();
+		try
+		{
+			if(flowTuple.isReleased())
+				return null;
+			final HashMap<FlowLink, Long> oldFree = new HashMap<FlowLink, Long>();
+			for(FlowLink link : oldLinks)
+			{
+				oldFree.put(link, link.getBandwidthAvailableBetweenTimes(flow.getStartTime(), flow.getEndTime()));
+			}
+			ArrayList<FlowLink> mostLoadedFirst = new ArrayList<FlowLink>(oldLinks);
+			Collections.sort(mostLoadedFirst, new Comparator<FlowLink>() {
+				@Override
+				public int compare(FlowLink a, FlowLink b)
+				{
+					return Long.compare(oldFree.get(a), oldFree.get(b));
+				}
+			});
+			
+			final CompactGraph graph = theResourceManager.getGraph();
+			ShortestPathEngine spEngine = new ShortestPathEngine(graph);
+			HashSet<FlowLink> tried = new HashSet<FlowLink>();
+			for(final FlowLink avoided : mostLoadedFirst)
+			{
+				if(!tried.add(avoided))
+					continue;
+				final long threshold = oldFree.get(avoided);
+				EdgeFilter betterEdges = new EdgeFilter() {
+					@Override
+					public boolean isUsable(int edge)
+					{
+						FlowLink link = graph.getEdgeLink(edge);
+						if(isSameHop(link, avoided))
+							return false;
+						if(oldLinks.contains(link))
+							return true;
+						return link.getBandwidthAvailableBetweenTimes(flow.getStartTime(), flow.getEndTime()) - flow.getBandwidth() > threshold;
+					}
+				};
+				for(FlowLink link : oldLinks)
+				{
+					if(isSameHop(link, avoided))
+						tried.add(link);
+				}
+				
+				Topology path = spEngine.calculateSP(flow, betterEdges);
+				int hops = path.getNodes().size() - 1;
+				// Every hop of the new path must carry the Flow both ways
+				if(path.isEmpty() || hops > oldHops || path.getLinks().size() != 2 * hops)
+					continue;
+				long leastFreeDropped = Long.MAX_VALUE;
+				for(FlowLink link : oldLinks)
+				{
+					if(!path.getLinks().contains(link))
+						leastFreeDropped = Math.min(leastFreeDropped, oldFree.get(link));
+				}
+				FlowRouteTuple movedTuple = moveToPath(flowTuple, path, leastFreeDropped + 1);
+				if(movedTuple != null)
+					return movedTuple;
+			}
+			return null;
+		}
+		finally
+		{
+			admissionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Check if two links join the same ports, in either direction
+	 */
+	private static boolean isSameHop(FlowLink a, FlowLink b)
+	{
+		if(a == b)
+			return true;
+		return a.getSrcNode() == b.getDstNode() && a.getDstNode() == b.getSrcNode()
+				&& a.getSrcPort().getID() == b.getDstPort().getID() && a.getDstPort().getID() == b.getSrcPort().getID();
+	}
+	
+	/**
+	 * Move a single-path Flow onto a recorded path, as chosen by another controller's rerouting.
+	 * @param flowTuple - the Flow's current entry in the FlowTable
+	 * @param pathRecord - the new path
+	 * @return the Flow's new entry in the FlowTable, null if the path is not in the topology or does not fit
+	 */
+	public FlowRouteTuple moveReservation(FlowRouteTuple flowTuple, ReservationRecord.PathRecord pathRecord)
+	{
+		if(flowTuple.isMultipath())
+			return null;
+		Lock admissionLock = theResourceManager.getAdmissionLock();
+		admissionLock.lock();
+		try
+		{
+			Topology topology = theResourceManager.getTopology();
+			Topology path = resolvePath(pathRecord, topology);
+			if(flowTuple.isReleased() || path == null)
+				return null;
+			return moveToPath(flowTuple, path, 0);
+		}
+		finally
+		{
+			admissionLock.unlock();
+		}
+	}
+	
+	/**
+	 * Move a single-path Flow onto a new path. The links only the new path uses are reserved first and the queues
+	 * booked again, and only then are the links only the old path used given back, so a failure part way leaves the
+	 * old reservation exactly as it was. The caller holds the admission lock; this takes the Flow's lock.
+	 * @param flowTuple
+	 * @param path
+	 * @param bwToKeepFree - bandwidth each newly used link must still have available once the Flow is on it
+	 * @return the Flow's new entry in the FlowTable, null if the Flow was left on its old path
+	 */
+	private FlowRouteTuple moveToPath(FlowRouteTuple flowTuple, Topology path, long bwToKeepFree)
+	{
+		Flow flow = flowTuple.getFlow();
+		ArrayList<FlowLink> oldLinks = flowTuple.getShortestPathtopology().getLinks();
+		ArrayList<FlowLink> addedLinks = new ArrayList<FlowLink>(path.getLinks());
+		addedLinks.removeAll(oldLinks);
+		ArrayList<FlowLink> droppedLinks = new ArrayList<FlowLink>(oldLinks);
+		droppedLinks.removeAll(path.getLinks());
+		if(addedLinks.isEmpty() && droppedLinks.isEmpty())
+			return null;
+		
+		FlowRouteTuple movedTuple = new FlowRouteTuple(flow, path);
+		Lock flowLock = getFlowLock(flow.getID());
+		flowLock.lock();
+		try
+		{
+			// A release of either tuple waits on the Flow's lock until the bandwidth has been moved or put back
+			if(flowTuple.isReleased() || !theResourceManager.getFlowTable().replaceFlowRouteTuple(flowTuple, movedTuple))
+				return null;
+			if(!theResourceManager.reservePath(addedLinks, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime(), bwToKeepFree))
+			{
+				theResourceManager.getFlowTable().replaceFlowRouteTuple(movedTuple, flowTuple);
+				return null;
+			}
+			if(queueAllocator != null && !queueAllocator.modifyReservation(flow.getID(), 
+					QueueAllocator.getQueueDemands(movedTuple.getPathAllocations()), flow.getStartTime(), flow.getEndTime()))
+			{
+				theResourceManager.releasePath(addedLinks, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+				theResourceManager.getFlowTable().replaceFlowRouteTuple(movedTuple, flowTuple);
+				logger.debug("No free queues on the new path of Flow {}", flow.getID());
+				return null;
+			}
+			theResourceManager.releasePath(droppedLinks, flow.getBandwidth(), flow.getStartTime(), flow.getEndTime());
+			logger.info("Flow {} moved to a path of {} links", flow.getID(), path.getLinks().size() / 2);
+			return movedTuple;
+		}
+		finally
+		{
+			flowLock.unlock();
+		}
+	}
+	
+	private boolean movePath(PathAllocation from, Flow fromFlow, PathAllocation to, Flow toFlow)
+	{
+		return theResourceManager.modifyPath(from.getPath().getLinks(), from.getBandwidth(), fromFlow.getStartTime(), fromFlow.getEndTime(),
+				to.getBandwidth(), toFlow.getStartTime(), toFlow.getEndTime());
 	}
 }
@@ -1,101 +1,223 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Set;
 
 /**
- * Wrapper for an ArrayList of Flow Route Tuples, keeping track of each Flow and it associated route.
+ * Keeps track of each Flow and its associated route as a set of FlowRouteTuples.
+ * Tuples are indexed by Flow ID, and also by every FlowLink and switch DPID on their route, so that
+ * lookups and removals cost O(path length) rather than a scan of every reservation.
+ * All methods are synchronized, as admissions and FLOW_REMOVED handling run on different threads.
  * @author Dylan Davis and Jeremy Plante
  *
  */
-public class FlowTable 
+public class FlowTable
 {
 	/**
-	 * The list of FlowRouteTuples
+	 * The FlowRouteTuples, indexed by Flow ID in insertion order
 	 */
-	private ArrayList<FlowRouteTuple> allFlowRoutes;
-	
+	private LinkedHashMap<Long, FlowRouteTuple> flowsByID;
 	/**
-	 * Construct the FlowTable with a new list of FlowRouteTuples
+	 * The FlowRouteTuples using each link
+	 */
+	private HashMap<FlowLink, Set<FlowRouteTuple>> flowsByLink;
+	/**
+	 * The FlowRouteTuples crossing each switch, keyed by the switch's DPID string
+	 */
+	private HashMap<String, Set<FlowRouteTuple>> flowsBySwitch;
+
+	/**
+	 * Construct an empty FlowTable
 	 */
 	public FlowTable()
 	{
-		allFlowRoutes = new ArrayList<FlowRouteTuple>();
+		flowsByID = new LinkedHashMap<Long, FlowRouteTuple>();
+		flowsByLink = new HashMap<FlowLink, Set<FlowRouteTuple>>();
+		flowsBySwitch = new HashMap<String, Set<FlowRouteTuple>>();
 	}
-	
+
 	/**
-	 * Add a FlowRouteTuple to the list.
+	 * Add a FlowRouteTuple to the table.
 	 * @param theTuple
 	 */
-	public void addFlowRouteTupleToFlowTable(FlowRouteTuple theTuple)
+	public synchronized void addFlowRouteTupleToFlowTable(FlowRouteTuple theTuple)
 	{
-		allFlowRoutes.add(theTuple);
+		FlowRouteTuple replaced = flowsByID.put(theTuple.getFlow().getID(), theTuple);
+		if(replaced != null)
+			unindexRoute(replaced);
+
+		Topology route = theTuple.getShortestPathtopology();
+		for(FlowLink link : route.getLinks())
+		{
+			addToIndex(flowsByLink, link, theTuple);
+		}
+		for(Node node : route.getNodes())
+		{
+			if(node.nodeIsSwitch())
+				addToIndex(flowsBySwitch, node.getNodeName(), theTuple);
+		}
 	}
-	
+
 	/**
-	 * Remove every FlowRouteTuple from the list
+	 * Replace a FlowRouteTuple with another for the same Flow ID, only if it is still the one in the table.
+	 * @param oldTuple
+	 * @param newTuple
+	 * @return True if the tuple was replaced
 	 */
-	public void removeAllFlowRouteTuples()
+	public synchronized boolean replaceFlowRouteTuple(FlowRouteTuple oldTuple, FlowRouteTuple newTuple)
 	{
-		allFlowRoutes.clear();
+		if(flowsByID.get(oldTuple.getFlow().getID()) != oldTuple)
+			return false;
+		addFlowRouteTupleToFlowTable(newTuple);
+		return true;
 	}
-	
+
+	/**
+	 * Remove a FlowRouteTuple from the table.
+	 * @param theTuple
+	 * @return True if the tuple was in the table
+	 */
+	public synchronized boolean removeFlowRouteTuple(FlowRouteTuple theTuple)
+	{
+		long flowID = theTuple.getFlow().getID();
+		if(flowsByID.get(flowID) != theTuple)
+			return false;
+
+		flowsByID.remove(flowID);
+		unindexRoute(theTuple);
+		return true;
+	}
+
+	/**
+	 * Remove every FlowRouteTuple from the table
+	 */
+	public synchronized void removeAllFlowRouteTuples()
+	{
+		flowsByID.clear();
+		flowsByLink.clear();
+		flowsBySwitch.clear();
+	}
+
 	/**
 	 * Find a matching FlowRouteTuple from this FlowTable given a Flow
 	 * @param theFlow
 	 * @return the matching FlowRouteTuple
 	 */
-	public FlowRouteTuple findApplicableFlowRouteTuple(Flow theFlow)
+	public synchronized FlowRouteTuple findApplicableFlowRouteTuple(Flow theFlow)
 	{
-		
-		
-		for(FlowRouteTuple oneFlowRouteTuple : allFlowRoutes)
+		FlowRouteTuple oneFlowRouteTuple = flowsByID.get(theFlow.getID());
+		if(oneFlowRouteTuple != null && oneFlowRouteTuple.getFlow().equals(theFlow))
 		{
-			if(oneFlowRouteTuple.getFlow().equals(theFlow))
-			{
-				return oneFlowRouteTuple;
-			}
+			return oneFlowRouteTuple;
 		}
-		
+
 		return null;
 	}
-	
+
 	/**
-	 * Find a matching FlowRouteTuple given just the Flow ID. 
+	 * Find a matching FlowRouteTuple given just the Flow ID.
 	 * Note: Flow IDs are unique.
 	 * @param flowID
 	 * @return the matching FlowRouteTuple
 	 */
-	public FlowRouteTuple matchFlow(long flowID)
+	public synchronized FlowRouteTuple matchFlow(long flowID)
 	{
-		for(FlowRouteTuple oneRouteTuple : allFlowRoutes)
-		{
-			Flow oneFlow = oneRouteTuple.getFlow();
-			
-			if((oneFlow.getID() == flowID))
-			{
-				return oneRouteTuple;
-			}
-		}
-		
-		return null;
+		return flowsByID.get(flowID);
 	}
-	
+
+	/**
+	 * Get the FlowRouteTuples whose route uses a link
+	 * @param link
+	 * @return a copy of the set of tuples, empty if none use the link
+	 */
+	public synchronized Set<FlowRouteTuple> getFlowRouteTuplesOnLink(FlowLink link)
+	{
+		Set<FlowRouteTuple> tuples = flowsByLink.get(link);
+		if(tuples == null)
+			return Collections.emptySet();
+		return new LinkedHashSet<FlowRouteTuple>(tuples);
+	}
+
+	/**
+	 * Get the FlowRouteTuples whose route crosses a switch
+	 * @param switchDPID - the switch's DPID string
+	 * @return a copy of the set of tuples, empty if none cross the switch
+	 */
+	public synchronized Set<FlowRouteTuple> getFlowRouteTuplesOnSwitch(String switchDPID)
+	{
+		Set<FlowRouteTuple> tuples = flowsBySwitch.get(switchDPID);
+		if(tuples == null)
+			return Collections.emptySet();
+		return new LinkedHashSet<FlowRouteTuple>(tuples);
+	}
+
 	/**
 	 * Status of Flow Route Tuple list
 	 * @return True if empty, False if not
 	 */
-	public boolean isEmpty()
+	public synchronized boolean isEmpty()
 	{
-		return allFlowRoutes.isEmpty();
+		return flowsByID.isEmpty();
 	}
-	
+
+	/**
+	 * Number of FlowRouteTuples in the table
+	 * @return the table size
+	 */
+	public synchronized int size()
+	{
+		return flowsByID.size();
+	}
+
 	/**
 	 * Gets the list of FLowRouteTuples
 	 * @return ArrayList of tuples
 	 */
-	public ArrayList<FlowRouteTuple> getAllFlowRouteTuples()
+	public synchronized ArrayList<FlowRouteTuple> getAllFlowRouteTuples()
+	{
+		return new ArrayList<FlowRouteTuple>(flowsByID.values());
+	}
+
+	/**
+	 * Drop a tuple from the link and switch indexes
+	 * @param theTuple
+	 */
+	private void unindexRoute(FlowRouteTuple theTuple)
+	{
+		Topology route = theTuple.getShortestPathtopology();
+		for(FlowLink link : route.getLinks())
+		{
+			removeFromIndex(flowsByLink, link, theTuple);
+		}
+		for(Node node : route.getNodes())
+		{
+			if(node.nodeIsSwitch())
+				removeFromIndex(flowsBySwitch, node.getNodeName(), theTuple);
+		}
+	}
+
+	private static <K> void addToIndex(HashMap<K, Set<FlowRouteTuple>> index, K key, FlowRouteTuple theTuple)
+	{
+		Set<FlowRouteTuple> tuples = index.get(key);
+		if(tuples == null)
+		{
+			tuples = new LinkedHashSet<FlowRouteTuple>();
+			index.put(key, tuples);
+		}
+		tuples.add(theTuple);
+	}
+
+	private static <K> void removeFromIndex(HashMap<K, Set<FlowRouteTuple>> index, K key, FlowRouteTuple theTuple)
 	{
-		return allFlowRoutes;
+		Set<FlowRouteTuple> tuples = index.get(key);
+		if(tuples == null)
+			return;
+		tuples.remove(theTuple);
+		if(tuples.isEmpty())
+			index.remove(key);
 	}
-	
 }
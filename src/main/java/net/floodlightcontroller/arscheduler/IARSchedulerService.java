@@ -1,6 +1,7 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.util.ArrayList;
+import java.util.Map;
 
 import net.floodlightcontroller.core.module.IFloodlightService;
 
@@ -26,4 +27,64 @@ public interface IARSchedulerService extends IFloodlightService {
 	 * @return status String
 	 */
 	public String handleNewFlow(Flow flow);
+	/**
+	 * Handle a batch of new flow scheduling requests, admitted together
+	 * @param flows
+	 * @param transactional - True if either every flow or none of them should be scheduled
+	 * @return status String for each flow, in request order
+	 */
+	public ArrayList<String> handleNewFlowBatch(ArrayList<Flow> flows, boolean transactional);
+	/**
+	 * Cancel a reservation, removing its rules if it has started
+	 * @param flowID
+	 * @return status String
+	 */
+	public String cancelFlow(long flowID);
+	/**
+	 * Change the bandwidth or end time of a reservation on the paths it already holds. The bandwidth may only
+	 * change before a flow starts, and only for a flow on a single path.
+	 * @param flowID
+	 * @param bandwidth - the new bandwidth, negative to keep the current one
+	 * @param endTime - the new end time, negative to keep the current one
+	 * @return status String
+	 */
+	public String modifyFlow(long flowID, long bandwidth, long endTime);
+	/**
+	 * Get the number of scheduled flows waiting for their start time
+	 * @return pending activation depth
+	 */
+	public int getPendingActivationCount();
+	/**
+	 * Get the number of activations whose path was confirmed by every switch or failed, and the time taken to
+	 * install and confirm each path
+	 * @return statistic name to value
+	 */
+	public Map<String, Long> getActivationStatistics();
+	/**
+	 * Reroute reservations that have not started yet onto paths that leave strictly more bandwidth free
+	 * @return the number of reservations considered and rerouted, and how long the pass took
+	 */
+	public Map<String, Long> reoptimizeReservations();
+	/**
+	 * Find the earliest start time at which a reservation could be scheduled, without reserving anything
+	 * @param source
+	 * @param dest
+	 * @param bandwidth
+	 * @param duration - length of the reservation
+	 * @param earliestStart - start of the search horizon
+	 * @param latestEnd - end of the search horizon
+	 * @return the earliest feasible start time, -1 if there is none in the horizon
+	 */
+	public long findEarliestStart(Node source, Node dest, long bandwidth, long duration, long earliestStart, long latestEnd);
+	/**
+	 * Get an immutable snapshot of the topology and of the bandwidth reserved on every link, to check whether
+	 * a reservation would fit without booking it
+	 * @return the snapshot
+	 */
+	public AvailabilitySnapshot getAvailabilitySnapshot();
+	/**
+	 * Get the debug counters and latency histograms of the admission pipeline, which resources also record into
+	 * @return the metrics
+	 */
+	public ARSchedulerMetrics getMetrics();
 }
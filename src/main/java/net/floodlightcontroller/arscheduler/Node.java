@@ -19,7 +19,7 @@ public abstract class Node
 	 */
 	protected String nodeName;
 	/**
-	 * List of ports on this node
+	 * List of ports on this node. Port p is at index p - 1, so ports are found without a search.
 	 */
 	private ArrayList<Port> portList;
 	/**
@@ -93,15 +93,12 @@ public abstract class Node
 	/**
 	 * Get the port with the given ID
 	 * @param ID
-	 * @return The matching port object
+	 * @return The matching port object, null if the node has no such port
 	 */
 	public Port getPortByID(int ID){
-		for(Port p : this.portList){
-			if(p.getID() == ID){
-				return p;
-			}
-		}
-		return null;
+		if(ID < 1 || ID > portList.size())
+			return null;
+		return portList.get(ID - 1);
 	}
 	
 	/**
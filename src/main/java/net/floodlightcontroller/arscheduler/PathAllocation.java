@@ -0,0 +1,116 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * One of the paths a Flow is routed over, and the share of the Flow's bandwidth reserved on it.
+ * A Flow routed over a single path has one PathAllocation carrying all of its bandwidth.
+ */
+public class PathAllocation
+{
+	/**
+	 * The path, as the nodes from source to destination and the links in both directions
+	 */
+	private Topology path;
+	/**
+	 * Bandwidth reserved on every link of the path, in bits per second
+	 */
+	private long bandwidth;
+
+	/**
+	 * Construct a PathAllocation for a path and the bandwidth reserved on it
+	 * @param path
+	 * @param bandwidth
+	 */
+	public PathAllocation(Topology path, long bandwidth)
+	{
+		this.path = path;
+		this.bandwidth = bandwidth;
+	}
+
+	/**
+	 * Get the path
+	 * @return Topology of the path
+	 */
+	public Topology getPath()
+	{
+		return path;
+	}
+
+	/**
+	 * Get the bandwidth reserved on the path
+	 * @return bandwidth in bits per second
+	 */
+	public long getBandwidth()
+	{
+		return bandwidth;
+	}
+
+	/**
+	 * Work out, for every switch crossed by a set of paths, how much bandwidth enters through each port and leaves
+	 * through each other port. Paths sharing a hop through a switch have their bandwidth summed on it.
+	 * @param allocations - each path and the bandwidth reserved on it
+	 * @param towardsDst - filled per switch DPID and incoming port with the bandwidth sent out of each outgoing port,
+	 * for traffic from the source to the destination
+	 * @param towardsSrc - the same for traffic from the destination back to the source
+	 */
+	public static void collectPortSplits(List<PathAllocation> allocations,
+			HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> towardsDst,
+			HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> towardsSrc)
+	{
+		for(PathAllocation allocation : allocations)
+		{
+			ArrayList<Node> pathNodes = allocation.getPath().getNodes();
+			ArrayList<FlowLink> pathLinks = allocation.getPath().getLinks();
+			for(int i = 1; i < pathNodes.size() - 1; i++)
+			{
+				Node thisSwitch = pathNodes.get(i);
+				FlowLink in = findLink(pathLinks, pathNodes.get(i - 1), thisSwitch);
+				FlowLink out = findLink(pathLinks, thisSwitch, pathNodes.get(i + 1));
+				if(in == null || out == null)
+					continue;
+				addSplit(towardsDst, thisSwitch.getNodeName(), in.getDstPort().getID(), out.getSrcPort().getID(), allocation.getBandwidth());
+				addSplit(towardsSrc, thisSwitch.getNodeName(), out.getSrcPort().getID(), in.getDstPort().getID(), allocation.getBandwidth());
+			}
+		}
+	}
+
+	/**
+	 * Find the link of a path running from one node to another
+	 * @param pathLinks
+	 * @param from
+	 * @param to
+	 * @return the link, null if the path has none
+	 */
+	private static FlowLink findLink(ArrayList<FlowLink> pathLinks, Node from, Node to)
+	{
+		for(FlowLink link : pathLinks)
+		{
+			if(link.getSrcNode() == from && link.getDstNode() == to)
+				return link;
+		}
+		return null;
+	}
+
+	private static void addSplit(HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> splits, String dpid,
+			int inPort, int outPort, long bandwidth)
+	{
+		HashMap<Integer, LinkedHashMap<Integer, Long>> switchSplits = splits.get(dpid);
+		if(switchSplits == null)
+		{
+			switchSplits = new HashMap<Integer, LinkedHashMap<Integer, Long>>();
+			splits.put(dpid, switchSplits);
+		}
+		LinkedHashMap<Integer, Long> outPorts = switchSplits.get(inPort);
+		if(outPorts == null)
+		{
+			outPorts = new LinkedHashMap<Integer, Long>();
+			switchSplits.put(inPort, outPorts);
+		}
+		Long current = outPorts.get(outPort);
+		outPorts.put(outPort, current == null ? bandwidth : current + bandwidth);
+	}
+}
@@ -0,0 +1,473 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Hands out the switches' queues to Flows.
+ * Queues are grouped by switch DPID, port and rate, and each group keeps a free list, so a Flow's queue is
+ * found and given back in O(1) rather than by scanning every queue of the switch.
+ * Admission also books queues against each group's inventory over the Flow's time period, the same way link
+ * bandwidth is booked, so a Flow that is accepted is guaranteed a queue of the right rate on every hop when
+ * it is provisioned.
+ * All methods are synchronized, as admissions, activations and FLOW_REMOVED handling run on different threads.
+ */
+public class QueueAllocator
+{
+	/**
+	 * A queue needed by a Flow: one of the given rate on a port of a switch
+	 */
+	public static class QueueDemand
+	{
+		private String dpid;
+		private int port;
+		private long rate;
+
+		public QueueDemand(String dpid, int port, long rate)
+		{
+			this.dpid = dpid;
+			this.port = port;
+			this.rate = rate;
+		}
+
+		public String getDPID()
+		{
+			return dpid;
+		}
+
+		public int getPort()
+		{
+			return port;
+		}
+
+		public long getRate()
+		{
+			return rate;
+		}
+	}
+
+	/**
+	 * The queues of one rate on one port
+	 */
+	private static class QueueClass
+	{
+		/**
+		 * Every queue in the class
+		 */
+		HashSet<FlowQueue> queues = new HashSet<FlowQueue>();
+		/**
+		 * The queues not assigned to any Flow
+		 */
+		ArrayDeque<FlowQueue> free = new ArrayDeque<FlowQueue>();
+		/**
+		 * Number of queues booked by admitted Flows across time
+		 */
+		BandwidthTimeline booked = new BandwidthTimeline();
+	}
+
+	/**
+	 * The queues booked by an admitted Flow
+	 */
+	private static class Booking
+	{
+		/**
+		 * The timeline of each class a queue is booked in, once per queue
+		 */
+		ArrayList<BandwidthTimeline> timelines = new ArrayList<BandwidthTimeline>();
+		long startTime;
+		long endTime;
+	}
+
+	/**
+	 * Queue classes by switch DPID, port number and rate
+	 */
+	private HashMap<String, HashMap<Integer, HashMap<Long, QueueClass>>> inventory;
+	/**
+	 * Queue bookings of admitted Flows, by Flow ID
+	 */
+	private HashMap<Long, Booking> bookings;
+	/**
+	 * Queues assigned to provisioned Flows, by Flow ID and switch DPID
+	 */
+	private HashMap<Long, HashMap<String, ArrayList<FlowQueue>>> assigned;
+
+	/**
+	 * Construct an empty QueueAllocator
+	 */
+	public QueueAllocator()
+	{
+		inventory = new HashMap<String, HashMap<Integer, HashMap<Long, QueueClass>>>();
+		bookings = new HashMap<Long, Booking>();
+		assigned = new HashMap<Long, HashMap<String, ArrayList<FlowQueue>>>();
+	}
+
+	/**
+	 * Forget every queue, booking and assignment
+	 */
+	public synchronized void clear()
+	{
+		inventory.clear();
+		bookings.clear();
+		assigned.clear();
+	}
+
+	/**
+	 * Set the queues of every port of a switch
+	 * @param dpid
+	 * @param portQueues - the queues per port number
+	 */
+	public synchronized void setSwitchQueues(String dpid, Map<Integer, ArrayList<FlowQueue>> portQueues)
+	{
+		for(Map.Entry<Integer, ArrayList<FlowQueue>> entry : portQueues.entrySet())
+		{
+			setPortQueues(dpid, entry.getKey(), entry.getValue());
+		}
+	}
+
+	/**
+	 * Set the queues of a port, replacing whatever the port had before. Bookings already made on the port are kept
+	 * for every rate it still has, and a queue reported again under the same ID keeps its assignment.
+	 * @param dpid
+	 * @param port
+	 * @param queues
+	 */
+	public synchronized void setPortQueues(String dpid, int port, Collection<FlowQueue> queues)
+	{
+		HashMap<Integer, HashMap<Long, QueueClass>> switchClasses = inventory.get(dpid);
+		if(switchClasses == null)
+		{
+			switchClasses = new HashMap<Integer, HashMap<Long, QueueClass>>();
+			inventory.put(dpid, switchClasses);
+		}
+
+		HashMap<Long, FlowQueue> previous = new HashMap<Long, FlowQueue>();
+		HashMap<Long, QueueClass> oldClasses = switchClasses.get(port);
+		if(oldClasses != null)
+		{
+			for(QueueClass oldClass : oldClasses.values())
+			{
+				for(FlowQueue queue : oldClass.queues)
+					previous.put(queue.getQueueID(), queue);
+			}
+		}
+
+		HashMap<Long, QueueClass> classes = new HashMap<Long, QueueClass>();
+		for(FlowQueue queue : queues)
+		{
+			FlowQueue old = previous.get(queue.getQueueID());
+			if(old != null && old.getBandwidth() == queue.getBandwidth())
+				queue = old;
+
+			QueueClass queueClass = classes.get(queue.getBandwidth());
+			if(queueClass == null)
+			{
+				queueClass = new QueueClass();
+				if(oldClasses != null && oldClasses.containsKey(queue.getBandwidth()))
+					queueClass.booked = oldClasses.get(queue.getBandwidth()).booked;
+				classes.put(queue.getBandwidth(), queueClass);
+			}
+			queueClass.queues.add(queue);
+			if(!queue.isUsed())
+				queueClass.free.add(queue);
+		}
+		switchClasses.put(port, classes);
+	}
+
+	/**
+	 * Book the queues a Flow needs during its time period, all or nothing.
+	 * @param flowID
+	 * @param demands - the queues needed, one entry per queue
+	 * @param startTime
+	 * @param endTime
+	 * @return True if every queue could be booked
+	 */
+	public synchronized boolean reserve(long flowID, List<QueueDemand> demands, long startTime, long endTime)
+	{
+		LinkedHashMap<QueueClass, Integer> needed = countDemands(demands);
+		if(needed == null || !fits(needed, startTime, endTime))
+			return false;
+
+		Booking booking = new Booking();
+		booking.startTime = startTime;
+		booking.endTime = endTime;
+		for(Map.Entry<QueueClass, Integer> entry : needed.entrySet())
+		{
+			entry.getKey().booked.addReservation(entry.getValue(), startTime, endTime);
+			for(int i = 0; i < entry.getValue(); i++)
+				booking.timelines.add(entry.getKey().booked);
+		}
+		cancelReservation(flowID);
+		bookings.put(flowID, booking);
+		return true;
+	}
+
+	/**
+	 * Check, without booking anything, if the queues a Flow needs are free during its time period
+	 * @param demands - the queues needed, one entry per queue
+	 * @param startTime
+	 * @param endTime
+	 * @return True if reserve would book them
+	 */
+	public synchronized boolean canReserve(List<QueueDemand> demands, long startTime, long endTime)
+	{
+		LinkedHashMap<QueueClass, Integer> needed = countDemands(demands);
+		return needed != null && fits(needed, startTime, endTime);
+	}
+
+	/**
+	 * Collect the times in (after, until] at which a booking of a queue class some demand falls in ends
+	 * @param demands
+	 * @param after
+	 * @param until
+	 * @param times - the release times found are added to this collection
+	 */
+	public synchronized void collectReleaseTimes(List<QueueDemand> demands, long after, long until, Collection<Long> times)
+	{
+		for(QueueDemand demand : demands)
+		{
+			QueueClass queueClass = getQueueClass(demand.getDPID(), demand.getPort(), demand.getRate());
+			if(queueClass != null)
+				queueClass.booked.collectReleaseTimes(after, until, times);
+		}
+	}
+
+	/**
+	 * Replace the queues booked by a Flow with a new booking, all or nothing. If the new booking does not fit,
+	 * the old one is kept.
+	 * @param flowID
+	 * @param demands - the queues needed, one entry per queue
+	 * @param startTime
+	 * @param endTime
+	 * @return True if the new booking was made
+	 */
+	public synchronized boolean modifyReservation(long flowID, List<QueueDemand> demands, long startTime, long endTime)
+	{
+		Booking old = bookings.get(flowID);
+		cancelReservation(flowID);
+		if(reserve(flowID, demands, startTime, endTime))
+			return true;
+		if(old != null)
+		{
+			for(BandwidthTimeline booked : old.timelines)
+			{
+				booked.addReservation(1, old.startTime, old.endTime);
+			}
+			bookings.put(flowID, old);
+		}
+		return false;
+	}
+
+	/**
+	 * Give back the queues booked by a Flow
+	 * @param flowID
+	 * @return True if the Flow had a booking
+	 */
+	public synchronized boolean cancelReservation(long flowID)
+	{
+		Booking booking = bookings.remove(flowID);
+		if(booking == null)
+			return false;
+		for(BandwidthTimeline booked : booking.timelines)
+		{
+			booked.removeReservation(1, booking.startTime, booking.endTime);
+		}
+		return true;
+	}
+
+	/**
+	 * Assign a free queue of the given rate on a switch port to a Flow.
+	 * If every such queue is still held, a queue whose Flow has ended before this one starts is taken over, as the
+	 * ended Flow's FLOW_REMOVED may not have arrived yet. A Flow provisioned again, for instance after its end
+	 * time was extended, gets back the queue it already holds on the port.
+	 * @param flowID
+	 * @param dpid
+	 * @param port
+	 * @param rate
+	 * @return the queue, null if none is free
+	 */
+	public synchronized FlowQueue allocate(long flowID, String dpid, int port, long rate)
+	{
+		QueueClass queueClass = getQueueClass(dpid, port, rate);
+		if(queueClass == null)
+			return null;
+
+		HashMap<String, ArrayList<FlowQueue>> held = assigned.get(flowID);
+		if(held != null && held.containsKey(dpid))
+		{
+			for(FlowQueue queue : held.get(dpid))
+			{
+				if(queue.getFlowID() == flowID && queue.getPortNum() == port && queue.getBandwidth() == rate)
+					return queue;
+			}
+		}
+
+		FlowQueue queue = queueClass.free.poll();
+		if(queue == null)
+			queue = findEndedQueue(queueClass, flowID);
+		if(queue == null)
+			return null;
+
+		queue.setUsed(true);
+		queue.setFlowID(flowID);
+		HashMap<String, ArrayList<FlowQueue>> flowQueues = assigned.get(flowID);
+		if(flowQueues == null)
+		{
+			flowQueues = new HashMap<String, ArrayList<FlowQueue>>();
+			assigned.put(flowID, flowQueues);
+		}
+		ArrayList<FlowQueue> switchQueues = flowQueues.get(dpid);
+		if(switchQueues == null)
+		{
+			switchQueues = new ArrayList<FlowQueue>();
+			flowQueues.put(dpid, switchQueues);
+		}
+		switchQueues.add(queue);
+		return queue;
+	}
+
+	/**
+	 * Free every queue a Flow holds on a switch. Called once the switch has removed the Flow's rules.
+	 * @param flowID
+	 * @param dpid
+	 */
+	public synchronized void releaseSwitch(long flowID, String dpid)
+	{
+		HashMap<String, ArrayList<FlowQueue>> flowQueues = assigned.get(flowID);
+		if(flowQueues == null)
+			return;
+		ArrayList<FlowQueue> switchQueues = flowQueues.remove(dpid);
+		if(flowQueues.isEmpty())
+			assigned.remove(flowID);
+		if(switchQueues == null)
+			return;
+
+		for(FlowQueue queue : switchQueues)
+		{
+			// Taken over by a later Flow already
+			if(queue.getFlowID() != flowID)
+				continue;
+			queue.setUsed(false);
+			queue.setFlowID(-1);
+			QueueClass queueClass = getQueueClass(dpid, queue.getPortNum(), queue.getBandwidth());
+			if(queueClass != null && queueClass.queues.contains(queue))
+				queueClass.free.add(queue);
+		}
+	}
+
+	/**
+	 * Number of queues of a rate on a switch port not assigned to any Flow
+	 * @param dpid
+	 * @param port
+	 * @param rate
+	 * @return the number of free queues
+	 */
+	public synchronized int getFreeQueueCount(String dpid, int port, long rate)
+	{
+		QueueClass queueClass = getQueueClass(dpid, port, rate);
+		return queueClass == null ? 0 : queueClass.free.size();
+	}
+
+	/**
+	 * Work out the queues a Flow routed over the given paths uses: one on the outgoing port of every hop through
+	 * a switch, in both directions, at the rate sent through that hop.
+	 * @param allocations - each path and the bandwidth reserved on it
+	 * @return the queues needed
+	 */
+	public static ArrayList<QueueDemand> getQueueDemands(List<PathAllocation> allocations)
+	{
+		HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> towardsDst = new HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>>();
+		HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> towardsSrc = new HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>>();
+		PathAllocation.collectPortSplits(allocations, towardsDst, towardsSrc);
+
+		ArrayList<QueueDemand> demands = new ArrayList<QueueDemand>();
+		addDemands(demands, towardsDst);
+		addDemands(demands, towardsSrc);
+		return demands;
+	}
+
+	private static void addDemands(ArrayList<QueueDemand> demands, HashMap<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> splits)
+	{
+		for(Map.Entry<String, HashMap<Integer, LinkedHashMap<Integer, Long>>> switchSplits : splits.entrySet())
+		{
+			for(LinkedHashMap<Integer, Long> outPorts : switchSplits.getValue().values())
+			{
+				for(Map.Entry<Integer, Long> out : outPorts.entrySet())
+					demands.add(new QueueDemand(switchSplits.getKey(), out.getKey(), out.getValue()));
+			}
+		}
+	}
+
+	/**
+	 * Count the queues needed in each class
+	 * @param demands
+	 * @return the count by class, null if some demand has no class of its rate
+	 */
+	private LinkedHashMap<QueueClass, Integer> countDemands(List<QueueDemand> demands)
+	{
+		LinkedHashMap<QueueClass, Integer> needed = new LinkedHashMap<QueueClass, Integer>();
+		for(QueueDemand demand : demands)
+		{
+			QueueClass queueClass = getQueueClass(demand.getDPID(), demand.getPort(), demand.getRate());
+			if(queueClass == null)
+				return null;
+			Integer count = needed.get(queueClass);
+			needed.put(queueClass, count == null ? 1 : count + 1);
+		}
+		return needed;
+	}
+
+	/**
+	 * Check if every class has the counted queues left unbooked during a time period
+	 * @param needed
+	 * @param startTime
+	 * @param endTime
+	 * @return True if they all fit
+	 */
+	private static boolean fits(Map<QueueClass, Integer> needed, long startTime, long endTime)
+	{
+		for(Map.Entry<QueueClass, Integer> entry : needed.entrySet())
+		{
+			QueueClass queueClass = entry.getKey();
+			if(queueClass.booked.getPeakConsumption(startTime, endTime) + entry.getValue() > queueClass.queues.size())
+				return false;
+		}
+		return true;
+	}
+
+	private QueueClass getQueueClass(String dpid, int port, long rate)
+	{
+		HashMap<Integer, HashMap<Long, QueueClass>> switchClasses = inventory.get(dpid);
+		if(switchClasses == null)
+			return null;
+		HashMap<Long, QueueClass> classes = switchClasses.get(port);
+		if(classes == null)
+			return null;
+		return classes.get(rate);
+	}
+
+	/**
+	 * Find a queue in a class held by a Flow that ends no later than the given Flow starts
+	 * @param queueClass
+	 * @param flowID - the Flow wanting a queue
+	 * @return the queue, null if there is none
+	 */
+	private FlowQueue findEndedQueue(QueueClass queueClass, long flowID)
+	{
+		Booking wanted = bookings.get(flowID);
+		for(FlowQueue queue : queueClass.queues)
+		{
+			if(!queue.isUsed())
+				continue;
+			Booking holder = bookings.get(queue.getFlowID());
+			if(holder == null || (wanted != null && holder.endTime <= wanted.startTime))
+				return queue;
+		}
+		return null;
+	}
+}
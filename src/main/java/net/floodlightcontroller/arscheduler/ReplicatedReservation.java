@@ -0,0 +1,112 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * A reservation as it is replicated between controllers through the sync store, keyed by Flow ID.
+ * The record carries the reserved paths, so applying it replays the same bandwidth deltas on every link timeline
+ * as the admission did on the controller that made it.
+ * An entry is never deleted when a reservation ends; it is marked RELEASED or CANCELLED instead, so that every
+ * controller learns to give the bandwidth back. Entries are pruned once their end time has passed.
+ */
+public class ReplicatedReservation
+{
+	public enum State
+	{
+		ADMITTED,
+		RELEASED,
+		CANCELLED
+	}
+
+	@JsonProperty
+	public State state;
+	/**
+	 * Sync node ID of the controller that admitted the reservation
+	 */
+	@JsonProperty
+	public short owner;
+	/**
+	 * Wall clock time of the admission, in milliseconds
+	 */
+	@JsonProperty
+	public long admittedAt;
+	@JsonProperty
+	public long endTime;
+	/**
+	 * The ReservationRecord, as written by ReservationRecord.writeTo
+	 */
+	@JsonProperty
+	public byte[] record;
+
+	public ReplicatedReservation()
+	{
+		// for deserialization
+	}
+
+	/**
+	 * Build the entry of a reservation admitted on this controller
+	 * @param tuple
+	 * @param owner - sync node ID of this controller
+	 * @return the entry
+	 * @throws IOException
+	 */
+	public static ReplicatedReservation admitted(FlowRouteTuple tuple, short owner) throws IOException
+	{
+		ReservationRecord reservation = ReservationRecord.fromFlowRouteTuple(tuple);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(bytes);
+		reservation.writeTo(out);
+		out.flush();
+
+		ReplicatedReservation entry = new ReplicatedReservation();
+		entry.state = State.ADMITTED;
+		entry.owner = owner;
+		entry.admittedAt = System.currentTimeMillis();
+		entry.endTime = reservation.getEndTime();
+		entry.record = bytes.toByteArray();
+		return entry;
+	}
+
+	/**
+	 * Copy this entry with the reservation marked as ended
+	 * @param newState - RELEASED or CANCELLED
+	 * @return the copy
+	 */
+	public ReplicatedReservation withState(State newState)
+	{
+		ReplicatedReservation entry = new ReplicatedReservation();
+		entry.state = newState;
+		entry.owner = owner;
+		entry.admittedAt = admittedAt;
+		entry.endTime = endTime;
+		entry.record = record;
+		return entry;
+	}
+
+	/**
+	 * Decode the reservation
+	 * @return the record
+	 * @throws IOException
+	 */
+	@JsonIgnore
+	public ReservationRecord toRecord() throws IOException
+	{
+		return ReservationRecord.readFrom(new DataInputStream(new ByteArrayInputStream(record)));
+	}
+
+	/**
+	 * Whether the reservation has been released or cancelled
+	 */
+	@JsonIgnore
+	public boolean isEnded()
+	{
+		return state != State.ADMITTED;
+	}
+}
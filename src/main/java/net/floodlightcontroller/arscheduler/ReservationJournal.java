@@ -0,0 +1,352 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.zip.CRC32;
+
+import org.slf4j.Logger;
+
+/**
+ * Keeps the schedule of reservations on disk so that it survives a controller restart.
+ * Every admission, release and cancellation is appended to a journal file and forced to disk before the call
+ * returns. Once the journal holds compactionThreshold records, the reservations still live are written to a
+ * snapshot file, which atomically replaces the previous one, and the journal is emptied. Loading therefore
+ * reads one record per live reservation plus at most compactionThreshold journal records.
+ * Each record is framed with its length and a CRC32, so a record torn by a crash is detected and dropped.
+ */
+public class ReservationJournal
+{
+	static final byte ADMIT = 1;
+	static final byte RELEASE = 2;
+	static final byte CANCEL = 3;
+
+	static final String JOURNAL_FILE = "reservations.journal";
+	static final String SNAPSHOT_FILE = "reservations.snapshot";
+
+	/**
+	 * The directory holding the journal and snapshot files
+	 */
+	private File directory;
+	/**
+	 * Number of journal records after which the journal is compacted into a snapshot
+	 */
+	private int compactionThreshold;
+	private Logger logger;
+	/**
+	 * The reservations still live, by Flow ID, in admission order
+	 */
+	private LinkedHashMap<Long, ReservationRecord> live = new LinkedHashMap<Long, ReservationRecord>();
+	/**
+	 * The journal file, open for appending; null until the journal is opened
+	 */
+	private FileChannel journal;
+	/**
+	 * Records appended to the journal since the last snapshot
+	 */
+	private int recordsSinceCompaction;
+
+	/**
+	 * Construct a journal kept in the given directory
+	 * @param directory
+	 * @param compactionThreshold - journal records after which a snapshot is taken
+	 * @param log
+	 */
+	public ReservationJournal(File directory, int compactionThreshold, Logger log)
+	{
+		this.directory = directory;
+		this.compactionThreshold = Math.max(1, compactionThreshold);
+		this.logger = log;
+	}
+
+	/**
+	 * Load the snapshot and replay the journal after it, then open the journal for appending.
+	 * A torn record at the end of the journal is cut off.
+	 * @return the reservations still live, in admission order
+	 * @throws IOException
+	 */
+	public synchronized ArrayList<ReservationRecord> open() throws IOException
+	{
+		close();
+		if(!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create journal directory " + directory);
+
+		live.clear();
+		recordsSinceCompaction = 0;
+		readRecords(new File(directory, SNAPSHOT_FILE));
+		File journalFile = new File(directory, JOURNAL_FILE);
+		long validLength = readRecords(journalFile);
+
+		journal = FileChannel.open(journalFile.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+		if(journal.size() > validLength)
+			logger.warn("Dropping {} bytes of a torn record at the end of {}", journal.size() - validLength, journalFile);
+		journal.truncate(validLength);
+		journal.position(validLength);
+		logger.info("Reservation journal loaded {} live reservations from {}", live.size(), directory);
+		return new ArrayList<ReservationRecord>(live.values());
+	}
+
+	/**
+	 * Close the journal file
+	 */
+	public synchronized void close()
+	{
+		if(journal == null)
+			return;
+		try
+		{
+			journal.close();
+		}
+		catch(IOException e)
+		{
+			logger.warn("Error closing the reservation journal: {}", e.toString());
+		}
+		journal = null;
+	}
+
+	/**
+	 * Record an admitted reservation
+	 * @param tuple
+	 */
+	public void recordAdmit(FlowRouteTuple tuple)
+	{
+		ArrayList<FlowRouteTuple> tuples = new ArrayList<FlowRouteTuple>();
+		tuples.add(tuple);
+		recordAdmits(tuples);
+	}
+
+	/**
+	 * Record several admitted reservations, forcing them to disk together
+	 * @param tuples
+	 */
+	public synchronized void recordAdmits(Collection<FlowRouteTuple> tuples)
+	{
+		if(journal == null || tuples.isEmpty())
+			return;
+		try
+		{
+			ByteArrayOutputStream frames = new ByteArrayOutputStream();
+			for(FlowRouteTuple tuple : tuples)
+			{
+				ReservationRecord record = ReservationRecord.fromFlowRouteTuple(tuple);
+				live.put(record.getFlowID(), record);
+				writeFrame(frames, admitPayload(record));
+			}
+			append(frames.toByteArray(), tuples.size());
+		}
+		catch(IOException e)
+		{
+			logger.error("Could not journal {} admissions: {}", tuples.size(), e.toString());
+		}
+	}
+
+	/**
+	 * Record that a reservation has expired and released its resources
+	 * @param flowID
+	 */
+	public void recordRelease(long flowID)
+	{
+		recordRemoval(RELEASE, flowID);
+	}
+
+	/**
+	 * Record that a reservation was cancelled before it expired
+	 * @param flowID
+	 */
+	public void recordCancel(long flowID)
+	{
+		recordRemoval(CANCEL, flowID);
+	}
+
+	/**
+	 * Get the number of live reservations in the journal
+	 * @return the count
+	 */
+	public synchronized int size()
+	{
+		return live.size();
+	}
+
+	/**
+	 * Write the live reservations to a new snapshot, then empty the journal. The snapshot is written to a
+	 * temporary file and moved over the old one, so a crash leaves either the old or the new snapshot; if it
+	 * comes before the journal is emptied, replaying the journal over the new snapshot gives the same result.
+	 * @throws IOException
+	 */
+	public synchronized void compact() throws IOException
+	{
+		File snapshot = new File(directory, SNAPSHOT_FILE);
+		File temporary = new File(directory, SNAPSHOT_FILE + ".tmp");
+		try(FileChannel out = FileChannel.open(temporary.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING))
+		{
+			ByteArrayOutputStream frames = new ByteArrayOutputStream();
+			for(ReservationRecord record : live.values())
+			{
+				writeFrame(frames, admitPayload(record));
+			}
+			writeFully(out, frames.toByteArray());
+			out.force(true);
+		}
+		Files.move(temporary.toPath(), snapshot.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+		journal.truncate(0);
+		journal.position(0);
+		journal.force(true);
+		recordsSinceCompaction = 0;
+		logger.debug("Reservation journal compacted to {} live reservations", live.size());
+	}
+
+	private synchronized void recordRemoval(byte type, long flowID)
+	{
+		if(journal == null || live.remove(flowID) == null)
+			return;
+		try
+		{
+			ByteArrayOutputStream payload = new ByteArrayOutputStream();
+			DataOutputStream out = new DataOutputStream(payload);
+			out.writeByte(type);
+			out.writeLong(flowID);
+			out.flush();
+			ByteArrayOutputStream frame = new ByteArrayOutputStream();
+			writeFrame(frame, payload.toByteArray());
+			append(frame.toByteArray(), 1);
+		}
+		catch(IOException e)
+		{
+			logger.error("Could not journal the removal of Flow {}: {}", flowID, e.toString());
+		}
+	}
+
+	/**
+	 * Append framed records to the journal and force them to disk, compacting if the journal has grown enough
+	 * @param frames
+	 * @param records - number of records in frames
+	 * @throws IOException
+	 */
+	private void append(byte[] frames, int records) throws IOException
+	{
+		writeFully(journal, frames);
+		journal.force(false);
+		recordsSinceCompaction += records;
+		if(recordsSinceCompaction >= compactionThreshold)
+			compact();
+	}
+
+	/**
+	 * Apply every intact record of a file to the live reservations
+	 * @param file
+	 * @return the length of the file up to the end of its last intact record
+	 * @throws IOException
+	 */
+	private long readRecords(File file) throws IOException
+	{
+		if(!file.exists())
+			return 0;
+
+		long validLength = 0;
+		try(DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file))))
+		{
+			while(true)
+			{
+				byte[] payload;
+				int checksum;
+				try
+				{
+					int length = in.readInt();
+					checksum = in.readInt();
+					if(length <= 0 || length > file.length())
+						break;
+					payload = new byte[length];
+					in.readFully(payload);
+				}
+				catch(EOFException e)
+				{
+					break;
+				}
+
+				CRC32 crc = new CRC32();
+				crc.update(payload);
+				if((int) crc.getValue() != checksum)
+				{
+					logger.warn("Corrupt record in {} after {} bytes, ignoring the rest of the file", file, validLength);
+					break;
+				}
+				applyRecord(payload);
+				validLength += 8 + payload.length;
+				if(file.getName().equals(JOURNAL_FILE))
+					recordsSinceCompaction++;
+			}
+		}
+		return validLength;
+	}
+
+	private void applyRecord(byte[] payload) throws IOException
+	{
+		DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload));
+		byte type = in.readByte();
+		switch(type)
+		{
+		case ADMIT:
+			ReservationRecord record = ReservationRecord.readFrom(in);
+			live.put(record.getFlowID(), record);
+			break;
+		case RELEASE:
+		case CANCEL:
+			live.remove(in.readLong());
+			break;
+		default:
+			logger.warn("Unknown reservation journal record type {}", type);
+		}
+	}
+
+	private static byte[] admitPayload(ReservationRecord record) throws IOException
+	{
+		ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(payload);
+		out.writeByte(ADMIT);
+		record.writeTo(out);
+		out.flush();
+		return payload.toByteArray();
+	}
+
+	/**
+	 * Frame a record as its length, the CRC32 of its payload, then the payload
+	 * @param out
+	 * @param payload
+	 * @throws IOException
+	 */
+	private static void writeFrame(ByteArrayOutputStream out, byte[] payload) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		crc.update(payload);
+		DataOutputStream frame = new DataOutputStream(out);
+		frame.writeInt(payload.length);
+		frame.writeInt((int) crc.getValue());
+		frame.write(payload);
+		frame.flush();
+	}
+
+	private static void writeFully(FileChannel channel, byte[] bytes) throws IOException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap(bytes);
+		while(buffer.hasRemaining())
+		{
+			channel.write(buffer);
+		}
+	}
+}
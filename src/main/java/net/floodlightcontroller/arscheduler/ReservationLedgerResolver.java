@@ -0,0 +1,46 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Collections;
+import java.util.List;
+
+import org.sdnplatform.sync.IInconsistencyResolver;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.version.VectorClock;
+
+/**
+ * Resolves concurrent versions of a ledger entry. An ended reservation wins over an admitted one, so bandwidth
+ * released anywhere is never booked again by a stale copy. Otherwise the earliest admission wins, and the node
+ * ID breaks ties, so every controller settles on the same version.
+ */
+public class ReservationLedgerResolver implements IInconsistencyResolver<Versioned<ReplicatedReservation>>
+{
+	@Override
+	public List<Versioned<ReplicatedReservation>> resolveConflicts(List<Versioned<ReplicatedReservation>> items)
+	{
+		if(items.size() <= 1)
+			return items;
+
+		Versioned<ReplicatedReservation> winner = null;
+		VectorClock mergedClock = null;
+		for(Versioned<ReplicatedReservation> item : items)
+		{
+			VectorClock clock = (VectorClock) item.getVersion();
+			mergedClock = (mergedClock == null) ? clock : mergedClock.merge(clock);
+			if(winner == null || precedes(item.getValue(), winner.getValue()))
+				winner = item;
+		}
+		return Collections.singletonList(new Versioned<ReplicatedReservation>(winner.getValue(), mergedClock));
+	}
+
+	private static boolean precedes(ReplicatedReservation a, ReplicatedReservation b)
+	{
+		// A deleted (pruned) entry only ever replaces an ended one, so it wins as well
+		if(a == null || b == null)
+			return a == null;
+		if(a.isEnded() != b.isEnded())
+			return a.isEnded();
+		if(a.admittedAt != b.admittedAt)
+			return a.admittedAt < b.admittedAt;
+		return a.owner < b.owner;
+	}
+}
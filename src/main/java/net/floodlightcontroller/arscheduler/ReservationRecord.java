@@ -0,0 +1,145 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * A reservation as it is kept in the reservation journal: the Flow, and each path it is routed over named by
+ * node names and link end points rather than object references, so it can be matched against a rebuilt topology.
+ */
+public class ReservationRecord
+{
+	/**
+	 * One path of a reservation and the bandwidth reserved on it
+	 */
+	public static class PathRecord
+	{
+		long bandwidth;
+		/**
+		 * The nodes from source to destination
+		 */
+		ArrayList<String> nodeNames = new ArrayList<String>();
+		/**
+		 * The links in both directions, as keys from ResourceManager.linkKey
+		 */
+		ArrayList<String> linkKeys = new ArrayList<String>();
+	}
+
+	long flowID;
+	String srcNodeName;
+	String dstNodeName;
+	String srcIP;
+	String dstIP;
+	long bandwidth;
+	long startTime;
+	long endTime;
+	ArrayList<PathRecord> paths = new ArrayList<PathRecord>();
+
+	/**
+	 * Build the record of an admitted reservation
+	 * @param tuple
+	 * @return the record
+	 */
+	public static ReservationRecord fromFlowRouteTuple(FlowRouteTuple tuple)
+	{
+		Flow flow = tuple.getFlow();
+		ReservationRecord record = new ReservationRecord();
+		record.flowID = flow.getID();
+		record.srcNodeName = flow.getSource().getNodeName();
+		record.dstNodeName = flow.getDest().getNodeName();
+		record.srcIP = flow.getSrcIP();
+		record.dstIP = flow.getDstIP();
+		record.bandwidth = flow.getBandwidth();
+		record.startTime = flow.getStartTime();
+		record.endTime = flow.getEndTime();
+		for(PathAllocation allocation : tuple.getPathAllocations())
+		{
+			PathRecord path = new PathRecord();
+			path.bandwidth = allocation.getBandwidth();
+			for(Node node : allocation.getPath().getNodes())
+				path.nodeNames.add(node.getNodeName());
+			for(FlowLink link : allocation.getPath().getLinks())
+				path.linkKeys.add(ResourceManager.linkKey(link));
+			record.paths.add(path);
+		}
+		return record;
+	}
+
+	/**
+	 * Write the record
+	 * @param out
+	 * @throws IOException
+	 */
+	public void writeTo(DataOutput out) throws IOException
+	{
+		out.writeLong(flowID);
+		out.writeUTF(srcNodeName);
+		out.writeUTF(dstNodeName);
+		out.writeUTF(srcIP);
+		out.writeUTF(dstIP);
+		out.writeLong(bandwidth);
+		out.writeLong(startTime);
+		out.writeLong(endTime);
+		out.writeInt(paths.size());
+		for(PathRecord path : paths)
+		{
+			out.writeLong(path.bandwidth);
+			out.writeInt(path.nodeNames.size());
+			for(String name : path.nodeNames)
+				out.writeUTF(name);
+			out.writeInt(path.linkKeys.size());
+			for(String key : path.linkKeys)
+				out.writeUTF(key);
+		}
+	}
+
+	/**
+	 * Read a record written by writeTo
+	 * @param in
+	 * @return the record
+	 * @throws IOException
+	 */
+	public static ReservationRecord readFrom(DataInput in) throws IOException
+	{
+		ReservationRecord record = new ReservationRecord();
+		record.flowID = in.readLong();
+		record.srcNodeName = in.readUTF();
+		record.dstNodeName = in.readUTF();
+		record.srcIP = in.readUTF();
+		record.dstIP = in.readUTF();
+		record.bandwidth = in.readLong();
+		record.startTime = in.readLong();
+		record.endTime = in.readLong();
+		int pathCount = in.readInt();
+		for(int p = 0; p < pathCount; p++)
+		{
+			PathRecord path = new PathRecord();
+			path.bandwidth = in.readLong();
+			int nodeCount = in.readInt();
+			for(int i = 0; i < nodeCount; i++)
+				path.nodeNames.add(in.readUTF());
+			int linkCount = in.readInt();
+			for(int i = 0; i < linkCount; i++)
+				path.linkKeys.add(in.readUTF());
+			record.paths.add(path);
+		}
+		return record;
+	}
+
+	public long getFlowID()
+	{
+		return flowID;
+	}
+
+	public long getStartTime()
+	{
+		return startTime;
+	}
+
+	public long getEndTime()
+	{
+		return endTime;
+	}
+}
@@ -0,0 +1,267 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.sdnplatform.sync.IClosableIterator;
+import org.sdnplatform.sync.IStoreClient;
+import org.sdnplatform.sync.IStoreListener;
+import org.sdnplatform.sync.ISyncService;
+import org.sdnplatform.sync.ISyncService.Scope;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.error.SyncException;
+import org.slf4j.Logger;
+
+import net.floodlightcontroller.core.HAListenerTypeMarker;
+import net.floodlightcontroller.core.IHAListener;
+
+/**
+ * Replicates the reservation ledger to the other controllers of an HA cluster through the sync service.
+ * Every admission and release made on this controller is written to a global sync store, and every update
+ * written by another controller is applied to the local Resource Manager as it arrives. A standby controller
+ * therefore holds the whole schedule when it becomes active, and only has to start the timers of the flows
+ * that have not started yet.
+ */
+public class ReservationReplicator implements IHAListener, IStoreListener<Long>
+{
+	static final String STORE_NAME = "ARScheduler_Reservations";
+
+	private ARScheduler coordinator;
+	private ISyncService syncService;
+	private IStoreClient<Long, ReplicatedReservation> store;
+	private short localNodeId;
+	private Logger logger;
+
+	/**
+	 * Construct a replicator for the given ARScheduler
+	 * @param coordinator
+	 * @param syncService
+	 * @param log
+	 */
+	public ReservationReplicator(ARScheduler coordinator, ISyncService syncService, Logger log)
+	{
+		this.coordinator = coordinator;
+		this.syncService = syncService;
+		this.logger = log;
+	}
+
+	/**
+	 * Register the sync store, start listening for updates from other controllers, and put this controller's node ID
+	 * in the Flow IDs it assigns from now on
+	 * @throws SyncException
+	 */
+	public void startUp() throws SyncException
+	{
+		syncService.registerStore(STORE_NAME, Scope.GLOBAL);
+		store = syncService.getStoreClient(STORE_NAME, Long.class, ReplicatedReservation.class, new ReservationLedgerResolver());
+		localNodeId = syncService.getLocalNodeId();
+		Flow.setNodeID(localNodeId);
+		store.addStoreListener(this);
+	}
+
+	/**
+	 * Replicate reservations admitted on this controller
+	 * @param tuples
+	 */
+	public void publishAdmits(Collection<FlowRouteTuple> tuples)
+	{
+		for(FlowRouteTuple tuple : tuples)
+		{
+			try
+			{
+				store.put(tuple.getFlow().getID(), ReplicatedReservation.admitted(tuple, localNodeId));
+			}
+			catch(SyncException | IOException e)
+			{
+				logger.error("Could not replicate the admission of Flow {}: {}", tuple.getFlow().getID(), e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Replicate a change to the end time or bandwidth of a reservation, keeping the time it was first admitted so
+	 * conflicting admissions are still settled in favour of the earliest
+	 * @param tuple - the reservation as changed
+	 */
+	public void publishModify(FlowRouteTuple tuple)
+	{
+		long flowID = tuple.getFlow().getID();
+		try
+		{
+			ReplicatedReservation previous = store.getValue(flowID);
+			ReplicatedReservation entry = ReplicatedReservation.admitted(tuple, localNodeId);
+			if(previous != null)
+			{
+				entry.owner = previous.owner;
+				entry.admittedAt = previous.admittedAt;
+			}
+			store.put(flowID, entry);
+		}
+		catch(SyncException | IOException e)
+		{
+			logger.error("Could not replicate the change to Flow {}: {}", flowID, e.toString());
+		}
+	}
+
+	/**
+	 * Replicate the end of a reservation
+	 * @param flowID
+	 * @param state - RELEASED or CANCELLED
+	 */
+	public void publishEnd(long flowID, ReplicatedReservation.State state)
+	{
+		try
+		{
+			ReplicatedReservation entry = store.getValue(flowID);
+			if(entry != null && !entry.isEnded())
+				store.put(flowID, entry.withState(state));
+		}
+		catch(SyncException e)
+		{
+			logger.error("Could not replicate the end of Flow {}: {}", flowID, e.toString());
+		}
+	}
+
+	/**
+	 * Bring the local schedule in line with the whole store, applying every entry. On the active controller this
+	 * also replicates local reservations the store has lost, for instance after the whole cluster restarted with
+	 * an in-memory store, and prunes entries past their end time that no longer hold bandwidth here.
+	 * @param active - whether this controller is active
+	 */
+	public void reconcile(boolean active)
+	{
+		Map<Long, ReplicatedReservation> entries = readEntries();
+		for(Map.Entry<Long, ReplicatedReservation> entry : entries.entrySet())
+		{
+			coordinator.applyReplicatedReservation(entry.getKey(), entry.getValue());
+		}
+		if(!active)
+			return;
+
+		ArrayList<FlowRouteTuple> missing = new ArrayList<FlowRouteTuple>();
+		for(FlowRouteTuple tuple : coordinator.theRM.getFlowTable().getAllFlowRouteTuples())
+		{
+			if(!entries.containsKey(tuple.getFlow().getID()))
+				missing.add(tuple);
+		}
+		publishAdmits(missing);
+
+		int pruned = 0;
+		for(Map.Entry<Long, ReplicatedReservation> entry : entries.entrySet())
+		{
+			boolean releasedHere = entry.getValue().isEnded()
+					|| coordinator.theRM.getFlowTable().matchFlow(entry.getKey()) == null;
+			if(releasedHere && coordinator.getMillisUntil(entry.getValue().endTime) < 0)
+			{
+				try
+				{
+					store.delete(entry.getKey());
+					pruned++;
+				}
+				catch(SyncException e)
+				{
+					logger.warn("Could not prune Flow {} from the replicated ledger: {}", entry.getKey(), e.toString());
+				}
+			}
+		}
+		logger.info("Reconciled {} replicated reservations, republished {}, pruned {}",
+				new Object[] {entries.size(), missing.size(), pruned});
+	}
+
+	/**
+	 * Read every entry in the store
+	 * @return the entries with a value, by Flow ID
+	 */
+	private Map<Long, ReplicatedReservation> readEntries()
+	{
+		Map<Long, ReplicatedReservation> entries = new LinkedHashMap<Long, ReplicatedReservation>();
+		try(IClosableIterator<Map.Entry<Long, Versioned<ReplicatedReservation>>> iterator = store.entries())
+		{
+			while(iterator.hasNext())
+			{
+				Map.Entry<Long, Versioned<ReplicatedReservation>> entry = iterator.next();
+				if(entry.getValue().getValue() != null)
+					entries.put(entry.getKey(), entry.getValue().getValue());
+			}
+		}
+		catch(SyncException e)
+		{
+			logger.error("Could not read the replicated ledger: {}", e.toString());
+		}
+		return entries;
+	}
+
+	/**
+	 * Apply updates written by other controllers
+	 */
+	@Override
+	public void keysModified(Iterator<Long> keys, UpdateType type)
+	{
+		if(type == UpdateType.LOCAL)
+			return;
+
+		HashSet<Long> flowIDs = new HashSet<Long>();
+		while(keys.hasNext())
+		{
+			flowIDs.add(keys.next());
+		}
+		for(Long flowID : flowIDs)
+		{
+			try
+			{
+				ReplicatedReservation entry = store.getValue(flowID);
+				if(entry != null)
+					coordinator.applyReplicatedReservation(flowID, entry);
+			}
+			catch(SyncException e)
+			{
+				logger.error("Could not read replicated Flow {}: {}", flowID, e.toString());
+			}
+		}
+	}
+
+	/**
+	 * Take over the schedule when this controller becomes active
+	 */
+	@Override
+	public void transitionToActive()
+	{
+		coordinator.takeOverReservations();
+	}
+
+	@Override
+	public void transitionToStandby()
+	{
+		logger.info("Controller going to standby, leaving reservation activations to the new active controller");
+	}
+
+	@Override
+	public void controllerNodeIPsChanged(Map<String, String> curControllerNodeIPs,
+			Map<String, String> addedControllerNodeIPs, Map<String, String> removedControllerNodeIPs)
+	{
+		// the sync service tracks cluster membership itself
+	}
+
+	@Override
+	public String getName()
+	{
+		return coordinator.getName();
+	}
+
+	@Override
+	public boolean isCallbackOrderingPrereq(HAListenerTypeMarker type, String name)
+	{
+		return false;
+	}
+
+	@Override
+	public boolean isCallbackOrderingPostreq(HAListenerTypeMarker type, String name)
+	{
+		return false;
+	}
+}
@@ -0,0 +1,599 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.kohsuke.args4j.CmdLineException;
+import org.kohsuke.args4j.CmdLineParser;
+import org.slf4j.helpers.NOPLogger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Replays a trace of reservation requests through a ResourceManager and FlowScheduler on a simulated clock,
+ * without a controller, Mininet or switches. Requests arrive at their trace times; admitted reservations are
+ * activated at their start time by a stub provisioner that installs nothing, and released at their end time
+ * as a FLOW_REMOVED would release them. The past is pruned from the links every simulated hour, as the
+ * ARScheduler does.
+ * Reports the acceptance rate, the wall clock latency of each admission, the time-averaged utilization of the
+ * links and the heap held by the schedule. Switch queues are not simulated.
+ *
+ * Topology files hold one item per line, '#' starting a comment:
+ * <pre>
+ * switch {name} {number of ports}
+ * host {name}
+ * link {node} {port} {node} {port} {Gbps}
+ * </pre>
+ * where a link joins the two nodes in both directions. Trace files hold one request per line:
+ * <pre>
+ * {arrival},{source host},{destination host},{Gbps},{start},{end}
+ * </pre>
+ * with times in seconds from the start of the simulation.
+ */
+public class ReservationSimulator
+{
+	static final long BITS_PER_GB = 1000000000L;
+	static final long PRUNE_INTERVAL_MS = TimeUnit.HOURS.toMillis(1);
+
+	/**
+	 * A reservation request of the trace
+	 */
+	static class Request
+	{
+		long arrival;
+		String source;
+		String dest;
+		long bandwidth;
+		long startTime;
+		long endTime;
+
+		Request(long arrival, String source, String dest, long bandwidth, long startTime, long endTime)
+		{
+			this.arrival = arrival;
+			this.source = source;
+			this.dest = dest;
+			this.bandwidth = bandwidth;
+			this.startTime = startTime;
+			this.endTime = endTime;
+		}
+	}
+
+	/**
+	 * Something that happens at a simulated time. Events at the same time run in the order they were queued.
+	 */
+	private static class Event
+	{
+		static final int ARRIVAL = 0;
+		static final int ACTIVATION = 1;
+		static final int RELEASE = 2;
+		static final int PRUNE = 3;
+
+		long time;
+		long sequence;
+		int type;
+		Request request;
+		FlowRouteTuple tuple;
+	}
+
+	private static final Comparator<Event> EVENT_ORDER = new Comparator<Event>() {
+		@Override
+		public int compare(Event a, Event b)
+		{
+			if(a.time != b.time)
+				return a.time < b.time ? -1 : 1;
+			return a.sequence < b.sequence ? -1 : (a.sequence == b.sequence ? 0 : 1);
+		}
+	};
+
+	private Topology topology;
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+	private long horizonMillis;
+	private PriorityQueue<Event> events = new PriorityQueue<Event>(1024, EVENT_ORDER);
+	private long nextSequence;
+	private long now;
+
+	private int requests;
+	private int admitted;
+	private int rejectedOutsideHorizon;
+	private int activations;
+	private int releases;
+	private int peakLive;
+	private long[] admissionNanos = new long[1024];
+	/**
+	 * Bandwidth booked on each link integrated over time, in bit-milliseconds
+	 */
+	private HashMap<FlowLink, Double> bookedBitMillis = new HashMap<FlowLink, Double>();
+	private long firstArrival = Long.MAX_VALUE;
+	private long lastEnd = Long.MIN_VALUE;
+	private long heapBaseline;
+	private long heapAtLastArrival;
+	private int liveAtLastArrival;
+
+	/**
+	 * Construct a simulator over a topology
+	 * @param topology
+	 * @param maxPathsPerFlow - most paths a reservation may be split across
+	 * @param horizonMillis - how long after its request a reservation may end
+	 */
+	public ReservationSimulator(Topology topology, int maxPathsPerFlow, long horizonMillis)
+	{
+		this.topology = topology;
+		this.horizonMillis = horizonMillis;
+		rm = new ResourceManager(NOPLogger.NOP_LOGGER);
+		rm.intializeState(topology);
+		scheduler = new FlowScheduler(rm, NOPLogger.NOP_LOGGER);
+		scheduler.setMaxPathsPerFlow(maxPathsPerFlow);
+	}
+
+	/**
+	 * Queue a request to arrive at its trace time
+	 * @param request
+	 */
+	public void addRequest(Request request)
+	{
+		Event event = newEvent(request.arrival, Event.ARRIVAL);
+		event.request = request;
+		firstArrival = Math.min(firstArrival, request.arrival);
+	}
+
+	/**
+	 * Replay every queued request, running the simulated clock until the last reservation has ended
+	 */
+	public void run()
+	{
+		heapBaseline = usedHeap();
+		int arrivalsLeft = 0;
+		for(Event event : events)
+		{
+			if(event.type == Event.ARRIVAL)
+				arrivalsLeft++;
+		}
+		if(arrivalsLeft > 0)
+			newEvent(firstArrival + PRUNE_INTERVAL_MS, Event.PRUNE);
+
+		while(!events.isEmpty())
+		{
+			Event event = events.poll();
+			now = event.time;
+			switch(event.type)
+			{
+			case Event.ARRIVAL:
+				arrive(event.request);
+				if(--arrivalsLeft == 0)
+				{
+					heapAtLastArrival = usedHeap();
+					liveAtLastArrival = rm.getFlowTable().size();
+				}
+				break;
+			case Event.ACTIVATION:
+				// The stub provisioner has nothing to install
+				activations++;
+				break;
+			case Event.RELEASE:
+				scheduler.releaseExpiredFlow(event.tuple);
+				releases++;
+				break;
+			case Event.PRUNE:
+				rm.pruneBefore(now);
+				if(!events.isEmpty())
+					newEvent(now + PRUNE_INTERVAL_MS, Event.PRUNE);
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Admit a request, as the ARScheduler would
+	 */
+	private void arrive(Request request)
+	{
+		requests++;
+		if(request.endTime <= now || request.endTime - now > horizonMillis)
+		{
+			rejectedOutsideHorizon++;
+			return;
+		}
+		Node source = topology.getNodeByName(request.source);
+		Node dest = topology.getNodeByName(request.dest);
+		if(source == null || dest == null)
+			throw new IllegalArgumentException("Unknown host in request: " + request.source + " -> " + request.dest);
+
+		Flow flow = new Flow(source, dest, request.bandwidth, request.startTime, request.endTime, "0.0.0.0", "0.0.0.0");
+		long started = System.nanoTime();
+		flow = scheduler.scheduleNewFlow(flow);
+		recordLatency(System.nanoTime() - started);
+		if(flow == null)
+			return;
+
+		admitted++;
+		peakLive = Math.max(peakLive, rm.getFlowTable().size());
+		FlowRouteTuple tuple = rm.getFlowFromRM(flow);
+		long duration = flow.getEndTime() - flow.getStartTime();
+		for(PathAllocation allocation : tuple.getPathAllocations())
+		{
+			for(FlowLink link : allocation.getPath().getLinks())
+			{
+				Double booked = bookedBitMillis.get(link);
+				bookedBitMillis.put(link, (booked == null ? 0 : booked) + (double) allocation.getBandwidth() * duration);
+			}
+		}
+		lastEnd = Math.max(lastEnd, flow.getEndTime());
+
+		newEvent(Math.max(now, flow.getStartTime()), Event.ACTIVATION);
+		newEvent(flow.getEndTime(), Event.RELEASE).tuple = tuple;
+	}
+
+	private Event newEvent(long time, int type)
+	{
+		Event event = new Event();
+		event.time = time;
+		event.type = type;
+		event.sequence = nextSequence++;
+		events.add(event);
+		return event;
+	}
+
+	private void recordLatency(long nanos)
+	{
+		int count = requests - rejectedOutsideHorizon;
+		if(count > admissionNanos.length)
+			admissionNanos = Arrays.copyOf(admissionNanos, admissionNanos.length * 2);
+		admissionNanos[count - 1] = nanos;
+	}
+
+	private static long usedHeap()
+	{
+		Runtime runtime = Runtime.getRuntime();
+		System.gc();
+		return runtime.totalMemory() - runtime.freeMemory();
+	}
+
+	/**
+	 * Get the results of the replay
+	 * @return statistic name to value, in insertion order
+	 */
+	public Map<String, Object> getReport()
+	{
+		LinkedHashMap<String, Object> report = new LinkedHashMap<String, Object>();
+		report.put("requests", requests);
+		report.put("admitted", admitted);
+		report.put("rejectedOutsideHorizon", rejectedOutsideHorizon);
+		report.put("acceptanceRate", requests == 0 ? 0.0 : (double) admitted / requests);
+		report.put("activations", activations);
+		report.put("releases", releases);
+		report.put("peakLiveReservations", peakLive);
+
+		int count = requests - rejectedOutsideHorizon;
+		long[] sorted = Arrays.copyOf(admissionNanos, count);
+		Arrays.sort(sorted);
+		LinkedHashMap<String, Double> latency = new LinkedHashMap<String, Double>();
+		latency.put("p50", percentileMicros(sorted, 0.50));
+		latency.put("p90", percentileMicros(sorted, 0.90));
+		latency.put("p99", percentileMicros(sorted, 0.99));
+		latency.put("p999", percentileMicros(sorted, 0.999));
+		latency.put("max", count == 0 ? 0.0 : sorted[count - 1] / 1000.0);
+		report.put("admissionLatencyMicros", latency);
+
+		report.put("linkUtilization", getLinkUtilization());
+
+		LinkedHashMap<String, Object> memory = new LinkedHashMap<String, Object>();
+		memory.put("baselineHeapBytes", heapBaseline);
+		memory.put("heapBytesAtLastArrival", heapAtLastArrival);
+		memory.put("liveReservationsAtLastArrival", liveAtLastArrival);
+		memory.put("bytesPerLiveReservation", liveAtLastArrival == 0 ? 0 : (heapAtLastArrival - heapBaseline) / liveAtLastArrival);
+		report.put("memory", memory);
+		return report;
+	}
+
+	private static double percentileMicros(long[] sorted, double fraction)
+	{
+		if(sorted.length == 0)
+			return 0;
+		int index = (int) Math.ceil(fraction * sorted.length) - 1;
+		return sorted[Math.max(0, index)] / 1000.0;
+	}
+
+	/**
+	 * Time-averaged utilization of the links, from the first request to the last reservation's end: the mean over
+	 * the switch-switch links, and the busiest links of any kind
+	 */
+	private Map<String, Object> getLinkUtilization()
+	{
+		LinkedHashMap<String, Object> utilization = new LinkedHashMap<String, Object>();
+		long span = lastEnd - firstArrival;
+		final HashMap<FlowLink, Double> byLink = new HashMap<FlowLink, Double>();
+		double fabricTotal = 0;
+		int fabricLinks = 0;
+		for(FlowLink link : topology.getLinks())
+		{
+			Double booked = bookedBitMillis.get(link);
+			double used = (booked == null || span <= 0) ? 0 : booked / ((double) link.getBandwidthCapacity() * span);
+			byLink.put(link, used);
+			if(link.getSrcNode().nodeIsSwitch() && link.getDstNode().nodeIsSwitch())
+			{
+				fabricTotal += used;
+				fabricLinks++;
+			}
+		}
+		utilization.put("meanSwitchLink", fabricLinks == 0 ? 0.0 : fabricTotal / fabricLinks);
+
+		ArrayList<FlowLink> busiest = new ArrayList<FlowLink>(byLink.keySet());
+		Collections.sort(busiest, new Comparator<FlowLink>() {
+			@Override
+			public int compare(FlowLink a, FlowLink b)
+			{
+				return Double.compare(byLink.get(b), byLink.get(a));
+			}
+		});
+		LinkedHashMap<String, Double> top = new LinkedHashMap<String, Double>();
+		for(FlowLink link : busiest.subList(0, Math.min(5, busiest.size())))
+		{
+			top.put(link.getLinkName(), byLink.get(link));
+		}
+		utilization.put("busiest", top);
+		return utilization;
+	}
+
+	/**
+	 * Read a topology file
+	 * @param in
+	 * @return the topology
+	 * @throws IOException if a line cannot be read or parsed
+	 */
+	public static Topology readTopology(Reader in) throws IOException
+	{
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		HashMap<String, Node> byName = new HashMap<String, Node>();
+		BufferedReader reader = new BufferedReader(in);
+		String line;
+		int lineNumber = 0;
+		while((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			String[] fields = fieldsOf(line, "\\s+");
+			if(fields.length == 0)
+				continue;
+			try
+			{
+				if(fields[0].equals("switch") && fields.length == 3)
+				{
+					addNode(new Switch(fields[1], Integer.parseInt(fields[2])), nodes, byName);
+				}
+				else if(fields[0].equals("host") && fields.length == 2)
+				{
+					addNode(new Host(fields[1], 1), nodes, byName);
+				}
+				else if(fields[0].equals("link") && fields.length == 6)
+				{
+					Node a = byName.get(fields[1]);
+					Node b = byName.get(fields[3]);
+					if(a == null || b == null)
+						throw new IOException("unknown node");
+					Port aPort = a.getPortByID(Integer.parseInt(fields[2]));
+					Port bPort = b.getPortByID(Integer.parseInt(fields[4]));
+					if(aPort == null || bPort == null)
+						throw new IOException("unknown port");
+					long capacity = (long) (Double.parseDouble(fields[5]) * BITS_PER_GB);
+					links.add(new FlowLink("(" + a.getNodeName() + ", " + b.getNodeName() + ")", a, b, aPort, bPort, capacity));
+					links.add(new FlowLink("(" + b.getNodeName() + ", " + a.getNodeName() + ")", b, a, bPort, aPort, capacity));
+				}
+				else
+				{
+					throw new IOException("expected switch, host or link");
+				}
+			}
+			catch(IOException | NumberFormatException e)
+			{
+				throw new IOException("Topology line " + lineNumber + ": " + e.getMessage());
+			}
+		}
+		return new Topology(nodes, links);
+	}
+
+	private static void addNode(Node node, ArrayList<Node> nodes, HashMap<String, Node> byName) throws IOException
+	{
+		if(byName.put(node.getNodeName(), node) != null)
+			throw new IOException("duplicate node " + node.getNodeName());
+		nodes.add(node);
+	}
+
+	/**
+	 * Read a trace file
+	 * @param in
+	 * @return the requests, in file order
+	 * @throws IOException if a line cannot be read or parsed
+	 */
+	public static ArrayList<Request> readTrace(Reader in) throws IOException
+	{
+		ArrayList<Request> trace = new ArrayList<Request>();
+		BufferedReader reader = new BufferedReader(in);
+		String line;
+		int lineNumber = 0;
+		while((line = reader.readLine()) != null)
+		{
+			lineNumber++;
+			String[] fields = fieldsOf(line, "\\s*,\\s*");
+			if(fields.length == 0)
+				continue;
+			try
+			{
+				if(fields.length != 6)
+					throw new IOException("expected arrival,src,dst,bandwidthGbps,start,end");
+				trace.add(new Request(secondsToMillis(fields[0]), fields[1], fields[2],
+						(long) (Double.parseDouble(fields[3]) * BITS_PER_GB), secondsToMillis(fields[4]), secondsToMillis(fields[5])));
+			}
+			catch(IOException | NumberFormatException e)
+			{
+				throw new IOException("Trace line " + lineNumber + ": " + e.getMessage());
+			}
+		}
+		return trace;
+	}
+
+	/**
+	 * Split a line into fields, dropping any comment
+	 * @return the fields, none for a blank or comment line
+	 */
+	private static String[] fieldsOf(String line, String separator)
+	{
+		int comment = line.indexOf('#');
+		String content = (comment < 0 ? line : line.substring(0, comment)).trim();
+		return content.isEmpty() ? new String[0] : content.split(separator);
+	}
+
+	private static long secondsToMillis(String seconds)
+	{
+		return Math.round(Double.parseDouble(seconds) * 1000);
+	}
+
+	/**
+	 * Generate random requests between the hosts of a topology: Poisson arrivals, each starting a uniform time
+	 * after its arrival, with a uniform duration and a whole number of Gbps
+	 * @param topology
+	 * @param settings
+	 * @return the requests, in arrival order
+	 */
+	static ArrayList<Request> generateTrace(Topology topology, SimulatorSettings settings)
+	{
+		ArrayList<Node> hosts = new ArrayList<Node>();
+		for(Node node : topology.getNodes())
+		{
+			if(!node.nodeIsSwitch())
+				hosts.add(node);
+		}
+		if(hosts.size() < 2)
+			throw new IllegalArgumentException("The topology needs at least two hosts");
+
+		Random random = new Random(settings.seed);
+		ArrayList<Request> trace = new ArrayList<Request>(settings.generate);
+		double arrival = 0;
+		for(int i = 0; i < settings.generate; i++)
+		{
+			arrival += -Math.log(1 - random.nextDouble()) * settings.meanInterarrivalSeconds * 1000;
+			Node source = hosts.get(random.nextInt(hosts.size()));
+			Node dest = source;
+			while(dest == source)
+			{
+				dest = hosts.get(random.nextInt(hosts.size()));
+			}
+			long start = (long) arrival + (long) (random.nextDouble() * TimeUnit.SECONDS.toMillis(settings.maxLeadSeconds));
+			long duration = TimeUnit.SECONDS.toMillis(1 + random.nextInt((int) Math.max(1, settings.maxDurationSeconds)));
+			long bandwidth = (1 + random.nextInt(Math.max(1, settings.maxBandwidthGbps))) * BITS_PER_GB;
+			trace.add(new Request((long) arrival, source.getNodeName(), dest.getNodeName(), bandwidth, start, start + duration));
+		}
+		return trace;
+	}
+
+	/**
+	 * Print a report, one statistic per line
+	 * @param report
+	 * @param out
+	 * @param indent
+	 */
+	@SuppressWarnings("unchecked")
+	static void printReport(Map<String, Object> report, PrintStream out, String indent)
+	{
+		for(Map.Entry<String, Object> entry : report.entrySet())
+		{
+			if(entry.getValue() instanceof Map)
+			{
+				out.println(indent + entry.getKey() + ":");
+				printReport((Map<String, Object>) entry.getValue(), out, indent + "  ");
+			}
+			else
+			{
+				out.println(indent + entry.getKey() + ": " + entry.getValue());
+			}
+		}
+	}
+
+	/**
+	 * Run a simulation from the command line
+	 * @param args - see SimulatorSettings
+	 * @throws IOException
+	 */
+	public static void main(String[] args) throws IOException
+	{
+		SimulatorSettings settings = new SimulatorSettings();
+		CmdLineParser parser = new CmdLineParser(settings);
+		try
+		{
+			parser.parseArgument(args);
+			if((settings.traceFile == null) == (settings.generate <= 0))
+				throw new CmdLineException(parser, "Give either -trace or -generate");
+		}
+		catch(CmdLineException e)
+		{
+			System.err.println(e.getMessage());
+			parser.printUsage(System.err);
+			System.exit(1);
+		}
+
+		Topology topology;
+		try(FileReader in = new FileReader(settings.topologyFile))
+		{
+			topology = readTopology(in);
+		}
+		if(settings.slotSeconds > 0)
+			topology = useSlottedLinks(topology, TimeUnit.SECONDS.toMillis(settings.slotSeconds), 
+					TimeUnit.DAYS.toMillis(settings.horizonDays) + 2 * PRUNE_INTERVAL_MS);
+		ArrayList<Request> trace;
+		if(settings.traceFile != null)
+		{
+			try(FileReader in = new FileReader(settings.traceFile))
+			{
+				trace = readTrace(in);
+			}
+		}
+		else
+		{
+			trace = generateTrace(topology, settings);
+		}
+
+		ReservationSimulator simulator = new ReservationSimulator(topology, settings.maxPathsPerFlow, 
+				TimeUnit.DAYS.toMillis(settings.horizonDays));
+		for(Request request : trace)
+		{
+			simulator.addRequest(request);
+		}
+		long started = System.nanoTime();
+		simulator.run();
+		long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - started);
+
+		Map<String, Object> report = simulator.getReport();
+		report.put("wallClockMillis", elapsedMillis);
+		printReport(report, System.out, "");
+		if(settings.reportFile != null)
+			new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(new File(settings.reportFile), report);
+	}
+
+	/**
+	 * Copy a topology with every link booking in time slots, as the linkUsageBackend setting does
+	 */
+	private static Topology useSlottedLinks(Topology topology, long slotMillis, long horizonMillis)
+	{
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		for(FlowLink link : topology.getLinks())
+		{
+			links.add(new FlowLink(link.getLinkName(), link.getSrcNode(), link.getDstNode(), link.getSrcPort(), link.getDstPort(), 
+					link.getBandwidthCapacity(), new SlottedBandwidthTimeline(slotMillis, horizonMillis, 0)));
+		}
+		return new Topology(topology.getNodes(), links);
+	}
+}
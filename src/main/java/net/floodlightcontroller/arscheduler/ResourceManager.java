@@ -1,20 +1,31 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import org.slf4j.Logger;
 
 /**
  * Maintains our view of the network state - i.e. used bandwidth on links and active or expired flows.
+ * Admissions may run concurrently: a path is reserved by locking each of its links in ascending link ID
+ * order, validating that every link still has the bandwidth, and only then committing the reservation.
+ * Requests on disjoint paths never contend, and the canonical lock order rules out deadlock.
+ * The topology can also be patched one node or link at a time without touching the Flow Table. Nodes and links
+ * that go away are kept aside, so when they come back (e.g. after a link flap) the same objects, and the
+ * reservations recorded on them, are put back in place.
  * @author Dylan Davis and Jeremy Plante
  *
  */
 public class ResourceManager 
 {
-	/**
-	 * Set of links and the bandwidth used per link
-	 */
-	private ArrayList<FlowLink> linkStatus = new ArrayList<FlowLink>();
 	/**
 	 * Set of flows and associated paths
 	 */
@@ -22,7 +33,48 @@ public class ResourceManager
 	/**
 	 * The nodes and links in the network
 	 */
-	protected Topology netTopology;
+	protected volatile Topology netTopology;
+	/**
+	 * Incremented every time the topology changes
+	 */
+	private volatile long topologyVersion = 0;
+	/**
+	 * Graph built for the current topology, shared by every request
+	 */
+	private volatile CompactGraph graph;
+	/**
+	 * Incremented after every change to the bandwidth reserved on any link
+	 */
+	private AtomicLong bookingVersion = new AtomicLong();
+	/**
+	 * The last snapshot of link availability, reused until a booking or the topology changes
+	 */
+	private volatile AvailabilitySnapshot availabilitySnapshot;
+	/**
+	 * Admissions hold the read lock so the topology cannot be replaced underneath them; replacing it takes the write lock
+	 */
+	private ReentrantReadWriteLock topologyLock = new ReentrantReadWriteLock();
+	/**
+	 * Nodes that have left the topology, by name
+	 */
+	private HashMap<String, Node> detachedNodes = new HashMap<String, Node>();
+	/**
+	 * Links that have left the topology, by endpoints and ports
+	 */
+	private HashMap<String, FlowLink> detachedLinks = new HashMap<String, FlowLink>();
+	/**
+	 * How many batches of topology changes are open; guarded by the write lock
+	 */
+	private int updateDepth = 0;
+	/**
+	 * Whether the topology changed within the open batch, so the graph must be rebuilt when it closes
+	 */
+	private boolean graphStale = false;
+	
+	/**
+	 * Times graph builds, null if they are not timed
+	 */
+	private ARSchedulerMetrics metrics;
 	
 	/**
 	 * Logger for output to console
@@ -40,13 +92,305 @@ public class ResourceManager
 	
 	/**
 	 * Replace the Resource Manager's topology with a new topology, update the
-	 * status of all links, and reset the Flow Table
+	 * status of all links, and reset the Flow Table. The reservations dropped from the table are marked released,
+	 * as their bandwidth was booked on the old topology's links.
 	 * @param newTopology - the new topology
+	 * @return the reservations held before the call
 	 */
-	public void intializeState(Topology newTopology){
-		netTopology = newTopology;
-		linkStatus = netTopology.getLinks();
-		flowTable.removeAllFlowRouteTuples();
+	public ArrayList<FlowRouteTuple> intializeState(Topology newTopology){
+		topologyLock.writeLock().lock();
+		try
+		{
+			ArrayList<FlowRouteTuple> held = flowTable.getAllFlowRouteTuples();
+			for(FlowRouteTuple tuple : held)
+				tuple.setReleased(true);
+			netTopology = newTopology;
+			flowTable.removeAllFlowRouteTuples();
+			detachedNodes.clear();
+			detachedLinks.clear();
+			graph = buildGraph(netTopology);
+			topologyVersion++;
+			return held;
+		}
+		finally
+		{
+			topologyLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Add a node to the topology, keeping every reservation. If a node with the same name is already present,
+	 * nothing changes; if one left the topology earlier and has the same type and ports, it is put back instead.
+	 * @param node
+	 * @return the node now in the topology under that name
+	 */
+	public Node addNode(Node node)
+	{
+		topologyLock.writeLock().lock();
+		try
+		{
+			Node existing = netTopology.getNodeByName(node.getNodeName());
+			if(existing != null)
+				return existing;
+			
+			Node detached = detachedNodes.remove(node.getNodeName());
+			if(detached != null && detached.getNodeType().equals(node.getNodeType()) 
+					&& detached.getPorts().size() == node.getPorts().size())
+				node = detached;
+			
+			ArrayList<Node> nodes = new ArrayList<Node>(netTopology.getNodes());
+			nodes.add(node);
+			replaceTopology(nodes, netTopology.getLinks());
+			return node;
+		}
+		finally
+		{
+			topologyLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Remove a node, and every link to or from it, from the topology. Reservations are kept.
+	 * @param nodeName
+	 * @return True if the node was in the topology
+	 */
+	public boolean removeNode(String nodeName)
+	{
+		topologyLock.writeLock().lock();
+		try
+		{
+			if(netTopology.getNodeByName(nodeName) == null)
+				return false;
+			ArrayList<Node> nodes = new ArrayList<Node>(netTopology.getNodes());
+			for(Iterator<Node> it = nodes.iterator(); it.hasNext();)
+			{
+				Node n = it.next();
+				if(n.getNodeName().equals(nodeName))
+				{
+					it.remove();
+					detachedNodes.put(nodeName, n);
+				}
+			}
+			
+			ArrayList<FlowLink> links = new ArrayList<FlowLink>(netTopology.getLinks());
+			for(Iterator<FlowLink> it = links.iterator(); it.hasNext();)
+			{
+				FlowLink l = it.next();
+				if(l.getSrcNode().getNodeName().equals(nodeName) || l.getDstNode().getNodeName().equals(nodeName))
+				{
+					it.remove();
+					detachLink(l);
+				}
+			}
+			replaceTopology(nodes, links);
+			return true;
+		}
+		finally
+		{
+			topologyLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Add a link to the topology, keeping every reservation. If a link between the same ports is already present,
+	 * nothing changes; if one left the topology earlier between the same nodes, it is put back instead, along with
+	 * the bandwidth reserved on it.
+	 * @param link
+	 * @return the link now in the topology between those ports
+	 */
+	public FlowLink addLink(FlowLink link)
+	{
+		topologyLock.writeLock().lock();
+		try
+		{
+			String key = linkKey(link);
+			FlowLink existing = netTopology.getLinkByKey(key);
+			if(existing != null)
+				return existing;
+			
+			FlowLink detached = detachedLinks.remove(key);
+			if(detached != null && detached.getSrcNode() == link.getSrcNode() && detached.getDstNode() == link.getDstNode())
+				link = detached;
+			
+			ArrayList<FlowLink> links = new ArrayList<FlowLink>(netTopology.getLinks());
+			links.add(link);
+			replaceTopology(netTopology.getNodes(), links);
+			return link;
+		}
+		finally
+		{
+			topologyLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Remove the link between two ports from the topology. Reservations on the link are kept.
+	 * @param srcNodeName
+	 * @param srcPort
+	 * @param dstNodeName
+	 * @param dstPort
+	 * @return the removed link, null if there was no such link
+	 */
+	public FlowLink removeLink(String srcNodeName, int srcPort, String dstNodeName, int dstPort)
+	{
+		topologyLock.writeLock().lock();
+		try
+		{
+			FlowLink removed = netTopology.getLinkByKey(linkKey(srcNodeName, srcPort, dstNodeName, dstPort));
+			if(removed == null)
+				return null;
+			ArrayList<FlowLink> links = new ArrayList<FlowLink>(netTopology.getLinks());
+			links.remove(removed);
+			detachLink(removed);
+			replaceTopology(netTopology.getNodes(), links);
+			return removed;
+		}
+		finally
+		{
+			topologyLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Start a batch of topology changes, such as one link discovery update or one host's attachment points. Until
+	 * the matching endUpdate, admissions wait and the graph is not rebuilt; it is rebuilt, and the topology version
+	 * changes, once for the whole batch. Batches may nest.
+	 */
+	public void beginUpdate()
+	{
+		topologyLock.writeLock().lock();
+		updateDepth++;
+	}
+	
+	/**
+	 * Close a batch of topology changes, rebuilding the graph if anything changed within the outermost batch
+	 */
+	public void endUpdate()
+	{
+		try
+		{
+			if(--updateDepth == 0 && graphStale)
+			{
+				graphStale = false;
+				graph = buildGraph(netTopology);
+				topologyVersion++;
+			}
+		}
+		finally
+		{
+			topologyLock.writeLock().unlock();
+		}
+	}
+	
+	/**
+	 * Install a patched node and link list as the current topology, and rebuild the graph unless a batch of changes
+	 * is open. Caller holds the write lock.
+	 * @param nodes
+	 * @param links
+	 */
+	private void replaceTopology(ArrayList<Node> nodes, ArrayList<FlowLink> links)
+	{
+		netTopology = new Topology(nodes, links);
+		if(updateDepth > 0)
+		{
+			graphStale = true;
+			return;
+		}
+		graph = buildGraph(netTopology);
+		topologyVersion++;
+	}
+	
+	private CompactGraph buildGraph(Topology topology)
+	{
+		long started = System.nanoTime();
+		CompactGraph built = new CompactGraph(topology);
+		if(metrics != null)
+			metrics.record(ARSchedulerMetrics.Phase.GRAPH_BUILD, System.nanoTime() - started);
+		return built;
+	}
+	
+	/**
+	 * Time every graph build from now on
+	 * @param metrics - null to stop timing them
+	 */
+	public void setMetrics(ARSchedulerMetrics metrics)
+	{
+		this.metrics = metrics;
+	}
+	
+	/**
+	 * Keep a link that has left the topology, warning about reservations still routed over it
+	 * @param link
+	 */
+	private void detachLink(FlowLink link)
+	{
+		detachedLinks.put(linkKey(link), link);
+		int affected = flowTable.getFlowRouteTuplesOnLink(link).size();
+		if(affected > 0)
+			logger.warn("Link {} went down with {} reservations routed over it", link, affected);
+	}
+	
+	/**
+	 * Key identifying a link by its end points, stable across topology rebuilds
+	 * @param link
+	 * @return the key
+	 */
+	static String linkKey(FlowLink link)
+	{
+		return linkKey(link.getSrcNode().getNodeName(), link.getSrcPort().getID(), 
+				link.getDstNode().getNodeName(), link.getDstPort().getID());
+	}
+	
+	static String linkKey(String srcNodeName, int srcPort, String dstNodeName, int dstPort)
+	{
+		return srcNodeName + ":" + srcPort + "-" + dstNodeName + ":" + dstPort;
+	}
+	
+	/**
+	 * Get the graph for the current topology. The graph is built once each time the topology changes.
+	 * @return the CompactGraph
+	 */
+	public CompactGraph getGraph()
+	{
+		return graph;
+	}
+	
+	/**
+	 * Get the lock admissions must hold while they search and reserve paths, so that the topology
+	 * is not replaced part way through. Any number of admissions can hold it at once.
+	 * @return the shared admission lock
+	 */
+	public Lock getAdmissionLock()
+	{
+		return topologyLock.readLock();
+	}
+	
+	/**
+	 * Get an immutable snapshot of the current graph and of every link's bandwidth usage, for dry runs.
+	 * Takes no lock that admissions wait on. The same snapshot is returned until a booking or the topology
+	 * changes, so a burst of dry runs between admissions costs one snapshot.
+	 * @return the snapshot
+	 */
+	public AvailabilitySnapshot getAvailabilitySnapshot()
+	{
+		long version = bookingVersion.get();
+		CompactGraph current = graph;
+		AvailabilitySnapshot snapshot = availabilitySnapshot;
+		if(snapshot != null && snapshot.getBookingVersion() == version && snapshot.getGraph() == current)
+			return snapshot;
+		snapshot = new AvailabilitySnapshot(current, version);
+		if(snapshot.isComplete())
+			availabilitySnapshot = snapshot;
+		return snapshot;
+	}
+	
+	/**
+	 * Get the version of the topology, which changes every time the topology does
+	 * @return the topology version
+	 */
+	public long getTopologyVersion()
+	{
+		return topologyVersion;
 	}
 		
 	/**
@@ -59,11 +403,11 @@ public class ResourceManager
 	 */
 	public void decreaseAvailableLinkBandwidth(FlowLink link, long bwToReserve, long startTime, long endTime)
 	{
-		assert !linkStatus.isEmpty();
 		assert(link != null);
-		assert(linkStatus.contains(link));
+		assert(netTopology.getLinkByKey(linkKey(link)) == link);
 						
-		linkStatus.get(linkStatus.indexOf(link)).decreaseBandwidthAvailable(bwToReserve, startTime, endTime);
+		link.decreaseBandwidthAvailable(bwToReserve, startTime, endTime);
+		bookingVersion.incrementAndGet();
 	}
 	
 	/**
@@ -77,11 +421,204 @@ public class ResourceManager
 	 */
 	public boolean increaseAvailableLinkBandwidth(FlowLink link, long bwToFree, long startTime, long endTime)
 	{
-		assert !linkStatus.isEmpty();
 		assert(link != null);
-		assert(linkStatus.contains(link));
+		// Links that have left the topology still give back the bandwidth of reservations routed over them
+		assert(netTopology.getLinkByKey(linkKey(link)) == link || detachedLinks.get(linkKey(link)) == link);
 		
-		return linkStatus.get(linkStatus.indexOf(link)).increaseBandwidthAvailable(bwToFree, startTime, endTime);
+		boolean released = link.increaseBandwidthAvailable(bwToFree, startTime, endTime);
+		bookingVersion.incrementAndGet();
+		return released;
+	}
+	
+	/**
+	 * Atomically reserve bandwidth on every link of a path for a particular time period.
+	 * The links are locked in ascending link ID order, every link is checked to still have enough bandwidth
+	 * available, and only then is the bandwidth taken. If any link has been filled by a concurrent admission
+	 * since the path was found, nothing is reserved.
+	 * @param links - the links of the path
+	 * @param bwToReserve
+	 * @param startTime
+	 * @param endTime
+	 * @return True if the whole path was reserved, False if some link no longer has the bandwidth
+	 */
+	public boolean reservePath(Collection<FlowLink> links, long bwToReserve, long startTime, long endTime)
+	{
+		return reservePath(links, bwToReserve, startTime, endTime, 0);
+	}
+	
+	/**
+	 * Atomically reserve bandwidth on every link of a path for a particular time period, only if every link keeps
+	 * at least a given amount of bandwidth free afterwards.
+	 * @param links - the links of the path
+	 * @param bwToReserve
+	 * @param startTime
+	 * @param endTime
+	 * @param bwToKeepFree - bandwidth each link must still have available once the reservation is taken
+	 * @return True if the whole path was reserved, False if some link would be left with too little bandwidth
+	 */
+	public boolean reservePath(Collection<FlowLink> links, long bwToReserve, long startTime, long endTime, long bwToKeepFree)
+	{
+		ArrayList<FlowLink> ordered = lockInOrder(links);
+		try
+		{
+			for(FlowLink l : ordered)
+			{
+				if(l.getBandwidthAvailableBetweenTimes(startTime, endTime) - bwToReserve < bwToKeepFree)
+					return false;
+			}
+			for(FlowLink l : ordered)
+			{
+				decreaseAvailableLinkBandwidth(l, bwToReserve, startTime, endTime);
+			}
+			return true;
+		}
+		finally
+		{
+			unlockAll(ordered);
+		}
+	}
+	
+	/**
+	 * Atomically release bandwidth reserved with reservePath on every link of a path.
+	 * @param links - the links of the path
+	 * @param bwToFree
+	 * @param startTime
+	 * @param endTime
+	 * @return True if the bandwidth was found and released on every link
+	 */
+	public boolean releasePath(Collection<FlowLink> links, long bwToFree, long startTime, long endTime)
+	{
+		ArrayList<FlowLink> ordered = lockInOrder(links);
+		try
+		{
+			boolean released = true;
+			for(FlowLink l : ordered)
+			{
+				released &= increaseAvailableLinkBandwidth(l, bwToFree, startTime, endTime);
+			}
+			return released;
+		}
+		finally
+		{
+			unlockAll(ordered);
+		}
+	}
+	
+	/**
+	 * Atomically move a reservation on every link of a path to a new bandwidth and time period. The old bandwidth
+	 * is given back and the new bandwidth checked on every link before anything new is taken, so a reservation can
+	 * grow into the room it already holds. If any link cannot carry the new reservation, or does not hold the old
+	 * one, the old reservation is kept where it was found and nothing new is booked.
+	 * @param links - the links of the path
+	 * @param oldBandwidth
+	 * @param oldStartTime
+	 * @param oldEndTime
+	 * @param newBandwidth
+	 * @param newStartTime
+	 * @param newEndTime
+	 * @return True if the reservation was moved, False if the old reservation was kept
+	 */
+	public boolean modifyPath(Collection<FlowLink> links, long oldBandwidth, long oldStartTime, long oldEndTime,
+			long newBandwidth, long newStartTime, long newEndTime)
+	{
+		ArrayList<FlowLink> ordered = lockInOrder(links);
+		try
+		{
+			ArrayList<FlowLink> released = new ArrayList<FlowLink>(ordered.size());
+			for(FlowLink l : ordered)
+			{
+				if(increaseAvailableLinkBandwidth(l, oldBandwidth, oldStartTime, oldEndTime))
+					released.add(l);
+			}
+			// A link without the old reservation means it was already given back, so nothing new may be booked
+			boolean fits = released.size() == ordered.size();
+			for(FlowLink l : ordered)
+			{
+				fits = fits && l.getBandwidthAvailableBetweenTimes(newStartTime, newEndTime) >= newBandwidth;
+			}
+			for(FlowLink l : fits ? ordered : released)
+			{
+				if(fits)
+					decreaseAvailableLinkBandwidth(l, newBandwidth, newStartTime, newEndTime);
+				else
+					decreaseAvailableLinkBandwidth(l, oldBandwidth, oldStartTime, oldEndTime);
+			}
+			return fits;
+		}
+		finally
+		{
+			unlockAll(ordered);
+		}
+	}
+	
+	/**
+	 * Lock each distinct link in ascending link ID order
+	 * @param links
+	 * @return the distinct links, in the order they were locked
+	 */
+	private static ArrayList<FlowLink> lockInOrder(Collection<FlowLink> links)
+	{
+		ArrayList<FlowLink> ordered = new ArrayList<FlowLink>(new LinkedHashSet<FlowLink>(links));
+		Collections.sort(ordered, LINK_ORDER);
+		for(FlowLink l : ordered)
+		{
+			l.getLock().lock();
+		}
+		return ordered;
+	}
+	
+	/**
+	 * Unlock links locked with lockInOrder, in reverse order
+	 * @param ordered
+	 */
+	private static void unlockAll(ArrayList<FlowLink> ordered)
+	{
+		for(int i = ordered.size() - 1; i >= 0; i--)
+		{
+			ordered.get(i).getLock().unlock();
+		}
+	}
+	
+	/**
+	 * Canonical order in which links are locked
+	 */
+	private static final Comparator<FlowLink> LINK_ORDER = new Comparator<FlowLink>() {
+		@Override
+		public int compare(FlowLink a, FlowLink b)
+		{
+			return Integer.compare(a.getID(), b.getID());
+		}
+	};
+	
+	/**
+	 * Forget the bandwidth consumed before a time on every link, including links that have left the topology
+	 * but still hold reservations. Reservations can still be released after their start time has been pruned.
+	 * @param time
+	 * @return the number of timeline breakpoints dropped
+	 */
+	public int pruneBefore(long time)
+	{
+		int dropped = 0;
+		topologyLock.readLock().lock();
+		try
+		{
+			if(netTopology == null)
+				return 0;
+			for(FlowLink link : netTopology.getLinks())
+			{
+				dropped += link.pruneBefore(time);
+			}
+			for(FlowLink link : detachedLinks.values())
+			{
+				dropped += link.pruneBefore(time);
+			}
+			bookingVersion.incrementAndGet();
+		}
+		finally
+		{
+			topologyLock.readLock().unlock();
+		}
+		return dropped;
 	}
 	
 	/**
@@ -105,20 +642,30 @@ public class ResourceManager
 	}
 	
 	/**
-	 * Set the status of a given FlowRouteTuple in the FlowTable to "Released"
+	 * Add a flow split across several paths to the FlowTable.
+	 * @param flow
+	 * @param allocations - each path and the bandwidth reserved on it
+	 */
+	public void addFlowToRM(Flow flow, ArrayList<PathAllocation> allocations)
+	{
+		flowTable.addFlowRouteTupleToFlowTable(new FlowRouteTuple(flow, allocations));
+	}
+	
+	/**
+	 * Set the status of a given FlowRouteTuple to "Released" and remove it from the FlowTable.
+	 * If several threads release the same tuple, only one of them succeeds.
 	 * @param flowTupleToRelease
+	 * @return True if this call released the tuple
 	 */
-	public void releaseFlowFromRM(FlowRouteTuple flowTupleToRelease)
+	public boolean releaseFlowFromRM(FlowRouteTuple flowTupleToRelease)
 	{
-		for(FlowRouteTuple frTuple : flowTable.getAllFlowRouteTuples())
-		{			
-			if(frTuple.equals(flowTupleToRelease) && !frTuple.isReleased())
-			{
-				frTuple.setReleased(true);
-				logger.info("Flow {} Released", flowTupleToRelease.getFlow().getID());
-				return;
-			}
+		if(!flowTupleToRelease.isReleased() && flowTable.removeFlowRouteTuple(flowTupleToRelease))
+		{
+			flowTupleToRelease.setReleased(true);
+			logger.info("Flow {} Released", flowTupleToRelease.getFlow().getID());
+			return true;
 		}
+		return false;
 	}
 	
 	/**
@@ -128,15 +675,7 @@ public class ResourceManager
 	 */
 	public FlowRouteTuple getFlowFromRM(Flow flow)
 	{
-		for(FlowRouteTuple frTuple : flowTable.getAllFlowRouteTuples())
-		{
-			if(frTuple.getFlow().equals(flow))
-			{
-				return frTuple;
-			}
-		}
-		
-		return null;	
+		return flowTable.findApplicableFlowRouteTuple(flow);
 	}
 	
 	/**
@@ -1,28 +1,38 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 
 /**
  * Finds the short path topology given a network topology.
  * @author Dylan Davis
  * @author Jeremy Plante
  */
-public class ShortestPathEngine 
+public class ShortestPathEngine
 {
 	/**
-	 * The initial topology
+	 * The graph representation of the topology
 	 */
-	Topology workingTopology;
-	
+	CompactGraph graph;
+
 	/**
 	 * Construct the ShortestPathEngine given an initial topology
 	 * @param topo
 	 */
 	public ShortestPathEngine(Topology topo)
 	{
-		workingTopology = topo;
+		this(new CompactGraph(topo));
 	}
-	
+
+	/**
+	 * Construct the ShortestPathEngine given a graph that has already been built for the topology
+	 * @param graph
+	 */
+	public ShortestPathEngine(CompactGraph graph)
+	{
+		this.graph = graph;
+	}
+
 	/**
 	 * Calculates the shortest path available between the source and destination specified by a flow
 	 * @param flow
@@ -30,144 +40,230 @@ public class ShortestPathEngine
 	 */
 	public Topology calculateSP(Flow flow)
 	{
-		Topology spTopology;
-		WeightedGraph weightedGraph = new WeightedGraph(workingTopology); 		// Convert Topology to adjacency matrix.
-		int[] prevNodes = dijkstrasAlgorithm(weightedGraph, flow.getSource());	// Dijkstra.
-		ArrayList<Node> shortestPath = reportSP(weightedGraph, prevNodes, flow.getSource(), flow.getDest());
-		ArrayList<FlowLink> linksOnPath;
-				
-		linksOnPath = this.getLinksOnSP(shortestPath);
-		
-		spTopology = new Topology(shortestPath, linksOnPath);
-				
-		return spTopology;		
+		return calculateSP(flow, null);
 	}
 
 	/**
-	 * Perform Dijkstra's algorithm to find the shortest weighted path between the source node and all other nodes
-	 * @param G
-	 * @param srcNode
-	 * @return integer array of node indices
+	 * Calculates the shortest path between the source and destination specified by a flow, using only the
+	 * given edges of the graph
+	 * @param flow
+	 * @param usableEdges - filter deciding which edges may be used, or null to allow every edge
+	 * @return the topology representing the shortest path (set of nodes and links), empty if there is no path
 	 */
-	public int[] dijkstrasAlgorithm(WeightedGraph G, Node srcNode) 
+	public Topology calculateSP(Flow flow, EdgeFilter usableEdges)
 	{
-		int s = G.indexOf(srcNode);
-		int[] dist = new int[G.size()];  // shortest known distance from "s"
-		int[] pred = new int[G.size()];  // preceeding node in path
-		boolean[] visited = new boolean[G.size()]; // all false initially
+		return calculateSP(flow.getSource(), flow.getDest(), usableEdges);
+	}
 
-		for(int i = 0; i < dist.length; i++) 
-		{
-			dist[i] = Integer.MAX_VALUE;
-		}
+	/**
+	 * Calculates the shortest path between two nodes, using only the given edges of the graph
+	 * @param source
+	 * @param dest
+	 * @param usableEdges - filter deciding which edges may be used, or null to allow every edge
+	 * @return the topology representing the shortest path (set of nodes and links), empty if there is no path
+	 */
+	public Topology calculateSP(Node source, Node dest, EdgeFilter usableEdges)
+	{
+		int s = graph.indexOf(source);
+		int d = graph.indexOf(dest);
+		if(s < 0 || d < 0 || s == d)
+			return emptyTopology();
+
+		int[] predEdges = dijkstrasAlgorithm(s, d, usableEdges);	// Dijkstra.
+		if(predEdges[d] < 0)
+			return emptyTopology();
+
+		return reportSP(predEdges, s, d, usableEdges);
+	}
+
+	/**
+	 * Perform Dijkstra's algorithm with a binary heap, from the source node until the target node is settled
+	 * @param s - source node index
+	 * @param target - target node index
+	 * @param usableEdges - filter deciding which edges may be used, or null to allow every edge.
+	 * Edges are only checked when they are relaxed, so a lazy filter is evaluated just for the edges the search reaches.
+	 * @return for each node index, the edge used to reach it on the shortest path (-1 if not reached)
+	 */
+	public int[] dijkstrasAlgorithm(int s, int target, EdgeFilter usableEdges)
+	{
+		int[] dist = new int[graph.size()];  // shortest known distance from "s"
+		int[] predEdges = new int[graph.size()];  // edge into each node on its shortest path
+		Arrays.fill(dist, Integer.MAX_VALUE);
+		Arrays.fill(predEdges, -1);
 		dist[s] = 0;
 
-		for(int i = 0; i < dist.length; i++) 
-		{
-			final int next = minVertex(dist, visited);
-			
-			visited[next] = true;
-	  
-			// The shortest path to next is dist[next] and via pred[next].
+		NodeHeap heap = new NodeHeap(graph.size(), dist);
+		heap.insert(s);
 
-			final int[] n = G.neighbors(next);
+		while(!heap.isEmpty())
+		{
+			final int next = heap.poll();
+			if(next == target)
+				break;
 
-			for(int j = 0; j < n.length; j++) 
+			// The shortest path to next is dist[next] and via predEdges[next].
+			for(int e = graph.getFirstEdge(next); e < graph.getEndEdge(next); e++)
 			{
-				final int v = n[j];
-				final int d = dist[next] + G.getWeight(next,v);
-				if(dist[v] > d) 
+				if(usableEdges != null && !usableEdges.isUsable(e))
+					continue;
+
+				final int v = graph.getEdgeTarget(e);
+				final int d = dist[next] + graph.getEdgeWeight(e);
+				if(dist[v] > d)
 				{
 					dist[v] = d;
-					pred[v] = next;
+					predEdges[v] = e;
+					heap.insertOrDecrease(v);
 				}
 			}
 		}
-		pred[s] = s;
-		
-		return pred;  // (ignore pred[s]==0!)
+
+		return predEdges;
 	}
-	  
+
 	/**
-	 * Returns an unvisited vertex
-	 * @param dist
-	 * @param v
-	 * @return
+	 * Output the shortest path given output from Dijkstra's algorithm
+	 * Note: as flows are bidirectional, this shortest path contains both links going towards the destination, and towards the source.
+	 * @param predEdges
+	 * @param s
+	 * @param d
+	 * @param usableEdges
+	 * @return the topology with the nodes and (bidirectional) links of the path
 	 */
-	private int minVertex(int[] dist, boolean[] v) 
+	public Topology reportSP(int[] predEdges, int s, int d, EdgeFilter usableEdges)
 	{
-		int x = Integer.MAX_VALUE;
-		int y = -1;   // graph not connected, or no unvisited vertices
-		for(int i = 0; i < dist.length; i++) 
+		ArrayList<Integer> pathEdges = new ArrayList<Integer>();
+		for(int x = d; x != s; x = graph.getEdgeSource(predEdges[x]))
 		{
-			if (!v[i] && (dist[i] < x)) 
-			{
-				y=i; 
-				x=dist[i];
-			}
+			pathEdges.add(predEdges[x]);
+		}
+
+		ArrayList<Node> path = new ArrayList<Node>();
+		ArrayList<FlowLink> linksOnPath = new ArrayList<FlowLink>();
+		path.add(graph.getNode(s));
+		for(int i = pathEdges.size() - 1; i >= 0; i--)
+		{
+			int e = pathEdges.get(i);
+			path.add(graph.getNode(graph.getEdgeTarget(e)));
+			linksOnPath.add(graph.getEdgeLink(e));
+			int reverse = findReverseEdge(e, usableEdges);
+			if(reverse >= 0)
+				linksOnPath.add(graph.getEdgeLink(reverse));
 		}
 
-		return y;
+		return new Topology(path, linksOnPath);
 	}
 
 	/**
-	 * Output the shortest path as a list of nodes given output from Dijkstra's algorithm
-	 * @param G
-	 * @param pred
-	 * @param src
-	 * @param dst
-	 * @return the list of nodes in the path
+	 * Find a usable edge running the opposite way to the given edge
+	 * @param e
+	 * @param usableEdges
+	 * @return the reverse edge index, -1 if there is none
 	 */
-	public ArrayList<Node> reportSP(WeightedGraph G, int[] pred, Node src, Node dst) 
+	private int findReverseEdge(int e, EdgeFilter usableEdges)
 	{
-		int s = G.indexOf(src);
-		int d = G.indexOf(dst);
-		
-		ArrayList<Node> path = new ArrayList<Node>();
-		int x = d;
-		
-		while(x != s) 
+		int u = graph.getEdgeSource(e);
+		int v = graph.getEdgeTarget(e);
+		for(int r = graph.getFirstEdge(v); r < graph.getEndEdge(v); r++)
 		{
-			path.add(0, G.getNodeValueAtIndex(x));
-			x = pred[x];
+			if(graph.getEdgeTarget(r) == u && (usableEdges == null || usableEdges.isUsable(r)))
+				return r;
 		}
-		
-		path.add(0, G.getNodeValueAtIndex(s));
-		
-		return path;
+		return -1;
 	}
-	
+
+	private static Topology emptyTopology()
+	{
+		return new Topology(new ArrayList<Node>(), new ArrayList<FlowLink>());
+	}
+
 	/**
-	 * Get the links that make up the shortest path
-	 * Note: as flows are bidirectional, this shortest path contains both links going towards the destination, and towards the source.
-	 * @param spNodes
-	 * @return the list of links in the shortest (bidirectional) path
+	 * Binary min-heap of node indices ordered by their current distance, supporting decrease-key.
 	 */
-	private ArrayList<FlowLink> getLinksOnSP(ArrayList<Node> spNodes)
+	private static class NodeHeap
 	{
-		ArrayList<FlowLink> linksToInclude = new ArrayList<FlowLink>();
-		ArrayList<FlowLink> unprunedLinks = workingTopology.getLinks(); 
-		for(int i = 0; i < spNodes.size() - 1; i++)
+		private int[] heap;
+		private int[] position;	// index of each node in heap, -1 if absent
+		private int[] dist;
+		private int size;
+
+		NodeHeap(int capacity, int[] dist)
 		{
-			int j = i + 1;
-			
-			Node nodeI = spNodes.get(i);
-			Node nodeJ = spNodes.get(j);
-			
-			for(FlowLink link : unprunedLinks)
+			this.heap = new int[capacity];
+			this.position = new int[capacity];
+			Arrays.fill(position, -1);
+			this.dist = dist;
+			this.size = 0;
+		}
+
+		boolean isEmpty()
+		{
+			return size == 0;
+		}
+
+		void insert(int node)
+		{
+			heap[size] = node;
+			position[node] = size;
+			siftUp(size++);
+		}
+
+		void insertOrDecrease(int node)
+		{
+			if(position[node] < 0)
+				insert(node);
+			else
+				siftUp(position[node]);
+		}
+
+		int poll()
+		{
+			int top = heap[0];
+			position[top] = -1;
+			size--;
+			if(size > 0)
 			{
-				if(link.getSrcNode().equals(nodeI) && link.getDstNode().equals(nodeJ))
-				{
-					linksToInclude.add(link);
-				}
-				if(link.getDstNode().equals(nodeI) && link.getSrcNode().equals(nodeJ))
-				{
-					linksToInclude.add(link);
-				}
+				heap[0] = heap[size];
+				position[heap[0]] = 0;
+				siftDown(0);
+			}
+			return top;
+		}
+
+		private void siftUp(int i)
+		{
+			int node = heap[i];
+			while(i > 0)
+			{
+				int parent = (i - 1) >>> 1;
+				if(dist[heap[parent]] <= dist[node])
+					break;
+				heap[i] = heap[parent];
+				position[heap[i]] = i;
+				i = parent;
+			}
+			heap[i] = node;
+			position[node] = i;
+		}
+
+		private void siftDown(int i)
+		{
+			int node = heap[i];
+			while(true)
+			{
+				int child = 2 * i + 1;
+				if(child >= size)
+					break;
+				if(child + 1 < size && dist[heap[child + 1]] < dist[heap[child]])
+					child++;
+				if(dist[heap[child]] >= dist[node])
+					break;
+				heap[i] = heap[child];
+				position[heap[i]] = i;
+				i = child;
 			}
+			heap[i] = node;
+			position[node] = i;
 		}
-		
-		return linksToInclude;
 	}
-	
 }
@@ -0,0 +1,45 @@
+package net.floodlightcontroller.arscheduler;
+
+import org.kohsuke.args4j.Option;
+
+/**
+ * Command line options of the ReservationSimulator.
+ */
+public class SimulatorSettings
+{
+	@Option(name="-topology", metaVar="FILE", required=true, usage="Topology file: switch, host and link lines")
+	String topologyFile;
+
+	@Option(name="-trace", metaVar="FILE", usage="Reservation trace, CSV of arrival,src,dst,bandwidthGbps,start,end in seconds")
+	String traceFile;
+
+	@Option(name="-generate", metaVar="N", usage="Replay N random reservations between the topology's hosts instead of a trace")
+	int generate = 0;
+
+	@Option(name="-seed", usage="Seed of the random reservations")
+	long seed = 1;
+
+	@Option(name="-interarrival", metaVar="SECONDS", usage="Mean time between random reservation requests")
+	double meanInterarrivalSeconds = 10;
+
+	@Option(name="-maxLead", metaVar="SECONDS", usage="Longest time from a random request to its start")
+	long maxLeadSeconds = 86400;
+
+	@Option(name="-maxDuration", metaVar="SECONDS", usage="Longest random reservation")
+	long maxDurationSeconds = 3600;
+
+	@Option(name="-maxBandwidth", metaVar="GBPS", usage="Largest random reservation bandwidth")
+	int maxBandwidthGbps = 4;
+
+	@Option(name="-horizonDays", usage="Reservations may end at most this many days after their request")
+	long horizonDays = 28;
+
+	@Option(name="-maxPaths", usage="Most paths a reservation may be split across")
+	int maxPathsPerFlow = 1;
+
+	@Option(name="-slotSeconds", usage="Book links in slots of this many seconds, 0 to book exact times")
+	long slotSeconds = 0;
+
+	@Option(name="-report", metaVar="FILE", usage="Also write the report to this file as JSON")
+	String reportFile;
+}
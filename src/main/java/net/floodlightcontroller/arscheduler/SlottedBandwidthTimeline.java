@@ -0,0 +1,348 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Bandwidth consumed on a link across time, kept as a ring of fixed-length time slots.
+ * The ring covers slotCount slots from the first slot not yet pruned; pruning advances the ring and frees the
+ * past slots for the future. A segment tree over the ring with lazy range addition answers the peak consumption
+ * of a window, and records or removes a reservation, in O(log slotCount) however many reservations there are.
+ * Memory is fixed by the slot count: 32 bytes per slot, rounded up to a power of two slots.
+ * Reservations are widened to whole slots, so a reservation that is not slot-aligned holds its first and last
+ * slots entirely. Windows reaching past the ring are reported as fully booked.
+ * The tree is stored in blocks of BLOCK_SIZE nodes. A snapshot shares every block, and either side copies a
+ * block only when it first changes it afterwards, so a change after a snapshot copies the few blocks on the
+ * changed nodes' paths rather than the whole tree.
+ */
+public class SlottedBandwidthTimeline implements BandwidthUsage
+{
+	/**
+	 * Number of tree nodes in a block, a power of two
+	 */
+	static final int BLOCK_SIZE = 256;
+	private static final int BLOCK_SHIFT = Integer.numberOfTrailingZeros(BLOCK_SIZE);
+	
+	/**
+	 * Length of a slot, in milliseconds
+	 */
+	private long slotMillis;
+	/**
+	 * Number of slots in the ring
+	 */
+	private int slotCount;
+	/**
+	 * Absolute number of the first slot in the ring, i.e. its start time divided by slotMillis
+	 */
+	private long baseSlot;
+	/**
+	 * Number of leaves of the segment tree, the smallest power of two holding slotCount
+	 */
+	private int leaves;
+	/**
+	 * Highest consumption in each node's range, including the node's own pending addition, by block
+	 */
+	private long[][] max;
+	/**
+	 * Bandwidth added to every slot in each node's range, not yet pushed to its children, by block
+	 */
+	private long[][] pending;
+	/**
+	 * Whether each block of max and pending belongs to this timeline alone, and may be changed in place
+	 */
+	private boolean[] ownedBlocks;
+	/**
+	 * Number of reservations ending at each slot boundary, by time
+	 */
+	private TreeMap<Long, Integer> releaseTimes = new TreeMap<Long, Integer>();
+	/**
+	 * Whether the release times are shared with a snapshot, and must be copied before a change
+	 */
+	private boolean releaseTimesShared;
+
+	/**
+	 * Construct an empty timeline
+	 * @param slotMillis - length of a slot, in milliseconds
+	 * @param horizonMillis - how far ahead of the origin the ring must reach, in milliseconds
+	 * @param origin - the earliest time tracked, in milliseconds since the epoch
+	 */
+	public SlottedBandwidthTimeline(long slotMillis, long horizonMillis, long origin)
+	{
+		if(slotMillis <= 0)
+			throw new IllegalArgumentException("Slot length must be positive");
+		long slots = (horizonMillis + slotMillis - 1) / slotMillis + 1;
+		if(slots > (1 << 29))
+			throw new IllegalArgumentException("Too many slots: " + slots);
+		this.slotMillis = slotMillis;
+		this.slotCount = (int) slots;
+		this.baseSlot = floorSlot(origin);
+		this.leaves = Integer.highestOneBit(Math.max(1, slotCount - 1)) << 1;
+		clearTree();
+	}
+
+	/**
+	 * Construct a snapshot sharing another timeline's state
+	 * @param other
+	 */
+	private SlottedBandwidthTimeline(SlottedBandwidthTimeline other)
+	{
+		this.slotMillis = other.slotMillis;
+		this.slotCount = other.slotCount;
+		this.baseSlot = other.baseSlot;
+		this.leaves = other.leaves;
+		this.max = other.max.clone();
+		this.pending = other.pending.clone();
+		this.ownedBlocks = new boolean[other.ownedBlocks.length];
+		Arrays.fill(other.ownedBlocks, false);
+		this.releaseTimes = other.releaseTimes;
+		this.releaseTimesShared = true;
+		other.releaseTimesShared = true;
+	}
+
+	@Override
+	public void addReservation(long bandwidth, long startTime, long endTime)
+	{
+		unshareReleaseTimes();
+		long endSlot = endSlot(startTime, endTime);
+		addToSlots(bandwidth, floorSlot(startTime), endSlot);
+		if(endSlot > baseSlot)
+		{
+			Long time = endSlot * slotMillis;
+			Integer count = releaseTimes.get(time);
+			releaseTimes.put(time, count == null ? 1 : count + 1);
+		}
+	}
+
+	@Override
+	public void removeReservation(long bandwidth, long startTime, long endTime)
+	{
+		unshareReleaseTimes();
+		long endSlot = endSlot(startTime, endTime);
+		addToSlots(-bandwidth, floorSlot(startTime), endSlot);
+		Long time = endSlot * slotMillis;
+		Integer count = releaseTimes.get(time);
+		if(count == null)
+			return;
+		if(count == 1)
+			releaseTimes.remove(time);
+		else
+			releaseTimes.put(time, count - 1);
+	}
+
+	@Override
+	public long getConsumptionAt(long time)
+	{
+		return getPeakConsumption(time, time);
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * A window with endTime <= startTime is treated as the slot holding startTime.
+	 * @return peak consumed bandwidth in the window, or Long.MAX_VALUE if the window reaches past the ring
+	 */
+	@Override
+	public long getPeakConsumption(long startTime, long endTime)
+	{
+		long first = Math.max(floorSlot(startTime), baseSlot);
+		long last = endSlot(startTime, endTime);
+		if(last > baseSlot + slotCount)
+			return Long.MAX_VALUE;
+		if(last <= first)
+			return 0;
+
+		int from = ringIndex(first);
+		int to = from + (int) (last - first);
+		if(to <= slotCount)
+			return query(1, 0, leaves, from, to);
+		return Math.max(query(1, 0, leaves, from, slotCount), query(1, 0, leaves, 0, to - slotCount));
+	}
+
+	@Override
+	public void collectReleaseTimes(long after, long until, Collection<Long> times)
+	{
+		if(until <= after)
+			return;
+		times.addAll(releaseTimes.subMap(after, false, until, true).keySet());
+	}
+
+	/**
+	 * {@inheritDoc}
+	 * Advances the ring to the slot holding the time, emptying the slots it passes so they can hold the future.
+	 * @return the number of slots freed
+	 */
+	@Override
+	public int pruneBefore(long time)
+	{
+		long newBase = floorSlot(time);
+		if(newBase <= baseSlot)
+			return 0;
+		unshareReleaseTimes();
+
+		long freed = Math.min(newBase - baseSlot, slotCount);
+		if(freed == slotCount)
+		{
+			clearTree();
+		}
+		else
+		{
+			for(long slot = baseSlot; slot < baseSlot + freed; slot++)
+			{
+				int index = ringIndex(slot);
+				long consumed = query(1, 0, leaves, index, index + 1);
+				if(consumed != 0)
+					add(1, 0, leaves, index, index + 1, -consumed);
+			}
+		}
+		baseSlot = newBase;
+
+		Map<Long, Integer> past = releaseTimes.headMap(baseSlot * slotMillis, true);
+		past.clear();
+		return (int) freed;
+	}
+
+	@Override
+	public SlottedBandwidthTimeline snapshot()
+	{
+		return new SlottedBandwidthTimeline(this);
+	}
+
+	/**
+	 * Length of a slot, in milliseconds
+	 * @return the slot length
+	 */
+	public long getSlotMillis()
+	{
+		return slotMillis;
+	}
+
+	/**
+	 * Take a private copy of the release times shared with a snapshot
+	 */
+	private void unshareReleaseTimes()
+	{
+		if(!releaseTimesShared)
+			return;
+		releaseTimes = new TreeMap<Long, Integer>(releaseTimes);
+		releaseTimesShared = false;
+	}
+	
+	/**
+	 * Replace the tree with an empty one owned by this timeline
+	 */
+	private void clearTree()
+	{
+		int nodes = 2 * leaves;
+		int blockSize = Math.min(BLOCK_SIZE, nodes);
+		int blocks = nodes / blockSize;
+		max = new long[blocks][blockSize];
+		pending = new long[blocks][blockSize];
+		ownedBlocks = new boolean[blocks];
+		Arrays.fill(ownedBlocks, true);
+	}
+	
+	/**
+	 * Make the block holding a node this timeline's own, copying it if a snapshot shares it
+	 * @param node
+	 */
+	private void ownBlock(int node)
+	{
+		int block = node >>> BLOCK_SHIFT;
+		if(ownedBlocks[block])
+			return;
+		max[block] = max[block].clone();
+		pending[block] = pending[block].clone();
+		ownedBlocks[block] = true;
+	}
+	
+	private long max(int node)
+	{
+		return max[node >>> BLOCK_SHIFT][node & (BLOCK_SIZE - 1)];
+	}
+	
+	private long pending(int node)
+	{
+		return pending[node >>> BLOCK_SHIFT][node & (BLOCK_SIZE - 1)];
+	}
+
+	/**
+	 * Add bandwidth to the slots [first, last), clipped to the ring
+	 */
+	private void addToSlots(long bandwidth, long first, long last)
+	{
+		first = Math.max(first, baseSlot);
+		last = Math.min(last, baseSlot + slotCount);
+		if(last <= first)
+			return;
+
+		int from = ringIndex(first);
+		int to = from + (int) (last - first);
+		if(to <= slotCount)
+		{
+			add(1, 0, leaves, from, to, bandwidth);
+		}
+		else
+		{
+			add(1, 0, leaves, from, slotCount, bandwidth);
+			add(1, 0, leaves, 0, to - slotCount, bandwidth);
+		}
+	}
+
+	/**
+	 * Add a value to the ring indices [from, to) under the given node, which covers [lo, hi)
+	 */
+	private void add(int node, int lo, int hi, int from, int to, long value)
+	{
+		if(to <= lo || hi <= from)
+			return;
+		ownBlock(node);
+		int block = node >>> BLOCK_SHIFT;
+		int offset = node & (BLOCK_SIZE - 1);
+		if(from <= lo && hi <= to)
+		{
+			max[block][offset] += value;
+			pending[block][offset] += value;
+			return;
+		}
+		int mid = (lo + hi) >>> 1;
+		add(2 * node, lo, mid, from, to, value);
+		add(2 * node + 1, mid, hi, from, to, value);
+		max[block][offset] = pending[block][offset] + Math.max(max(2 * node), max(2 * node + 1));
+	}
+
+	/**
+	 * Highest value of the ring indices [from, to) under the given node, which covers [lo, hi)
+	 */
+	private long query(int node, int lo, int hi, int from, int to)
+	{
+		if(to <= lo || hi <= from)
+			return Long.MIN_VALUE;
+		if(from <= lo && hi <= to)
+			return max(node);
+		int mid = (lo + hi) >>> 1;
+		long below = Math.max(query(2 * node, lo, mid, from, to), query(2 * node + 1, mid, hi, from, to));
+		return below == Long.MIN_VALUE ? below : pending(node) + below;
+	}
+
+	private int ringIndex(long slot)
+	{
+		long index = slot % slotCount;
+		return (int) (index < 0 ? index + slotCount : index);
+	}
+
+	private long floorSlot(long time)
+	{
+		long slot = time / slotMillis;
+		return (time < 0 && slot * slotMillis != time) ? slot - 1 : slot;
+	}
+
+	/**
+	 * The slot after the last one a reservation holds, at least one slot after its first
+	 */
+	private long endSlot(long startTime, long endTime)
+	{
+		long last = floorSlot(endTime - 1) + 1;
+		return Math.max(last, floorSlot(startTime) + 1);
+	}
+}
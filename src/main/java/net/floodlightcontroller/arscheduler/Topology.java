@@ -1,9 +1,13 @@
 package net.floodlightcontroller.arscheduler;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 
 /**
  * Wrapper for a list of Nodes and FlowLinks, together representing the network.
+ * Each node is numbered by its position in the node list. Nodes are found by name (a switch's DPID or a host's MAC)
+ * and links by their end points through hash indexes, each built on its first lookup, so the lists must not
+ * change once a lookup has been made. Paths, which are never searched, never pay for the indexes.
  * @author Dylan Davis
  * @author Jeremy Plante
  */
@@ -17,6 +21,14 @@ public class Topology
 	 * The list of links
 	 */
 	private ArrayList<FlowLink> topologyLinks = new ArrayList<FlowLink>();
+	/**
+	 * Index of each node in the node list by name, built on the first lookup
+	 */
+	private volatile HashMap<String, Integer> nodeIndexByName;
+	/**
+	 * Each link by ResourceManager.linkKey, built on the first lookup
+	 */
+	private volatile HashMap<String, FlowLink> linksByKey;
 	
 	/**
 	 * Construct a topology given nodes and links
@@ -103,12 +115,44 @@ public class Topology
 	 * @return the matching Node
 	 */
 	public Node getNodeByName(String nodeName){
-		for(Node n : topologyNodes){
-			if(n.getNodeName().equals(nodeName)){
-				return n;
+		int index = indexOf(nodeName);
+		return index < 0 ? null : topologyNodes.get(index);
+	}
+	
+	/**
+	 * Get the position in the node list of the node with the given name. Where several nodes share a name, the
+	 * first is found.
+	 * @param nodeName
+	 * @return the node's index, -1 if there is no such node
+	 */
+	public int indexOf(String nodeName){
+		HashMap<String, Integer> index = nodeIndexByName;
+		if(index == null){
+			index = new HashMap<String, Integer>(topologyNodes.size() * 2);
+			for(int i = topologyNodes.size() - 1; i >= 0; i--){
+				index.put(topologyNodes.get(i).getNodeName(), i);
+			}
+			nodeIndexByName = index;
+		}
+		Integer i = index.get(nodeName);
+		return i == null ? -1 : i;
+	}
+	
+	/**
+	 * Get the link between the ports named by a key
+	 * @param key - as made by ResourceManager.linkKey
+	 * @return the matching FlowLink, null if there is none
+	 */
+	public FlowLink getLinkByKey(String key){
+		HashMap<String, FlowLink> index = linksByKey;
+		if(index == null){
+			index = new HashMap<String, FlowLink>(topologyLinks.size() * 2);
+			for(FlowLink l : topologyLinks){
+				index.put(ResourceManager.linkKey(l), l);
 			}
+			linksByKey = index;
 		}
-		return null;
+		return index.get(key);
 	}
 	
 	/**
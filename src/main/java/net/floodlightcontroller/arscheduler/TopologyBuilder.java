@@ -22,7 +22,41 @@ import org.projectfloodlight.openflow.types.OFPort;
 public class TopologyBuilder {
 	
 	/**
-	 * Convert Floodlight objects into a Topology. 
+	 * Length of a time slot in the links' bandwidth usage, in milliseconds; 0 keeps exact times
+	 */
+	private long slotMillis = 0;
+	/**
+	 * How far ahead slotted bandwidth usage must reach, in milliseconds
+	 */
+	private long slotHorizonMillis = 0;
+	
+	/**
+	 * Keep the bandwidth usage of links built from now on in rings of fixed-length time slots
+	 * rather than at exact times.
+	 * @param slotMillis - length of a slot, in milliseconds; 0 keeps exact times
+	 * @param horizonMillis - how far ahead of now the slots must reach, in milliseconds
+	 */
+	public void setSlottedUsage(long slotMillis, long horizonMillis)
+	{
+		this.slotMillis = slotMillis;
+		this.slotHorizonMillis = horizonMillis;
+	}
+	
+	/**
+	 * Create the empty bandwidth usage of a new link
+	 * @return the usage
+	 */
+	private BandwidthUsage newBandwidthUsage()
+	{
+		if(slotMillis > 0)
+			return new SlottedBandwidthTimeline(slotMillis, slotHorizonMillis, System.currentTimeMillis());
+		return new BandwidthTimeline();
+	}
+	
+	/**
+	 * Convert Floodlight objects into a Topology. Every node is created before any link, so each end of a link is
+	 * found through the name index of a Topology of the nodes alone rather than a search of the nodes. The Topology
+	 * returned is built once every link is known, as its indexes never change after the first lookup.
 	 * @param floodlightTopology
 	 * @return Topology object
 	 */
@@ -37,20 +71,23 @@ public class TopologyBuilder {
 		ArrayList<FlowLink> topoLinks = new ArrayList<FlowLink>();
 		//Create Switch Nodes
 		for(DatapathId dpID : switchMap.keySet()){
-			String name = dpID.toString();
-			int numPorts = switchPortMap.get(switchMap.get(dpID)).size();
-			topoNodes.add(new Switch(name, numPorts));
+			topoNodes.add(makeSwitchNode(dpID, switchMap, switchPortMap));
 		}
 		//Create Host Nodes
-		//Create (Host, Switch) Links
 		for(IDevice device : devices){
 			String name = device.getMACAddressString();
-			SwitchPort[] attachmentPoints = device.getAttachmentPoints();
-			for (SwitchPort ap : attachmentPoints){
+			for (SwitchPort ap : device.getAttachmentPoints()){
 				if(ap.getPort().getPortNumber() > 0){
-					Host newHost = new Host(name, 1);
-					topoNodes.add(newHost);
-					ArrayList<FlowLink> hostSwitchLinks = makeHostSwitchLinkPair(topoNodes, device, ap, switchMap, switchPortMap);
+					topoNodes.add(new Host(name, 1));
+				}
+			}
+		}
+		Topology nodes = new Topology(topoNodes, new ArrayList<FlowLink>());
+		//Create (Host, Switch) Links
+		for(IDevice device : devices){
+			for (SwitchPort ap : device.getAttachmentPoints()){
+				if(ap.getPort().getPortNumber() > 0){
+					ArrayList<FlowLink> hostSwitchLinks = makeHostSwitchLinkPair(nodes, device, ap, switchMap, switchPortMap);
 					topoLinks.add(hostSwitchLinks.get(0));
 					topoLinks.add(hostSwitchLinks.get(1));
 				}
@@ -58,7 +95,7 @@ public class TopologyBuilder {
 		}
 		//Create (Switch, Switch) Links
 		for(Link link : links){
-			FlowLink switchSwitchLink = makeSwitchSwitchLink(topoNodes, link, switchMap, switchPortMap);
+			FlowLink switchSwitchLink = makeSwitchSwitchLink(nodes, link, switchMap, switchPortMap);
 			topoLinks.add(switchSwitchLink);
 		}
 		
@@ -66,29 +103,27 @@ public class TopologyBuilder {
 	}
 	
 	/**
-	 * Get a node with the given name from a list of nodes 
-	 * @param nodes
-	 * @param name
-	 * @return the given node (null if node found)
+	 * Construct the node for a switch
+	 * @param dpID
+	 * @param switchMap
+	 * @param switchPortMap
+	 * @return the switch node, with one port per usable port on the switch
 	 */
-	public Node getNodeWithName(ArrayList<Node> nodes, String name){
-		for(Node n : nodes){
-			if(n.getNodeName().equals(name)){
-				return n;
-			}
-		}
-		return null;
+	public Switch makeSwitchNode(DatapathId dpID, Map<DatapathId, IOFSwitch> switchMap, HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap){
+		String name = dpID.toString();
+		int numPorts = switchPortMap.get(switchMap.get(dpID)).size();
+		return new Switch(name, numPorts);
 	}
 	
 	/**
 	 * Construct a link between two switches.
-	 * @param topoNodes
+	 * @param topology - the topology holding both switches
 	 * @param link
 	 * @param switchMap
 	 * @param switchPortMap
 	 * @return the link connecting the two given switches
 	 */
-	public FlowLink makeSwitchSwitchLink(ArrayList<Node> topoNodes,Link link, Map<DatapathId, IOFSwitch> switchMap, HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap){
+	public FlowLink makeSwitchSwitchLink(Topology topology, Link link, Map<DatapathId, IOFSwitch> switchMap, HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap){
 		DatapathId srcId = link.getSrc();
 		DatapathId dstId = link.getDst();
 		
@@ -104,8 +139,8 @@ public class TopologyBuilder {
 		ArrayList<OFPortDesc> dstPorts = switchPortMap.get(dstSwitch);
 		
 		String linkName = "(" + srcId.toString() + ", " + dstId.toString() + ")";
-		Node src = getNodeWithName(topoNodes, srcId.toString());
-		Node dst = getNodeWithName(topoNodes, dstId.toString());
+		Node src = topology.getNodeByName(srcId.toString());
+		Node dst = topology.getNodeByName(dstId.toString());
 		Port srcP = src.getPortByID(srcPortNum);
 		Port dstP = dst.getPortByID(dstPortNum);
 		
@@ -115,7 +150,7 @@ public class TopologyBuilder {
 				bandWidth = convertBandwidth(portDesc.getCurrSpeed());
 			}
 		}
-		return new FlowLink(linkName, src, dst, srcP, dstP, bandWidth);
+		return new FlowLink(linkName, src, dst, srcP, dstP, bandWidth, newBandwidthUsage());
 	}
 	
 	/**
@@ -131,14 +166,14 @@ public class TopologyBuilder {
 	
 	/**
 	 * Construct a link between a host and a switch
-	 * @param topoNodes
+	 * @param topology - the topology holding the host and the switch
 	 * @param device
 	 * @param ap
 	 * @param switchMap
 	 * @param switchPortMap
 	 * @return the link which connects given device and access point
 	 */
-	public ArrayList<FlowLink> makeHostSwitchLinkPair(ArrayList<Node> topoNodes, IDevice device, SwitchPort ap, Map<DatapathId, IOFSwitch> switchMap, 
+	public ArrayList<FlowLink> makeHostSwitchLinkPair(Topology topology, IDevice device, SwitchPort ap, Map<DatapathId, IOFSwitch> switchMap, 
 			HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap){
 		
 		String deviceName = device.getMACAddressString();
@@ -156,8 +191,8 @@ public class TopologyBuilder {
 		String switchHostLinkName = "(" + switchName + ", " + deviceName + ")";
 		
 
-		Node src = getNodeWithName(topoNodes, deviceName);
-		Node dst = getNodeWithName(topoNodes, switchName);
+		Node src = topology.getNodeByName(deviceName);
+		Node dst = topology.getNodeByName(switchName);
 		
 		Port srcP = src.getPortByID(1);
 		Port dstP = dst.getPortByID(switchPortNum);
@@ -171,8 +206,8 @@ public class TopologyBuilder {
 		}
 		
 		ArrayList<FlowLink> hostSwitchLinks = new ArrayList<FlowLink>();
-		hostSwitchLinks.add(new FlowLink(hostSwitchLinkName, src, dst, srcP, dstP, bandWidth));
-		hostSwitchLinks.add(new FlowLink(switchHostLinkName, dst, src, dstP, srcP, bandWidth));
+		hostSwitchLinks.add(new FlowLink(hostSwitchLinkName, src, dst, srcP, dstP, bandWidth, newBandwidthUsage()));
+		hostSwitchLinks.add(new FlowLink(switchHostLinkName, dst, src, dstP, srcP, bandWidth, newBandwidthUsage()));
 		
 		return hostSwitchLinks;
 	}
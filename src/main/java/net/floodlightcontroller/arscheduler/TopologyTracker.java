@@ -0,0 +1,483 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import net.floodlightcontroller.core.IOFSwitch;
+import net.floodlightcontroller.core.IOFSwitchListener;
+import net.floodlightcontroller.core.PortChangeType;
+import net.floodlightcontroller.devicemanager.IDevice;
+import net.floodlightcontroller.devicemanager.IDeviceListener;
+import net.floodlightcontroller.devicemanager.SwitchPort;
+import net.floodlightcontroller.linkdiscovery.ILinkDiscovery.LDUpdate;
+import net.floodlightcontroller.routing.Link;
+import net.floodlightcontroller.topology.ITopologyListener;
+
+import org.projectfloodlight.openflow.protocol.OFPortDesc;
+import org.projectfloodlight.openflow.types.DatapathId;
+import org.slf4j.Logger;
+
+/**
+ * Keeps the ARScheduler's view of the network up to date from Floodlight's topology, device and switch events.
+ * Once the state has been initialized, each event patches just the nodes, links, ports and queues it affects,
+ * so reservations survive topology changes and only a newly activated switch (or port) has its queues queried.
+ * Events are applied one at a time; querying queues happens on the worker pool.
+ */
+public class TopologyTracker implements ITopologyListener, IDeviceListener, IOFSwitchListener
+{
+	/**
+	 * The coordinating ARScheduler, whose topology is patched
+	 */
+	private ARScheduler arscheduler;
+	/**
+	 * The logger
+	 */
+	private Logger logger;
+
+	/**
+	 * Construct the TopologyTracker for an ARScheduler
+	 * @param arscheduler
+	 */
+	public TopologyTracker(ARScheduler arscheduler)
+	{
+		this.arscheduler = arscheduler;
+		this.logger = ARScheduler.logger;
+	}
+
+	/**
+	 * Events are ignored until the state has been initialized once
+	 * @return True if there is a topology to patch
+	 */
+	private boolean isTracking()
+	{
+		return arscheduler.floodlightTopology != null && arscheduler.theRM.getTopology() != null;
+	}
+
+	/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *   Links
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 */
+
+	/**
+	 * Add or remove switch-to-switch links as they are discovered or time out
+	 */
+	@Override
+	public synchronized void topologyChanged(List<LDUpdate> linkUpdates)
+	{
+		if(!isTracking())
+			return;
+
+		arscheduler.theRM.beginUpdate();
+		try
+		{
+			for(LDUpdate update : linkUpdates)
+			{
+				switch(update.getOperation())
+				{
+				case LINK_UPDATED:
+					addSwitchLink(new Link(update.getSrc(), update.getSrcPort(), update.getDst(), update.getDstPort(), update.getLatency()));
+					break;
+				case LINK_REMOVED:
+					removeSwitchLink(new Link(update.getSrc(), update.getSrcPort(), update.getDst(), update.getDstPort(), update.getLatency()));
+					break;
+				default:
+					// Switch and port changes arrive through the switch listener
+					break;
+				}
+			}
+		}
+		finally
+		{
+			arscheduler.theRM.endUpdate();
+		}
+	}
+
+	/**
+	 * Add a switch-to-switch link, if both switches are known
+	 * @param link
+	 */
+	private void addSwitchLink(Link link)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		Topology topology = arscheduler.theRM.getTopology();
+		Node src = topology.getNodeByName(link.getSrc().toString());
+		Node dst = topology.getNodeByName(link.getDst().toString());
+		if(src == null || dst == null || !floodlightTopology.getSwitchPortMap().containsKey(floodlightTopology.getSwitchMap().get(link.getSrc()))
+				|| src.getPortByID(link.getSrcPort().getPortNumber()) == null || dst.getPortByID(link.getDstPort().getPortNumber()) == null)
+			return;
+
+		if(!floodlightTopology.getLinks().contains(link))
+		{
+			ArrayList<Link> links = new ArrayList<Link>(floodlightTopology.getLinks());
+			links.add(link);
+			floodlightTopology.setLinks(links);
+		}
+
+		FlowLink flowLink = arscheduler.topoBuilder.makeSwitchSwitchLink(topology, link,
+				floodlightTopology.getSwitchMap(), floodlightTopology.getSwitchPortMap());
+		if(arscheduler.theRM.addLink(flowLink) == flowLink)
+			logger.debug("Link {} added", flowLink);
+	}
+
+	/**
+	 * Remove a switch-to-switch link. Reservations routed over it are kept.
+	 * @param link
+	 */
+	private void removeSwitchLink(Link link)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		if(floodlightTopology.getLinks().contains(link))
+		{
+			ArrayList<Link> links = new ArrayList<Link>(floodlightTopology.getLinks());
+			links.remove(link);
+			floodlightTopology.setLinks(links);
+		}
+
+		FlowLink removed = arscheduler.theRM.removeLink(link.getSrc().toString(), link.getSrcPort().getPortNumber(),
+				link.getDst().toString(), link.getDstPort().getPortNumber());
+		if(removed != null)
+			logger.debug("Link {} removed", removed);
+	}
+
+	/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *   Switches
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 */
+
+	@Override
+	public void switchAdded(DatapathId switchId)
+	{
+		// Wait for the switch to be activated
+	}
+
+	/**
+	 * Query a newly activated switch for its ports and queues, then add it, its links and its hosts
+	 */
+	@Override
+	public void switchActivated(final DatapathId switchId)
+	{
+		if(!isTracking())
+			return;
+
+		final IOFSwitch sw = arscheduler.switchService.getSwitch(switchId);
+		if(sw == null)
+			return;
+
+		arscheduler.threadPoolService.getScheduledExecutor().execute(new Runnable() {
+			@Override
+			public void run()
+			{
+				FloodlightTopologyBuilder builder = arscheduler.floodlightTopoBuilder;
+				ArrayList<OFPortDesc> ports = builder.createUsablePorts(sw);
+				HashMap<Integer, ArrayList<FlowQueue>> queues = builder.createPortQueueMap(builder.createQueueBandwidthMap(), sw, ports);
+				addSwitch(switchId, sw, ports, queues);
+			}
+		});
+	}
+
+	/**
+	 * Add a switch whose ports and queues have been queried
+	 * @param switchId
+	 * @param sw
+	 * @param ports
+	 * @param queues
+	 */
+	private synchronized void addSwitch(DatapathId switchId, IOFSwitch sw, ArrayList<OFPortDesc> ports,
+			HashMap<Integer, ArrayList<FlowQueue>> queues)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		HashMap<DatapathId, IOFSwitch> switchMap = new HashMap<DatapathId, IOFSwitch>(floodlightTopology.getSwitchMap());
+		HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>(floodlightTopology.getSwitchPortMap());
+		HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap =
+				new HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>>(floodlightTopology.getSwitchQueueMap());
+		IOFSwitch replaced = switchMap.put(switchId, sw);
+		if(replaced != null)
+		{
+			switchPortMap.remove(replaced);
+			switchQueueMap.remove(replaced);
+		}
+		switchPortMap.put(sw, ports);
+		switchQueueMap.put(sw, queues);
+		arscheduler.queueAllocator.setSwitchQueues(switchId.toString(), queues);
+		floodlightTopology.setSwitchPortMap(switchPortMap);
+		floodlightTopology.setSwitchQueueMap(switchQueueMap);
+		floodlightTopology.setSwitchMap(switchMap);
+
+		arscheduler.theRM.beginUpdate();
+		try
+		{
+			arscheduler.theRM.addNode(arscheduler.topoBuilder.makeSwitchNode(switchId, switchMap, switchPortMap));
+			logger.info("Switch {} added to the ARScheduler topology", switchId);
+
+			// Catch up on the links and hosts reported while the switch's queues were being queried
+			Map<DatapathId, Set<Link>> allLinks = arscheduler.topologyService.getAllLinks();
+			Set<Link> switchLinks = allLinks.get(switchId);
+			if(switchLinks != null)
+			{
+				for(Link link : switchLinks)
+				{
+					addSwitchLink(link);
+				}
+			}
+			for(IDevice device : arscheduler.deviceManagerService.getAllDevices())
+			{
+				for(SwitchPort ap : device.getAttachmentPoints())
+				{
+					if(ap.getSwitchDPID().equals(switchId))
+					{
+						refreshDevice(device);
+						break;
+					}
+				}
+			}
+		}
+		finally
+		{
+			arscheduler.theRM.endUpdate();
+		}
+	}
+
+	/**
+	 * Remove a switch and its links. Reservations through the switch are kept.
+	 */
+	@Override
+	public synchronized void switchRemoved(DatapathId switchId)
+	{
+		if(!isTracking())
+			return;
+
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		IOFSwitch sw = floodlightTopology.getSwitchMap().get(switchId);
+		if(sw != null)
+		{
+			HashMap<DatapathId, IOFSwitch> switchMap = new HashMap<DatapathId, IOFSwitch>(floodlightTopology.getSwitchMap());
+			HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>(floodlightTopology.getSwitchPortMap());
+			HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap =
+					new HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>>(floodlightTopology.getSwitchQueueMap());
+			switchMap.remove(switchId);
+			switchPortMap.remove(sw);
+			switchQueueMap.remove(sw);
+			floodlightTopology.setSwitchMap(switchMap);
+			floodlightTopology.setSwitchPortMap(switchPortMap);
+			floodlightTopology.setSwitchQueueMap(switchQueueMap);
+		}
+
+		ArrayList<Link> links = new ArrayList<Link>(floodlightTopology.getLinks());
+		for(Iterator<Link> it = links.iterator(); it.hasNext();)
+		{
+			Link link = it.next();
+			if(link.getSrc().equals(switchId) || link.getDst().equals(switchId))
+				it.remove();
+		}
+		floodlightTopology.setLinks(links);
+
+		if(arscheduler.theRM.removeNode(switchId.toString()))
+			logger.info("Switch {} removed from the ARScheduler topology", switchId);
+	}
+
+	/**
+	 * Refresh a switch's usable ports, querying the queues of a port that has just come up
+	 */
+	@Override
+	public void switchPortChanged(final DatapathId switchId, final OFPortDesc port, PortChangeType type)
+	{
+		if(!isTracking())
+			return;
+
+		final IOFSwitch sw = arscheduler.floodlightTopology.getSwitchMap().get(switchId);
+		if(sw == null)
+			return;
+
+		refreshPorts(sw);
+		if((type == PortChangeType.ADD || type == PortChangeType.UP) && port.getCurrSpeed() > 0)
+		{
+			HashMap<Integer, ArrayList<FlowQueue>> portQueueMap = arscheduler.floodlightTopology.getSwitchQueueMap().get(sw);
+			if(portQueueMap != null && portQueueMap.containsKey(port.getPortNo().getPortNumber()))
+				return;
+
+			arscheduler.threadPoolService.getScheduledExecutor().execute(new Runnable() {
+				@Override
+				public void run()
+				{
+					FloodlightTopologyBuilder builder = arscheduler.floodlightTopoBuilder;
+					ArrayList<FlowQueue> queues = builder.createPortQueues(builder.createQueueBandwidthMap(), sw, port);
+					if(queues != null)
+						addPortQueues(sw, port.getPortNo().getPortNumber(), queues);
+				}
+			});
+		}
+	}
+
+	private synchronized void refreshPorts(IOFSwitch sw)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		HashMap<IOFSwitch, ArrayList<OFPortDesc>> switchPortMap = new HashMap<IOFSwitch, ArrayList<OFPortDesc>>(floodlightTopology.getSwitchPortMap());
+		switchPortMap.put(sw, arscheduler.floodlightTopoBuilder.createUsablePorts(sw));
+		floodlightTopology.setSwitchPortMap(switchPortMap);
+	}
+
+	/**
+	 * Record the queues of one port of a tracked switch
+	 * @param sw
+	 * @param portNum
+	 * @param queues
+	 */
+	synchronized void addPortQueues(IOFSwitch sw, int portNum, ArrayList<FlowQueue> queues)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		if(floodlightTopology == null)
+			return;
+		HashMap<Integer, ArrayList<FlowQueue>> current = floodlightTopology.getSwitchQueueMap().get(sw);
+		if(current == null)
+			return;
+		HashMap<Integer, ArrayList<FlowQueue>> portQueueMap = new HashMap<Integer, ArrayList<FlowQueue>>(current);
+		portQueueMap.put(portNum, queues);
+		HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>> switchQueueMap =
+				new HashMap<IOFSwitch, HashMap<Integer, ArrayList<FlowQueue>>>(floodlightTopology.getSwitchQueueMap());
+		switchQueueMap.put(sw, portQueueMap);
+		floodlightTopology.setSwitchQueueMap(switchQueueMap);
+		arscheduler.queueAllocator.setPortQueues(sw.getId().toString(), portNum, queues);
+	}
+
+	@Override
+	public void switchChanged(DatapathId switchId)
+	{
+		// Nothing the ARScheduler tracks changes
+	}
+
+	/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *   Hosts
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 */
+
+	@Override
+	public synchronized void deviceAdded(IDevice device)
+	{
+		if(isTracking())
+			refreshDevice(device);
+	}
+
+	@Override
+	public synchronized void deviceRemoved(IDevice device)
+	{
+		if(!isTracking())
+			return;
+		removeDevice(device);
+		arscheduler.theRM.removeNode(device.getMACAddressString());
+	}
+
+	@Override
+	public synchronized void deviceMoved(IDevice device)
+	{
+		if(isTracking())
+			refreshDevice(device);
+	}
+
+	@Override
+	public void deviceIPV4AddrChanged(IDevice device)
+	{
+		// Hosts are tracked by MAC address
+	}
+
+	@Override
+	public void deviceIPV6AddrChanged(IDevice device)
+	{
+		// Hosts are tracked by MAC address
+	}
+
+	@Override
+	public void deviceVlanChanged(IDevice device)
+	{
+		// Hosts are tracked by MAC address
+	}
+
+	/**
+	 * Re-attach a host at its current attachment points. The host's old links are detached first,
+	 * keeping the reservations made on them. The graph is rebuilt once for the whole refresh.
+	 * @param device
+	 */
+	private void refreshDevice(IDevice device)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		String name = device.getMACAddressString();
+		removeDevice(device);
+
+		boolean attached = false;
+		arscheduler.theRM.beginUpdate();
+		try
+		{
+			arscheduler.theRM.removeNode(name);
+			for(SwitchPort ap : device.getAttachmentPoints())
+			{
+				IOFSwitch sw = floodlightTopology.getSwitchMap().get(ap.getSwitchDPID());
+				if(ap.getPort().getPortNumber() <= 0 || sw == null || !floodlightTopology.getSwitchPortMap().containsKey(sw))
+					continue;
+				Node switchNode = arscheduler.theRM.getTopology().getNodeByName(ap.getSwitchDPID().toString());
+				if(switchNode == null || switchNode.getPortByID(ap.getPort().getPortNumber()) == null)
+					continue;
+
+				arscheduler.theRM.addNode(new Host(name, 1));
+				ArrayList<FlowLink> hostSwitchLinks = arscheduler.topoBuilder.makeHostSwitchLinkPair(arscheduler.theRM.getTopology(),
+						device, ap, floodlightTopology.getSwitchMap(), floodlightTopology.getSwitchPortMap());
+				arscheduler.theRM.addLink(hostSwitchLinks.get(0));
+				arscheduler.theRM.addLink(hostSwitchLinks.get(1));
+				attached = true;
+			}
+		}
+		finally
+		{
+			arscheduler.theRM.endUpdate();
+		}
+
+		if(attached)
+		{
+			ArrayList<IDevice> devices = new ArrayList<IDevice>(floodlightTopology.getDevices());
+			devices.add(device);
+			floodlightTopology.setDevices(devices);
+			logger.debug("Host {} attached", name);
+		}
+	}
+
+	/**
+	 * Drop a device from the Floodlight view
+	 * @param device
+	 */
+	private void removeDevice(IDevice device)
+	{
+		FloodlightTopology floodlightTopology = arscheduler.floodlightTopology;
+		ArrayList<IDevice> devices = new ArrayList<IDevice>(floodlightTopology.getDevices());
+		for(Iterator<IDevice> it = devices.iterator(); it.hasNext();)
+		{
+			if(it.next().getMACAddressString().equals(device.getMACAddressString()))
+				it.remove();
+		}
+		floodlightTopology.setDevices(devices);
+	}
+
+	/* ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 *   IListener
+	 * ~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~~
+	 */
+
+	@Override
+	public String getName()
+	{
+		return arscheduler.getName();
+	}
+
+	@Override
+	public boolean isCallbackOrderingPrereq(String type, String name)
+	{
+		return false;
+	}
+
+	@Override
+	public boolean isCallbackOrderingPostreq(String type, String name)
+	{
+		return false;
+	}
+}
@@ -0,0 +1,67 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.Map;
+
+import net.floodlightcontroller.debugcounter.DebugCounterServiceImpl;
+
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class ARSchedulerMetricsTest {
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testLatenciesFallInTheirBuckets() {
+		ARSchedulerMetrics metrics = new ARSchedulerMetrics(new DebugCounterServiceImpl());
+		metrics.record(ARSchedulerMetrics.Phase.PATH_SEARCH, 5000);
+		metrics.record(ARSchedulerMetrics.Phase.PATH_SEARCH, 7000);
+		metrics.record(ARSchedulerMetrics.Phase.PATH_SEARCH, 2000000000L);
+
+		Map<String, Object> search = (Map<String, Object>) ((Map<String, Object>) metrics.getStatistics().get("latency")).get("path-search");
+		assertEquals(3L, search.get("count"));
+		Map<String, Long> buckets = (Map<String, Long>) search.get("buckets");
+		assertEquals(2L, (long) buckets.get("le-10us"));
+		assertEquals(1L, (long) buckets.get("gt-1s"));
+		assertEquals(10L, search.get("p50MicrosAtMost"));
+		assertEquals(-1L, search.get("p99MicrosAtMost"));
+	}
+
+	@Test
+	public void testPercentileBound() {
+		assertEquals(0, ARSchedulerMetrics.percentileBound(new long[] { 0, 0, 0 }, 0.5));
+		assertEquals(10, ARSchedulerMetrics.percentileBound(new long[] { 99, 1, 0 }, 0.99));
+		assertEquals(100, ARSchedulerMetrics.percentileBound(new long[] { 98, 2, 0 }, 0.99));
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testRejectionsAreCountedByReason() {
+		Topology topology = TopologyTestUtils.singleSwitch(10);
+		Node hostA = topology.getNodeByName(TopologyTestUtils.HOST_A);
+		Node hostB = topology.getNodeByName(TopologyTestUtils.HOST_B);
+
+		ARSchedulerMetrics metrics = new ARSchedulerMetrics(new DebugCounterServiceImpl());
+		ResourceManager rm = new ResourceManager(LoggerFactory.getLogger(ARSchedulerMetricsTest.class));
+		rm.setMetrics(metrics);
+		rm.intializeState(topology);
+		FlowScheduler scheduler = new FlowScheduler(rm, LoggerFactory.getLogger(ARSchedulerMetricsTest.class));
+		scheduler.setMetrics(metrics);
+
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 11, 0, 60, "10.0.0.1", "10.0.0.2")));
+		metrics.reject(ARSchedulerMetrics.Rejection.OUTSIDE_HORIZON);
+
+		Map<String, Object> statistics = metrics.getStatistics();
+		Map<String, Object> admission = (Map<String, Object>) statistics.get("admission");
+		assertEquals(2L, admission.get("rejected"));
+		Map<String, Long> reasons = (Map<String, Long>) admission.get("rejectedBy");
+		assertEquals(1L, (long) reasons.get("no-path"));
+		assertEquals(1L, (long) reasons.get("outside-horizon"));
+		assertEquals(0L, (long) reasons.get("contention"));
+
+		Map<String, Object> latency = (Map<String, Object>) statistics.get("latency");
+		assertEquals(1L, ((Map<String, Object>) latency.get("graph-build")).get("count"));
+		assertEquals(1L, ((Map<String, Object>) latency.get("path-search")).get("count"));
+	}
+}
@@ -0,0 +1,61 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+
+import org.junit.Test;
+
+public class ARSchedulerResourceTest {
+
+	@Test
+	public void testInstantWithOffset() {
+		assertEquals(1462137300000L, ARSchedulerResource.getTimeMillis("2016-05-01T21:15:00Z", Long.MIN_VALUE));
+		assertEquals(1462137300000L, ARSchedulerResource.getTimeMillis("2016-05-01T23:15+02:00", Long.MIN_VALUE));
+		assertEquals(1462137300250L, ARSchedulerResource.getTimeMillis("2016-05-01T21:15:00.250Z", Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testLocalDateTime() {
+		Calendar expected = new GregorianCalendar(2016, Calendar.MAY, 1, 21, 15, 0);
+		assertEquals(expected.getTimeInMillis(), ARSchedulerResource.getTimeMillis("2016-05-01T21:15:00", Long.MIN_VALUE));
+		assertEquals(expected.getTimeInMillis(), ARSchedulerResource.getTimeMillis("2016-05-01T21:15", Long.MIN_VALUE));
+	}
+
+	@Test
+	public void testTimeOfDayWindowAcrossMidnight() {
+		long start = ARSchedulerResource.getTimeMillis("23:30", Long.MIN_VALUE);
+		Calendar today = Calendar.getInstance();
+		Calendar startTime = Calendar.getInstance();
+		startTime.setTimeInMillis(start);
+		assertEquals(today.get(Calendar.DAY_OF_YEAR), startTime.get(Calendar.DAY_OF_YEAR));
+		assertEquals(23, startTime.get(Calendar.HOUR_OF_DAY));
+		assertEquals(30, startTime.get(Calendar.MINUTE));
+
+		// The end time is earlier in the day than the start, so it falls on the next day
+		long end = ARSchedulerResource.getTimeMillis("00:30", start);
+		assertTrue(end > start);
+		Calendar endTime = Calendar.getInstance();
+		endTime.setTimeInMillis(end);
+		startTime.add(Calendar.DAY_OF_MONTH, 1);
+		assertEquals(startTime.get(Calendar.DAY_OF_YEAR), endTime.get(Calendar.DAY_OF_YEAR));
+		assertEquals(0, endTime.get(Calendar.HOUR_OF_DAY));
+		assertEquals(30, endTime.get(Calendar.MINUTE));
+
+		// An end time later in the day stays on the start's day
+		long sameDay = ARSchedulerResource.getTimeMillis("23:45", start);
+		assertEquals(start + 15 * 60 * 1000, sameDay);
+	}
+
+	@Test
+	public void testMalformedTimes() {
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("24:00", Long.MIN_VALUE));
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("12:60", Long.MIN_VALUE));
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("ab:cd", Long.MIN_VALUE));
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("12:30:15", Long.MIN_VALUE));
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("2016-13-01T21:15:00Z", Long.MIN_VALUE));
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("2016-05-01T21:15:00Zjunk", Long.MIN_VALUE));
+		assertEquals(-1, ARSchedulerResource.getTimeMillis("", Long.MIN_VALUE));
+	}
+}
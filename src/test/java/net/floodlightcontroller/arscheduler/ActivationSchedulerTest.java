@@ -0,0 +1,147 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import io.netty.util.HashedWheelTimer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+
+public class ActivationSchedulerTest {
+	private HashedWheelTimer timer;
+	private RecordingScheduler coordinator;
+	private ActivationScheduler activations;
+	private Node hostA;
+	private Node hostB;
+
+	/**
+	 * Records the Flows it is asked to activate or expire instead of provisioning them
+	 */
+	private static class RecordingScheduler extends ARScheduler {
+		final List<Long> activated = Collections.synchronizedList(new ArrayList<Long>());
+		final List<Long> expired = Collections.synchronizedList(new ArrayList<Long>());
+		final Semaphore fired = new Semaphore(0);
+
+		@Override
+		protected ListenableFuture<?> activateFlow(Flow flow) {
+			activated.add(flow.getID());
+			fired.release();
+			return Futures.immediateFuture(null);
+		}
+
+		@Override
+		protected void expireFlow(Flow flow) {
+			expired.add(flow.getID());
+			fired.release();
+		}
+
+		void awaitFired(int count) throws InterruptedException {
+			assertTrue(fired.tryAcquire(count, 5, TimeUnit.SECONDS));
+		}
+	}
+
+	@Before
+	public void setUp() {
+		timer = new HashedWheelTimer(5, TimeUnit.MILLISECONDS);
+		coordinator = new RecordingScheduler();
+		activations = new ActivationScheduler(coordinator, timer, MoreExecutors.sameThreadExecutor(),
+				LoggerFactory.getLogger(ActivationSchedulerTest.class));
+		Topology topology = TopologyTestUtils.singleSwitch(10);
+		hostA = topology.getNodeByName(TopologyTestUtils.HOST_A);
+		hostB = topology.getNodeByName(TopologyTestUtils.HOST_B);
+	}
+
+	@After
+	public void tearDown() {
+		timer.stop();
+	}
+
+	private Flow newFlow() {
+		return new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2");
+	}
+
+	@Test
+	public void testActivationFiresOnce() throws InterruptedException {
+		Flow flow = newFlow();
+		activations.scheduleActivation(flow, 20);
+		assertTrue(activations.isPending(flow.getID()));
+		assertEquals(1, activations.getPendingActivationCount());
+
+		coordinator.awaitFired(1);
+		assertEquals(Collections.singletonList(flow.getID()), coordinator.activated);
+		assertFalse(activations.isPending(flow.getID()));
+		assertEquals(0, activations.getPendingActivationCount());
+		// Nothing is left to cancel once the activation has fired
+		assertFalse(activations.cancelActivation(flow.getID()));
+	}
+
+	@Test
+	public void testCancelledActivationNeverFires() throws InterruptedException {
+		Flow cancelled = newFlow();
+		Flow later = newFlow();
+		activations.scheduleActivation(cancelled, 20);
+		assertTrue(activations.cancelActivation(cancelled.getID()));
+		assertFalse(activations.cancelActivation(cancelled.getID()));
+		assertFalse(activations.isPending(cancelled.getID()));
+
+		// Once a later activation has fired, the cancelled one would have fired too
+		activations.scheduleActivation(later, 150);
+		coordinator.awaitFired(1);
+		assertEquals(Collections.singletonList(later.getID()), coordinator.activated);
+	}
+
+	@Test
+	public void testRescheduleReplacesTheTimeout() throws InterruptedException {
+		Flow moved = newFlow();
+		Flow between = newFlow();
+		assertFalse(activations.rescheduleActivation(moved, 20));
+		assertFalse(activations.isPending(moved.getID()));
+
+		activations.scheduleActivation(moved, 20);
+		assertTrue(activations.rescheduleActivation(moved, 300));
+		assertEquals(1, activations.getPendingActivationCount());
+		activations.scheduleActivation(between, 150);
+
+		// The first timeout of the moved Flow was replaced, so only the Flow in between has fired
+		coordinator.awaitFired(1);
+		assertEquals(Collections.singletonList(between.getID()), coordinator.activated);
+		assertTrue(activations.isPending(moved.getID()));
+
+		coordinator.awaitFired(1);
+		assertEquals(2, coordinator.activated.size());
+		assertEquals(Long.valueOf(moved.getID()), coordinator.activated.get(1));
+		assertFalse(activations.isPending(moved.getID()));
+	}
+
+	@Test
+	public void testExpiryReplacedAndCancelled() throws InterruptedException {
+		Flow replaced = newFlow();
+		Flow cancelled = newFlow();
+		activations.scheduleExpiry(replaced, 20);
+		activations.scheduleExpiry(replaced, 150);
+		activations.scheduleExpiry(cancelled, 20);
+		assertTrue(activations.cancelExpiry(cancelled.getID()));
+		assertFalse(activations.cancelExpiry(cancelled.getID()));
+
+		coordinator.awaitFired(1);
+		assertEquals(Collections.singletonList(replaced.getID()), coordinator.expired);
+		assertTrue(coordinator.activated.isEmpty());
+		assertFalse(activations.cancelExpiry(replaced.getID()));
+
+		// Nothing else fires afterwards
+		assertFalse(coordinator.fired.tryAcquire(100, TimeUnit.MILLISECONDS));
+		assertEquals(1, coordinator.expired.size());
+	}
+}
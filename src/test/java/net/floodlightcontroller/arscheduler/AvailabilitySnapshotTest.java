@@ -0,0 +1,55 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class AvailabilitySnapshotTest {
+	private Logger logger = LoggerFactory.getLogger(AvailabilitySnapshotTest.class);
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+	private Node hostA;
+	private Node hostB;
+
+	/**
+	 * hostA - s1 - hostB, every link with capacity 10
+	 */
+	@Before
+	public void setUp() {
+		Topology topology = TopologyTestUtils.singleSwitch(10);
+		hostA = topology.getNodeByName(TopologyTestUtils.HOST_A);
+		hostB = topology.getNodeByName(TopologyTestUtils.HOST_B);
+		rm = new ResourceManager(logger);
+		rm.intializeState(topology);
+		scheduler = new FlowScheduler(rm, logger);
+	}
+
+	@Test
+	public void testDryRunBooksNothing() {
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 6, 0, 60, "10.0.0.1", "10.0.0.2")));
+		AvailabilitySnapshot snapshot = rm.getAvailabilitySnapshot();
+
+		Topology path = snapshot.findPath(hostA, hostB, 4, 30, 90);
+		assertEquals(3, path.getNodes().size());
+		assertEquals(4, snapshot.getAvailableBandwidth(path.getLinks(), 30, 90));
+		assertTrue(snapshot.findPath(hostA, hostB, 5, 30, 90).isEmpty());
+		assertEquals(1, rm.getFlowTable().getAllFlowRouteTuples().size());
+		assertSame(snapshot, rm.getAvailabilitySnapshot());
+	}
+
+	@Test
+	public void testSnapshotKeepsItsBookings() {
+		AvailabilitySnapshot snapshot = rm.getAvailabilitySnapshot();
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 8, 0, 60, "10.0.0.1", "10.0.0.2")));
+
+		// The old snapshot still sees the links empty; a new one sees the booking
+		assertFalse(snapshot.findPath(hostA, hostB, 10, 0, 60).isEmpty());
+		AvailabilitySnapshot current = rm.getAvailabilitySnapshot();
+		assertNotSame(snapshot, current);
+		assertTrue(current.findPath(hostA, hostB, 3, 0, 60).isEmpty());
+		assertFalse(current.findPath(hostA, hostB, 10, 60, 120).isEmpty());
+	}
+}
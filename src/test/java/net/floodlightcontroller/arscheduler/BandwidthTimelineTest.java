@@ -0,0 +1,128 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+
+import org.junit.Test;
+
+public class BandwidthTimelineTest {
+
+	@Test
+	public void testEmptyTimeline() {
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		assertTrue(timeline.isEmpty());
+		assertEquals(0, timeline.getPeakConsumption(0, 100));
+	}
+
+	@Test
+	public void testHalfOpenWindows() {
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		timeline.addReservation(5, 100, 200);
+		timeline.addReservation(3, 200, 300);
+
+		assertEquals(5, timeline.getPeakConsumption(100, 200));
+		assertEquals(3, timeline.getPeakConsumption(200, 300));
+		assertEquals(5, timeline.getPeakConsumption(0, 300));
+		assertEquals(0, timeline.getPeakConsumption(0, 100));
+		assertEquals(0, timeline.getPeakConsumption(300, 400));
+	}
+
+	@Test
+	public void testOverlapsSum() {
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		timeline.addReservation(2, 0, 100);
+		timeline.addReservation(4, 50, 150);
+		timeline.addReservation(1, 120, 130);
+
+		assertEquals(6, timeline.getPeakConsumption(0, 200));
+		assertEquals(5, timeline.getPeakConsumption(100, 200));
+		assertEquals(4, timeline.getConsumptionAt(110));
+	}
+
+	@Test
+	public void testRemoveRestoresState() {
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		timeline.addReservation(7, 10, 20);
+		timeline.addReservation(7, 10, 20);
+		timeline.removeReservation(7, 10, 20);
+		assertEquals(7, timeline.getPeakConsumption(0, 30));
+		timeline.removeReservation(7, 10, 20);
+		assertTrue(timeline.isEmpty());
+		assertEquals(0, timeline.size());
+	}
+
+	@Test
+	public void testPruneBeforeKeepsFuture() {
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		timeline.addReservation(2, 0, 10);
+		timeline.addReservation(3, 5, 50);
+		timeline.addReservation(4, 20, 30);
+
+		// Only the running reservation's start is folded into the cut
+		assertEquals(2, timeline.pruneBefore(15));
+		assertEquals(3, timeline.getConsumptionAt(15));
+		assertEquals(7, timeline.getPeakConsumption(15, 100));
+		assertEquals(0, timeline.getPeakConsumption(50, 100));
+
+		// Releasing the running reservation with its original window still empties the timeline
+		timeline.removeReservation(4, 20, 30);
+		timeline.removeReservation(3, 5, 50);
+		assertEquals(0, timeline.getPeakConsumption(15, 100));
+		timeline.pruneBefore(15);
+		assertTrue(timeline.isEmpty());
+	}
+
+	@Test
+	public void testSnapshotIsUnaffectedByLaterChanges() {
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		for (int i = 0; i < 50; i++)
+			timeline.addReservation(1, i * 10, i * 10 + 25);
+		BandwidthTimeline snapshot = timeline.snapshot();
+		long before = snapshot.getPeakConsumption(0, 600);
+
+		for (int i = 0; i < 50; i++)
+			timeline.addReservation(2, i * 7, i * 7 + 3);
+		timeline.removeReservation(1, 100, 125);
+		timeline.pruneBefore(200);
+
+		assertEquals(before, snapshot.getPeakConsumption(0, 600));
+		assertEquals(2, snapshot.getConsumptionAt(105));
+		assertEquals(100, snapshot.size());
+		assertEquals(0, timeline.getConsumptionAt(105));
+		assertEquals(2, timeline.getConsumptionAt(485));
+	}
+
+	@Test
+	public void testMatchesBruteForce() {
+		Random random = new Random(42);
+		BandwidthTimeline timeline = new BandwidthTimeline();
+		ArrayList<long[]> uses = new ArrayList<long[]>();
+
+		for (int round = 0; round < 2000; round++) {
+			if (!uses.isEmpty() && random.nextInt(3) == 0) {
+				long[] use = uses.remove(random.nextInt(uses.size()));
+				timeline.removeReservation(use[0], use[1], use[2]);
+			} else {
+				long start = random.nextInt(1000);
+				long[] use = new long[] { 1 + random.nextInt(10), start, start + 1 + random.nextInt(100) };
+				uses.add(use);
+				timeline.addReservation(use[0], use[1], use[2]);
+			}
+
+			long qStart = random.nextInt(1100);
+			long qEnd = qStart + 1 + random.nextInt(200);
+			long expected = 0;
+			for (long t = qStart; t < qEnd; t++) {
+				long consumed = 0;
+				for (long[] use : uses) {
+					if (use[1] <= t && t < use[2])
+						consumed += use[0];
+				}
+				expected = Math.max(expected, consumed);
+			}
+			assertEquals(expected, timeline.getPeakConsumption(qStart, qEnd));
+		}
+	}
+}
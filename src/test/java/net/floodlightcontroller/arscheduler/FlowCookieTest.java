@@ -0,0 +1,41 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import net.floodlightcontroller.core.util.AppCookie;
+
+import org.junit.Test;
+import org.projectfloodlight.openflow.types.U64;
+
+public class FlowCookieTest {
+
+	@Test
+	public void testRoundTrip() {
+		long[] flowIDs = {1, 42, Flow.LOCAL_ID_MASK, (3L << Flow.NODE_ID_SHIFT) | 42,
+				(((1L << Flow.NODE_ID_BITS) - 1) << Flow.NODE_ID_SHIFT) | Flow.LOCAL_ID_MASK};
+		for(long flowID : flowIDs)
+		{
+			U64 cookie = FlowCookie.makeCookie(flowID);
+			assertTrue(FlowCookie.isARSchedulerCookie(cookie));
+			assertEquals(flowID, FlowCookie.getFlowID(cookie));
+			// The node ID must stay clear of the bits AppCookie keeps for field rewrites
+			assertFalse(AppCookie.isRewriteFlagSet(cookie));
+		}
+	}
+
+	@Test
+	public void testSameLocalIDOnDifferentNodes() {
+		U64 first = FlowCookie.makeCookie((1L << Flow.NODE_ID_SHIFT) | 7);
+		U64 second = FlowCookie.makeCookie((2L << Flow.NODE_ID_SHIFT) | 7);
+		assertFalse(first.equals(second));
+		assertEquals(AppCookie.extractUser(first), AppCookie.extractUser(second));
+	}
+
+	@Test
+	public void testOtherApplicationsRejected() {
+		AppCookie.registerApp(2, "Forwarding");
+		assertFalse(FlowCookie.isARSchedulerCookie(AppCookie.makeCookie(2, 42)));
+		assertFalse(FlowCookie.isARSchedulerCookie(U64.of(0)));
+		assertFalse(FlowCookie.isARSchedulerCookie(U64.of(-1L)));
+	}
+}
@@ -0,0 +1,233 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class FlowSchedulerTest {
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+	private Node hostA;
+	private Node hostB;
+	private FlowLink forward;
+	private FlowLink reverse;
+
+	/**
+	 * Two hosts joined by one switch, every link with capacity 10: hostA - s1 - hostB
+	 */
+	@Before
+	public void setUp() {
+		Topology topology = TopologyTestUtils.singleSwitch(10);
+		hostA = topology.getNodeByName(TopologyTestUtils.HOST_A);
+		hostB = topology.getNodeByName(TopologyTestUtils.HOST_B);
+		forward = topology.getLinks().get(0);
+		reverse = topology.getLinks().get(1);
+
+		rm = new ResourceManager(LoggerFactory.getLogger(FlowSchedulerTest.class));
+		rm.intializeState(topology);
+		scheduler = new FlowScheduler(rm, LoggerFactory.getLogger(FlowSchedulerTest.class));
+	}
+
+	@Test
+	public void testReservePathIsAllOrNothing() {
+		ArrayList<FlowLink> path = new ArrayList<FlowLink>();
+		path.add(forward);
+		path.add(reverse);
+		reverse.decreaseBandwidthAvailable(8, 0, 60);
+
+		assertFalse(rm.reservePath(path, 5, 0, 60));
+		assertEquals(10, forward.getBandwidthAvailableBetweenTimes(0, 60));
+		assertTrue(rm.reservePath(path, 2, 0, 60));
+		assertEquals(8, forward.getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(0, reverse.getBandwidthAvailableBetweenTimes(0, 60));
+	}
+
+	@Test
+	public void testConcurrentAdmissionsNeverOverbook() throws InterruptedException {
+		final int threads = 8;
+		final int requestsPerThread = 5;
+		final AtomicInteger admitted = new AtomicInteger();
+		final CountDownLatch start = new CountDownLatch(1);
+		ArrayList<Thread> workers = new ArrayList<Thread>();
+
+		for (int t = 0; t < threads; t++) {
+			Thread worker = new Thread(new Runnable() {
+				@Override
+				public void run() {
+					try {
+						start.await();
+					} catch (InterruptedException e) {
+						return;
+					}
+					for (int i = 0; i < requestsPerThread; i++) {
+						Flow flow = new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2");
+						if (scheduler.scheduleNewFlow(flow) != null)
+							admitted.incrementAndGet();
+					}
+				}
+			});
+			workers.add(worker);
+			worker.start();
+		}
+		start.countDown();
+		for (Thread worker : workers) {
+			worker.join();
+		}
+
+		assertEquals(10, admitted.get());
+		assertEquals(10, rm.getFlowTable().size());
+		assertEquals(0, forward.getBandwidthAvailableBetweenTimes(0, 60));
+
+		for (FlowRouteTuple tuple : rm.getFlowTable().getAllFlowRouteTuples()) {
+			assertTrue(scheduler.releaseExpiredFlow(tuple));
+			scheduler.releaseExpiredFlow(tuple);
+		}
+		assertTrue(rm.getFlowTable().isEmpty());
+		assertEquals(10, forward.getBandwidthAvailableBetweenTimes(0, 60));
+	}
+
+	@Test
+	public void testEarliestStartSkipsToReleaseTimes() {
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 8, 0, 60, "10.0.0.1", "10.0.0.2")));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 60, 120, "10.0.0.1", "10.0.0.2")));
+
+		assertEquals(0, scheduler.findEarliestStart(hostA, hostB, 2, 30, 0, 300));
+		assertEquals(60, scheduler.findEarliestStart(hostA, hostB, 5, 30, 0, 300));
+		assertEquals(120, scheduler.findEarliestStart(hostA, hostB, 6, 30, 0, 300));
+		assertEquals(-1, scheduler.findEarliestStart(hostA, hostB, 6, 30, 0, 140));
+		assertEquals(-1, scheduler.findEarliestStart(hostA, hostB, 11, 30, 0, 300));
+	}
+
+	@Test
+	public void testSplitAcrossDisjointPaths() {
+		final long gbps = FlowScheduler.BANDWIDTH_UNIT;
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		Host a = new Host("00:00:00:00:00:0a", 2);
+		Host b = new Host("00:00:00:00:00:0b", 2);
+		Switch s1 = new Switch("00:00:00:00:00:00:00:0a", 2);
+		Switch s2 = new Switch("00:00:00:00:00:00:00:0b", 2);
+		nodes.add(a);
+		nodes.add(b);
+		nodes.add(s1);
+		nodes.add(s2);
+		TopologyTestUtils.addLinkPair(links, a, 1, s1, 1, 6 * gbps);
+		TopologyTestUtils.addLinkPair(links, s1, 2, b, 1, 6 * gbps);
+		TopologyTestUtils.addLinkPair(links, a, 2, s2, 1, 4 * gbps);
+		TopologyTestUtils.addLinkPair(links, s2, 2, b, 2, 4 * gbps);
+		rm.intializeState(new Topology(nodes, links));
+
+		assertNull(scheduler.scheduleNewFlow(new Flow(a, b, 10 * gbps, 0, 60, "10.0.0.1", "10.0.0.2")));
+		assertEquals(-1, scheduler.findEarliestStart(a, b, 10 * gbps, 60, 0, 300));
+		scheduler.setMaxPathsPerFlow(2);
+		assertEquals(0, scheduler.findEarliestStart(a, b, 10 * gbps, 60, 0, 300));
+		assertNull(scheduler.scheduleNewFlow(new Flow(a, b, 11 * gbps, 0, 60, "10.0.0.1", "10.0.0.2")));
+		for (FlowLink link : links)
+			assertEquals(link.getBandwidthCapacity(), link.getBandwidthAvailableBetweenTimes(0, 60));
+
+		Flow flow = scheduler.scheduleNewFlow(new Flow(a, b, 10 * gbps, 0, 60, "10.0.0.1", "10.0.0.2"));
+		assertNotNull(flow);
+		FlowRouteTuple tuple = rm.getFlowFromRM(flow);
+		assertTrue(tuple.isMultipath());
+		long total = 0;
+		for (PathAllocation allocation : tuple.getPathAllocations())
+			total += allocation.getBandwidth();
+		assertEquals(10 * gbps, total);
+		for (FlowLink link : links)
+			assertEquals(0, link.getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(60, scheduler.findEarliestStart(a, b, 7 * gbps, 60, 0, 300));
+
+		assertTrue(scheduler.releaseExpiredFlow(tuple));
+		for (FlowLink link : links)
+			assertEquals(link.getBandwidthCapacity(), link.getBandwidthAvailableBetweenTimes(0, 60));
+	}
+
+	@Test
+	public void testModifyKeepsOldReservationWhenItDoesNotFit() {
+		Flow flow = scheduler.scheduleNewFlow(new Flow(hostA, hostB, 6, 0, 60, "10.0.0.1", "10.0.0.2"));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 4, 60, 120, "10.0.0.1", "10.0.0.2")));
+		FlowRouteTuple tuple = rm.getFlowFromRM(flow);
+
+		// The Flow grows into the bandwidth it already holds
+		Flow wider = new Flow(flow.getID(), hostA, hostB, 10, 0, 60, "10.0.0.1", "10.0.0.2");
+		FlowRouteTuple widened = scheduler.modifyReservation(tuple, wider);
+		assertNotNull(widened);
+		assertSame(widened, rm.getFlowTable().matchFlow(flow.getID()));
+		assertEquals(0, forward.getBandwidthAvailableBetweenTimes(0, 60));
+
+		// Running into the next Flow's period fails and leaves everything as it was
+		Flow longer = new Flow(flow.getID(), hostA, hostB, 10, 0, 90, "10.0.0.1", "10.0.0.2");
+		assertNull(scheduler.modifyReservation(widened, longer));
+		assertSame(widened, rm.getFlowTable().matchFlow(flow.getID()));
+		assertEquals(0, forward.getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(6, forward.getBandwidthAvailableBetweenTimes(60, 120));
+
+		// A stale tuple cannot be modified or cancelled
+		assertNull(scheduler.modifyReservation(tuple, longer));
+		assertFalse(scheduler.cancelReservation(tuple));
+
+		assertTrue(scheduler.cancelReservation(widened));
+		assertNull(rm.getFlowTable().matchFlow(flow.getID()));
+		assertEquals(10, forward.getBandwidthAvailableBetweenTimes(0, 60));
+	}
+
+	@Test
+	public void testRerouteOnlyWhenItFreesBandwidth() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		Host a = new Host("00:00:00:00:00:0a", 1);
+		Host b = new Host("00:00:00:00:00:0b", 1);
+		Switch s1 = new Switch("00:00:00:00:00:00:00:01", 3);
+		Switch s2 = new Switch("00:00:00:00:00:00:00:02", 2);
+		Switch s3 = new Switch("00:00:00:00:00:00:00:03", 2);
+		Switch s4 = new Switch("00:00:00:00:00:00:00:04", 3);
+		nodes.add(a);
+		nodes.add(b);
+		nodes.add(s1);
+		nodes.add(s2);
+		nodes.add(s3);
+		nodes.add(s4);
+		TopologyTestUtils.addLinkPair(links, a, 1, s1, 1, 10);
+		TopologyTestUtils.addLinkPair(links, s1, 2, s2, 1, 10);
+		TopologyTestUtils.addLinkPair(links, s1, 3, s3, 1, 10);
+		TopologyTestUtils.addLinkPair(links, s2, 2, s4, 2, 10);
+		TopologyTestUtils.addLinkPair(links, s3, 2, s4, 3, 10);
+		TopologyTestUtils.addLinkPair(links, s4, 1, b, 1, 10);
+		rm.intializeState(new Topology(nodes, links));
+		FlowLink access = links.get(0);
+		FlowLink viaS2 = links.get(2);
+		FlowLink viaS3 = links.get(4);
+
+		// Both Flows fit on the first shortest path, leaving one core path loaded and the other empty
+		Flow first = scheduler.scheduleNewFlow(new Flow(a, b, 4, 0, 60, "10.0.0.1", "10.0.0.2"));
+		Flow second = scheduler.scheduleNewFlow(new Flow(a, b, 4, 0, 60, "10.0.0.1", "10.0.0.2"));
+		assertNotNull(first);
+		assertNotNull(second);
+		FlowLink loaded = viaS2.getBandwidthAvailableBetweenTimes(0, 60) == 2 ? viaS2 : viaS3;
+		FlowLink empty = loaded == viaS2 ? viaS3 : viaS2;
+		assertEquals(10, empty.getBandwidthAvailableBetweenTimes(0, 60));
+
+		FlowRouteTuple tuple = rm.getFlowFromRM(second);
+		FlowRouteTuple moved = scheduler.rerouteReservation(tuple);
+		assertNotNull(moved);
+		assertSame(moved, rm.getFlowTable().matchFlow(second.getID()));
+		assertEquals(6, loaded.getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(6, empty.getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(2, access.getBandwidthAvailableBetweenTimes(0, 60));
+
+		// Moving either Flow again would only load the other core path, and a stale tuple cannot move
+		assertNull(scheduler.rerouteReservation(moved));
+		assertNull(scheduler.rerouteReservation(rm.getFlowFromRM(first)));
+		assertNull(scheduler.rerouteReservation(tuple));
+
+		assertTrue(scheduler.cancelReservation(moved));
+		assertEquals(10, empty.getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(6, loaded.getBandwidthAvailableBetweenTimes(0, 60));
+	}
+}
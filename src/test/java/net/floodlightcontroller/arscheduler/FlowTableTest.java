@@ -0,0 +1,69 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class FlowTableTest {
+	private Node hostA;
+	private Node hostB;
+	private Node switch1;
+	private FlowLink hostToSwitch;
+	private FlowLink switchToHost;
+	private FlowTable flowTable;
+
+	@Before
+	public void setUp() {
+		hostA = new Host("00:00:00:00:00:01", 1);
+		hostB = new Host("00:00:00:00:00:02", 1);
+		switch1 = new Switch("00:00:00:00:00:00:00:01", 2);
+		hostToSwitch = new FlowLink("a-s1", hostA, switch1, hostA.getPortByID(1), switch1.getPortByID(1), 10);
+		switchToHost = new FlowLink("s1-b", switch1, hostB, switch1.getPortByID(2), hostB.getPortByID(1), 10);
+		flowTable = new FlowTable();
+	}
+
+	private FlowRouteTuple makeTuple() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		nodes.add(hostA);
+		nodes.add(switch1);
+		nodes.add(hostB);
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		links.add(hostToSwitch);
+		links.add(switchToHost);
+		Flow flow = new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2");
+		return new FlowRouteTuple(flow, new Topology(nodes, links));
+	}
+
+	@Test
+	public void testIndexesByIDLinkAndSwitch() {
+		FlowRouteTuple tuple = makeTuple();
+		flowTable.addFlowRouteTupleToFlowTable(tuple);
+
+		assertSame(tuple, flowTable.matchFlow(tuple.getFlow().getID()));
+		assertSame(tuple, flowTable.findApplicableFlowRouteTuple(tuple.getFlow()));
+		assertTrue(flowTable.getFlowRouteTuplesOnLink(hostToSwitch).contains(tuple));
+		assertTrue(flowTable.getFlowRouteTuplesOnSwitch(switch1.getNodeName()).contains(tuple));
+		assertTrue(flowTable.getFlowRouteTuplesOnSwitch(hostA.getNodeName()).isEmpty());
+	}
+
+	@Test
+	public void testRemoveClearsIndexes() {
+		FlowRouteTuple first = makeTuple();
+		FlowRouteTuple second = makeTuple();
+		flowTable.addFlowRouteTupleToFlowTable(first);
+		flowTable.addFlowRouteTupleToFlowTable(second);
+
+		assertTrue(flowTable.removeFlowRouteTuple(first));
+		assertFalse(flowTable.removeFlowRouteTuple(first));
+		assertNull(flowTable.matchFlow(first.getFlow().getID()));
+		assertEquals(1, flowTable.getFlowRouteTuplesOnLink(switchToHost).size());
+		assertEquals(1, flowTable.size());
+
+		assertTrue(flowTable.removeFlowRouteTuple(second));
+		assertTrue(flowTable.isEmpty());
+		assertTrue(flowTable.getFlowRouteTuplesOnLink(switchToHost).isEmpty());
+	}
+}
@@ -0,0 +1,129 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class QueueAllocatorTest {
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+	private QueueAllocator allocator;
+	private Node hostA;
+	private Node hostB;
+	private Node s1;
+
+	/**
+	 * hostA - s1 - hostB, every link with capacity 100, and one queue of rate 5 and one of rate 10 on each port of s1
+	 */
+	@Before
+	public void setUp() {
+		Topology topology = TopologyTestUtils.singleSwitch(100);
+		hostA = topology.getNodeByName(TopologyTestUtils.HOST_A);
+		hostB = topology.getNodeByName(TopologyTestUtils.HOST_B);
+		s1 = topology.getNodeByName(TopologyTestUtils.SWITCH_1);
+
+		rm = new ResourceManager(LoggerFactory.getLogger(QueueAllocatorTest.class));
+		rm.intializeState(topology);
+		allocator = new QueueAllocator();
+		for (int port = 1; port <= 2; port++) {
+			ArrayList<FlowQueue> queues = new ArrayList<FlowQueue>();
+			queues.add(new FlowQueue(port, 1, 5));
+			queues.add(new FlowQueue(port, 2, 10));
+			allocator.setPortQueues(s1.getNodeName(), port, queues);
+		}
+		scheduler = new FlowScheduler(rm, LoggerFactory.getLogger(QueueAllocatorTest.class));
+		scheduler.setQueueAllocator(allocator);
+	}
+
+	@Test
+	public void testAdmissionBooksQueues() {
+		// No queue of rate 3, so the flow could never be provisioned
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 3, 0, 60, "10.0.0.1", "10.0.0.2")));
+		for (FlowLink link : rm.getTopology().getLinks())
+			assertEquals(100, link.getBandwidthAvailableBetweenTimes(0, 60));
+
+		Flow first = scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2"));
+		assertNotNull(first);
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 30, 90, "10.0.0.1", "10.0.0.2")));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 60, 120, "10.0.0.1", "10.0.0.2")));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 10, 30, 90, "10.0.0.1", "10.0.0.2")));
+
+		assertTrue(scheduler.releaseExpiredFlow(rm.getFlowFromRM(first)));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 30, "10.0.0.1", "10.0.0.2")));
+	}
+
+	@Test
+	public void testEarliestStartWaitsForAQueue() {
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2")));
+
+		// The links have room at once, but the only queue of rate 5 on each port is booked until 60
+		assertEquals(60, scheduler.findEarliestStart(hostA, hostB, 5, 30, 0, 300));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 60, 90, "10.0.0.1", "10.0.0.2")));
+		assertEquals(0, scheduler.findEarliestStart(hostA, hostB, 10, 30, 0, 300));
+		assertEquals(-1, scheduler.findEarliestStart(hostA, hostB, 3, 30, 0, 300));
+	}
+
+	@Test
+	public void testTransactionalBatchRollsBack() {
+		ArrayList<Flow> batch = new ArrayList<Flow>();
+		batch.add(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2"));
+		batch.add(new Flow(hostA, hostB, 10, 0, 60, "10.0.0.1", "10.0.0.2"));
+		// No queue of rate 3, so the third flow fails and the fourth is never tried
+		batch.add(new Flow(hostA, hostB, 3, 0, 60, "10.0.0.1", "10.0.0.2"));
+		batch.add(new Flow(hostA, hostB, 5, 60, 120, "10.0.0.1", "10.0.0.2"));
+
+		ArrayList<Flow> results = scheduler.scheduleNewFlows(batch, true);
+		assertEquals(4, results.size());
+		assertSame(batch.get(0), results.get(0));
+		assertFalse(results.get(0).getSuccess());
+		assertSame(batch.get(1), results.get(1));
+		assertFalse(results.get(1).getSuccess());
+		assertNull(results.get(2));
+		assertSame(batch.get(3), results.get(3));
+		assertFalse(results.get(3).getSuccess());
+
+		// Neither the bandwidth nor the queues of the first two flows are still booked
+		assertTrue(rm.getFlowTable().isEmpty());
+		for (FlowLink link : rm.getTopology().getLinks())
+			assertEquals(100, link.getBandwidthAvailableBetweenTimes(0, 120));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2")));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 10, 0, 60, "10.0.0.1", "10.0.0.2")));
+
+		// Without a transaction the flows that fit keep their reservations
+		batch.clear();
+		batch.add(new Flow(hostA, hostB, 3, 60, 120, "10.0.0.1", "10.0.0.2"));
+		batch.add(new Flow(hostA, hostB, 5, 60, 120, "10.0.0.1", "10.0.0.2"));
+		results = scheduler.scheduleNewFlows(batch, false);
+		assertNull(results.get(0));
+		assertTrue(results.get(1).getSuccess());
+		assertEquals(3, rm.getFlowTable().size());
+	}
+
+	@Test
+	public void testAllocateAndRelease() {
+		Flow first = scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2"));
+		Flow second = scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 60, 120, "10.0.0.1", "10.0.0.2"));
+		String dpid = s1.getNodeName();
+
+		FlowQueue queue = allocator.allocate(first.getID(), dpid, 2, 5);
+		assertNotNull(queue);
+		assertEquals(1, queue.getQueueID());
+		assertEquals(0, allocator.getFreeQueueCount(dpid, 2, 5));
+		assertNull(allocator.allocate(first.getID(), dpid, 2, 3));
+
+		// The first flow has ended but its FLOW_REMOVED has not arrived yet
+		assertSame(queue, allocator.allocate(second.getID(), dpid, 2, 5));
+		assertEquals(second.getID(), queue.getFlowID());
+		allocator.releaseSwitch(first.getID(), dpid);
+		assertTrue(queue.isUsed());
+		assertEquals(0, allocator.getFreeQueueCount(dpid, 2, 5));
+
+		allocator.releaseSwitch(second.getID(), dpid);
+		assertFalse(queue.isUsed());
+		assertEquals(1, allocator.getFreeQueueCount(dpid, 2, 5));
+	}
+}
@@ -0,0 +1,92 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+public class ReservationJournalTest {
+	@Rule
+	public TemporaryFolder folder = new TemporaryFolder();
+
+	private Logger logger = LoggerFactory.getLogger(ReservationJournalTest.class);
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+
+	@Before
+	public void setUp() {
+		rm = new ResourceManager(logger);
+		rm.intializeState(TopologyTestUtils.singleSwitch(10));
+		scheduler = new FlowScheduler(rm, logger);
+	}
+
+	private FlowRouteTuple admit(long bandwidth, long start, long end) {
+		Topology topology = rm.getTopology();
+		Flow flow = scheduler.scheduleNewFlow(new Flow(topology.getNodeByName(TopologyTestUtils.HOST_A),
+				topology.getNodeByName(TopologyTestUtils.HOST_B), bandwidth, start, end, "10.0.0.1", "10.0.0.2"));
+		assertNotNull(flow);
+		return rm.getFlowFromRM(flow);
+	}
+
+	@Test
+	public void testReplayRestoresLiveReservations() throws Exception {
+		ReservationJournal journal = new ReservationJournal(folder.getRoot(), 100, logger);
+		assertTrue(journal.open().isEmpty());
+		FlowRouteTuple kept = admit(6, 0, 60);
+		FlowRouteTuple released = admit(4, 0, 60);
+		journal.recordAdmit(kept);
+		journal.recordAdmit(released);
+		journal.recordRelease(released.getFlow().getID());
+		journal.close();
+
+		// After a restart the journal holds only the live reservation, which goes back on the same links
+		ArrayList<ReservationRecord> records = new ReservationJournal(folder.getRoot(), 100, logger).open();
+		assertEquals(1, records.size());
+		ResourceManager restartedRM = new ResourceManager(logger);
+		// A new topology, with no bookings, as after a restart
+		restartedRM.intializeState(TopologyTestUtils.singleSwitch(10));
+		FlowScheduler restarted = new FlowScheduler(restartedRM, logger);
+		ArrayList<Flow> restored = restarted.restoreReservations(records);
+
+		assertEquals(1, restored.size());
+		assertEquals(kept.getFlow().getID(), restored.get(0).getID());
+		for (FlowLink link : restartedRM.getTopology().getLinks())
+			assertEquals(4, link.getBandwidthAvailableBetweenTimes(0, 60));
+		assertTrue(new Flow(null, null, 1, 0, 1, "", "").getID() > kept.getFlow().getID());
+	}
+
+	@Test
+	public void testCompactionAndTornTail() throws Exception {
+		ReservationJournal journal = new ReservationJournal(folder.getRoot(), 3, logger);
+		journal.open();
+		FlowRouteTuple first = admit(1, 0, 60);
+		journal.recordAdmit(first);
+		journal.recordAdmit(admit(1, 0, 60));
+		journal.recordRelease(first.getFlow().getID());
+
+		// The third record compacted the journal into the snapshot
+		File journalFile = new File(folder.getRoot(), ReservationJournal.JOURNAL_FILE);
+		assertEquals(0, journalFile.length());
+		assertTrue(new File(folder.getRoot(), ReservationJournal.SNAPSHOT_FILE).length() > 0);
+
+		journal.recordAdmit(admit(1, 0, 60));
+		journal.close();
+		long intact = journalFile.length();
+		RandomAccessFile torn = new RandomAccessFile(journalFile, "rw");
+		torn.setLength(intact + 5);
+		torn.seek(intact);
+		torn.write(new byte[] {0, 0, 0, 40, 1});
+		torn.close();
+
+		assertEquals(2, new ReservationJournal(folder.getRoot(), 3, logger).open().size());
+		assertEquals(intact, journalFile.length());
+	}
+}
@@ -0,0 +1,147 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.sdnplatform.sync.Versioned;
+import org.sdnplatform.sync.internal.version.VectorClock;
+import org.slf4j.LoggerFactory;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class ReservationLedgerResolverTest {
+	private ReservationLedgerResolver resolver = new ReservationLedgerResolver();
+
+	@After
+	public void tearDown() {
+		Flow.setNodeID((short) 0);
+	}
+
+	private static ReplicatedReservation entry(ReplicatedReservation.State state, short owner, long admittedAt) {
+		ReplicatedReservation entry = new ReplicatedReservation();
+		entry.state = state;
+		entry.owner = owner;
+		entry.admittedAt = admittedAt;
+		entry.record = new byte[0];
+		return entry;
+	}
+
+	private List<Versioned<ReplicatedReservation>> concurrent(ReplicatedReservation fromNode1, ReplicatedReservation fromNode2) {
+		List<Versioned<ReplicatedReservation>> items = new ArrayList<Versioned<ReplicatedReservation>>();
+		items.add(new Versioned<ReplicatedReservation>(fromNode1, new VectorClock(1).incremented(1, 1)));
+		items.add(new Versioned<ReplicatedReservation>(fromNode2, new VectorClock(1).incremented(2, 1)));
+		return items;
+	}
+
+	@Test
+	public void testEndedEntryWins() {
+		ReplicatedReservation admitted = entry(ReplicatedReservation.State.ADMITTED, (short) 1, 10);
+		ReplicatedReservation released = entry(ReplicatedReservation.State.RELEASED, (short) 2, 20);
+
+		List<List<Versioned<ReplicatedReservation>>> orders = new ArrayList<List<Versioned<ReplicatedReservation>>>();
+		orders.add(concurrent(admitted, released));
+		orders.add(concurrent(released, admitted));
+		for (List<Versioned<ReplicatedReservation>> items : orders) {
+			List<Versioned<ReplicatedReservation>> resolved = resolver.resolveConflicts(items);
+			assertEquals(1, resolved.size());
+			assertSame(released, resolved.get(0).getValue());
+			// The merged clock supersedes both versions
+			VectorClock clock = (VectorClock) resolved.get(0).getVersion();
+			assertEquals(2, clock.getEntries().size());
+		}
+	}
+
+	@Test
+	public void testEarliestAdmissionWins() {
+		ReplicatedReservation early = entry(ReplicatedReservation.State.ADMITTED, (short) 2, 10);
+		ReplicatedReservation late = entry(ReplicatedReservation.State.ADMITTED, (short) 1, 20);
+		assertSame(early, resolver.resolveConflicts(concurrent(late, early)).get(0).getValue());
+
+		ReplicatedReservation tie = entry(ReplicatedReservation.State.ADMITTED, (short) 1, 10);
+		assertSame(tie, resolver.resolveConflicts(concurrent(tie, early)).get(0).getValue());
+		assertSame(tie, resolver.resolveConflicts(concurrent(early, tie)).get(0).getValue());
+	}
+
+	@Test
+	public void testEntryRoundTrip() throws Exception {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		Host hostA = new Host("00:00:00:00:00:01", 1);
+		Host hostB = new Host("00:00:00:00:00:02", 1);
+		nodes.add(hostA);
+		nodes.add(hostB);
+		TopologyTestUtils.addLinkPair(links, hostA, 1, hostB, 1, 10);
+		ResourceManager rm = new ResourceManager(LoggerFactory.getLogger(ReservationLedgerResolverTest.class));
+		rm.intializeState(new Topology(nodes, links));
+		Flow flow = new FlowScheduler(rm, LoggerFactory.getLogger(ReservationLedgerResolverTest.class))
+				.scheduleNewFlow(new Flow(hostA, hostB, 4, 0, 60, "10.0.0.1", "10.0.0.2"));
+
+		// The sync store serializes values with Jackson
+		ObjectMapper mapper = new ObjectMapper();
+		ReplicatedReservation sent = ReplicatedReservation.admitted(rm.getFlowFromRM(flow), (short) 3);
+		ReplicatedReservation received = mapper.readValue(mapper.writeValueAsBytes(sent), ReplicatedReservation.class);
+
+		assertEquals(ReplicatedReservation.State.ADMITTED, received.state);
+		assertEquals(3, received.owner);
+		assertEquals(60, received.endTime);
+		ReservationRecord record = received.toRecord();
+		assertEquals(flow.getID(), record.getFlowID());
+		assertEquals(1, record.paths.size());
+		assertEquals(4, record.paths.get(0).bandwidth);
+		assertTrue(received.withState(ReplicatedReservation.State.CANCELLED).isEnded());
+		assertFalse(received.isEnded());
+	}
+
+	@Test
+	public void testOwnersCountingFromTheSameIDKeepApart() throws Exception {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		Host hostA = new Host("00:00:00:00:00:01", 1);
+		Host hostB = new Host("00:00:00:00:00:02", 1);
+		nodes.add(hostA);
+		nodes.add(hostB);
+		TopologyTestUtils.addLinkPair(links, hostA, 1, hostB, 1, 10);
+		ResourceManager rm = new ResourceManager(LoggerFactory.getLogger(ReservationLedgerResolverTest.class));
+		rm.intializeState(new Topology(nodes, links));
+		FlowScheduler scheduler = new FlowScheduler(rm, LoggerFactory.getLogger(ReservationLedgerResolverTest.class));
+
+		Flow.setNodeID((short) 1);
+		Flow local = scheduler.scheduleNewFlow(new Flow(hostA, hostB, 4, 0, 60, "10.0.0.1", "10.0.0.2"));
+		assertEquals(1, local.getID() >>> Flow.NODE_ID_SHIFT);
+
+		// Controller 2 admits its own Flow under the same locally counted ID, on a copy of the network
+		ArrayList<Node> remoteNodes = new ArrayList<Node>();
+		ArrayList<FlowLink> remoteLinks = new ArrayList<FlowLink>();
+		Host remoteA = new Host(hostA.getNodeName(), 1);
+		Host remoteB = new Host(hostB.getNodeName(), 1);
+		remoteNodes.add(remoteA);
+		remoteNodes.add(remoteB);
+		TopologyTestUtils.addLinkPair(remoteLinks, remoteA, 1, remoteB, 1, 10);
+		ResourceManager remoteRM = new ResourceManager(LoggerFactory.getLogger(ReservationLedgerResolverTest.class));
+		remoteRM.intializeState(new Topology(remoteNodes, remoteLinks));
+		long remoteID = (2L << Flow.NODE_ID_SHIFT) | (local.getID() & Flow.LOCAL_ID_MASK);
+		Flow remote = new FlowScheduler(remoteRM, LoggerFactory.getLogger(ReservationLedgerResolverTest.class))
+				.scheduleNewFlow(new Flow(remoteID, remoteA, remoteB, 3, 0, 120, "10.0.0.3", "10.0.0.4"));
+		assertNotNull(remote);
+		assertFalse(remote.getID() == local.getID());
+
+		// Applying controller 2's entry here adds a second reservation and leaves the local one as it was
+		ReplicatedReservation entry = ReplicatedReservation.admitted(remoteRM.getFlowFromRM(remote), (short) 2);
+		assertNull(rm.getFlowTable().matchFlow(remoteID));
+		assertEquals(1, scheduler.restoreReservations(Collections.singletonList(entry.toRecord())).size());
+		assertEquals(2, rm.getFlowTable().size());
+		FlowRouteTuple kept = rm.getFlowTable().matchFlow(local.getID());
+		assertEquals(4, kept.getFlow().getBandwidth());
+		assertEquals(60, kept.getFlow().getEndTime());
+		assertEquals(3, rm.getFlowTable().matchFlow(remoteID).getFlow().getBandwidth());
+
+		// Restoring a Flow assigned by another controller does not move this controller's count
+		Flow next = new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2");
+		assertEquals(local.getID() + 1, next.getID());
+	}
+}
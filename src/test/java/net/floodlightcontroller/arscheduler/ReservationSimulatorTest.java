@@ -0,0 +1,68 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+public class ReservationSimulatorTest {
+	private static final String TOPOLOGY =
+			"# hostA - s1 - hostB\n" +
+			"switch s1 2\n" +
+			"host hostA\n" +
+			"host hostB   # second host\n" +
+			"link hostA 1 s1 1 10\n" +
+			"link s1 2 hostB 1 10\n";
+
+	@Test
+	public void testReadTopology() throws IOException {
+		Topology topology = ReservationSimulator.readTopology(new StringReader(TOPOLOGY));
+		assertEquals(3, topology.getNodes().size());
+		assertEquals(4, topology.getLinks().size());
+		assertEquals(10 * ReservationSimulator.BITS_PER_GB, topology.getLinks().get(0).getBandwidthCapacity());
+
+		try {
+			ReservationSimulator.readTopology(new StringReader("switch s1 2\nlink s1 1 s2 1 10\n"));
+			fail("A link to an unknown node should be rejected");
+		} catch (IOException e) {
+			assertTrue(e.getMessage().startsWith("Topology line 2"));
+		}
+	}
+
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testReplayAdmitsAndReleases() throws IOException {
+		String trace =
+				"0, hostA, hostB, 6, 60, 120\n" +
+				"1, hostB, hostA, 6, 90, 150\n" +        // overlaps the first on every link
+				"2, hostA, hostB, 6, 120, 180\n" +       // starts as the first ends
+				"3, hostA, hostB, 1, 60, 5000000\n";     // ends beyond a one day horizon
+		Topology topology = ReservationSimulator.readTopology(new StringReader(TOPOLOGY));
+		ArrayList<ReservationSimulator.Request> requests = ReservationSimulator.readTrace(new StringReader(trace));
+		assertEquals(4, requests.size());
+		assertEquals(90000, requests.get(1).startTime);
+
+		ReservationSimulator simulator = new ReservationSimulator(topology, 1, TimeUnit.DAYS.toMillis(1));
+		for (ReservationSimulator.Request request : requests)
+			simulator.addRequest(request);
+		simulator.run();
+
+		Map<String, Object> report = simulator.getReport();
+		assertEquals(4, report.get("requests"));
+		assertEquals(2, report.get("admitted"));
+		assertEquals(1, report.get("rejectedOutsideHorizon"));
+		assertEquals(2, report.get("activations"));
+		assertEquals(2, report.get("releases"));
+		assertEquals(0.5, (Double) report.get("acceptanceRate"), 1e-9);
+
+		// 6 Gbps booked on every link for 120 of the 180 seconds from the first arrival to the last end
+		Map<String, Object> utilization = (Map<String, Object>) report.get("linkUtilization");
+		Map<String, Double> busiest = (Map<String, Double>) utilization.get("busiest");
+		assertEquals(0.4, busiest.values().iterator().next(), 1e-9);
+	}
+}
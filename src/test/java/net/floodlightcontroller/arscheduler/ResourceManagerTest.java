@@ -0,0 +1,144 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.slf4j.LoggerFactory;
+
+public class ResourceManagerTest {
+	private ResourceManager rm;
+	private FlowScheduler scheduler;
+	private Host hostA;
+	private Host hostB;
+	private Switch s1;
+	private Switch s2;
+
+	@Before
+	public void setUp() {
+		rm = new ResourceManager(LoggerFactory.getLogger(ResourceManagerTest.class));
+		rm.intializeState(buildLine());
+		scheduler = new FlowScheduler(rm, LoggerFactory.getLogger(ResourceManagerTest.class));
+	}
+
+	/**
+	 * hostA - s1 - s2 - hostB, every link with capacity 10. Every call builds new nodes and links under the same names.
+	 */
+	private Topology buildLine() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		hostA = new Host("00:00:00:00:00:01", 1);
+		hostB = new Host("00:00:00:00:00:02", 1);
+		s1 = new Switch("00:00:00:00:00:00:00:01", 2);
+		s2 = new Switch("00:00:00:00:00:00:00:02", 2);
+		nodes.add(hostA);
+		nodes.add(hostB);
+		nodes.add(s1);
+		nodes.add(s2);
+		TopologyTestUtils.addLinkPair(links, hostA, 1, s1, 1, 10);
+		TopologyTestUtils.addLinkPair(links, s1, 2, s2, 1, 10);
+		TopologyTestUtils.addLinkPair(links, s2, 2, hostB, 1, 10);
+		return new Topology(nodes, links);
+	}
+
+	@Test
+	public void testLinkFlapKeepsReservations() {
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 6, 0, 60, "10.0.0.1", "10.0.0.2")));
+		long version = rm.getTopologyVersion();
+
+		FlowLink removed = rm.removeLink(s1.getNodeName(), 2, s2.getNodeName(), 1);
+		assertNotNull(removed);
+		assertTrue(rm.getTopologyVersion() > version);
+		assertEquals(1, rm.getFlowTable().size());
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 1, 100, 160, "10.0.0.1", "10.0.0.2")));
+
+		// The link comes back between the same ports, with its reservation still in place
+		FlowLink restored = rm.addLink(new FlowLink("s1-s2", s1, s2, s1.getPortByID(2), s2.getPortByID(1), 10));
+		assertSame(removed, restored);
+		assertEquals(4, restored.getBandwidthAvailableBetweenTimes(0, 60));
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2")));
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 4, 0, 60, "10.0.0.1", "10.0.0.2")));
+	}
+
+	@Test
+	public void testRebuildReturnsHeldReservations() {
+		Flow flow = scheduler.scheduleNewFlow(new Flow(hostA, hostB, 6, 0, 60, "10.0.0.1", "10.0.0.2"));
+
+		// A rebuild of the same network hands the reservation back, released, to be put on the new links
+		ArrayList<FlowRouteTuple> held = rm.intializeState(TopologyTestUtils.singleSwitch(10));
+		assertEquals(1, held.size());
+		assertTrue(held.get(0).isReleased());
+		assertEquals(0, rm.getFlowTable().size());
+
+		ArrayList<ReservationRecord> records = new ArrayList<ReservationRecord>();
+		records.add(ReservationRecord.fromFlowRouteTuple(held.get(0)));
+		assertEquals(0, scheduler.restoreReservations(records).size());
+
+		// Once its nodes and links are back under the same names, it is reserved again
+		assertTrue(rm.intializeState(buildLine()).isEmpty());
+		assertEquals(1, scheduler.restoreReservations(records).size());
+		assertEquals(flow.getID(), rm.getFlowTable().getAllFlowRouteTuples().get(0).getFlow().getID());
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2")));
+	}
+
+	@Test
+	public void testBatchedChangesRebuildTheGraphOnce() {
+		long version = rm.getTopologyVersion();
+		CompactGraph graph = rm.getGraph();
+
+		rm.beginUpdate();
+		try {
+			assertNotNull(rm.removeLink(s1.getNodeName(), 2, s2.getNodeName(), 1));
+			assertNotNull(rm.removeLink(s2.getNodeName(), 1, s1.getNodeName(), 2));
+			assertTrue(rm.removeNode(hostB.getNodeName()));
+			assertSame(graph, rm.getGraph());
+			assertEquals(version, rm.getTopologyVersion());
+		} finally {
+			rm.endUpdate();
+		}
+		assertNotSame(graph, rm.getGraph());
+		assertEquals(version + 1, rm.getTopologyVersion());
+		assertNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2")));
+
+		// A batch that changes nothing leaves the graph alone
+		rm.beginUpdate();
+		rm.endUpdate();
+		assertEquals(version + 1, rm.getTopologyVersion());
+	}
+
+	@Test
+	public void testSwitchRemovalDetachesLinks() {
+		assertNotNull(scheduler.scheduleNewFlow(new Flow(hostA, hostB, 6, 0, 60, "10.0.0.1", "10.0.0.2")));
+		int links = rm.getTopology().getLinks().size();
+
+		assertTrue(rm.removeNode(s2.getNodeName()));
+		assertNull(rm.getTopology().getNodeByName(s2.getNodeName()));
+		assertEquals(links - 4, rm.getTopology().getLinks().size());
+		assertEquals(1, rm.getFlowTable().size());
+
+		// Releasing a flow routed over detached links still returns its bandwidth
+		FlowRouteTuple tuple = rm.getFlowTable().getAllFlowRouteTuples().get(0);
+		assertTrue(scheduler.releaseExpiredFlow(tuple));
+		assertSame(s2, rm.addNode(new Switch(s2.getNodeName(), 2)));
+		for (FlowLink link : tuple.getShortestPathtopology().getLinks())
+			assertEquals(10, link.getBandwidthAvailableBetweenTimes(0, 60));
+	}
+
+	@Test
+	public void testModifyPathNeedsTheOldReservation() {
+		ArrayList<FlowLink> path = new ArrayList<FlowLink>();
+		for (FlowLink link : rm.getTopology().getLinks())
+			if (link.getSrcNode() == hostA || link.getDstNode() == hostB)
+				path.add(link);
+		assertTrue(rm.reservePath(path, 6, 0, 60));
+
+		// One link has already given its reservation back, so nothing is booked and the other keeps its own
+		assertTrue(rm.increaseAvailableLinkBandwidth(path.get(0), 6, 0, 60));
+		assertFalse(rm.modifyPath(path, 6, 0, 60, 2, 0, 120));
+		assertEquals(10, path.get(0).getBandwidthAvailableBetweenTimes(0, 120));
+		assertEquals(4, path.get(1).getBandwidthAvailableBetweenTimes(0, 60));
+		assertEquals(10, path.get(1).getBandwidthAvailableBetweenTimes(60, 120));
+	}
+}
@@ -0,0 +1,106 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Before;
+import org.junit.Test;
+
+public class ShortestPathEngineTest {
+	private ArrayList<Node> nodes;
+	private ArrayList<FlowLink> links;
+	private Node hostA;
+	private Node hostB;
+	private Switch[] switches;
+
+	/**
+	 * Two hosts attached to opposite corners of a four switch ring: hostA - s0 - s1 - s2 - s3 - s0, hostB - s2
+	 */
+	@Before
+	public void setUp() {
+		nodes = new ArrayList<Node>();
+		links = new ArrayList<FlowLink>();
+		hostA = new Host("00:00:00:00:00:01", 1);
+		hostB = new Host("00:00:00:00:00:02", 1);
+		nodes.add(hostA);
+		nodes.add(hostB);
+		switches = new Switch[4];
+		for (int i = 0; i < switches.length; i++) {
+			switches[i] = new Switch("00:00:00:00:00:00:00:0" + (i + 1), 3);
+			nodes.add(switches[i]);
+		}
+		for (int i = 0; i < switches.length; i++) {
+			Switch a = switches[i];
+			Switch b = switches[(i + 1) % switches.length];
+			TopologyTestUtils.addLinkPair(links, a, 1, b, 2, 10);
+		}
+		TopologyTestUtils.addLinkPair(links, hostA, 1, switches[0], 3, 10);
+		TopologyTestUtils.addLinkPair(links, hostB, 1, switches[2], 3, 10);
+	}
+
+	@Test
+	public void testShortestPathIncludesBothDirections() {
+		ShortestPathEngine engine = new ShortestPathEngine(new Topology(nodes, links));
+		Topology path = engine.calculateSP(new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2"));
+
+		assertEquals(5, path.getNodes().size());
+		assertSame(hostA, path.getNodes().get(0));
+		assertSame(hostB, path.getNodes().get(4));
+		assertEquals(8, path.getLinks().size());
+		for (int i = 0; i < path.getLinks().size(); i += 2) {
+			FlowLink forward = path.getLinks().get(i);
+			FlowLink reverse = path.getLinks().get(i + 1);
+			assertSame(forward.getSrcNode(), reverse.getDstNode());
+			assertSame(forward.getDstNode(), reverse.getSrcNode());
+		}
+	}
+
+	@Test
+	public void testUsableEdgesForceDetour() {
+		CompactGraph graph = new CompactGraph(new Topology(nodes, links));
+		ShortestPathEngine engine = new ShortestPathEngine(graph);
+		Flow flow = new Flow(hostA, hostB, 1, 0, 60, "10.0.0.1", "10.0.0.2");
+
+		// Fill the links around s1 for the flow's time period
+		for (FlowLink link : links) {
+			if (link.getSrcNode() == switches[1] || link.getDstNode() == switches[1])
+				link.decreaseBandwidthAvailable(8, 0, 60);
+		}
+		BandwidthEdgeFilter usable = new BandwidthEdgeFilter(graph, 5, 0, 60);
+		Topology path = engine.calculateSP(flow, usable);
+		assertTrue(path.getNodes().contains(switches[3]));
+		assertFalse(path.getNodes().contains(switches[1]));
+
+		// Outside the reserved period s1 is usable again
+		assertEquals(5, engine.calculateSP(flow, new BandwidthEdgeFilter(graph, 5, 60, 120)).getNodes().size());
+		assertTrue(engine.calculateSP(flow, new BandwidthEdgeFilter(graph, 11, 0, 60)).isEmpty());
+	}
+
+	@Test
+	public void testLazyFilterStopsAtTheDestination() {
+		// hostA - s0 - hostB, with a chain of four more switches hanging off s0 that the search never needs
+		nodes.clear();
+		links.clear();
+		nodes.add(hostA);
+		nodes.add(hostB);
+		Switch[] chain = new Switch[5];
+		for (int i = 0; i < chain.length; i++) {
+			chain[i] = new Switch("00:00:00:00:00:00:00:1" + i, 4);
+			nodes.add(chain[i]);
+			if (i > 0)
+				TopologyTestUtils.addLinkPair(links, chain[i - 1], i == 1 ? 3 : 2, chain[i], 1, 10);
+		}
+		TopologyTestUtils.addLinkPair(links, hostA, 1, chain[0], 1, 10);
+		TopologyTestUtils.addLinkPair(links, hostB, 1, chain[0], 2, 10);
+		CompactGraph graph = new CompactGraph(new Topology(nodes, links));
+		assertEquals(12, graph.getEdgeCount());
+
+		BandwidthEdgeFilter usable = new BandwidthEdgeFilter(graph, 5, 0, 60);
+		Topology path = new ShortestPathEngine(graph).calculateSP(new Flow(hostA, hostB, 5, 0, 60, "10.0.0.1", "10.0.0.2"), usable);
+		assertEquals(3, path.getNodes().size());
+		// At most hostA's link, s0's three, s1's two and hostB's link back are checked
+		assertTrue(usable.getLinksEvaluated() <= 7);
+		assertTrue(usable.getLinksEvaluated() < graph.getEdgeCount());
+	}
+}
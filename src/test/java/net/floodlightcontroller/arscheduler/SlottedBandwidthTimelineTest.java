@@ -0,0 +1,134 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Random;
+import java.util.TreeSet;
+
+import org.junit.Test;
+
+public class SlottedBandwidthTimelineTest {
+
+	@Test
+	public void testReservationsHoldWholeSlots() {
+		SlottedBandwidthTimeline timeline = new SlottedBandwidthTimeline(10, 100, 0);
+		timeline.addReservation(5, 15, 25);
+
+		assertEquals(5, timeline.getConsumptionAt(10));
+		assertEquals(5, timeline.getConsumptionAt(29));
+		assertEquals(0, timeline.getConsumptionAt(30));
+		assertEquals(0, timeline.getPeakConsumption(0, 10));
+
+		TreeSet<Long> releases = new TreeSet<Long>();
+		timeline.collectReleaseTimes(0, 100, releases);
+		assertEquals(30L, (long) releases.first());
+
+		timeline.removeReservation(5, 15, 25);
+		assertEquals(0, timeline.getPeakConsumption(0, 100));
+	}
+
+	@Test
+	public void testRingWrapsAfterPruning() {
+		SlottedBandwidthTimeline timeline = new SlottedBandwidthTimeline(10, 100, 0);
+		timeline.addReservation(4, 50, 100);
+		assertEquals(Long.MAX_VALUE, timeline.getPeakConsumption(100, 120));
+
+		// The ring holds [0, 110); pruning frees the past slots, which then hold [110, 170)
+		assertEquals(6, timeline.pruneBefore(60));
+		timeline.addReservation(3, 90, 150);
+		assertEquals(7, timeline.getPeakConsumption(60, 160));
+		assertEquals(3, timeline.getPeakConsumption(100, 160));
+		assertEquals(Long.MAX_VALUE, timeline.getPeakConsumption(100, 180));
+
+		// A reservation running across the prune is removed with its original times
+		timeline.removeReservation(4, 50, 100);
+		timeline.removeReservation(3, 90, 150);
+		assertEquals(0, timeline.getPeakConsumption(60, 160));
+	}
+
+	@Test
+	public void testSnapshotIsUnaffectedByLaterChanges() {
+		SlottedBandwidthTimeline timeline = new SlottedBandwidthTimeline(10, 100, 0);
+		timeline.addReservation(4, 0, 50);
+		SlottedBandwidthTimeline snapshot = timeline.snapshot();
+
+		timeline.addReservation(3, 20, 40);
+		timeline.pruneBefore(30);
+		assertEquals(7, timeline.getPeakConsumption(30, 50));
+		assertEquals(4, snapshot.getPeakConsumption(0, 50));
+		assertEquals(4, snapshot.getConsumptionAt(0));
+	}
+
+	@Test
+	public void testMatchesBruteForce() {
+		Random random = new Random(7);
+		SlottedBandwidthTimeline timeline = new SlottedBandwidthTimeline(5, 1000, 0);
+		long[] slots = new long[201];
+		ArrayList<long[]> uses = new ArrayList<long[]>();
+
+		for (int round = 0; round < 2000; round++) {
+			if (!uses.isEmpty() && random.nextInt(3) == 0) {
+				long[] use = uses.remove(random.nextInt(uses.size()));
+				timeline.removeReservation(use[0], use[1], use[2]);
+				for (long s = use[1] / 5; s < (use[2] + 4) / 5; s++)
+					slots[(int) s] -= use[0];
+			} else {
+				long start = random.nextInt(900);
+				long[] use = new long[] { 1 + random.nextInt(10), start, start + 1 + random.nextInt(100) };
+				uses.add(use);
+				timeline.addReservation(use[0], use[1], use[2]);
+				for (long s = use[1] / 5; s < (use[2] + 4) / 5; s++)
+					slots[(int) s] += use[0];
+			}
+
+			long qStart = random.nextInt(900);
+			long qEnd = qStart + 1 + random.nextInt(100);
+			long expected = 0;
+			for (long s = qStart / 5; s < (qEnd + 4) / 5; s++)
+				expected = Math.max(expected, slots[(int) s]);
+			assertEquals(expected, timeline.getPeakConsumption(qStart, qEnd));
+		}
+	}
+
+	@Test
+	public void testSnapshotsOfAManyBlockTreeStayApart() {
+		Random random = new Random(11);
+		// 10001 slots, so the tree spans many blocks
+		SlottedBandwidthTimeline timeline = new SlottedBandwidthTimeline(1, 10000, 0);
+		long[] slots = new long[10001];
+		SlottedBandwidthTimeline snapshot = null;
+		long[] snapshotSlots = null;
+
+		for (int round = 0; round < 300; round++) {
+			if (round % 50 == 0) {
+				snapshot = timeline.snapshot();
+				snapshotSlots = slots.clone();
+			}
+			long start = random.nextInt(9000);
+			long bandwidth = 1 + random.nextInt(10);
+			long end = start + 1 + random.nextInt(1000);
+			// Each side changes after the snapshot without the other seeing it
+			if (round % 5 == 0) {
+				snapshot.addReservation(bandwidth, start, end);
+				for (long t = start; t < end; t++)
+					snapshotSlots[(int) t] += bandwidth;
+			} else {
+				timeline.addReservation(bandwidth, start, end);
+				for (long t = start; t < end; t++)
+					slots[(int) t] += bandwidth;
+			}
+
+			long qStart = random.nextInt(9000);
+			long qEnd = qStart + 1 + random.nextInt(1000);
+			long expected = 0;
+			long expectedInSnapshot = 0;
+			for (long t = qStart; t < qEnd; t++) {
+				expected = Math.max(expected, slots[(int) t]);
+				expectedInSnapshot = Math.max(expectedInSnapshot, snapshotSlots[(int) t]);
+			}
+			assertEquals(expected, timeline.getPeakConsumption(qStart, qEnd));
+			assertEquals(expectedInSnapshot, snapshot.getPeakConsumption(qStart, qEnd));
+		}
+	}
+}
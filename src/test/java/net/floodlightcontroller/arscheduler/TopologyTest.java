@@ -0,0 +1,42 @@
+package net.floodlightcontroller.arscheduler;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+
+import org.junit.Test;
+
+public class TopologyTest {
+
+	@Test
+	public void testLookupsByNameKeyAndPort() {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		Host host = new Host("00:00:00:00:00:01", 1);
+		Switch s1 = new Switch("00:00:00:00:00:00:00:01", 4);
+		Host duplicate = new Host("00:00:00:00:00:01", 1);
+		nodes.add(host);
+		nodes.add(s1);
+		nodes.add(duplicate);
+		TopologyTestUtils.addLinkPair(links, host, 1, s1, 3, 10);
+		FlowLink up = links.get(0);
+		FlowLink down = links.get(1);
+		Topology topology = new Topology(nodes, links);
+
+		assertSame(s1, topology.getNodeByName("00:00:00:00:00:00:00:01"));
+		assertEquals(1, topology.indexOf("00:00:00:00:00:00:00:01"));
+		// Where names repeat, the first node is found, as by the graph
+		assertSame(host, topology.getNodeByName("00:00:00:00:00:01"));
+		assertEquals(0, new CompactGraph(topology).indexOf(duplicate));
+		assertNull(topology.getNodeByName("00:00:00:00:00:02"));
+		assertEquals(-1, topology.indexOf("00:00:00:00:00:02"));
+
+		assertSame(up, topology.getLinkByKey(ResourceManager.linkKey(host.getNodeName(), 1, s1.getNodeName(), 3)));
+		assertSame(down, topology.getLinkByKey(ResourceManager.linkKey(down)));
+		assertNull(topology.getLinkByKey(ResourceManager.linkKey(s1.getNodeName(), 4, host.getNodeName(), 1)));
+
+		assertEquals(4, s1.getPortByID(4).getID());
+		assertNull(s1.getPortByID(0));
+		assertNull(s1.getPortByID(5));
+	}
+}
@@ -0,0 +1,41 @@
+package net.floodlightcontroller.arscheduler;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Topologies shared by the arscheduler tests. Every call builds new nodes and links, so no bookings carry over.
+ */
+final class TopologyTestUtils {
+	static final String HOST_A = "00:00:00:00:00:01";
+	static final String HOST_B = "00:00:00:00:00:02";
+	static final String SWITCH_1 = "00:00:00:00:00:00:00:01";
+
+	private TopologyTestUtils() {
+	}
+
+	/**
+	 * hostA - s1 - hostB, every link with the given capacity. The links are hostA-s1, s1-hostA, s1-hostB, hostB-s1.
+	 */
+	static Topology singleSwitch(long capacity) {
+		ArrayList<Node> nodes = new ArrayList<Node>();
+		ArrayList<FlowLink> links = new ArrayList<FlowLink>();
+		Host hostA = new Host(HOST_A, 1);
+		Host hostB = new Host(HOST_B, 1);
+		Switch s1 = new Switch(SWITCH_1, 2);
+		nodes.add(hostA);
+		nodes.add(hostB);
+		nodes.add(s1);
+		addLinkPair(links, hostA, 1, s1, 1, capacity);
+		addLinkPair(links, s1, 2, hostB, 1, capacity);
+		return new Topology(nodes, links);
+	}
+
+	/**
+	 * Add the links in both directions between a port of each node, the forward link first
+	 */
+	static void addLinkPair(List<FlowLink> links, Node a, int aPort, Node b, int bPort, long capacity) {
+		links.add(new FlowLink(a + "-" + b, a, b, a.getPortByID(aPort), b.getPortByID(bPort), capacity));
+		links.add(new FlowLink(b + "-" + a, b, a, b.getPortByID(bPort), a.getPortByID(aPort), capacity));
+	}
+}